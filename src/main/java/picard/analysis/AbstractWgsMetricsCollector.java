@@ -190,6 +190,27 @@ public abstract class AbstractWgsMetricsCollector<T extends AbstractRecordAndOff
                 collectWgsMetrics.SAMPLE_SIZE);
     }
 
+    /**
+     * Adds the counts of another collector, which has processed another part of the genome, to the counts of this collector.
+     *
+     * @param other collector with the same coverage cap
+     */
+    public void merge(final AbstractWgsMetricsCollector<?> other) {
+        if (other.coverageCap != coverageCap) {
+            throw new IllegalArgumentException("Cannot merge collectors with coverage caps " + coverageCap + " and " + other.coverageCap);
+        }
+        for (int i = 0; i < unfilteredDepthHistogramArray.length; ++i) {
+            unfilteredDepthHistogramArray[i] += other.unfilteredDepthHistogramArray[i];
+            highQualityDepthHistogramArray[i] += other.highQualityDepthHistogramArray[i];
+        }
+        for (int i = 0; i < unfilteredBaseQHistogramArray.length; ++i) {
+            unfilteredBaseQHistogramArray[i] += other.unfilteredBaseQHistogramArray[i];
+        }
+        basesExcludedByBaseq += other.basesExcludedByBaseq;
+        basesExcludedByOverlap += other.basesExcludedByOverlap;
+        basesExcludedByCapping += other.basesExcludedByCapping;
+    }
+
     /**
      * @return true, of number of processed loci exceeded the threshold, otherwise false
      */
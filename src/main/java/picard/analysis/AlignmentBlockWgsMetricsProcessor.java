@@ -0,0 +1,372 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.analysis;
+
+import htsjdk.samtools.AlignmentBlock;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.util.PeekableIterator;
+import htsjdk.samtools.util.ProgressLogger;
+import htsjdk.samtools.util.SequenceUtil;
+import picard.PicardException;
+import picard.filter.CountingFilter;
+import picard.filter.CountingPairedFilter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.IntFunction;
+
+/**
+ * Implementation of {@link picard.analysis.WgsMetricsProcessor} for the fast algorithm that works directly on the
+ * alignment blocks of the reads, rather than on a pileup of {@link htsjdk.samtools.util.EdgingRecordAndOffset}
+ * objects for every locus.
+ *
+ * The bases of each alignment block are added to two depth buffers (high quality and unfiltered) covering a window of
+ * the reference that slides along with the reads.  As blocks are processed in order of their start, every position
+ * before the start of the current block is final, and is added to the histograms of the collector and cleared as
+ * the window moves past it.  Bases are excluded by the same rules as in {@link picard.analysis.FastWgsMetricsCollector},
+ * where a base overlapping a block of a read with the same name that was processed earlier is excluded if that read's
+ * base there is of high quality, and blocks are processed in order of their start and then in the order of the reads.
+ */
+public class AlignmentBlockWgsMetricsProcessor implements WgsMetricsProcessor {
+    private static final int INITIAL_WINDOW_SIZE = 1 << 12;
+
+    /**
+     * Source of reads, which must be coordinate sorted
+     */
+    private final PeekableIterator<SAMRecord> records;
+    /**
+     * The sequences whose loci are processed, in order
+     */
+    private final List<SAMSequenceRecord> sequences;
+    /**
+     * Source of the reference sequence for each sequence index
+     */
+    private final IntFunction<ReferenceSequence> referenceSequences;
+    /**
+     * Accumulates the histograms and counts of excluded bases
+     */
+    private final AbstractWgsMetricsCollector<?> collector;
+    /**
+     * Logger for the progress of work
+     */
+    private final ProgressLogger progress;
+
+    private final int minimumBaseQuality;
+    private final int coverageCap;
+
+    /**
+     * Alignment blocks after the first of the reads seen so far, which are processed once no block can start before them
+     */
+    private final PriorityQueue<Block> pendingBlocks = new PriorityQueue<>(
+            Comparator.comparingInt((Block block) -> block.refStart).thenComparingLong(block -> block.recordNumber));
+    /**
+     * Processed alignment blocks that may overlap blocks of reads with the same name still to come, by read name and
+     * in the order in which they were processed
+     */
+    private final Map<String, List<Block>> blocksByReadName = new HashMap<>();
+    private final ArrayDeque<Block> processedBlocks = new ArrayDeque<>();
+
+    /**
+     * Index in {@link #sequences} of the sequence being processed
+     */
+    private int sequence = -1;
+    private byte[] referenceBases;
+    /**
+     * Depth buffers for the window of positions after flushedPosition, indexed by position modulo their length
+     */
+    private int[] highQualityDepth = new int[INITIAL_WINDOW_SIZE];
+    private int[] unfilteredDepth = new int[INITIAL_WINDOW_SIZE];
+    /**
+     * All positions up to and including this one have been added to the histograms
+     */
+    private int flushedPosition;
+    private int lastAlignmentStart;
+    private long recordNumber;
+
+    /**
+     * @param records            coordinate sorted reads, already filtered by the counting filters
+     * @param sequences          the sequences whose loci are processed, in the order of the reads
+     * @param referenceSequences source of the reference sequence for each sequence index, asked for each sequence in turn
+     * @param collector          input {@link picard.analysis.AbstractWgsMetricsCollector}, whose addInfo is not used
+     * @param progress           logger
+     */
+    public AlignmentBlockWgsMetricsProcessor(final Iterator<SAMRecord> records,
+                                             final List<SAMSequenceRecord> sequences,
+                                             final IntFunction<ReferenceSequence> referenceSequences,
+                                             final AbstractWgsMetricsCollector<?> collector,
+                                             final ProgressLogger progress) {
+        this.records = new PeekableIterator<>(records);
+        this.sequences = sequences;
+        this.referenceSequences = referenceSequences;
+        this.collector = collector;
+        this.progress = progress;
+        this.minimumBaseQuality = collector.collectWgsMetrics.MINIMUM_BASE_QUALITY;
+        this.coverageCap = collector.coverageCap;
+    }
+
+    /**
+     * Processes the alignment blocks of every read, then adds the loci of all the sequences to the histograms.
+     */
+    @Override
+    public void processFile() {
+        while (records.hasNext()) {
+            final SAMRecord record = records.peek();
+            // Like the locus iterators, stop at the unplaced reads at the end of the file
+            if (record.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+                break;
+            }
+            records.next();
+            if (record.getReadUnmappedFlag() || record.getReadFailsVendorQualityCheckFlag()) {
+                continue;
+            }
+            addRecord(record);
+            progress.record(record);
+        }
+        while (sequence < sequences.size()) {
+            finishSequence();
+            startNextSequence();
+        }
+        records.close();
+        WgsMetricsProcessorImpl.checkBaseCounts(collector);
+    }
+
+    private void addRecord(final SAMRecord record) {
+        if (sequence == -1 || record.getReferenceIndex() != sequences.get(sequence).getSequenceIndex()) {
+            finishSequence();
+            startNextSequence();
+            while (sequence < sequences.size() && record.getReferenceIndex() != sequences.get(sequence).getSequenceIndex()) {
+                finishSequence();
+                startNextSequence();
+            }
+            if (sequence == sequences.size()) {
+                throw new PicardException("Read " + record.getReadName() + " is not on the expected reference sequences, or the input is not coordinate sorted");
+            }
+        } else if (record.getAlignmentStart() < lastAlignmentStart) {
+            throw new PicardException("Input is not coordinate sorted: read " + record.getReadName() + " at " +
+                    record.getContig() + ":" + record.getAlignmentStart() + " follows a read at " + lastAlignmentStart);
+        }
+        lastAlignmentStart = record.getAlignmentStart();
+        recordNumber++;
+
+        // Blocks of earlier reads that start at or before this read come before its first block
+        while (!pendingBlocks.isEmpty() && pendingBlocks.peek().refStart <= record.getAlignmentStart()) {
+            processBlock(pendingBlocks.poll());
+        }
+        final List<AlignmentBlock> alignmentBlocks = record.getAlignmentBlocks();
+        for (int i = 0; i < alignmentBlocks.size(); ++i) {
+            final Block block = new Block(record, alignmentBlocks.get(i), recordNumber);
+            if (i == 0) {
+                processBlock(block);
+            } else {
+                pendingBlocks.add(block);
+            }
+        }
+    }
+
+    /**
+     * Adds the bases of a block to the depth buffers, following the same rules as
+     * {@link picard.analysis.FastWgsMetricsCollector}.
+     */
+    private void processBlock(final Block block) {
+        flushTo(block.refStart - 1);
+        ensureWindow(block.length);
+        forgetBlocksEndingBefore(block.refStart);
+
+        final List<Block> sameName = blocksByReadName.get(block.readName);
+        final int mask = highQualityDepth.length - 1;
+        final byte[] qualities = block.record.getBaseQualities();
+        final byte[] bases = block.record.getReadBases();
+        for (int i = 0; i < block.length; ++i) {
+            final int position = block.refStart + i;
+            if (SequenceUtil.isNoCall(referenceBases[position - 1])) {
+                continue;
+            }
+            final byte quality = qualities[block.readStart + i];
+            if (quality <= 2) {
+                collector.basesExcludedByBaseq++;
+                continue;
+            }
+            final int index = position & mask;
+            if (unfilteredDepth[index] < coverageCap) {
+                collector.unfilteredBaseQHistogramArray[quality]++;
+                unfilteredDepth[index]++;
+            }
+            if (quality < minimumBaseQuality || SequenceUtil.isNoCall(bases[block.readStart + i])) {
+                collector.basesExcludedByBaseq++;
+            } else if (sameName != null && isCoveredByHighQualityBase(sameName, position)) {
+                collector.basesExcludedByOverlap++;
+            } else {
+                highQualityDepth[index]++;
+            }
+        }
+
+        if (sameName == null) {
+            final List<Block> blocks = new ArrayList<>(2);
+            blocks.add(block);
+            blocksByReadName.put(block.readName, blocks);
+        } else {
+            sameName.add(block);
+        }
+        processedBlocks.add(block);
+    }
+
+    private boolean isCoveredByHighQualityBase(final List<Block> blocks, final int position) {
+        for (final Block block : blocks) {
+            final int offset = position - block.refStart;
+            if (offset < block.length && block.record.getBaseQualities()[block.readStart + offset] >= minimumBaseQuality) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forgets the processed blocks that end before the given position, which no block still to come can overlap.
+     */
+    private void forgetBlocksEndingBefore(final int position) {
+        while (!processedBlocks.isEmpty() && processedBlocks.peek().refStart + processedBlocks.peek().length <= position) {
+            final Block block = processedBlocks.poll();
+            final List<Block> sameName = blocksByReadName.get(block.readName);
+            sameName.remove(block);
+            if (sameName.isEmpty()) {
+                blocksByReadName.remove(block.readName);
+            }
+        }
+    }
+
+    /**
+     * Adds the depths at the positions after flushedPosition, up to and including the given one, to the histograms.
+     */
+    private void flushTo(final int position) {
+        final int mask = highQualityDepth.length - 1;
+        for (int p = flushedPosition + 1; p <= position; ++p) {
+            final int index = p & mask;
+            if (!SequenceUtil.isNoCall(referenceBases[p - 1])) {
+                final int depth = highQualityDepth[index];
+                if (depth > coverageCap) {
+                    collector.basesExcludedByCapping += depth - coverageCap;
+                    collector.highQualityDepthHistogramArray[coverageCap]++;
+                } else {
+                    collector.highQualityDepthHistogramArray[depth]++;
+                }
+                collector.unfilteredDepthHistogramArray[unfilteredDepth[index]]++;
+            }
+            highQualityDepth[index] = 0;
+            unfilteredDepth[index] = 0;
+        }
+        flushedPosition = Math.max(flushedPosition, position);
+    }
+
+    /**
+     * Grows the depth buffers, keeping their contents, if they cannot hold a block of the given length.
+     */
+    private void ensureWindow(final int length) {
+        if (length <= highQualityDepth.length) {
+            return;
+        }
+        int size = highQualityDepth.length;
+        while (size < length) {
+            size <<= 1;
+        }
+        final int oldMask = highQualityDepth.length - 1;
+        final int[] newHighQualityDepth = new int[size];
+        final int[] newUnfilteredDepth = new int[size];
+        for (int p = flushedPosition + 1; p <= flushedPosition + highQualityDepth.length; ++p) {
+            newHighQualityDepth[p & (size - 1)] = highQualityDepth[p & oldMask];
+            newUnfilteredDepth[p & (size - 1)] = unfilteredDepth[p & oldMask];
+        }
+        highQualityDepth = newHighQualityDepth;
+        unfilteredDepth = newUnfilteredDepth;
+    }
+
+    /**
+     * Processes the remaining blocks on the current sequence and adds all of its remaining loci to the histograms.
+     */
+    private void finishSequence() {
+        if (sequence == -1) {
+            return;
+        }
+        while (!pendingBlocks.isEmpty()) {
+            processBlock(pendingBlocks.poll());
+        }
+        flushTo(referenceBases.length);
+    }
+
+    private void startNextSequence() {
+        sequence++;
+        pendingBlocks.clear();
+        blocksByReadName.clear();
+        processedBlocks.clear();
+        flushedPosition = 0;
+        lastAlignmentStart = 0;
+        if (sequence < sequences.size()) {
+            final SAMSequenceRecord sequenceRecord = sequences.get(sequence);
+            final ReferenceSequence ref = referenceSequences.apply(sequenceRecord.getSequenceIndex());
+            if (ref.getContigIndex() != sequenceRecord.getSequenceIndex()) {
+                throw new PicardException("Reference sequence " + ref.getName() + " does not match sequence " + sequenceRecord.getSequenceName());
+            }
+            referenceBases = ref.getBases();
+        }
+    }
+
+    @Override
+    public void addToMetricsFile(final MetricsFile<WgsMetrics, Integer> file,
+                                 final boolean includeBQHistogram,
+                                 final CountingFilter dupeFilter,
+                                 final CountingFilter adapterFilter,
+                                 final CountingFilter mapqFilter,
+                                 final CountingPairedFilter pairFilter) {
+        collector.addToMetricsFile(file, includeBQHistogram, dupeFilter, adapterFilter, mapqFilter, pairFilter);
+    }
+
+    /**
+     * An alignment block of a read, in reference coordinates, with the 0-based offset of its first base in the read.
+     */
+    private static final class Block {
+        final SAMRecord record;
+        final String readName;
+        final int refStart;
+        final int readStart;
+        final int length;
+        final long recordNumber;
+
+        Block(final SAMRecord record, final AlignmentBlock block, final long recordNumber) {
+            this.record = record;
+            this.readName = record.getReadName();
+            this.refStart = block.getReferenceStart();
+            this.readStart = block.getReadStart() - 1;
+            this.length = block.getLength();
+            this.recordNumber = recordNumber;
+        }
+    }
+}
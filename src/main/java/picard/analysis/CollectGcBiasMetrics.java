@@ -139,6 +139,11 @@ public class CollectGcBiasMetrics extends SinglePassSamProgram {
             "allows to gain two plots per level at the same time: one is the usual one and the other excludes duplicates.")
     public boolean ALSO_IGNORE_DUPLICATES = false;
 
+    @Argument(doc = "A file holding the GC of every scanning window of the REFERENCE_SEQUENCE, e.g. reference.fasta.gc100 " +
+            "next to the reference.  If the file was built for this reference and SCAN_WINDOW_SIZE it is memory-mapped rather " +
+            "than scanning the whole reference, otherwise the reference is scanned once to (re)build it.", optional = true)
+    public File GC_PROFILE;
+
     // Calculates GcBiasMetrics for all METRIC_ACCUMULATION_LEVELs provided
     private GcBiasMetricsCollector multiCollector;
 
@@ -157,11 +162,15 @@ public class CollectGcBiasMetrics extends SinglePassSamProgram {
         IOUtil.assertFileIsWritable(SUMMARY_OUTPUT);
         IOUtil.assertFileIsReadable(REFERENCE_SEQUENCE);
 
-        //Calculate windowsByGc for the reference sequence
-        final int[] windowsByGc = GcBiasUtils.calculateRefWindowsByGc(BINS, REFERENCE_SEQUENCE, SCAN_WINDOW_SIZE);
-
         //Delegate actual collection to GcBiasMetricCollector
-        multiCollector = new GcBiasMetricsCollector(METRIC_ACCUMULATION_LEVEL, windowsByGc, header.getReadGroups(), SCAN_WINDOW_SIZE, IS_BISULFITE_SEQUENCED, ALSO_IGNORE_DUPLICATES);
+        if (GC_PROFILE != null) {
+            final GcProfile gcProfile = GcProfile.loadOrBuild(GC_PROFILE, REFERENCE_SEQUENCE, SCAN_WINDOW_SIZE, BINS);
+            multiCollector = new GcBiasMetricsCollector(METRIC_ACCUMULATION_LEVEL, gcProfile, header.getReadGroups(), SCAN_WINDOW_SIZE, IS_BISULFITE_SEQUENCED, ALSO_IGNORE_DUPLICATES);
+        } else {
+            //Calculate windowsByGc for the reference sequence
+            final int[] windowsByGc = GcBiasUtils.calculateRefWindowsByGc(BINS, REFERENCE_SEQUENCE, SCAN_WINDOW_SIZE);
+            multiCollector = new GcBiasMetricsCollector(METRIC_ACCUMULATION_LEVEL, windowsByGc, header.getReadGroups(), SCAN_WINDOW_SIZE, IS_BISULFITE_SEQUENCED, ALSO_IGNORE_DUPLICATES);
+        }
     }
 
     ////////////////////////////////////////////////////////////////////////////
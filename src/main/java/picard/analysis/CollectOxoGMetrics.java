@@ -45,6 +45,8 @@ import picard.cmdline.CommandLineProgram;
 import picard.cmdline.StandardOptionDefinitions;
 import picard.cmdline.programgroups.DiagnosticsAndQCProgramGroup;
 import picard.util.DbSnpBitSetUtil;
+import picard.util.ReferenceContextCodes;
+import picard.util.VariantType;
 
 import java.io.File;
 import java.util.*;
@@ -100,6 +102,10 @@ public class CollectOxoGMetrics extends CommandLineProgram {
             optional = true)
     public File DB_SNP;
 
+    @Argument(doc = "Optional file in which to keep the sites of the dbSNP file, so that later runs memory-map them rather than " +
+            "reading the dbSNP file. Built on first use, and rebuilt if the dbSNP file or sequence dictionary changes.", optional = true)
+    public File DB_SNP_CACHE;
+
     @Argument(shortName = "Q",
             doc = "The minimum base quality score for a base to be included in analysis.")
     public int MINIMUM_QUALITY_SCORE = 20;
@@ -262,10 +268,26 @@ public class CollectOxoGMetrics extends CommandLineProgram {
             }
         }
 
+        // Index the calculators by context code so that we don't need to build a context string at every site, unless
+        // the contexts are too long to be coded, in which case they are looked up by string as before.  Contexts that
+        // aren't upper-case A, C, G and T can never be seen below, so they are reported but not indexed.
+        final int contextLength = 1 + 2 * CONTEXT_SIZE;
+        final boolean useContextCodes = contextLength <= ReferenceContextCodes.MAX_CONTEXT_LENGTH;
+        final Map<Integer, List<Calculator>> calculatorsByCode = new HashMap<>();
+        if (useContextCodes) {
+            for (final Map.Entry<String, List<Calculator>> entry : calculators.entrySet()) {
+                final int code = ReferenceContextCodes.encode(entry.getKey());
+                if (code != ReferenceContextCodes.INVALID && ReferenceContextCodes.decode(code, contextLength).equals(entry.getKey())) {
+                    calculatorsByCode.put(code, entry.getValue());
+                }
+            }
+        }
+
         // Load up dbSNP if available
         log.info("Loading dbSNP File: " + DB_SNP);
         final DbSnpBitSetUtil dbSnp;
-        if (DB_SNP != null) dbSnp = new DbSnpBitSetUtil(DB_SNP, in.getFileHeader().getSequenceDictionary());
+        if (DB_SNP != null) dbSnp = new DbSnpBitSetUtil(DB_SNP, in.getFileHeader().getSequenceDictionary(),
+                EnumSet.noneOf(VariantType.class), null, Optional.empty(), DB_SNP_CACHE);
         else dbSnp = null;
 
         // Make an iterator that will filter out funny looking things
@@ -307,16 +329,18 @@ public class CollectOxoGMetrics extends CommandLineProgram {
             final byte base = StringUtil.toUpperCase(bases[index]);
             if (base != 'C' && base != 'G') continue;
 
-            // Get the context string
-            final String context;
-            {
-                final String tmp = StringUtil.bytesToString(bases, index - CONTEXT_SIZE, 1 + (2 * CONTEXT_SIZE)).toUpperCase();
-                if (base == 'C') context = tmp;
-                else /* if G */  context = SequenceUtil.reverseComplement(tmp);
+            // Get the context, always centred on the C
+            final List<Calculator> calculatorsForContext;
+            if (useContextCodes) {
+                final int forwardCode = ReferenceContextCodes.encode(bases, index - CONTEXT_SIZE, contextLength);
+                if (forwardCode == ReferenceContextCodes.INVALID) continue; // happens if we get ambiguous bases in the reference
+                final int code = (base == 'C') ? forwardCode : ReferenceContextCodes.reverseComplement(forwardCode, contextLength);
+                calculatorsForContext = calculatorsByCode.get(code);
+            } else {
+                final String context = StringUtil.bytesToString(bases, index - CONTEXT_SIZE, contextLength).toUpperCase();
+                calculatorsForContext = calculators.get(base == 'C' ? context : SequenceUtil.reverseComplement(context));
             }
-
-            final List<Calculator> calculatorsForContext = calculators.get(context);
-            if (calculatorsForContext == null) continue; // happens if we get ambiguous bases in the reference
+            if (calculatorsForContext == null) continue; // happens if CONTEXTS restricts the analysis or with ambiguous bases
             for (final Calculator calc : calculatorsForContext) calc.accept(info, base);
 
             // See if we need to stop
@@ -41,6 +41,7 @@ import picard.PicardException;
 import picard.analysis.directed.RnaSeqMetricsCollector;
 import picard.annotation.Gene;
 import picard.annotation.GeneAnnotationReader;
+import picard.annotation.LocusFunctionTrack;
 import picard.cmdline.programgroups.DiagnosticsAndQCProgramGroup;
 import picard.util.RExecutor;
 
@@ -107,6 +108,11 @@ static final String USAGE_DETAILS = "<p>This tool takes a SAM/BAM file containin
     @Argument(doc="Gene annotations in refFlat form.  Format described here: http://genome.ucsc.edu/goldenPath/gbdDescriptionsOld.html#RefFlat")
     public File REF_FLAT;
 
+    @Argument(doc="A file in which to cache the function (coding, UTR, intronic or intergenic) of each base as derived from " +
+            "REF_FLAT.  If the file was written by a previous run with the same REF_FLAT and sequence dictionary it is read " +
+            "rather than derived again, otherwise it is (re)written.", optional = true)
+    public File REF_FLAT_CACHE;
+
     @Argument(doc="Location of rRNA sequences in genome, in interval_list format.  " +
             "If not specified no bases will be identified as being ribosomal.  " +
             "Format described <a href=\"http://samtools.github.io/htsjdk/javadoc/htsjdk/htsjdk/samtools/util/IntervalList.html\">here</a>:", optional = true)
@@ -156,13 +162,17 @@ static final String USAGE_DETAILS = "<p>This tool takes a SAM/BAM file containin
         final OverlapDetector<Gene> geneOverlapDetector = GeneAnnotationReader.loadRefFlat(REF_FLAT, header.getSequenceDictionary());
         LOG.info("Loaded " + geneOverlapDetector.getAll().size() + " genes.");
 
+        final LocusFunctionTrack locusFunctionTrack = REF_FLAT_CACHE != null
+                ? LocusFunctionTrack.loadOrBuild(geneOverlapDetector.getAll(), REF_FLAT, header.getSequenceDictionary(), REF_FLAT_CACHE)
+                : LocusFunctionTrack.build(geneOverlapDetector.getAll());
+
         final Long ribosomalBasesInitialValue = RIBOSOMAL_INTERVALS != null ? 0L : null;
         final OverlapDetector<Interval> ribosomalSequenceOverlapDetector = RnaSeqMetricsCollector.makeOverlapDetector(samFile, header, RIBOSOMAL_INTERVALS, LOG);
 
         final HashSet<Integer> ignoredSequenceIndices = RnaSeqMetricsCollector.makeIgnoredSequenceIndicesSet(header, IGNORE_SEQUENCE);
 
         collector = new RnaSeqMetricsCollector(METRIC_ACCUMULATION_LEVEL, header.getReadGroups(), ribosomalBasesInitialValue,
-                geneOverlapDetector, ribosomalSequenceOverlapDetector, ignoredSequenceIndices, MINIMUM_LENGTH, STRAND_SPECIFICITY, RRNA_FRAGMENT_PERCENTAGE,
+                geneOverlapDetector, locusFunctionTrack, ribosomalSequenceOverlapDetector, ignoredSequenceIndices, MINIMUM_LENGTH, STRAND_SPECIFICITY, RRNA_FRAGMENT_PERCENTAGE,
                 true);
 
         // If we're working with a single library, assign that library's name as a suffix to the plot title
@@ -24,17 +24,23 @@
 package picard.analysis;
 
 import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.filter.AggregateFilter;
+import htsjdk.samtools.filter.FilteringSamIterator;
 import htsjdk.samtools.filter.SamRecordFilter;
 import htsjdk.samtools.filter.SecondaryAlignmentFilter;
 import htsjdk.samtools.metrics.MetricsFile;
 import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
 import htsjdk.samtools.reference.ReferenceSequenceFileWalker;
 import htsjdk.samtools.util.AbstractLocusInfo;
 import htsjdk.samtools.util.AbstractLocusIterator;
 import htsjdk.samtools.util.AbstractRecordAndOffset;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.EdgeReadIterator;
 import htsjdk.samtools.util.Histogram;
 import htsjdk.samtools.util.IOUtil;
@@ -48,6 +54,7 @@ import org.broadinstitute.barclay.argparser.Argument;
 import org.broadinstitute.barclay.argparser.ArgumentCollection;
 import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
 import org.broadinstitute.barclay.help.DocumentedFeature;
+import picard.PicardException;
 import picard.cmdline.CommandLineProgram;
 import picard.cmdline.StandardOptionDefinitions;
 import picard.cmdline.argumentcollections.IntervalArgumentCollection;
@@ -57,12 +64,20 @@ import picard.filter.CountingDuplicateFilter;
 import picard.filter.CountingFilter;
 import picard.filter.CountingMapQFilter;
 import picard.filter.CountingPairedFilter;
+import picard.util.ThreadPoolExecutorUtil;
+import picard.util.ThreadPoolExecutorWithExceptions;
 
 import java.io.File;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
 
 import static picard.cmdline.StandardOptionDefinitions.MINIMUM_MAPPING_QUALITY_SHORT_NAME;
 
@@ -145,6 +160,14 @@ static final String USAGE_DETAILS = "<p>This tool collects metrics about the fra
     @Argument(doc = "Average read length in the file. Default is 150.", optional = true)
     public int READ_LENGTH = 150;
 
+    @Argument(doc = "Collect metrics on this many contigs at once, each with its own reader of the INPUT, which must be indexed. " +
+            "If NUM_PROCESSORS = 0, number of cores is automatically set to the number of cores available on the machine. " +
+            "If NUM_PROCESSORS < 0 then the number of cores used will be the number available on the machine less NUM_PROCESSORS. " +
+            "Contigs are processed one at a time when STOP_AFTER is set. " +
+            "With USE_FAST_ALGORITHM and INTERVALS on several contigs, the counts can differ from those of NUM_PROCESSORS = 1, " +
+            "as each contig is then counted on its own rather than in a single pass over all the intervals.", optional = true)
+    public int NUM_PROCESSORS = 1;
+
     protected File INTERVALS = null;
 
     private SAMFileHeader header = null;
@@ -176,6 +199,21 @@ static final String USAGE_DETAILS = "<p>This tool collects metrics about the fra
 
 
 
+    @Override
+    protected String[] customCommandLineValidation() {
+        if (NUM_PROCESSORS == 0) {
+            NUM_PROCESSORS = Runtime.getRuntime().availableProcessors();
+        } else if (NUM_PROCESSORS < 0) {
+            NUM_PROCESSORS = Runtime.getRuntime().availableProcessors() + NUM_PROCESSORS;
+        }
+
+        //sanity check if num processors is negative set it to 1
+        if (NUM_PROCESSORS <= 0) {
+            NUM_PROCESSORS = 1;
+        }
+        return super.customCommandLineValidation();
+    }
+
     /** Gets the SamReader from which records will be examined.  This will also set the header so that it is available in
      *  */
     protected SamReader getSamReader() {
@@ -204,41 +242,42 @@ static final String USAGE_DETAILS = "<p>This tool collects metrics about the fra
         }
 
         // Setup all the inputs
-        final ProgressLogger progress = new ProgressLogger(log, 10000000, "Processed", "loci");
-        final ReferenceSequenceFileWalker refWalker = new ReferenceSequenceFileWalker(REFERENCE_SEQUENCE);
         final SamReader in = getSamReader();
-        final AbstractLocusIterator iterator = getLocusIterator(in);
-
-        final List<SamRecordFilter> filters = new ArrayList<>();
         final CountingFilter adapterFilter = new CountingAdapterFilter();
         final CountingFilter mapqFilter = new CountingMapQFilter(MINIMUM_MAPPING_QUALITY);
         final CountingFilter dupeFilter = new CountingDuplicateFilter();
         final CountingPairedFilter pairFilter = new CountingPairedFilter();
-        // The order in which filters are added matters!
-        filters.add(new SecondaryAlignmentFilter()); // Not a counting filter because we never want to count reads twice
-        filters.add(adapterFilter);
-        filters.add(mapqFilter);
-        filters.add(dupeFilter);
-        if (!COUNT_UNPAIRED) {
-            filters.add(pairFilter);
-        }
-        iterator.setSamFilters(filters);
-        iterator.setMappingQualityScoreCutoff(0); // Handled separately because we want to count bases
-        iterator.setIncludeNonPfReads(false);
 
         final AbstractWgsMetricsCollector<?> collector = getCollector(COVERAGE_CAP, getIntervalsToExamine());
-        final WgsMetricsProcessor processor = getWgsMetricsProcessor(progress, refWalker, iterator, collector);
-        processor.processFile();
-
         final MetricsFile<WgsMetrics, Integer> out = getMetricsFile();
-        processor.addToMetricsFile(out, INCLUDE_BQ_HISTOGRAM, dupeFilter, adapterFilter, mapqFilter, pairFilter);
+        if (canProcessContigsInParallel(in)) {
+            processContigsInParallel(collector, adapterFilter, mapqFilter, dupeFilter, pairFilter);
+            collector.addToMetricsFile(out, INCLUDE_BQ_HISTOGRAM, dupeFilter, adapterFilter, mapqFilter, pairFilter);
+        } else {
+            final ReferenceSequenceFileWalker refWalker = new ReferenceSequenceFileWalker(REFERENCE_SEQUENCE);
+            final WgsMetricsProcessor processor;
+            if (useAlignmentBlocks()) {
+                final ProgressLogger progress = new ProgressLogger(log, 10000000, "Processed", "reads");
+                final Iterator<SAMRecord> records = new FilteringSamIterator(in.iterator(),
+                        new AggregateFilter(getSamFilters(adapterFilter, mapqFilter, dupeFilter, pairFilter)));
+                processor = new AlignmentBlockWgsMetricsProcessor(records, in.getFileHeader().getSequenceDictionary().getSequences(),
+                        refWalker::get, collector, progress);
+            } else {
+                final ProgressLogger progress = new ProgressLogger(log, 10000000, "Processed", "loci");
+                final AbstractLocusIterator iterator = getLocusIterator(in);
+                setFilters(iterator, adapterFilter, mapqFilter, dupeFilter, pairFilter);
+                processor = getWgsMetricsProcessor(progress, refWalker, iterator, collector);
+            }
+            processor.processFile();
+            processor.addToMetricsFile(out, INCLUDE_BQ_HISTOGRAM, dupeFilter, adapterFilter, mapqFilter, pairFilter);
+        }
         out.write(OUTPUT);
 
         if (THEORETICAL_SENSITIVITY_OUTPUT != null) {
             // Write out theoretical sensitivity results.
             final MetricsFile<TheoreticalSensitivityMetrics, ?> theoreticalSensitivityMetrics = getMetricsFile();
             log.info("Calculating theoretical sentitivity at " + ALLELE_FRACTION.size() + " allele fractions.");
-            List<TheoreticalSensitivityMetrics> tsm = TheoreticalSensitivity.calculateSensitivities(SAMPLE_SIZE, collector.getUnfilteredDepthHistogram(), collector.getUnfilteredBaseQHistogram(), ALLELE_FRACTION);
+            List<TheoreticalSensitivityMetrics> tsm = TheoreticalSensitivity.calculateSensitivities(SAMPLE_SIZE, collector.getUnfilteredDepthHistogram(), collector.getUnfilteredBaseQHistogram(), ALLELE_FRACTION, NUM_PROCESSORS);
             theoreticalSensitivityMetrics.addAllMetrics(tsm);
             theoreticalSensitivityMetrics.write(THEORETICAL_SENSITIVITY_OUTPUT);
         }
@@ -246,6 +285,176 @@ static final String USAGE_DETAILS = "<p>This tool collects metrics about the fra
         return 0;
     }
 
+    private void setFilters(final AbstractLocusIterator<?, ?> iterator,
+                            final CountingFilter adapterFilter,
+                            final CountingFilter mapqFilter,
+                            final CountingFilter dupeFilter,
+                            final CountingPairedFilter pairFilter) {
+        iterator.setSamFilters(getSamFilters(adapterFilter, mapqFilter, dupeFilter, pairFilter));
+        iterator.setMappingQualityScoreCutoff(0); // Handled separately because we want to count bases
+        iterator.setIncludeNonPfReads(false);
+    }
+
+    private List<SamRecordFilter> getSamFilters(final CountingFilter adapterFilter,
+                                                final CountingFilter mapqFilter,
+                                                final CountingFilter dupeFilter,
+                                                final CountingPairedFilter pairFilter) {
+        final List<SamRecordFilter> filters = new ArrayList<>();
+        // The order in which filters are added matters!
+        filters.add(new SecondaryAlignmentFilter()); // Not a counting filter because we never want to count reads twice
+        filters.add(adapterFilter);
+        filters.add(mapqFilter);
+        filters.add(dupeFilter);
+        if (!COUNT_UNPAIRED) {
+            filters.add(pairFilter);
+        }
+        return filters;
+    }
+
+    /**
+     * Whether the fast algorithm is used on the whole genome, in which case the depth at each locus is accumulated
+     * from the alignment blocks of the reads by an {@link AlignmentBlockWgsMetricsProcessor} rather than from an
+     * {@link EdgeReadIterator}.  The latter is still used for INTERVALS, and for STOP_AFTER, which counts loci.
+     */
+    private boolean useAlignmentBlocks() {
+        return USE_FAST_ALGORITHM && INTERVALS == null && STOP_AFTER <= 0;
+    }
+
+    private boolean canProcessContigsInParallel(final SamReader in) {
+        if (NUM_PROCESSORS <= 1) {
+            return false;
+        }
+        if (STOP_AFTER > 0) {
+            log.warn("Processing one contig at a time, as STOP_AFTER is set.");
+            return false;
+        }
+        if (!in.hasIndex()) {
+            log.warn("Processing one contig at a time, as " + INPUT + " is not indexed.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Collects metrics on each contig (or on the INTERVALS on each contig) with its own reader, locus iterator, filters and
+     * collector, NUM_PROCESSORS contigs at a time, and merges their counts into the given collector and filters.  As no
+     * read is aligned to two contigs, the counts are the same as those of a single pass over the INPUT, except with the
+     * fast algorithm over INTERVALS on several contigs, whose single pass doesn't count each contig as on its own.  The reference
+     * is read once, in order, and at most NUM_PROCESSORS of its contigs are held in memory at once.
+     */
+    private void processContigsInParallel(final AbstractWgsMetricsCollector<?> collector,
+                                          final CountingFilter adapterFilter,
+                                          final CountingFilter mapqFilter,
+                                          final CountingFilter dupeFilter,
+                                          final CountingPairedFilter pairFilter) {
+        final Map<Integer, IntervalList> intervalsByContig = new HashMap<>();
+        if (INTERVALS != null) {
+            final IntervalList intervals = IntervalList.fromFile(INTERVALS);
+            for (final Interval interval : intervals) {
+                final int contigIndex = header.getSequenceIndex(interval.getContig());
+                if (contigIndex == -1) {
+                    throw new PicardException("Interval " + interval + " is on a contig that is not in the sequence dictionary of " + INPUT);
+                }
+                intervalsByContig.computeIfAbsent(contigIndex, i -> new IntervalList(intervals.getHeader())).add(interval);
+            }
+        } else {
+            for (final SAMSequenceRecord rec : header.getSequenceDictionary().getSequences()) {
+                final IntervalList contig = new IntervalList(header);
+                contig.add(new Interval(rec.getSequenceName(), 1, rec.getSequenceLength()));
+                intervalsByContig.put(rec.getSequenceIndex(), contig);
+            }
+        }
+
+        log.info("Processing " + intervalsByContig.size() + " contigs, " + NUM_PROCESSORS + " at a time.");
+        final ReferenceSequenceFile reference = ReferenceSequenceFileFactory.getReferenceSequenceFile(REFERENCE_SEQUENCE);
+        final Semaphore contigsInMemory = new Semaphore(NUM_PROCESSORS);
+        final ThreadPoolExecutorWithExceptions pool = new ThreadPoolExecutorWithExceptions(NUM_PROCESSORS);
+        try {
+            while (true) {
+                contigsInMemory.acquireUninterruptibly();
+                final ReferenceSequence ref = pool.hasError() ? null : reference.nextSequence();
+                if (ref == null) {
+                    break;
+                }
+                final IntervalList contigIntervals = intervalsByContig.get(ref.getContigIndex());
+                if (contigIntervals == null) {
+                    contigsInMemory.release();
+                    continue;
+                }
+                pool.submit(() -> {
+                    try {
+                        processContig(ref, contigIntervals, collector, adapterFilter, mapqFilter, dupeFilter, pairFilter);
+                    } finally {
+                        contigsInMemory.release();
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            CloserUtil.close(reference);
+        }
+        ThreadPoolExecutorUtil.awaitThreadPoolTermination("WGS metrics executor", pool, Duration.ofMinutes(5));
+        if (pool.hasError()) {
+            throw new PicardException("Exception collecting WGS metrics", pool.exception);
+        }
+    }
+
+    private void processContig(final ReferenceSequence ref,
+                               final IntervalList contigIntervals,
+                               final AbstractWgsMetricsCollector<?> collector,
+                               final CountingFilter adapterFilter,
+                               final CountingFilter mapqFilter,
+                               final CountingFilter dupeFilter,
+                               final CountingPairedFilter pairFilter) {
+        final SamReader in = SamReaderFactory.makeDefault().referenceSequence(REFERENCE_SEQUENCE).open(INPUT);
+        try {
+            final CountingFilter contigAdapterFilter = new CountingAdapterFilter();
+            final CountingFilter contigMapqFilter = new CountingMapQFilter(MINIMUM_MAPPING_QUALITY);
+            final CountingFilter contigDupeFilter = new CountingDuplicateFilter();
+            final CountingPairedFilter contigPairFilter = new CountingPairedFilter();
+
+            final AbstractWgsMetricsCollector<?> contigCollector = getContigCollector(COVERAGE_CAP, contigIntervals);
+            if (useAlignmentBlocks()) {
+                final ProgressLogger progress = new ProgressLogger(log, 10000000, "Processed", "reads on " + ref.getName());
+                final Iterator<SAMRecord> records = new FilteringSamIterator(in.queryOverlapping(ref.getName(), 1, ref.length()),
+                        new AggregateFilter(getSamFilters(contigAdapterFilter, contigMapqFilter, contigDupeFilter, contigPairFilter)));
+                new AlignmentBlockWgsMetricsProcessor(records, Collections.singletonList(header.getSequence(ref.getContigIndex())),
+                        sequenceIndex -> ref, contigCollector, progress).processFile();
+            } else {
+                // The iterator is closed as a resource so that, should it fail before it has started (when closing
+                // it throws), the exception it failed with is the one reported.
+                try (final AbstractLocusIterator<?, ?> iterator = getLocusIterator(in, contigIntervals)) {
+                    setFilters(iterator, contigAdapterFilter, contigMapqFilter, contigDupeFilter, contigPairFilter);
+                    final ProgressLogger progress = new ProgressLogger(log, 10000000, "Processed", "loci on " + ref.getName());
+                    processContigLoci(iterator, ref, contigCollector, progress);
+                }
+            }
+
+            synchronized (collector) {
+                collector.merge(contigCollector);
+                adapterFilter.merge(contigAdapterFilter);
+                mapqFilter.merge(contigMapqFilter);
+                dupeFilter.merge(contigDupeFilter);
+                pairFilter.merge(contigPairFilter);
+            }
+            log.info("Processed " + ref.getName());
+        } finally {
+            CloserUtil.close(in);
+        }
+    }
+
+    /**
+     * Accumulates the loci of a contig into its collector.  The iterator and collector hold the same type of records,
+     * as both are chosen by {@link #USE_FAST_ALGORITHM}.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends AbstractRecordAndOffset> void processContigLoci(final AbstractLocusIterator<?, ?> iterator,
+                                                                             final ReferenceSequence ref,
+                                                                             final AbstractWgsMetricsCollector<T> collector,
+                                                                             final ProgressLogger progress) {
+        new WgsMetricsProcessorImpl<>((AbstractLocusIterator<T, AbstractLocusInfo<T>>) iterator, ref, collector, progress).processFile();
+    }
+
     private <T extends AbstractRecordAndOffset> WgsMetricsProcessorImpl<T> getWgsMetricsProcessor(
             ProgressLogger progress, ReferenceSequenceFileWalker refWalker,
             AbstractLocusIterator<T, AbstractLocusInfo<T>> iterator, AbstractWgsMetricsCollector<T> collector) {
@@ -367,10 +576,20 @@ static final String USAGE_DETAILS = "<p>This tool collects metrics about the fra
      * otherwise default algorithm is used and {@link htsjdk.samtools.util.SamLocusIterator} is returned.
      */
     protected AbstractLocusIterator getLocusIterator(final SamReader in) {
+        return getLocusIterator(in, (INTERVALS != null) ? IntervalList.fromFile(INTERVALS) : null);
+    }
+
+    /**
+     * Creates {@link htsjdk.samtools.util.AbstractLocusIterator} implementation according to {@link #USE_FAST_ALGORITHM} value.
+     *
+     * @param in inner {@link htsjdk.samtools.SamReader}
+     * @param intervals the intervals to iterate over, or null to iterate over the whole genome
+     */
+    protected AbstractLocusIterator<?, ?> getLocusIterator(final SamReader in, final IntervalList intervals) {
         if (USE_FAST_ALGORITHM) {
-            return (INTERVALS != null) ? new EdgeReadIterator(in, IntervalList.fromFile(INTERVALS)) : new EdgeReadIterator(in);
+            return new EdgeReadIterator(in, intervals);
         }
-        SamLocusIterator iterator = (INTERVALS != null) ? new SamLocusIterator(in, IntervalList.fromFile(INTERVALS)) : new SamLocusIterator(in);
+        SamLocusIterator iterator = new SamLocusIterator(in, intervals);
         iterator.setMaxReadsToAccumulatePerLocus(LOCUS_ACCUMULATION_CAP);
         iterator.setEmitUncoveredLoci(true);
         iterator.setQualityScoreCutoff(0);
@@ -390,6 +609,18 @@ static final String USAGE_DETAILS = "<p>This tool collects metrics about the fra
                 new WgsMetricsCollector(this, coverageCap, intervals);
     }
 
+    /**
+     * Creates the collector for a single contig when contigs are processed in parallel, whose counts are then merged
+     * into the collector returned by {@link #getCollector}.  Subclasses whose getCollector does not create a new
+     * collector on each call must override this.
+     *
+     * @param coverageCap the maximum depth/coverage to consider.
+     * @param intervals the intervals on the contig over which metrics are collected.
+     */
+    protected AbstractWgsMetricsCollector<?> getContigCollector(final int coverageCap, final IntervalList intervals) {
+        return getCollector(coverageCap, intervals);
+    }
+
     protected static class WgsMetricsCollector extends AbstractWgsMetricsCollector<SamLocusIterator.RecordAndOffset> {
 
         public WgsMetricsCollector(final CollectWgsMetrics metrics, final int coverageCap, final IntervalList intervals) {
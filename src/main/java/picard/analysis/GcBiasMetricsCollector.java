@@ -36,6 +36,7 @@ import picard.metrics.GcBiasMetrics;
 import picard.metrics.MultiLevelCollector;
 import picard.metrics.PerUnitMetricCollector;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -55,8 +56,11 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
     //Use to calculate additional results without duplicates
     private boolean ignoreDuplicates;
 
+    //if not null, the gc of each reference window is looked up here rather than calculated per contig
+    private final GcProfile gcProfile;
+
     //will hold the relevant gc information per contig
-    private byte [] gc = null;
+    private ByteBuffer gc = null;
     private int referenceIndex = -1;
     private byte [] refBases = null;
     private static final Log log = Log.getInstance(GcBiasMetricsCollector.class);
@@ -70,6 +74,19 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
     public GcBiasMetricsCollector(final Set<MetricAccumulationLevel> accumulationLevels, final int[] windowsByGc,
                                   final List<SAMReadGroupRecord> samRgRecords, final int scanWindowSize,
                                   final boolean bisulfite, final boolean ignoreDuplicates) {
+        this(accumulationLevels, windowsByGc, samRgRecords, scanWindowSize, bisulfite, ignoreDuplicates, null);
+    }
+
+    public GcBiasMetricsCollector(final Set<MetricAccumulationLevel> accumulationLevels, final GcProfile gcProfile,
+                                  final List<SAMReadGroupRecord> samRgRecords, final int scanWindowSize,
+                                  final boolean bisulfite, final boolean ignoreDuplicates) {
+        this(accumulationLevels, gcProfile.getWindowsByGc(), samRgRecords, scanWindowSize, bisulfite, ignoreDuplicates, gcProfile);
+    }
+
+    private GcBiasMetricsCollector(final Set<MetricAccumulationLevel> accumulationLevels, final int[] windowsByGc,
+                                   final List<SAMReadGroupRecord> samRgRecords, final int scanWindowSize,
+                                   final boolean bisulfite, final boolean ignoreDuplicates, final GcProfile gcProfile) {
+        this.gcProfile = gcProfile;
         this.scanWindowSize = scanWindowSize;
         this.bisulfite = bisulfite;
         this.windowsByGc = windowsByGc;
@@ -146,9 +163,13 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
                     final ReferenceSequence ref = args.getRef();
                     refBases = ref.getBases();
                     StringUtil.toUpperCase(refBases);
-                    final int refLength = refBases.length;
-                    final int lastWindowStart = refLength - scanWindowSize;
-                    gc = GcBiasUtils.calculateAllGcs(refBases, lastWindowStart, scanWindowSize);
+                    if (gcProfile != null) {
+                        gc = gcProfile.getWindowGcs(ref.getName());
+                    } else {
+                        final int refLength = refBases.length;
+                        final int lastWindowStart = refLength - scanWindowSize;
+                        gc = ByteBuffer.wrap(GcBiasUtils.calculateAllGcs(refBases, lastWindowStart, scanWindowSize));
+                    }
                     referenceIndex = rec.getReferenceIndex();
                 }
 
@@ -376,12 +397,12 @@ public class GcBiasMetricsCollector extends MultiLevelCollector<GcBiasMetrics, I
     //Adds each read to the appropriate gcObj which is determined in acceptRecord above
     //Also calculates values for calculating GC Bias at each level
     /////////////////////////////////////////////////////////////////////////////
-     private void addRead(final GcObject gcObj, final SAMRecord rec, final String group, final byte[] gc, final byte[] refBases) {
+     private void addRead(final GcObject gcObj, final SAMRecord rec, final String group, final ByteBuffer gc, final byte[] refBases) {
         if (!rec.getReadPairedFlag() || rec.getFirstOfPairFlag()) ++gcObj.totalClusters;
         final int pos = rec.getReadNegativeStrandFlag() ? rec.getAlignmentEnd() - scanWindowSize : rec.getAlignmentStart();
         ++gcObj.totalAlignedReads;
         if (pos > 0) {
-            final int windowGc = gc[pos];
+            final int windowGc = gc.get(pos);
             if (windowGc >= 0) {
                 ++gcObj.readsByGc[windowGc];
                 gcObj.basesByGc[windowGc] += rec.getReadLength();
@@ -0,0 +1,200 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.analysis;
+
+import htsjdk.samtools.Defaults;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.StringUtil;
+import picard.PicardException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The GC of every scanning window of a reference, as computed by {@link GcBiasUtils#calculateAllGcs}, together with
+ * the number of windows in each GC bin as computed by {@link GcBiasUtils#calculateRefWindowsByGc}.
+ *
+ * A profile is built by one scan of the reference and written to a file holding one byte per window, which later runs
+ * memory-map rather than scanning the reference again.  The file is specific to the reference (as identified by its
+ * length and modification time) and window size it was built for; a file that does not match is rebuilt.
+ *
+ * File layout: the window GCs of each sequence, one after another, followed by a header (window size, reference
+ * file length and modification time, windows by GC, and the name, length and offset of each sequence), then the
+ * offset of the header and a magic number.  The header comes last so that the profile can be written in a single
+ * pass over the reference.
+ */
+public class GcProfile {
+    private static final Log LOG = Log.getInstance(GcProfile.class);
+
+    private static final int MAGIC = 0x47435031; // "GCP1"
+
+    private final int[] windowsByGc;
+    private final Map<String, ByteBuffer> windowGcsBySequence;
+
+    private GcProfile(final int[] windowsByGc, final Map<String, ByteBuffer> windowGcsBySequence) {
+        this.windowsByGc = windowsByGc;
+        this.windowGcsBySequence = windowGcsBySequence;
+    }
+
+    /** The number of windows in each GC bin, 0 to bins - 1, over the whole reference. */
+    public int[] getWindowsByGc() {
+        return windowsByGc;
+    }
+
+    /**
+     * Returns the GC of each window on the named sequence, indexed as the array returned by
+     * {@link GcBiasUtils#calculateAllGcs}.  The buffer is shared, so use absolute gets only.
+     */
+    public ByteBuffer getWindowGcs(final String sequenceName) {
+        final ByteBuffer windowGcs = windowGcsBySequence.get(sequenceName);
+        if (windowGcs == null) {
+            throw new PicardException("GC profile has no sequence " + sequenceName);
+        }
+        return windowGcs;
+    }
+
+    /**
+     * Memory-maps the profile in profileFile if it was built from this reference and window size, otherwise scans
+     * the reference to (re)build it first.
+     */
+    public static GcProfile loadOrBuild(final File profileFile, final File referenceFile, final int windowSize, final int bins) {
+        if (profileFile.exists()) {
+            final GcProfile profile = load(profileFile, referenceFile, windowSize, bins);
+            if (profile != null) {
+                LOG.info("Loaded GC profile from " + profileFile);
+                return profile;
+            }
+            LOG.info(profileFile + " was not built for " + referenceFile + " with window size " + windowSize + "; rebuilding it.");
+        }
+        build(profileFile, referenceFile, windowSize, bins);
+        final GcProfile profile = load(profileFile, referenceFile, windowSize, bins);
+        if (profile == null) {
+            throw new PicardException("Could not read back GC profile " + profileFile);
+        }
+        return profile;
+    }
+
+    /** Scans the reference and writes its profile, via a temporary file so that readers never see a partial profile. */
+    static void build(final File profileFile, final File referenceFile, final int windowSize, final int bins) {
+        LOG.info("Building GC profile of " + referenceFile + " in " + profileFile);
+        final ReferenceSequenceFile refFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(referenceFile);
+        File tmp = null;
+        try {
+            tmp = File.createTempFile(profileFile.getName(), ".tmp", profileFile.getAbsoluteFile().getParentFile());
+            final int[] windowsByGc = new int[bins];
+            final Map<String, long[]> lengthAndOffsetBySequence = new LinkedHashMap<>();
+            long offset = 0;
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), Defaults.NON_ZERO_BUFFER_SIZE))) {
+                ReferenceSequence ref;
+                while ((ref = refFile.nextSequence()) != null) {
+                    final byte[] refBases = ref.getBases();
+                    StringUtil.toUpperCase(refBases);
+                    final int lastWindowStart = refBases.length - windowSize;
+                    final byte[] gc = GcBiasUtils.calculateAllGcs(refBases, lastWindowStart, windowSize);
+                    for (int i = 1; i < lastWindowStart; ++i) {
+                        if (gc[i] != -1) windowsByGc[gc[i]]++;
+                    }
+                    out.write(gc);
+                    lengthAndOffsetBySequence.put(ref.getName(), new long[]{gc.length, offset});
+                    offset += gc.length;
+                }
+
+                out.writeInt(MAGIC);
+                out.writeInt(windowSize);
+                out.writeLong(referenceFile.length());
+                out.writeLong(referenceFile.lastModified());
+                out.writeInt(bins);
+                for (final int windows : windowsByGc) {
+                    out.writeInt(windows);
+                }
+                out.writeInt(lengthAndOffsetBySequence.size());
+                for (final Map.Entry<String, long[]> entry : lengthAndOffsetBySequence.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt((int) entry.getValue()[0]);
+                    out.writeLong(entry.getValue()[1]);
+                }
+                out.writeLong(offset);
+                out.writeInt(MAGIC);
+            }
+            Files.move(tmp.toPath(), profileFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException e) {
+            if (tmp != null) tmp.delete();
+            throw new RuntimeIOException("Error writing GC profile " + profileFile, e);
+        } finally {
+            CloserUtil.close(refFile);
+        }
+    }
+
+    /** Returns the mapped profile, or null if it was not built for this reference and window size. */
+    static GcProfile load(final File profileFile, final File referenceFile, final int windowSize, final int bins) {
+        try (final RandomAccessFile in = new RandomAccessFile(profileFile, "r")) {
+            final long fileLength = in.length();
+            if (fileLength < Long.BYTES + Integer.BYTES) return null;
+            in.seek(fileLength - Long.BYTES - Integer.BYTES);
+            final long headerOffset = in.readLong();
+            if (in.readInt() != MAGIC || headerOffset < 0 || headerOffset >= fileLength) return null;
+
+            in.seek(headerOffset);
+            if (in.readInt() != MAGIC || in.readInt() != windowSize || in.readLong() != referenceFile.length() ||
+                    in.readLong() != referenceFile.lastModified() || in.readInt() != bins) {
+                return null;
+            }
+            final int[] windowsByGc = new int[bins];
+            for (int i = 0; i < bins; ++i) {
+                windowsByGc[i] = in.readInt();
+            }
+
+            final FileChannel channel = in.getChannel();
+            final int numSequences = in.readInt();
+            final Map<String, ByteBuffer> windowGcsBySequence = new HashMap<>(numSequences * 2);
+            for (int i = 0; i < numSequences; ++i) {
+                final String name = in.readUTF();
+                final int length = in.readInt();
+                final long offset = in.readLong();
+                if (offset + length > headerOffset) return null;
+                windowGcsBySequence.put(name, channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+            }
+            return new GcProfile(windowsByGc, windowGcsBySequence);
+        } catch (final IOException e) {
+            LOG.warn("Could not read GC profile " + profileFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -27,13 +27,14 @@ package picard.analysis;
 import htsjdk.samtools.util.Histogram;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.QualityUtil;
-import org.apache.commons.math3.random.RandomGenerator;
-import org.apache.commons.math3.random.Well19937c;
+import org.apache.commons.math3.special.Erf;
 import picard.PicardException;
 import picard.util.MathUtil;
+import picard.util.ThreadPoolExecutorUtil;
+import picard.util.ThreadPoolExecutorWithExceptions;
 
+import java.time.Duration;
 import java.util.*;
-import java.util.stream.IntStream;
 
 import com.google.common.annotations.VisibleForTesting;
 import org.apache.commons.math3.distribution.BinomialDistribution;
@@ -79,23 +80,23 @@ public class TheoreticalSensitivity {
 
         //qualitySums[m] is a random sample of sums of m quality scores, for m = 0, 1, N - 1
         if (withLogging) log.info("Calculating quality sums from quality sampler");
-        final List<ArrayList<Integer>> qualitySums = qualitySampler.sampleCumulativeSums(N, sampleSize, withLogging);
+        final int[][] qualitySums = qualitySampler.sampleCumulativeSumArrays(N, sampleSize, withLogging);
 
         //if a quality sum of m qualities exceeds the quality sum threshold for n total reads, a SNP is called
-        final ArrayList<Double> qualitySumThresholds = new ArrayList<>(N);
+        final double[] qualitySumThresholds = new double[N];
         final double LOG_10 = Math.log10(2);
 
-        for (int n = 0; n < N; n++) qualitySumThresholds.add(10 * (n * LOG_10 + logOddsThreshold));
+        for (int n = 0; n < N; n++) qualitySumThresholds[n] = 10 * (n * LOG_10 + logOddsThreshold);
 
         //probabilityToExceedThreshold[m][n] is the probability that the sum of m quality score
         //exceeds the nth quality sum threshold
         if (withLogging) log.info("Calculating theoretical het sensitivity");
-        final List<ArrayList<Double>> probabilityToExceedThreshold = proportionsAboveThresholds(qualitySums, qualitySumThresholds);
-        final List<ArrayList<Double>> altDepthDistribution = hetAltDepthDistribution(N);
+        final double[][] probabilityToExceedThreshold = proportionsAboveThresholds(qualitySums, qualitySumThresholds);
+        final double[][] altDepthDistribution = hetAltDepthTable(N);
         double result = 0.0;
         for (int n = 0; n < N; n++) {
             for (int m = 0; m <= n; m++) {
-                result += depthDistribution[n] * altDepthDistribution.get(n).get(m) * probabilityToExceedThreshold.get(m).get(n);
+                result += depthDistribution[n] * altDepthDistribution[n][m] * probabilityToExceedThreshold[m][n];
             }
         }
         return result;
@@ -119,20 +120,50 @@ public class TheoreticalSensitivity {
         return result;
     }
 
+    //given L arrays and N thresholds, count the proportion of each array above each threshold.  Sorts the arrays.
+    static double[][] proportionsAboveThresholds(final int[][] arrays, final double[] thresholds) {
+        final double[][] result = new double[arrays.length][];
+
+        for (int l = 0; l < arrays.length; l++) {
+            final int[] array = arrays[l];
+            final double[] newRow = new double[thresholds.length];
+            Arrays.sort(array);
+            int n = 0;
+            int j = 0;  //index within the ordered sample
+            while (n < thresholds.length && j < array.length) {
+                if (thresholds[n] > array[j]) j++;
+                else newRow[n++] = (double) (array.length - j) / array.length;
+            }
+            result[l] = newRow;
+        }
+        return result;
+    }
+
     //Utility function for making table of binomial distribution probabilities nCm * (0.5)^n
     //for n = 0, 1 . . . N - 1 and m = 0, 1. . . n
     public static List<ArrayList<Double>> hetAltDepthDistribution(final int N) {
         final List<ArrayList<Double>> table = new ArrayList<>();
+        for (final double[] row : hetAltDepthTable(N)) {
+            final ArrayList<Double> nthRow = new ArrayList<>(row.length);
+            for (final double p : row) nthRow.add(p);
+            table.add(nthRow);
+        }
+        return table;
+    }
+
+    //The table of hetAltDepthDistribution as arrays, the nth of which has n + 1 elements
+    static double[][] hetAltDepthTable(final int N) {
+        final double[][] table = new double[N][];
         for (int n = 0; n < N; n++) {
-            final ArrayList<Double> nthRow = new ArrayList<>();
+            final double[] nthRow = new double[n + 1];
 
-            //add the 0th element, then elements 1 through n - 1, then the nth.
+            //set the 0th element, then elements 1 through n - 1, then the nth.
             //Note that nCm = (n-1)C(m-1) * (n/m)
-            nthRow.add(Math.pow(0.5, n));
-            for (int m = 1; m < n; m++) nthRow.add((n * 0.5 / m) * table.get(n - 1).get(m - 1));
-            if (n > 0) nthRow.add(nthRow.get(0));
+            nthRow[0] = Math.pow(0.5, n);
+            for (int m = 1; m < n; m++) nthRow[m] = (n * 0.5 / m) * table[n - 1][m - 1];
+            if (n > 0) nthRow[n] = nthRow[0];
 
-            table.add(nthRow);
+            table[n] = nthRow;
         }
         return table;
     }
@@ -144,7 +175,7 @@ public class TheoreticalSensitivity {
     which works well when the ratio of maximum weight to average weight is not large.
      */
     public static class RouletteWheel {
-        final private List<Double> probabilities;
+        final private double[] probabilities;
         final private int N;
         private int count = 0;
         private Random rng;
@@ -153,15 +184,15 @@ public class TheoreticalSensitivity {
             rng = new Random(RANDOM_SEED);
             N = weights.length;
 
-            probabilities = new ArrayList<>();
+            probabilities = new double[N];
             final double wMax = MathUtil.max(weights);
 
             if (wMax == 0) {
                 throw new PicardException("Quality score distribution is empty.");
             }
 
-            for (final double w : weights) {
-                probabilities.add(w / wMax);
+            for (int n = 0; n < N; n++) {
+                probabilities[n] = weights[n] / wMax;
             }
         }
 
@@ -169,7 +200,7 @@ public class TheoreticalSensitivity {
             while (true) {
                 final int n = (int) (N * rng.nextDouble());
                 count++;
-                if (rng.nextDouble() < probabilities.get(n)) {
+                if (rng.nextDouble() < probabilities[n]) {
                     count = 0;
                     return n;
                 } else if (count >= SAMPLING_MAX) {
@@ -182,12 +213,22 @@ public class TheoreticalSensitivity {
         //get samples of sums of 0, 1, 2,. . .  N - 1 draws
         public List<ArrayList<Integer>> sampleCumulativeSums(final int maxNumberOfSummands, final int sampleSize, final boolean withLogging) {
             final List<ArrayList<Integer>> result = new ArrayList<>();
-            for (int m = 0; m < maxNumberOfSummands; m++) result.add(new ArrayList<>());
+            for (final int[] sums : sampleCumulativeSumArrays(maxNumberOfSummands, sampleSize, withLogging)) {
+                final ArrayList<Integer> list = new ArrayList<>(sums.length);
+                for (final int sum : sums) list.add(sum);
+                result.add(list);
+            }
+            return result;
+        }
+
+        //the samples of sampleCumulativeSums as arrays, result[m][iteration] being the sum of the first m draws of an iteration
+        int[][] sampleCumulativeSumArrays(final int maxNumberOfSummands, final int sampleSize, final boolean withLogging) {
+            final int[][] result = new int[maxNumberOfSummands][sampleSize];
 
             for (int iteration = 0; iteration < sampleSize; iteration++) {
                 int cumulativeSum = 0;
                 for (int m = 0; m < maxNumberOfSummands; m++) {
-                    result.get(m).add(cumulativeSum);
+                    result[m][iteration] = cumulativeSum;
                     cumulativeSum += draw();
                 }
                 if (withLogging && iteration % 1000 == 0) {
@@ -224,9 +265,12 @@ public class TheoreticalSensitivity {
      */
     @VisibleForTesting
      static boolean isCalled(final int totalDepth, final int altDepth, final double sumOfAltQualities, final double alleleFraction, final double logOddsThreshold) {
-        final double threshold = 10.0 * (altDepth * -Math.log10(alleleFraction) + (totalDepth - altDepth) * -Math.log10(1.0 - alleleFraction) + logOddsThreshold);
+        return sumOfAltQualities > callingThreshold(totalDepth, altDepth, alleleFraction, logOddsThreshold);
+    }
 
-        return sumOfAltQualities > threshold;
+    /** The sum of alt base qualities that {@link #isCalled(int, int, double, double, double)} requires a variant to exceed. */
+    private static double callingThreshold(final int totalDepth, final int altDepth, final double alleleFraction, final double logOddsThreshold) {
+        return 10.0 * (altDepth * -Math.log10(alleleFraction) + (totalDepth - altDepth) * -Math.log10(1.0 - alleleFraction) + logOddsThreshold);
     }
 
     public TheoreticalSensitivity() {
@@ -249,36 +293,7 @@ public class TheoreticalSensitivity {
             return 0.0;
         }
 
-        final RouletteWheel qualityRW = new RouletteWheel(trimDistribution(normalizeHistogram(qualityHistogram)));
-        final Random randomNumberGenerator = new Random(randomSeed);
-        final RandomGenerator rg = new Well19937c(randomSeed);
-        final BinomialDistribution bd = new BinomialDistribution(rg, depth, alleleFraction);
-
-        // Calculate mean and deviation of quality score distribution to enable Gaussian sampling below
-        final double averageQuality = qualityHistogram.getMean();
-        final double standardDeviationQuality = qualityHistogram.getStandardDeviation();
-
-        int calledVariants = 0;
-        // Sample simulated variants, and count the number that would get called.  The ratio
-        // of the number called to the total sampleSize is the sensitivity.
-        for (int sample = 0; sample < sampleSize; sample++) {
-            final int altDepth = bd.sample();
-
-            final int sumOfQualities;
-            if (altDepth < LARGE_NUMBER_OF_DRAWS) {
-                // If the number of alt reads is "small" we draw from the actual base quality distribution.
-                sumOfQualities = IntStream.range(0, altDepth).map(n -> qualityRW.draw()).sum();
-            } else {
-                // If the number of alt reads is "large" we draw from a Gaussian approximation of the base
-                // quality distribution to speed up the code.
-                sumOfQualities = drawSumOfQScores(altDepth, averageQuality, standardDeviationQuality, randomNumberGenerator.nextGaussian());
-            }
-
-            if (isCalled(depth, altDepth, (double) sumOfQualities, alleleFraction, logOddsThreshold)) {
-                calledVariants++;
-            }
-        }
-        return (double) calledVariants / sampleSize;
+        return new QualitySumModel(qualityHistogram).simulateSensitivity(depth, logOddsThreshold, sampleSize, alleleFraction, randomSeed);
     }
 
     /**
@@ -295,20 +310,6 @@ public class TheoreticalSensitivity {
         return (int) (altDepth * averageQuality + z * Math.sqrt(altDepth) * standardDeviationQuality);
     }
 
-    /**
-     * Calculates the theoretical sensitivity with a given Phred-scaled quality score distribution at a constant
-     * depth.
-     * @param depth Depth to compute sensitivity at
-     * @param qualityHistogram Phred-scaled quality score histogram
-     * @param logOddsThreshold Log odds threshold necessary for variant to be called
-     * @param sampleSize the total number of simulations to run
-     * @param alleleFraction the allele fraction to evaluate sensitivity at
-     * @return Theoretical sensitivity for the given arguments at a constant depth.
-     */
-    private static double sensitivityAtConstantDepth(final int depth, final Histogram<Integer> qualityHistogram, final double logOddsThreshold, final int sampleSize, final double alleleFraction) {
-        return sensitivityAtConstantDepth(depth, qualityHistogram, logOddsThreshold, sampleSize, alleleFraction, RANDOM_SEED);
-    }
-
     /**
      * Calculates the theoretical sensitivity with a given Phred-scaled quality score distribution and depth
      * distribution.
@@ -325,8 +326,11 @@ public class TheoreticalSensitivity {
             throw new IllegalArgumentException("Allele fractions must be between 0 and 1.");
         }
 
-        final double[] depthDistribution = normalizeHistogram(depthHistogram);
+        return theoreticalSensitivity(normalizeHistogram(depthHistogram), new QualitySumModel(qualityHistogram), sampleSize, logOddsThreshold, alleleFraction);
+    }
 
+    private static double theoreticalSensitivity(final double[] depthDistribution, final QualitySumModel qualitySumModel,
+                                                 final int sampleSize, final double logOddsThreshold, final double alleleFraction) {
         // Integrate sensitivity over depth distribution
         double sensitivity = 0.0;
         int currentDepth = 0;
@@ -345,8 +349,12 @@ public class TheoreticalSensitivity {
                 currentDepth++;
             }
             // Calculate sensitivity for a particular depth, and use trapezoid rule to integrate sensitivity.
+            // Computing it exactly takes a term per possible alt depth, and simulating it a draw per sample, so
+            // whichever is smaller is used.
             final double left = right;
-            right = sensitivityAtConstantDepth(currentDepth, qualityHistogram, logOddsThreshold, sampleSize, alleleFraction);
+            right = currentDepth < sampleSize ?
+                    qualitySumModel.exactSensitivity(currentDepth, logOddsThreshold, alleleFraction) :
+                    qualitySumModel.simulateSensitivity(currentDepth, logOddsThreshold, sampleSize, alleleFraction, RANDOM_SEED);
             sensitivity += deltaDepthProbability * (left + right) / 2.0;
         }
         return sensitivity;
@@ -387,22 +395,190 @@ public class TheoreticalSensitivity {
      */
     public static List<TheoreticalSensitivityMetrics> calculateSensitivities(final int simulationSize,
                                               final Histogram<Integer> depthHistogram, final Histogram<Integer> baseQHistogram, final List<Double> alleleFractions) {
+        return calculateSensitivities(simulationSize, depthHistogram, baseQHistogram, alleleFractions, 1);
+    }
+
+    /**
+     * As {@link #calculateSensitivities(int, Histogram, Histogram, List)}, computing the sensitivities at several allele
+     * fractions at once.  Each is computed with its own seeded random number streams, so the results don't depend on threads.
+     * @param threads Number of allele fractions to calculate theoretical sensitivity at in parallel.
+     */
+    public static List<TheoreticalSensitivityMetrics> calculateSensitivities(final int simulationSize,
+                                              final Histogram<Integer> depthHistogram, final Histogram<Integer> baseQHistogram, final List<Double> alleleFractions,
+                                              final int threads) {
 
-        final List<TheoreticalSensitivityMetrics> metricsOverVariousAlleleFractions = new ArrayList<>();
         final double logOddsThreshold = 6.2; // This threshold is used because it is the value used for MuTect2.
+        for (final double alleleFraction : alleleFractions) {
+            if (alleleFraction > 1.0 || alleleFraction < 0.0) {
+                throw new IllegalArgumentException("Allele fractions must be between 0 and 1.");
+            }
+        }
+
+        final double[] depthDistribution = normalizeHistogram(depthHistogram);
+        final QualitySumModel qualitySumModel = new QualitySumModel(baseQHistogram);
+        final TheoreticalSensitivityMetrics[] metricsOverVariousAlleleFractions = new TheoreticalSensitivityMetrics[alleleFractions.size()];
 
         // For each allele fraction in alleleFractions calculate theoretical sensitivity and add the results
         // to the histogram sensitivityHistogram.
-        for (final double alleleFraction : alleleFractions) {
-            final TheoreticalSensitivityMetrics theoreticalSensitivityMetrics = new TheoreticalSensitivityMetrics();
-            theoreticalSensitivityMetrics.ALLELE_FRACTION = alleleFraction;
-            theoreticalSensitivityMetrics.THEORETICAL_SENSITIVITY = TheoreticalSensitivity.theoreticalSensitivity(depthHistogram, baseQHistogram, simulationSize, logOddsThreshold, alleleFraction);
-            theoreticalSensitivityMetrics.THEORETICAL_SENSITIVITY_Q = QualityUtil.getPhredScoreFromErrorProbability((1 - theoreticalSensitivityMetrics.THEORETICAL_SENSITIVITY));
-            theoreticalSensitivityMetrics.SAMPLE_SIZE = simulationSize;
-            theoreticalSensitivityMetrics.LOG_ODDS_THRESHOLD = logOddsThreshold;
-            metricsOverVariousAlleleFractions.add(theoreticalSensitivityMetrics);
+        final ThreadPoolExecutorWithExceptions pool = new ThreadPoolExecutorWithExceptions(threads);
+        for (int i = 0; i < alleleFractions.size(); i++) {
+            final int index = i;
+            final double alleleFraction = alleleFractions.get(i);
+            pool.execute(() -> {
+                final TheoreticalSensitivityMetrics theoreticalSensitivityMetrics = new TheoreticalSensitivityMetrics();
+                theoreticalSensitivityMetrics.ALLELE_FRACTION = alleleFraction;
+                theoreticalSensitivityMetrics.THEORETICAL_SENSITIVITY = theoreticalSensitivity(depthDistribution, qualitySumModel, simulationSize, logOddsThreshold, alleleFraction);
+                theoreticalSensitivityMetrics.THEORETICAL_SENSITIVITY_Q = QualityUtil.getPhredScoreFromErrorProbability((1 - theoreticalSensitivityMetrics.THEORETICAL_SENSITIVITY));
+                theoreticalSensitivityMetrics.SAMPLE_SIZE = simulationSize;
+                theoreticalSensitivityMetrics.LOG_ODDS_THRESHOLD = logOddsThreshold;
+                metricsOverVariousAlleleFractions[index] = theoreticalSensitivityMetrics;
+            });
+        }
+        pool.shutdown();
+        ThreadPoolExecutorUtil.awaitThreadPoolTermination("Theoretical sensitivity executor", pool, Duration.ofMinutes(1));
+        if (pool.hasError()) {
+            throw new PicardException("Exception calculating theoretical sensitivity", pool.exception);
+        }
+
+        return new ArrayList<>(Arrays.asList(metricsOverVariousAlleleFractions));
+    }
+
+    /**
+     * The distribution of the sum of the qualities of a variant's alt bases, with which the sensitivity at a constant depth is
+     * either computed exactly or simulated.  As in the original simulation, sums of fewer than {@link #LARGE_NUMBER_OF_DRAWS}
+     * qualities follow the quality distribution itself, convolved with itself here, and larger sums its Gaussian approximation.
+     * Immutable, so one model can be shared by threads.
+     */
+    static final class QualitySumModel {
+        private final double[] qualityCumulativeDistribution;
+        private final double averageQuality;
+        private final double standardDeviationQuality;
+        /** smallSumTails[m][s] is the probability that the sum of m qualities is at least s, for m < LARGE_NUMBER_OF_DRAWS. */
+        private final double[][] smallSumTails = new double[LARGE_NUMBER_OF_DRAWS][];
+
+        QualitySumModel(final Histogram<Integer> qualityHistogram) {
+            final double[] qualityDistribution = trimDistribution(normalizeHistogram(qualityHistogram));
+            if (qualityDistribution.length == 0) {
+                throw new PicardException("Quality score distribution is empty.");
+            }
+            averageQuality = qualityHistogram.getMean();
+            standardDeviationQuality = qualityHistogram.getStandardDeviation();
+
+            qualityCumulativeDistribution = cumulativeDistribution(qualityDistribution);
+
+            double[] sumDistribution = {1.0};
+            for (int m = 0; m < LARGE_NUMBER_OF_DRAWS; m++) {
+                final double[] tails = new double[sumDistribution.length + 1];
+                for (int s = sumDistribution.length - 1; s >= 0; s--) tails[s] = tails[s + 1] + sumDistribution[s];
+                smallSumTails[m] = tails;
+
+                final double[] nextSumDistribution = new double[sumDistribution.length + qualityDistribution.length - 1];
+                for (int s = 0; s < sumDistribution.length; s++) {
+                    if (sumDistribution[s] == 0) continue;
+                    for (int q = 0; q < qualityDistribution.length; q++) {
+                        nextSumDistribution[s + q] += sumDistribution[s] * qualityDistribution[q];
+                    }
+                }
+                sumDistribution = nextSumDistribution;
+            }
         }
 
-        return metricsOverVariousAlleleFractions;
+        /** The probability that a variant at the given depth is called, summed over the binomial distribution of its alt depth. */
+        double exactSensitivity(final int depth, final double logOddsThreshold, final double alleleFraction) {
+            final BinomialDistribution altDepthDistribution = new BinomialDistribution(null, depth, alleleFraction);
+            double sensitivity = 0.0;
+            for (int altDepth = 0; altDepth <= depth; altDepth++) {
+                final double probability = altDepthDistribution.probability(altDepth);
+                if (probability > 0) sensitivity += probability * probabilityCalled(depth, altDepth, alleleFraction, logOddsThreshold);
+            }
+            return sensitivity;
+        }
+
+        /** The proportion of sampleSize simulated variants at the given depth that are called, drawn from a stream seeded by randomSeed. */
+        double simulateSensitivity(final int depth, final double logOddsThreshold, final int sampleSize, final double alleleFraction, final long randomSeed) {
+            final BinomialDistribution binomial = new BinomialDistribution(null, depth, alleleFraction);
+            final double[] altDepthDistribution = new double[depth + 1];
+            for (int altDepth = 0; altDepth <= depth; altDepth++) altDepthDistribution[altDepth] = binomial.probability(altDepth);
+            final double[] altDepthCumulativeDistribution = cumulativeDistribution(altDepthDistribution);
+            final SplittableRandom rng = new SplittableRandom(randomSeed);
+
+            int calledVariants = 0;
+            // Sample simulated variants, and count the number that would get called.  The ratio
+            // of the number called to the total sampleSize is the sensitivity.  Alt depths are drawn
+            // from one stratum of the alt depth distribution per sample, which removes most of their
+            // sampling noise.
+            for (int sample = 0; sample < sampleSize; sample++) {
+                final int altDepth = draw(altDepthCumulativeDistribution, (sample + rng.nextDouble()) / sampleSize);
+
+                int sumOfQualities = 0;
+                if (altDepth < LARGE_NUMBER_OF_DRAWS) {
+                    // If the number of alt reads is "small" we draw from the actual base quality distribution.
+                    for (int n = 0; n < altDepth; n++) sumOfQualities += draw(qualityCumulativeDistribution, rng.nextDouble());
+                } else {
+                    // If the number of alt reads is "large" we draw from a Gaussian approximation of the base
+                    // quality distribution to speed up the code.
+                    sumOfQualities = drawSumOfQScores(altDepth, averageQuality, standardDeviationQuality, nextGaussian(rng));
+                }
+
+                if (isCalled(depth, altDepth, sumOfQualities, alleleFraction, logOddsThreshold)) {
+                    calledVariants++;
+                }
+            }
+            return (double) calledVariants / sampleSize;
+        }
+
+        /** The probability that a variant with the given alt depth is called by {@link #isCalled(int, int, double, double, double)}. */
+        private double probabilityCalled(final int depth, final int altDepth, final double alleleFraction, final double logOddsThreshold) {
+            final double threshold = callingThreshold(depth, altDepth, alleleFraction, logOddsThreshold);
+            if (Double.isNaN(threshold)) return 0.0;
+
+            // The smallest (integer) sum of qualities that exceeds the threshold
+            final double minimumSum = Math.floor(threshold) + 1;
+            if (altDepth < LARGE_NUMBER_OF_DRAWS) {
+                final double[] tails = smallSumTails[altDepth];
+                if (minimumSum <= 0) return 1.0;
+                return minimumSum < tails.length ? tails[(int) minimumSum] : 0.0;
+            } else {
+                // drawSumOfQScores truncates the Gaussian sum towards zero, so a positive minimum sum is reached by
+                // Gaussian values of at least that sum, and any other by values greater than one less than it.
+                final double boundary = minimumSum > 0 ? minimumSum : minimumSum - 1;
+                final double mean = altDepth * averageQuality;
+                final double standardDeviation = Math.sqrt(altDepth) * standardDeviationQuality;
+                if (standardDeviation == 0) return mean >= boundary ? 1.0 : 0.0;
+                return 0.5 * Erf.erfc((boundary - mean) / (standardDeviation * Math.sqrt(2)));
+            }
+        }
+
+        /** Returns the cumulative sums of a distribution, normalized so that the last is exactly 1. */
+        private static double[] cumulativeDistribution(final double[] distribution) {
+            final double[] cumulative = new double[distribution.length];
+            double sum = 0;
+            for (int i = 0; i < distribution.length; i++) cumulative[i] = (sum += distribution[i]);
+            for (int i = 0; i < cumulative.length; i++) cumulative[i] /= sum;
+            cumulative[cumulative.length - 1] = 1.0;
+            return cumulative;
+        }
+
+        /** Returns the value of a distribution, given as its cumulative distribution, at the uniform quantile u. */
+        private static int draw(final double[] cumulativeDistribution, final double u) {
+            int low = 0, high = cumulativeDistribution.length - 1;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (cumulativeDistribution[mid] > u) high = mid;
+                else low = mid + 1;
+            }
+            return low;
+        }
+
+        /** Draws a standard normal value with the polar method. */
+        private static double nextGaussian(final SplittableRandom rng) {
+            double v1, v2, s;
+            do {
+                v1 = 2 * rng.nextDouble() - 1;
+                v2 = 2 * rng.nextDouble() - 1;
+                s = v1 * v1 + v2 * v2;
+            } while (s >= 1 || s == 0);
+            return v1 * Math.sqrt(-2 * Math.log(s) / s);
+        }
     }
 }
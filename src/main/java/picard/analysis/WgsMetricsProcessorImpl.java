@@ -32,10 +32,12 @@ import htsjdk.samtools.util.AbstractLocusIterator;
 import htsjdk.samtools.util.AbstractRecordAndOffset;
 import htsjdk.samtools.util.ProgressLogger;
 import htsjdk.samtools.util.Log;
+import picard.PicardException;
 import picard.filter.CountingFilter;
 import picard.filter.CountingPairedFilter;
 
 import java.util.Arrays;
+import java.util.function.IntFunction;
 import java.util.stream.LongStream;
 
 /**
@@ -53,15 +55,15 @@ public class WgsMetricsProcessorImpl<T extends AbstractRecordAndOffset> implemen
      */
     private final AbstractWgsMetricsCollector<T> collector;
     /**
-     * ReferenceWalker for a processed reference sequence
+     * Source of the reference sequence for each sequence index
      */
-    private final ReferenceSequenceFileWalker refWalker;
+    private final IntFunction<ReferenceSequence> referenceSequences;
     /**
      * Logger for the progress of work
      */
     private final ProgressLogger progress;
 
-    private final Log log = Log.getInstance(WgsMetricsProcessorImpl.class);
+    private static final Log LOG = Log.getInstance(WgsMetricsProcessorImpl.class);
 
     /**
      * @param iterator  input {@link htsjdk.samtools.util.AbstractLocusIterator}
@@ -73,9 +75,34 @@ public class WgsMetricsProcessorImpl<T extends AbstractRecordAndOffset> implemen
             ReferenceSequenceFileWalker refWalker,
             AbstractWgsMetricsCollector<T> collector,
             ProgressLogger progress) {
+        this(iterator, (IntFunction<ReferenceSequence>) refWalker::get, collector, progress);
+    }
+
+    /**
+     * @param iterator  input {@link htsjdk.samtools.util.AbstractLocusIterator} over the loci of a single reference sequence
+     * @param ref       the reference sequence the iterator is over
+     * @param collector input {@link picard.analysis.AbstractWgsMetricsCollector}
+     * @param progress  logger
+     */
+    public WgsMetricsProcessorImpl(AbstractLocusIterator<T, AbstractLocusInfo<T>> iterator,
+            ReferenceSequence ref,
+            AbstractWgsMetricsCollector<T> collector,
+            ProgressLogger progress) {
+        this(iterator, sequenceIndex -> {
+            if (sequenceIndex != ref.getContigIndex()) {
+                throw new PicardException("Locus on sequence " + sequenceIndex + " when processing sequence " + ref.getName());
+            }
+            return ref;
+        }, collector, progress);
+    }
+
+    private WgsMetricsProcessorImpl(AbstractLocusIterator<T, AbstractLocusInfo<T>> iterator,
+            IntFunction<ReferenceSequence> referenceSequences,
+            AbstractWgsMetricsCollector<T> collector,
+            ProgressLogger progress) {
         this.iterator = iterator;
         this.collector = collector;
-        this.refWalker = refWalker;
+        this.referenceSequences = referenceSequences;
         this.progress = progress;
     }
 
@@ -88,7 +115,7 @@ public class WgsMetricsProcessorImpl<T extends AbstractRecordAndOffset> implemen
 
         while (iterator.hasNext()) {
             final AbstractLocusInfo<T> info = iterator.next();
-            final ReferenceSequence ref = refWalker.get(info.getSequenceIndex());
+            final ReferenceSequence ref = referenceSequences.apply(info.getSequenceIndex());
             boolean referenceBaseN = collector.isReferenceBaseN(info.getPosition(), ref);
             collector.addInfo(info, ref, referenceBaseN);
             if (referenceBaseN) {
@@ -101,11 +128,17 @@ public class WgsMetricsProcessorImpl<T extends AbstractRecordAndOffset> implemen
             }
             collector.setCounter(counter);
         }
-        // check that we added the same number of bases to the raw coverage histogram and the base quality histograms
+        checkBaseCounts(collector);
+    }
+
+    /**
+     * Checks that the same number of bases were added to the raw coverage histogram and the base quality histogram.
+     */
+    static void checkBaseCounts(final AbstractWgsMetricsCollector<?> collector) {
         final long sumBaseQ = Arrays.stream(collector.unfilteredBaseQHistogramArray).sum();
         final long sumDepthHisto = LongStream.rangeClosed(0, collector.coverageCap).map(i -> (i * collector.unfilteredDepthHistogramArray[(int) i])).sum();
         if (sumBaseQ != sumDepthHisto) {
-            log.error("Coverage and baseQ distributions contain different amount of bases!");
+            LOG.error("Coverage and baseQ distributions contain different amount of bases!");
         }
     }
 
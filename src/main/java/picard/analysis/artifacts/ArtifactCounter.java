@@ -6,10 +6,10 @@ import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.StringUtil;
 import picard.PicardException;
 import picard.analysis.artifacts.SequencingArtifactMetrics.*;
+import picard.util.ReferenceContextCodes;
 
 import java.util.ArrayList;
 import java.util.EnumMap;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -22,7 +22,11 @@ class ArtifactCounter {
     private final String sampleAlias;
     private final String library;
 
-    private final Map<String, RefContext> contextMap = new HashMap<>();
+    /**
+     * The largest CONTEXT_SIZE whose dense count array stays within a memory budget of 1GB per library: 4^(2n+1)
+     * contexts * 4 called bases * 4 orientations longs, which is 512MB at 5 but 8GB at 6.
+     */
+    public static final int MAX_CONTEXT_SIZE = 5;
 
     private final ContextAccumulator fullContextAccumulator;
     private final ContextAccumulator halfContextAccumulator;
@@ -37,22 +41,20 @@ class ArtifactCounter {
     private final Set<String> trailingContexts = new HashSet<>();
     private final int contextSize;
 
-    // tuple to keep track of the different types of sub-contexts from a given reference context
-    protected final class RefContext {
-        final String ref, leading, trailing, zero;
-
-        public RefContext(final String ref, final String leading, final String trailing, final String zero) {
-            this.ref = ref;
-            this.leading = leading;
-            this.trailing = trailing;
-            this.zero = zero;
-        }
-    }
+    // observations of full contexts, indexed by ((context code * 4) + called base) * 4 + read orientation.
+    // these are only turned into context strings and folded into fullContextAccumulator when we finish.
+    private final long[] fullContextCounts;
+    private static final int NUM_BASES = Transition.Base.values().length;
+    private static final int NUM_ORIENTATIONS = 4;
 
     public ArtifactCounter(final String sampleAlias, final String library, final int contextSize, final boolean expectedTandemReads) {
         this.sampleAlias = sampleAlias;
         this.library = library;
         this.contextSize = contextSize;
+        if (contextSize < 0 || contextSize > MAX_CONTEXT_SIZE) {
+            throw new PicardException("Context size must be between 0 and " + MAX_CONTEXT_SIZE + " but was " + contextSize);
+        }
+        this.fullContextCounts = new long[ReferenceContextCodes.numberOfContexts(2 * contextSize + 1) * NUM_BASES * NUM_ORIENTATIONS];
 
         // define the contexts
         final HashSet<String> fullContexts = new HashSet<>();
@@ -71,7 +73,6 @@ class ArtifactCounter {
             final String leading = context.substring(0, contextSize) + centralBase + padding;
             final String trailing = padding + centralBase + context.substring(contextSize + 1, context.length());
             final String zero = padding + centralBase + padding;
-            contextMap.put(context, new RefContext(context, leading, trailing, zero));
 
             leadingContexts.add(leading);
             trailingContexts.add(trailing);
@@ -93,16 +94,31 @@ class ArtifactCounter {
     }
 
     /**
-     * Add a record to the full accumulator.
+     * Count one base of a record against its reference context.
+     *
+     * @param refContextCode the reference context, as encoded by {@link ReferenceContextCodes}
+     * @param calledBase the base called in the read, which must be one of A, C, G or T
+     * @param rec the record the base came from, used to tell read 1 from read 2 and the strand it aligned to
      */
-    public void countRecord(final String refContext, final char calledBase, final SAMRecord rec) {
-        this.fullContextAccumulator.countRecord(refContext, calledBase, rec);
+    public void countRecord(final int refContextCode, final byte calledBase, final SAMRecord rec) {
+        final int orientation = (rec.getReadPairedFlag() && rec.getSecondOfPairFlag() ? 2 : 0) + (rec.getReadNegativeStrandFlag() ? 1 : 0);
+        this.fullContextCounts[(refContextCode * NUM_BASES + ReferenceContextCodes.baseCode(calledBase)) * NUM_ORIENTATIONS + orientation]++;
     }
 
     /**
      * Stop counting, tally things up, and extract metrics.
      */
     public void finish() {
+        final int contextLength = 2 * contextSize + 1;
+        for (int code = 0; code < ReferenceContextCodes.numberOfContexts(contextLength); code++) {
+            final String context = ReferenceContextCodes.decode(code, contextLength);
+            for (final Transition.Base calledBase : Transition.Base.values()) {
+                final int offset = (code * NUM_BASES + ReferenceContextCodes.baseCode(calledBase.base)) * NUM_ORIENTATIONS;
+                this.fullContextAccumulator.addCounts(context, (char) calledBase.base,
+                        fullContextCounts[offset], fullContextCounts[offset + 1], fullContextCounts[offset + 2], fullContextCounts[offset + 3]);
+            }
+        }
+
         final ListMap<Transition, DetailPair> allDetailMetrics = getDetailMetrics();
         final Map<Transition, SummaryPair> allSummaryMetrics = getSummaryMetrics();
 
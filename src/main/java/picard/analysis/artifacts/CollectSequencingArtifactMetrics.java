@@ -19,6 +19,7 @@ import picard.analysis.artifacts.SequencingArtifactMetrics.PreAdapterSummaryMetr
 import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
 import picard.cmdline.programgroups.DiagnosticsAndQCProgramGroup;
 import picard.util.DbSnpBitSetUtil;
+import picard.util.ReferenceContextCodes;
 import picard.util.VariantType;
 
 import java.io.File;
@@ -95,6 +96,10 @@ static final String USAGE_DETAILS = "<p>This tool examines two sources of sequen
     @Argument(doc = "VCF format dbSNP file, used to exclude regions around known polymorphisms from analysis.", optional = true)
     public File DB_SNP;
 
+    @Argument(doc = "Optional file in which to keep the sites of the dbSNP file, so that later runs memory-map them rather than " +
+            "reading the dbSNP file. Built on first use, and rebuilt if the dbSNP file or sequence dictionary changes. Not used with INTERVALS.", optional = true)
+    public File DB_SNP_CACHE;
+
     @Argument(shortName = "Q", doc = "The minimum base quality score for a base to be included in analysis.")
     public int MINIMUM_QUALITY_SCORE = 20;
 
@@ -124,7 +129,8 @@ static final String USAGE_DETAILS = "<p>This tool examines two sources of sequen
     @Argument(doc = "When available, use original quality scores for filtering.")
     public boolean USE_OQ = true;
 
-    @Argument(doc = "The number of context bases to include on each side of the assayed base.")
+    @Argument(doc = "The number of context bases to include on each side of the assayed base. Memory grows 16-fold with " +
+            "each extra base; the counts alone take about 512MB per library at the maximum of " + ArtifactCounter.MAX_CONTEXT_SIZE + ".")
     public int CONTEXT_SIZE = 1;
 
     @Argument(doc = "If specified, only print results for these contexts in the detail metrics output. " +
@@ -147,9 +153,6 @@ static final String USAGE_DETAILS = "<p>This tool examines two sources of sequen
     private DbSnpBitSetUtil dbSnpMask;
     private SamRecordFilter recordFilter;
 
-    private String currentRefString = null;
-    private int currentRefIndex = -1;
-
     private final Set<String> samples = new HashSet<>();
     private final Set<String> libraries = new HashSet<>();
     private final Map<String, ArtifactCounter> artifactCounters = new HashMap<>();
@@ -167,6 +170,7 @@ static final String USAGE_DETAILS = "<p>This tool examines two sources of sequen
 
         final int contextFullLength = 2 * CONTEXT_SIZE + 1;
         if (CONTEXT_SIZE < 0) messages.add("CONTEXT_SIZE cannot be negative");
+        if (CONTEXT_SIZE > ArtifactCounter.MAX_CONTEXT_SIZE) messages.add("CONTEXT_SIZE cannot be greater than " + ArtifactCounter.MAX_CONTEXT_SIZE);
         for (final String context : CONTEXTS_TO_PRINT) {
             if (context.length() != contextFullLength) {
                 messages.add("Context " + context + " is not the length implied by CONTEXT_SIZE: " + contextFullLength);
@@ -210,7 +214,7 @@ static final String USAGE_DETAILS = "<p>This tool examines two sources of sequen
         }
         else if (DB_SNP != null) {
             IOUtil.assertFileIsReadable(DB_SNP);
-            dbSnpMask = new DbSnpBitSetUtil(DB_SNP, header.getSequenceDictionary(), EnumSet.noneOf(VariantType.class), null, Optional.of(log));
+            dbSnpMask = new DbSnpBitSetUtil(DB_SNP, header.getSequenceDictionary(), EnumSet.noneOf(VariantType.class), null, Optional.of(log), DB_SNP_CACHE);
         }
 
         // set record-level filters
@@ -247,7 +251,9 @@ static final String USAGE_DETAILS = "<p>This tool examines two sources of sequen
 
         // set up some constants that don't change in the loop below
         final int contextFullLength = 2 * CONTEXT_SIZE + 1;
+        final int contextMask = ReferenceContextCodes.mask(contextFullLength);
         final ArtifactCounter counter = artifactCounters.get(library);
+        final byte[] refBases = ref.getBases();
         final byte[] readBases = rec.getReadBases();
         final byte[] readQuals;
         if (USE_OQ) {
@@ -259,18 +265,37 @@ static final String USAGE_DETAILS = "<p>This tool examines two sources of sequen
 
         // iterate over aligned positions
         for (final AlignmentBlock block : rec.getAlignmentBlocks()) {
+            // the reference context is rolled along the block one base at a time rather than being re-read at every
+            // position: contextCode holds the last contextFullLength bases before nextRefIndex (0-based), of which the
+            // last validBases are all A, C, G or T.
+            int contextCode = 0;
+            int validBases = 0;
+            int nextRefIndex = block.getReferenceStart() - 1 - CONTEXT_SIZE;
+
             for (int offset = 0; offset < block.getLength(); offset++) {
                 // remember, these are 1-based!
                 final int readPos = block.getReadStart() + offset;
                 final int refPos = block.getReferenceStart() + offset;
 
+                // roll the context forward so that it is centred on refPos
+                final int contextStartIndex = refPos - CONTEXT_SIZE - 1;
+                for (final int contextEndIndex = contextStartIndex + contextFullLength; nextRefIndex < contextEndIndex; nextRefIndex++) {
+                    final int baseCode = (nextRefIndex >= 0 && nextRefIndex < refBases.length) ? ReferenceContextCodes.baseCode(refBases[nextRefIndex]) : ReferenceContextCodes.INVALID;
+                    if (baseCode == ReferenceContextCodes.INVALID) {
+                        validBases = 0;
+                    } else {
+                        contextCode = ((contextCode << 2) | baseCode) & contextMask;
+                        validBases++;
+                    }
+                }
+
                 // skip low BQ sites
                 final byte qual = readQuals[readPos - 1];
                 if (qual < MINIMUM_QUALITY_SCORE) continue;
 
                 // skip N bases in read
-                final char readBase = Character.toUpperCase((char)readBases[readPos - 1]);
-                if (readBase == 'N') continue;
+                final byte readBase = StringUtil.toUpperCase(readBases[readPos - 1]);
+                if (ReferenceContextCodes.baseCode(readBase) == ReferenceContextCodes.INVALID) continue;
 
                 /**
                  * Skip regions outside of intervals.
@@ -286,28 +311,17 @@ static final String USAGE_DETAILS = "<p>This tool examines two sources of sequen
                 if (dbSnpMask != null && dbSnpMask.isDbSnpSite(ref.getName(), refPos)) continue;
 
                 // skip the ends of the reference
-                final int contextStartIndex = refPos - CONTEXT_SIZE - 1;
                 if (contextStartIndex < 0 || contextStartIndex + contextFullLength > ref.length()) continue;
 
-                // skip contexts with N bases
-                final String context = getRefContext(ref, contextStartIndex, contextFullLength);
-                if (context.contains("N")) continue;
+                // skip contexts with N (or other ambiguous) bases
+                if (validBases < contextFullLength) continue;
 
                 // count the base!
-                counter.countRecord(context, readBase, rec);
+                counter.countRecord(contextCode, readBase, rec);
             }
         }
     }
 
-    private String getRefContext(final ReferenceSequence ref, final int contextStartIndex, final int contextFullLength) {
-        // cache the upper-cased string version of this reference so we don't need to create a string for every base in every read
-        if (currentRefIndex != ref.getContigIndex()) {
-            currentRefString = new String(ref.getBases()).toUpperCase();
-            currentRefIndex = ref.getContigIndex();
-        }
-        return currentRefString.substring(contextStartIndex, contextStartIndex + contextFullLength);
-    }
-
     @Override
     protected void finish() {
         final MetricsFile<PreAdapterSummaryMetrics, Integer> preAdapterSummaryMetricsFile = getMetricsFile();
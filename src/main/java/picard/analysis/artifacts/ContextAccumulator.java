@@ -1,6 +1,5 @@
 package picard.analysis.artifacts;
 
-import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.util.ListMap;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.StringUtil;
@@ -41,10 +40,13 @@ class ContextAccumulator {
         }
     }
 
-    public void countRecord(final String refContext, final char calledBase, final SAMRecord rec) {
-        AlignmentAccumulator[] accumulators = artifactMap.get(refContext);
+    /**
+     * Adds observations of calledBase at refContext, broken down by read1/read2 and positive/negative strand.
+     */
+    public void addCounts(final String refContext, final char calledBase, final long r1Pos, final long r1Neg, final long r2Pos, final long r2Neg) {
+        final AlignmentAccumulator[] accumulators = artifactMap.get(refContext);
         if (accumulators != null) {
-            accumulators[Transition.baseIndexMap[calledBase]].countRecord(rec);
+            accumulators[Transition.baseIndexMap[calledBase]].add(r1Pos, r1Neg, r2Pos, r2Neg);
         }
     }
 
@@ -172,16 +174,11 @@ class ContextAccumulator {
         private long R2_POS = 0;
         private long R2_NEG = 0;
 
-        private void countRecord(final SAMRecord rec) {
-            final boolean isNegativeStrand = rec.getReadNegativeStrandFlag();
-            final boolean isReadTwo = rec.getReadPairedFlag() && rec.getSecondOfPairFlag();
-            if (isReadTwo) {
-                if (isNegativeStrand) this.R2_NEG++;
-                else this.R2_POS++;
-            } else {
-                if (isNegativeStrand) this.R1_NEG++;
-                else this.R1_POS++;
-            }
+        private void add(final long r1Pos, final long r1Neg, final long r2Pos, final long r2Neg) {
+            this.R1_POS += r1Pos;
+            this.R1_NEG += r1Neg;
+            this.R2_POS += r2Pos;
+            this.R2_NEG += r2Neg;
         }
 
         private void merge(final AlignmentAccumulator other) {
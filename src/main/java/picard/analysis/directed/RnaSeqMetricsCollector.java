@@ -14,6 +14,7 @@ import picard.analysis.MetricAccumulationLevel;
 import picard.analysis.RnaSeqMetrics;
 import picard.annotation.Gene;
 import picard.annotation.LocusFunction;
+import picard.annotation.LocusFunctionTrack;
 import picard.metrics.PerUnitMetricCollector;
 import picard.metrics.SAMRecordMultiLevelCollector;
 import picard.util.MathUtil;
@@ -38,6 +39,7 @@ public class RnaSeqMetricsCollector extends SAMRecordMultiLevelCollector<RnaSeqM
     final private Set<Integer> ignoredSequenceIndices;
 
     private final OverlapDetector<Gene> geneOverlapDetector;
+    private final LocusFunctionTrack locusFunctionTrack;
     private final OverlapDetector<Interval> ribosomalSequenceOverlapDetector;
     private final boolean collectCoverageStatistics;
 
@@ -45,9 +47,23 @@ public class RnaSeqMetricsCollector extends SAMRecordMultiLevelCollector<RnaSeqM
                                   final Long ribosomalBasesInitialValue, OverlapDetector<Gene> geneOverlapDetector, OverlapDetector<Interval> ribosomalSequenceOverlapDetector,
                                   final HashSet<Integer> ignoredSequenceIndices, final int minimumLength, final StrandSpecificity strandSpecificity,
                                   final double rrnaFragmentPercentage, boolean collectCoverageStatistics) {
+        this(accumulationLevels, samRgRecords, ribosomalBasesInitialValue, geneOverlapDetector, LocusFunctionTrack.build(geneOverlapDetector.getAll()),
+                ribosomalSequenceOverlapDetector, ignoredSequenceIndices, minimumLength, strandSpecificity, rrnaFragmentPercentage,
+                collectCoverageStatistics);
+    }
+
+    /**
+     * @param locusFunctionTrack The locus functions of the genes in geneOverlapDetector, e.g. as read back from a cache.
+     */
+    public RnaSeqMetricsCollector(final Set<MetricAccumulationLevel> accumulationLevels, final List<SAMReadGroupRecord> samRgRecords,
+                                  final Long ribosomalBasesInitialValue, final OverlapDetector<Gene> geneOverlapDetector,
+                                  final LocusFunctionTrack locusFunctionTrack, final OverlapDetector<Interval> ribosomalSequenceOverlapDetector,
+                                  final HashSet<Integer> ignoredSequenceIndices, final int minimumLength, final StrandSpecificity strandSpecificity,
+                                  final double rrnaFragmentPercentage, final boolean collectCoverageStatistics) {
         this.ribosomalInitialValue  = ribosomalBasesInitialValue;
         this.ignoredSequenceIndices = ignoredSequenceIndices;
         this.geneOverlapDetector    = geneOverlapDetector;
+        this.locusFunctionTrack     = locusFunctionTrack;
         this.ribosomalSequenceOverlapDetector = ribosomalSequenceOverlapDetector;
         this.minimumLength          = minimumLength;
         this.strandSpecificity      = strandSpecificity;
@@ -101,6 +117,9 @@ public class RnaSeqMetricsCollector extends SAMRecordMultiLevelCollector<RnaSeqM
 
         private final Map<Gene.Transcript, int[]> coverageByTranscript = new HashMap<Gene.Transcript, int[]>();
 
+        private final LocusFunctionTrack.Cursor locusFunctionCursor = locusFunctionTrack.cursor();
+        private final long[] basesByFunction = new long[LocusFunction.values().length];
+
         /**
          * Derived classes that need to capture some additional metrics can use this ctor to supply a metrics instance
          * that is a subclass of RnaSeqMetrics.
@@ -173,24 +192,33 @@ public class RnaSeqMetricsCollector extends SAMRecordMultiLevelCollector<RnaSeqM
                 }
             }
 
-            final Collection<Gene> overlappingGenes                  = geneOverlapDetector.getOverlaps(readInterval);
-            final List<AlignmentBlock> alignmentBlocks               = rec.getAlignmentBlocks();
-            boolean overlapsExon = false;
+            final List<AlignmentBlock> alignmentBlocks = rec.getAlignmentBlocks();
 
+            // Tally the function of each base in the alignment blocks.
+            Arrays.fill(basesByFunction, 0);
             for (final AlignmentBlock alignmentBlock : alignmentBlocks) {
-                // Get functional class for each position in the alignment block.
-                final LocusFunction[] locusFunctions = new LocusFunction[alignmentBlock.getLength()];
-
-                // By default, if base does not overlap with rRNA or gene, it is intergenic.
-                Arrays.fill(locusFunctions, 0, locusFunctions.length, LocusFunction.INTERGENIC);
-
-                for (final Gene gene : overlappingGenes) {
-                    for (final Gene.Transcript transcript : gene) {
-                        transcript.assignLocusFunctionForRange(alignmentBlock.getReferenceStart(), locusFunctions);
-                        // if you want to gather coverage statistics, this variable should be true.
-                        // added for cases with many units [samples/read groups] which overwhelm memory.                
-                        // Add coverage to our coverage counter for this transcript
-                        if (collectCoverageStatistics) {
+                locusFunctionCursor.countBasesByFunction(rec.getReferenceName(), alignmentBlock.getReferenceStart(),
+                        alignmentBlock.getLength(), basesByFunction);
+                metrics.PF_ALIGNED_BASES += alignmentBlock.getLength();
+            }
+            metrics.INTERGENIC_BASES += basesByFunction[LocusFunction.INTERGENIC.ordinal()];
+            metrics.INTRONIC_BASES   += basesByFunction[LocusFunction.INTRONIC.ordinal()];
+            metrics.UTR_BASES        += basesByFunction[LocusFunction.UTR.ordinal()];
+            metrics.CODING_BASES     += basesByFunction[LocusFunction.CODING.ordinal()];
+            final boolean overlapsExon = basesByFunction[LocusFunction.UTR.ordinal()] > 0 ||
+                    basesByFunction[LocusFunction.CODING.ordinal()] > 0;
+
+            // The overlapping genes are only needed for coverage and strand metrics, and the latter only for reads in exons
+            if (!collectCoverageStatistics && !overlapsExon) return;
+            final Collection<Gene> overlappingGenes = geneOverlapDetector.getOverlaps(readInterval);
+
+            // if you want to gather coverage statistics, this variable should be true.
+            // added for cases with many units [samples/read groups] which overwhelm memory.
+            if (collectCoverageStatistics) {
+                for (final AlignmentBlock alignmentBlock : alignmentBlocks) {
+                    for (final Gene gene : overlappingGenes) {
+                        for (final Gene.Transcript transcript : gene) {
+                            // Add coverage to our coverage counter for this transcript
                             int[] coverage = this.coverageByTranscript.get(transcript);
                             if (coverage == null) {
                                 coverage = new int[transcript.length()];
@@ -200,31 +228,6 @@ public class RnaSeqMetricsCollector extends SAMRecordMultiLevelCollector<RnaSeqM
                                     CoordMath.getEnd(alignmentBlock.getReferenceStart(), alignmentBlock.getLength()),
                                     coverage);
                         }
-
-                    }
-                }
-
-                // Tally the function of each base in the alignment block.
-                for (final LocusFunction locusFunction : locusFunctions) {
-                    ++metrics.PF_ALIGNED_BASES;
-                    switch (locusFunction) {
-                        case INTERGENIC:
-                            ++metrics.INTERGENIC_BASES;
-                            break;
-                        case INTRONIC:
-                            ++metrics.INTRONIC_BASES;
-                            break;
-                        case UTR:
-                            ++metrics.UTR_BASES;
-                            overlapsExon = true;
-                            break;
-                        case CODING:
-                            ++metrics.CODING_BASES;
-                            overlapsExon = true;
-                            break;
-                        case RIBOSOMAL:
-                            ++metrics.RIBOSOMAL_BASES;
-                            break;
                     }
                 }
             }
@@ -26,7 +26,7 @@ package picard.analysis.replicates;
 
 import htsjdk.samtools.DuplicateSet;
 import htsjdk.samtools.DuplicateSetIterator;
-import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SAMUtils;
@@ -39,14 +39,15 @@ import htsjdk.samtools.filter.MappingQualityFilter;
 import htsjdk.samtools.filter.SamRecordFilter;
 import htsjdk.samtools.filter.SecondaryOrSupplementaryFilter;
 import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.CollectionUtil;
 import htsjdk.samtools.util.ComparableTuple;
 import htsjdk.samtools.util.Histogram;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.ProgressLogger;
+import htsjdk.samtools.util.StringUtil;
 import htsjdk.utils.ValidationUtils;
-import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.filter.CompoundFilter;
 import htsjdk.variant.variantcontext.filter.FilteringVariantContextIterator;
@@ -54,7 +55,6 @@ import htsjdk.variant.variantcontext.filter.GenotypeQualityFilter;
 import htsjdk.variant.variantcontext.filter.HeterozygosityFilter;
 import htsjdk.variant.variantcontext.filter.PassingVariantFilter;
 import htsjdk.variant.variantcontext.filter.SnpFilter;
-import htsjdk.variant.vcf.VCFContigHeaderLine;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 import org.broadinstitute.barclay.argparser.Argument;
@@ -66,16 +66,14 @@ import picard.cmdline.CommandLineProgram;
 import picard.cmdline.StandardOptionDefinitions;
 import picard.cmdline.programgroups.DiagnosticsAndQCProgramGroup;
 import picard.filter.CountingPairedFilter;
+import picard.util.ThreadPoolExecutorUtil;
+import picard.util.ThreadPoolExecutorWithExceptions;
 
 import java.io.File;
-import java.util.HashMap;
+import java.time.Duration;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.Semaphore;
 
 import static picard.cmdline.StandardOptionDefinitions.MINIMUM_MAPPING_QUALITY_SHORT_NAME;
 
@@ -180,21 +178,34 @@ public class CollectIndependentReplicateMetrics extends CommandLineProgram {
     )
     public int PROGRESS_STEP_INTERVAL = 100000;
 
+    @Argument(doc = "Number of contigs to process in parallel. Only a single thread is used when STOP_AFTER is set.", optional = true)
+    public int THREAD_COUNT = 1;
+
 
     private static final Log log = Log.getInstance(CollectIndependentReplicateMetrics.class);
 
+    private static final int NO_SITE = -1;
+
+    /** Barcodes of up to this many bases are packed two bits per base into a long to compare them. */
+    private static final int MAX_PACKED_BARCODE_LENGTH = 31;
+    private static final long UNPACKABLE_BARCODE = -1;
+    private static final long LOW_BITS_OF_BASES = 0x5555555555555555L;
+
+    private volatile boolean stopped = false;
+
     @Override
     protected int doWork() {
 
         IOUtil.assertFileIsReadable(VCF);
         IOUtil.assertFileIsReadable(INPUT);
 
-        // get an iterator to reads that overlap the heterozygous sites
         final SamReader in = SamReaderFactory.makeDefault().open(INPUT);
 
         if (!in.hasIndex()) {
             throw new PicardException("INPUT file must have an index.");
         }
+        final SAMFileHeader header = in.getFileHeader();
+        CloserUtil.close(in);
 
         IOUtil.assertFileIsWritable(OUTPUT);
         if (MATRIX_OUTPUT != null) IOUtil.assertFileIsWritable(MATRIX_OUTPUT);
@@ -215,6 +226,56 @@ public class CollectIndependentReplicateMetrics extends CommandLineProgram {
             throw new IllegalArgumentException("When sample is not null, VCF must contain supplied sample. Cannot find sample " + SAMPLE + " in vcf.");
         }
 
+        int threads = Math.max(1, THREAD_COUNT);
+        if (STOP_AFTER > 0 && threads > 1) {
+            log.warn("Using a single thread, since STOP_AFTER is set.");
+            threads = 1;
+        }
+
+        // Each contig's het sites are read from the VCF, and the reads overlapping them collected, by a collector of its own.
+        // At most THREAD_COUNT contigs' sites are held in memory at once.
+        final ContigReplicateCollector[] contigCollectors = new ContigReplicateCollector[header.getSequenceDictionary().size()];
+        final ProgressLogger progress = new ProgressLogger(log, PROGRESS_STEP_INTERVAL, "examined", "duplicate sets");
+        final Iterator<HetSites> hetSitesByContig = HetSites.byContig(getHetVariants(vcf), SAMPLE);
+        long nHetSites = 0;
+
+        log.info("Starting iteration on reads, " + threads + " contig(s) at a time.");
+        final Semaphore contigsInMemory = new Semaphore(threads);
+        final ThreadPoolExecutorWithExceptions pool = new ThreadPoolExecutorWithExceptions(threads);
+        try {
+            while (true) {
+                contigsInMemory.acquireUninterruptibly();
+                if (pool.hasError() || stopped || !hetSitesByContig.hasNext()) {
+                    break;
+                }
+                final HetSites sites = hetSitesByContig.next();
+                nHetSites += sites.size();
+                final int contigIndex = header.getSequenceIndex(sites.getContig());
+                if (contigIndex == -1) {
+                    log.warn("Skipping the heterozygous sites on " + sites.getContig() + ", which is not in the INPUT's sequence dictionary.");
+                    contigsInMemory.release();
+                    continue;
+                }
+                final ContigReplicateCollector contigCollector = new ContigReplicateCollector(sites, progress);
+                contigCollectors[contigIndex] = contigCollector;
+                pool.submit(() -> {
+                    try {
+                        contigCollector.collect(contigIndex);
+                    } finally {
+                        contigsInMemory.release();
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            vcf.close();
+        }
+        ThreadPoolExecutorUtil.awaitThreadPoolTermination("Independent replicate metrics executor", pool, Duration.ofMinutes(5));
+        if (pool.hasError()) {
+            throw new PicardException("Exception collecting independent replicate metrics", pool.exception);
+        }
+        log.info("Found " + nHetSites + " heterozygous sites in VCF.");
+
         final Histogram<ComparableTuple<String, String>> umiConfusionMatrix = new Histogram<>("ConfusionUMI", "Count");
         final Histogram<ComparableTuple<String, String>> umiConfusionMatrixEditDistance = new Histogram<>("ConfusionUMI", "EditDistance");
 
@@ -224,88 +285,174 @@ public class CollectIndependentReplicateMetrics extends CommandLineProgram {
         final Histogram<Byte> umiEditDistanceInSameBiDups = new Histogram<>("editDistance", "sameAllelesCount");
         final Histogram<Byte> alleleBalanceCount = new Histogram<>("alleleBalance", "alleleBalanceCount");
 
-        // get the intervals that correspond to het sites in the VCF
-        final SortedMap<QueryInterval, List<Allele>> intervalAlleleMap = getQueryIntervalsMap(VCF);
-        final Iterator<QueryInterval> queryIntervalIterator = intervalAlleleMap.keySet().iterator();
+        // Combine the contigs in order. Each contig's last locus is only resolved once it is known whether another contig follows it.
+        ContigReplicateCollector previous = null;
+        for (final ContigReplicateCollector contigCollector : contigCollectors) {
+            if (contigCollector == null || !contigCollector.newLocus) continue;
 
-        log.info("Found " + intervalAlleleMap.size() + " heterozygous sites in VCF.");
+            if (previous != null) {
+                previous.resolveLocus(metric, alleleBalanceCount);
+            }
+            metric.merge(contigCollector.metric);
+            alleleBalanceCount.addHistogram(contigCollector.alleleBalanceCount);
+            umiEditDistanceInDiffBiDups.addHistogram(contigCollector.umiEditDistanceInDiffBiDups);
+            umiEditDistanceInSameBiDups.addHistogram(contigCollector.umiEditDistanceInSameBiDups);
+            if (MATRIX_OUTPUT != null) {
+                umiConfusionMatrix.addHistogram(contigCollector.umiConfusionMatrix);
+                for (final ComparableTuple<String, String> key : contigCollector.umiConfusionMatrixEditDistance.keySet()) {
+                    if (!umiConfusionMatrixEditDistance.containsKey(key)) {
+                        umiConfusionMatrixEditDistance.increment(key, contigCollector.umiConfusionMatrixEditDistance.get(key).getValue());
+                    }
+                }
+            }
+            previous = contigCollector;
+        }
+        if (previous != null && previous.pastLastSite && !previous.useLocus) {
+            metric.nThreeAllelesSites++;
+        }
+        if (previous != null && previous.useLocus) {
+            metric.merge(previous.locusData);
+            log.debug("Merged final metric. nSites:" + metric.nSites);
+        } else {
+            metric.nThreeAllelesSites++;
+            log.debug("didn't merge last metric, due to 3rd allele: nThreeAllelesSites =" + metric.nThreeAllelesSites);
+        }
+
+        log.info("Iteration done. Emitting metrics.");
+
+        // Emit metrics
+        final MetricsFile<IndependentReplicateMetric, Byte> metricsFile = getMetricsFile();
 
+        metric.calculateDerivedFields();
+        metricsFile.addMetric(metric);
+        metricsFile.addHistogram(alleleBalanceCount);
+        metricsFile.addHistogram(umiEditDistanceInDiffBiDups);
+        metricsFile.addHistogram(umiEditDistanceInSameBiDups);
 
-        log.info("Querying BAM for sites.");
+        metricsFile.write(OUTPUT);
 
-        final SAMRecordIterator samRecordIterator = in.query(QueryInterval.optimizeIntervals(intervalAlleleMap.keySet().toArray(new QueryInterval[0])), false);
-        final List<SamRecordFilter> samFilters = CollectionUtil.makeList(
-                new AlignedFilter(true),
-                new SecondaryOrSupplementaryFilter(),
-                new MappingQualityFilter(MINIMUM_MQ)
-        );
+        final MetricsFile<?, ComparableTuple<String, String>> confusionMetrics = getMetricsFile();
 
-        if (FILTER_UNPAIRED_READS){
-            samFilters.add(new CountingPairedFilter());
+        if (MATRIX_OUTPUT != null) {
+            confusionMetrics.addHistogram(umiConfusionMatrix);
+            confusionMetrics.addHistogram(umiConfusionMatrixEditDistance);
+            confusionMetrics.write(MATRIX_OUTPUT);
         }
 
-        final FilteringSamIterator filteredSamRecordIterator = new FilteringSamIterator(samRecordIterator, new AggregateFilter(samFilters));
-        log.info("Queried BAM, getting duplicate sets.");
-
-        // get duplicate iterator from iterator above
-        final DuplicateSetIterator duplicateSets = new DuplicateSetIterator(filteredSamRecordIterator, in.getFileHeader(),false, null, log);
+        return 0;
+    }
 
-        QueryInterval queryInterval = null;
+    /**
+     * Collects the metrics of the duplicate sets overlapping the het sites of one contig. The sets come in coordinate order,
+     * and a cursor over the contig's sites advances with them, so that each set is examined at the site it overlaps. The
+     * metrics of each site (locus) are merged into the contig's once the sets move past it, except for those of the
+     * contig's last locus, which are merged (or not) when the contigs are combined.
+     */
+    private class ContigReplicateCollector {
+        private final HetSites sites;
+        private final ProgressLogger progress;
 
-        log.info("Starting iteration on reads");
-        final ProgressLogger progress = new ProgressLogger(log, PROGRESS_STEP_INTERVAL, "examined", "duplicate sets");
+        final IndependentReplicateMetric metric = new IndependentReplicateMetric();
+        final Histogram<Byte> umiEditDistanceInDiffBiDups = new Histogram<>("editDistance", "diffAllelesCount");
+        final Histogram<Byte> umiEditDistanceInSameBiDups = new Histogram<>("editDistance", "sameAllelesCount");
+        final Histogram<Byte> alleleBalanceCount = new Histogram<>("alleleBalance", "alleleBalanceCount");
+        final Histogram<ComparableTuple<String, String>> umiConfusionMatrix = new Histogram<>("ConfusionUMI", "Count");
+        final Histogram<ComparableTuple<String, String>> umiConfusionMatrixEditDistance = new Histogram<>("ConfusionUMI", "EditDistance");
 
+        // the current site, the locus metrics at it, and whether they may be used
+        private int site = NO_SITE;
+        private int nextSite = 0;
         IndependentReplicateMetric locusData = new IndependentReplicateMetric();
         boolean useLocus = true;
+        // whether sets have been examined at the current locus since it was last merged
         boolean newLocus = false;
-        int thirdAlleleInfos = 0;
-        Allele badAllele = null;
-        String offendingReadName = null;
+        // whether the sets moved past the last site of the contig that could be used
+        boolean pastLastSite = false;
+
+        private int thirdAlleleInfos = 0;
+        private byte badAllele;
+        private String offendingReadName = null;
+
+        ContigReplicateCollector(final HetSites sites, final ProgressLogger progress) {
+            this.sites = sites;
+            this.progress = progress;
+        }
+
+        void collect(final int contigIndex) {
+            if (stopped) return;
+
+            // get an iterator to reads that overlap the heterozygous sites
+            final SamReader in = SamReaderFactory.makeDefault().open(INPUT);
+            final SAMRecordIterator samRecordIterator = in.query(sites.toQueryIntervals(contigIndex), false);
+            final List<SamRecordFilter> samFilters = CollectionUtil.makeList(
+                    new AlignedFilter(true),
+                    new SecondaryOrSupplementaryFilter(),
+                    new MappingQualityFilter(MINIMUM_MQ)
+            );
+
+            if (FILTER_UNPAIRED_READS) {
+                samFilters.add(new CountingPairedFilter());
+            }
+
+            final FilteringSamIterator filteredSamRecordIterator = new FilteringSamIterator(samRecordIterator, new AggregateFilter(samFilters));
 
-        set:
-        while (duplicateSets.hasNext()) {
+            // get duplicate iterator from iterator above
+            final DuplicateSetIterator duplicateSets = new DuplicateSetIterator(filteredSamRecordIterator, in.getFileHeader(), false, null, log);
+            try {
+                while (duplicateSets.hasNext()) {
+                    if (!examine(duplicateSets.next())) {
+                        break;
+                    }
+                }
+            } finally {
+                duplicateSets.close();
+                CloserUtil.close(in);
+            }
+        }
+
+        /** Examines a duplicate set at the site it overlaps, and returns whether to go on to the next set. */
+        private boolean examine(final DuplicateSet set) {
 
-            final DuplicateSet set = duplicateSets.next();
             final SAMRecord setRep = set.getRepresentative();
-            final QueryInterval setRepsInterval = queryIntervalFromSamRecord(setRep);
+            final int setStart = setRep.getStart();
 
             progress.record(setRep);
-            // if the current duplicate set no longer overlaps the query interval then null it (and handle it below)
+
+            // Once the sets lie past the last site, or the current locus is bad and there is no other site to move on to,
+            // the remaining sets of the contig can't be used.
+            if (sites.getPosition(sites.size() - 1) < setStart || !useLocus && nextSite == sites.size()) {
+                pastLastSite = true;
+                return false;
+            }
+
+            // if the current duplicate set no longer overlaps the site then drop it (and handle it below)
             // also move to the next variant if the previous variant is bad.
-            if (!useLocus || queryInterval != null && isCleanlyBefore(queryInterval, setRepsInterval)) {
+            if (!useLocus || site != NO_SITE && sites.getPosition(site) < setStart) {
                 if (!useLocus) {
                     metric.nThreeAllelesSites++;
-                    if (++thirdAlleleInfos < 100) {
-                        log.debug("Skipping a locus due to third allele: " + badAllele + " but expected " +
-                                intervalAlleleMap.get(queryInterval) + " queryInterval " + queryInterval +
-                                " offending read name is : " + offendingReadName);
-                    }
+                    logThirdAllele();
                 }
-                queryInterval = null;
+                site = NO_SITE;
             }
 
-            // Iterate until we find the query interval that contains the current duplicate set.
+            // Iterate until we find the site that the current duplicate set overlaps.
 
-            // Simply polling for the "next" query will not do since the next one might not be covered by any reads, or it may have been
-            // covered by past reads (if close enough to previous query interval)
-            while (queryIntervalIterator.hasNext() &&
-                    (queryInterval == null || isCleanlyBefore(queryInterval, setRepsInterval))) {
+            // Simply polling for the "next" site will not do since the next one might not be covered by any reads, or it may have been
+            // covered by past reads (if close enough to previous site)
+            while (nextSite < sites.size() && (site == NO_SITE || sites.getPosition(site) < setStart)) {
                 // if we haven't seen either the reference or the alternate in the locus (subject to our stringent filters) do not use locus.
                 if (locusData.nReferenceReads == 0 || locusData.nAlternateReads == 0) {
                     useLocus = false;
                     log.debug("will not use this locus due to lack of evidence of het site.");
                 }
-                // Query interval didn't get killed by 3rd alleles and so we combine the results with the tally
+                // Site didn't get killed by 3rd alleles and so we combine the results with the tally
                 if (useLocus && newLocus) {
-                    metric.merge(locusData);
+                    mergeLocus(metric, alleleBalanceCount);
                     log.debug("merging metric. total nSites so far: " + metric.nSites);
-                    //calculate allele balance with faux counts
-                    final byte alleleBalance = (byte) Math.round(100D * (locusData.nAlternateReads + 0.5) / (locusData.nAlternateReads + locusData.nReferenceReads + 1));
-                    alleleBalanceCount.increment(alleleBalance);
                     // we have merged now, no need to merge the old locus data or update the nSites until out of this while.
                     newLocus = false;
                 }
-                queryInterval = queryIntervalIterator.next();
+                site = nextSite++;
                 locusData = new IndependentReplicateMetric();
                 locusData.nSites = 1;
                 useLocus = true;
@@ -313,9 +460,6 @@ public class CollectIndependentReplicateMetrics extends CommandLineProgram {
             // we have a new locus, next time we should perhaps merge
             newLocus = true;
 
-            // shouldn't happen, but being safe.
-            if (queryInterval == null) break;
-
             final int setSize = set.size();
 
             locusData.nTotalReads += setSize;
@@ -330,35 +474,33 @@ public class CollectIndependentReplicateMetrics extends CommandLineProgram {
             }
 
             log.debug("set size is: " + setSize);
-            final List<Allele> allelesInVc = intervalAlleleMap.get(queryInterval);
-
-            log.debug("alleles in VC: " + allelesInVc);
+            final int position = sites.getPosition(site);
+            final byte refAllele = sites.getFirstAllele(site);
+            final byte altAllele = sites.getSecondAllele(site);
 
             int nRef = 0, nAlt = 0, nOther = 0;
             for (final SAMRecord read : set.getRecords()) {
 
                 // getReadPositionAtReferencePosition gives 1-based offset
-                final int offset = read.getReadPositionAtReferencePosition(queryInterval.start) - 1;
+                final int offset = read.getReadPositionAtReferencePosition(position) - 1;
 
                 if (offset == -1) {
-                    // a labeled continue watch-out!
                     // This could be a deletion OR a clipped end. Get a new set.
                     log.debug("got offset -1, getting new set");
-                    continue set;
+                    return true;
                 }
-                // a labeled continue watch-out!
                 // need to move to the next set since this set has a low quality base-quality.
 
                 if (read.getBaseQualities()[offset] <= MINIMUM_BQ) {
                     log.debug("got low read quality, getting new set");
-                    continue set;
+                    return true;
                 }
 
-                final Allele allele = Allele.create(read.getReadBases()[offset]);
+                final byte allele = StringUtil.toUpperCase(read.getReadBases()[offset]);
 
-                if (allelesInVc.get(0).basesMatch(allele)) {
+                if (allele == refAllele) {
                     nRef++;
-                } else if (allelesInVc.get(1).basesMatch(allele)) {
+                } else if (allele == altAllele) {
                     nAlt++;
                 } else {
                     nOther++;
@@ -371,37 +513,30 @@ public class CollectIndependentReplicateMetrics extends CommandLineProgram {
             locusData.nAlternateReads += nAlt;
             locusData.nReferenceReads += nRef;
 
-            if ( setSize == 1 || setSize > TRIPLETON_SIZE) continue;
+            if (setSize == 1 || setSize > TRIPLETON_SIZE) return !isStopping();
             // From here on there should only be 2 or 3 reads in the set
 
             final SetClassification classification = classifySet(nRef, nAlt, nOther);
 
             log.debug("Classification of set is: " + classification);
             if (setSize == DOUBLETON_SIZE) {
+                final SAMRecord first = set.getRecords().get(0);
+                final SAMRecord second = set.getRecords().get(1);
 
-                final boolean useBarcodes = set.getRecords().stream()
-                        .map(read -> read.getStringAttribute(BARCODE_BQ))
-                        .map(string -> string == null ? "" : string).noneMatch(string ->
-                        {
-                            final byte[] bytes = SAMUtils.fastqToPhred(string);
-                            return IntStream.range(0, bytes.length).map(i -> bytes[i]).anyMatch(q -> q < MINIMUM_BARCODE_BQ);
-                        });
+                final boolean useBarcodes = hasGoodBarcodeQualities(first) && hasGoodBarcodeQualities(second);
 
                 log.debug("using barcodes?" + useBarcodes);
 
-                if(useBarcodes) locusData.nGoodBarcodes++; else locusData.nBadBarcodes++;
+                if (useBarcodes) locusData.nGoodBarcodes++; else locusData.nBadBarcodes++;
 
-                final List<String> barcodes = set.getRecords().stream()
-                        .map(read -> read.getStringAttribute(BARCODE_TAG))
-                        .map(string -> string == null ? "" : string).collect(Collectors.toList());
+                final String firstBarcode = getBarcode(first);
+                final String secondBarcode = getBarcode(second);
 
-                log.debug("found UMIs:" + barcodes);
-                final boolean hasMultipleOrientations = set.getRecords().stream()
-                        .map(rec->!rec.getReadPairedFlag() || rec.getFirstOfPairFlag())
-                        .distinct().count() != 1;
+                log.debug("found UMIs:" + firstBarcode + ", " + secondBarcode);
+                final boolean hasMultipleOrientations = isFirstOfPairOrUnpaired(first) != isFirstOfPairOrUnpaired(second);
                 log.debug("reads have multiple orientation?" + hasMultipleOrientations);
 
-                final byte editDistance = calculateEditDistance(barcodes.get(0), barcodes.get(1));
+                final byte editDistance = calculateEditDistance(firstBarcode, secondBarcode);
 
                 log.debug("Edit distance between umi: " + editDistance);
 
@@ -435,10 +570,13 @@ public class CollectIndependentReplicateMetrics extends CommandLineProgram {
 
                     if (useBarcodes) {
                         umiEditDistanceInSameBiDups.increment(editDistance);
-                        final ComparableTuple<String, String> key = new ComparableTuple<>(barcodes.get(0), barcodes.get(1));
-                        umiConfusionMatrix.increment(key);
-                        if (!umiConfusionMatrixEditDistance.containsKey(key)) {
-                            umiConfusionMatrixEditDistance.increment(key, editDistance);
+                        // the confusion matrix can hold a bin per pair of UMIs, so is only kept when it is written
+                        if (MATRIX_OUTPUT != null) {
+                            final ComparableTuple<String, String> key = new ComparableTuple<>(firstBarcode, secondBarcode);
+                            umiConfusionMatrix.increment(key);
+                            if (!umiConfusionMatrixEditDistance.containsKey(key)) {
+                                umiConfusionMatrixEditDistance.increment(key, editDistance);
+                            }
                         }
 
                         if (editDistance == 0) {
@@ -467,38 +605,61 @@ public class CollectIndependentReplicateMetrics extends CommandLineProgram {
                         throw new IllegalStateException("Un possible!");
                 }
             }
-            if (STOP_AFTER > 0 && progress.getCount() > STOP_AFTER) break;
+            return !isStopping();
         }
-        if (useLocus && newLocus) {
-            metric.merge(locusData);
-            log.debug("Merged final metric. nSites:" + metric.nSites);
-        } else {
-            metric.nThreeAllelesSites++;
-            log.debug("didn't merge last metric, due to 3rd allele: nThreeAllelesSites =" + metric.nThreeAllelesSites);
-        }
-
-        log.info("Iteration done. Emitting metrics.");
 
-        // Emit metrics
-        final MetricsFile<IndependentReplicateMetric, Byte> metricsFile = getMetricsFile();
+        private boolean isStopping() {
+            if (STOP_AFTER > 0 && progress.getCount() > STOP_AFTER) {
+                stopped = true;
+            }
+            return stopped;
+        }
 
-        metric.calculateDerivedFields();
-        metricsFile.addMetric(metric);
-        metricsFile.addHistogram(alleleBalanceCount);
-        metricsFile.addHistogram(umiEditDistanceInDiffBiDups);
-        metricsFile.addHistogram(umiEditDistanceInSameBiDups);
+        /**
+         * Resolves the contig's last locus when another contig follows it: it is counted as a three-allele site if it is
+         * bad, and merged if both alleles were seen at it.
+         */
+        void resolveLocus(final IndependentReplicateMetric target, final Histogram<Byte> targetAlleleBalanceCount) {
+            if (!useLocus) {
+                target.nThreeAllelesSites++;
+                logThirdAllele();
+            } else if (locusData.nReferenceReads != 0 && locusData.nAlternateReads != 0) {
+                mergeLocus(target, targetAlleleBalanceCount);
+            }
+        }
 
-        metricsFile.write(OUTPUT);
+        private void mergeLocus(final IndependentReplicateMetric target, final Histogram<Byte> targetAlleleBalanceCount) {
+            target.merge(locusData);
+            //calculate allele balance with faux counts
+            final byte alleleBalance = (byte) Math.round(100D * (locusData.nAlternateReads + 0.5) / (locusData.nAlternateReads + locusData.nReferenceReads + 1));
+            targetAlleleBalanceCount.increment(alleleBalance);
+        }
 
-        final MetricsFile<?, ComparableTuple<String, String>> confusionMetrics = getMetricsFile();
+        private void logThirdAllele() {
+            if (++thirdAlleleInfos < 100) {
+                log.debug("Skipping a locus due to third allele: " + (char) badAllele + " but expected " +
+                        (char) sites.getFirstAllele(site) + "/" + (char) sites.getSecondAllele(site) + " at " +
+                        sites.getContig() + ":" + sites.getPosition(site) + " offending read name is : " + offendingReadName);
+            }
+        }
+    }
 
-        if (MATRIX_OUTPUT != null) {
-            confusionMetrics.addHistogram(umiConfusionMatrix);
-            confusionMetrics.addHistogram(umiConfusionMatrixEditDistance);
-            confusionMetrics.write(MATRIX_OUTPUT);
+    private boolean hasGoodBarcodeQualities(final SAMRecord read) {
+        final String qualities = read.getStringAttribute(BARCODE_BQ);
+        if (qualities == null) return true;
+        for (int i = 0; i < qualities.length(); i++) {
+            if (SAMUtils.fastqToPhred(qualities.charAt(i)) < MINIMUM_BARCODE_BQ) return false;
         }
+        return true;
+    }
 
-        return 0;
+    private String getBarcode(final SAMRecord read) {
+        final String barcode = read.getStringAttribute(BARCODE_TAG);
+        return barcode == null ? "" : barcode;
+    }
+
+    private static boolean isFirstOfPairOrUnpaired(final SAMRecord read) {
+        return !read.getReadPairedFlag() || read.getFirstOfPairFlag();
     }
 
     private enum SetClassification {
@@ -508,18 +669,6 @@ public class CollectIndependentReplicateMetrics extends CommandLineProgram {
         ALTERNATE_ALLELE
     }
 
-    /**
-     * a small utility to inform if one interval is cleanly before another, meaning that they do not overlap and
-     * the first is prior (in genomic order) to the second
-     *
-     * @param lhs the "first" {@link QueryInterval}
-     * @param rhs the "second" {@link QueryInterval}
-     * @return true if the to intervals do not intersect _and_ the first is prior to the second in genomic order
-     */
-    private static boolean isCleanlyBefore(final QueryInterval lhs, final QueryInterval rhs) {
-        return !lhs.overlaps(rhs) && lhs.compareTo(rhs) < 0;
-    }
-
     private static SetClassification classifySet(final int nRef, final int nAlt, final int nOther) {
         // if we found any "other" alleles, this is a mismatching set
         if (nOther != 0) {
@@ -544,13 +693,16 @@ public class CollectIndependentReplicateMetrics extends CommandLineProgram {
         throw new IllegalAccessError("shouldn't be here!");
     }
 
-    private static QueryInterval queryIntervalFromSamRecord(final SAMRecord samRecord) {
-        return new QueryInterval(samRecord.getReferenceIndex(), samRecord.getStart(), samRecord.getEnd());
-    }
-
     /** Gives the edit distance between this barcode and another of the same length. */
-    private static byte calculateEditDistance(final String lhs, final String rhs) {
+    static byte calculateEditDistance(final String lhs, final String rhs) {
         ValidationUtils.validateArg(lhs.length() == rhs.length(), () -> "lengths of strings must equal, found '" + lhs + "' and '" + rhs + "'.");
+        final long packedLhs = packBarcode(lhs);
+        final long packedRhs = packBarcode(rhs);
+        if (packedLhs != UNPACKABLE_BARCODE && packedRhs != UNPACKABLE_BARCODE) {
+            // a base differs if either of its two bits does
+            final long difference = packedLhs ^ packedRhs;
+            return (byte) Long.bitCount((difference | difference >>> 1) & LOW_BITS_OF_BASES);
+        }
         byte tmp = 0;
         for (int i = 0; i < rhs.length(); ++i) {
             if (rhs.charAt(i) != lhs.charAt(i)) ++tmp;
@@ -558,11 +710,26 @@ public class CollectIndependentReplicateMetrics extends CommandLineProgram {
         return tmp;
     }
 
-    private SortedMap<QueryInterval, List<Allele>> getQueryIntervalsMap(final File vcf) {
-
-        final Map<String, Integer> contigIndexMap = new HashMap<>();
-        final VCFFileReader vcfReader = new VCFFileReader(vcf, false);
+    /** Packs a barcode of A, C, G and T two bits per base, or returns UNPACKABLE_BARCODE if it has other characters or is too long. */
+    private static long packBarcode(final String barcode) {
+        if (barcode.length() > MAX_PACKED_BARCODE_LENGTH) return UNPACKABLE_BARCODE;
+        long packed = 0;
+        for (int i = 0; i < barcode.length(); i++) {
+            final long base;
+            switch (barcode.charAt(i)) {
+                case 'A': base = 0; break;
+                case 'C': base = 1; break;
+                case 'G': base = 2; break;
+                case 'T': base = 3; break;
+                default: return UNPACKABLE_BARCODE;
+            }
+            packed = packed << 2 | base;
+        }
+        return packed;
+    }
 
+    /** Returns the SNPs that pass filters and at which SAMPLE is genotyped as a het with high quality. */
+    private Iterator<VariantContext> getHetVariants(final VCFFileReader vcfReader) {
         // We want to look at unfiltered SNP sites for which the sample is genotyped as a het
         // with high quality.
         final CompoundFilter compoundFilter = new CompoundFilter(true);
@@ -571,22 +738,6 @@ public class CollectIndependentReplicateMetrics extends CommandLineProgram {
         compoundFilter.add(new GenotypeQualityFilter(MINIMUM_GQ, SAMPLE));
         compoundFilter.add(new HeterozygosityFilter(true, SAMPLE));
 
-        final Iterator<VariantContext> hetIterator = new FilteringVariantContextIterator(vcfReader.iterator(), compoundFilter);
-
-        for (final VCFContigHeaderLine vcfContig : vcfReader.getFileHeader().getContigLines()) {
-            contigIndexMap.put(vcfContig.getID(), vcfContig.getContigIndex());
-        }
-
-        // return a TreeMap since the keys are comparable, and this will use their order in the iteration
-        final SortedMap<QueryInterval, List<Allele>> map = new TreeMap<>();
-
-        while (hetIterator.hasNext()) {
-            final VariantContext vc = hetIterator.next();
-            map.put(new QueryInterval(contigIndexMap.get(vc.getContig()), vc.getStart(), vc.getEnd()), vc.getGenotype(SAMPLE).getAlleles());
-        }
-
-        vcfReader.close();
-
-        return map;
+        return new FilteringVariantContextIterator(vcfReader.iterator(), compoundFilter);
     }
 }
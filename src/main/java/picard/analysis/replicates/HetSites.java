@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.analysis.replicates;
+
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.util.PeekableIterator;
+import htsjdk.samtools.util.StringUtil;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import picard.PicardException;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The heterozygous SNP sites of a sample on one contig, in order of position, held as parallel arrays of the sites'
+ * positions and the (upper case) bases of the two alleles of the sample's genotype. Sites are read from a VCF one
+ * contig at a time with {@link #byContig(Iterator, String)}, so that only the contigs being worked on are in memory.
+ */
+final class HetSites {
+    private final String contig;
+    private final int[] positions;
+    private final byte[] firstAlleles;
+    private final byte[] secondAlleles;
+
+    private HetSites(final String contig, final int[] positions, final byte[] firstAlleles, final byte[] secondAlleles) {
+        this.contig = contig;
+        this.positions = positions;
+        this.firstAlleles = firstAlleles;
+        this.secondAlleles = secondAlleles;
+    }
+
+    String getContig() { return contig; }
+
+    int size() { return positions.length; }
+
+    int getPosition(final int site) { return positions[site]; }
+
+    /** The base of the first allele of the sample's genotype at the site, which the CLP counts as the reference allele. */
+    byte getFirstAllele(final int site) { return firstAlleles[site]; }
+
+    /** The base of the second allele of the sample's genotype at the site, which the CLP counts as the alternate allele. */
+    byte getSecondAllele(final int site) { return secondAlleles[site]; }
+
+    /** Returns the fewest intervals covering all the sites, on the contig with the given index. */
+    QueryInterval[] toQueryIntervals(final int contigIndex) {
+        final QueryInterval[] intervals = new QueryInterval[positions.length];
+        for (int site = 0; site < positions.length; site++) {
+            intervals[site] = new QueryInterval(contigIndex, positions[site], positions[site]);
+        }
+        return QueryInterval.optimizeIntervals(intervals);
+    }
+
+    /**
+     * Groups the het sites of the given sample into one {@link HetSites} per contig. The variants must already be filtered
+     * to SNPs at which the sample is heterozygous, and grouped by contig. Within a contig the sites are sorted by position,
+     * and of several variants at one position the last one is used.
+     */
+    static Iterator<HetSites> byContig(final Iterator<VariantContext> hetVariants, final String sample) {
+        final PeekableIterator<VariantContext> variants = new PeekableIterator<>(hetVariants);
+        final Set<String> seenContigs = new HashSet<>();
+
+        return new Iterator<HetSites>() {
+            @Override
+            public boolean hasNext() {
+                return variants.hasNext();
+            }
+
+            @Override
+            public HetSites next() {
+                if (!hasNext()) throw new NoSuchElementException();
+
+                final String contig = variants.peek().getContig();
+                if (!seenContigs.add(contig)) {
+                    throw new PicardException("VCF must be grouped by contig, but found variants on " + contig + " after those of other contigs.");
+                }
+
+                int size = 0;
+                int[] positions = new int[1024];
+                byte[] firstAlleles = new byte[1024];
+                byte[] secondAlleles = new byte[1024];
+                boolean sorted = true;
+                while (variants.hasNext() && variants.peek().getContig().equals(contig)) {
+                    final VariantContext vc = variants.next();
+                    final Genotype genotype = vc.getGenotype(sample);
+                    if (size == positions.length) {
+                        positions = Arrays.copyOf(positions, size * 2);
+                        firstAlleles = Arrays.copyOf(firstAlleles, size * 2);
+                        secondAlleles = Arrays.copyOf(secondAlleles, size * 2);
+                    }
+                    sorted &= size == 0 || positions[size - 1] < vc.getStart();
+                    positions[size] = vc.getStart();
+                    firstAlleles[size] = StringUtil.toUpperCase(genotype.getAllele(0).getBases()[0]);
+                    secondAlleles[size] = StringUtil.toUpperCase(genotype.getAllele(1).getBases()[0]);
+                    size++;
+                }
+
+                if (sorted) {
+                    return new HetSites(contig, Arrays.copyOf(positions, size), Arrays.copyOf(firstAlleles, size), Arrays.copyOf(secondAlleles, size));
+                }
+
+                // Sort the sites by position, then by their order in the VCF, and keep the last one at each position.
+                final long[] order = new long[size];
+                for (int i = 0; i < size; i++) order[i] = (long) positions[i] << 32 | i;
+                Arrays.sort(order);
+                int kept = 0;
+                final int[] sortedPositions = new int[size];
+                final byte[] sortedFirstAlleles = new byte[size];
+                final byte[] sortedSecondAlleles = new byte[size];
+                for (int i = 0; i < size; i++) {
+                    final int site = (int) order[i];
+                    if (i + 1 < size && positions[(int) order[i + 1]] == positions[site]) continue;
+                    sortedPositions[kept] = positions[site];
+                    sortedFirstAlleles[kept] = firstAlleles[site];
+                    sortedSecondAlleles[kept] = secondAlleles[site];
+                    kept++;
+                }
+                return new HetSites(contig, Arrays.copyOf(sortedPositions, kept), Arrays.copyOf(sortedFirstAlleles, kept), Arrays.copyOf(sortedSecondAlleles, kept));
+            }
+        };
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.annotation;
+
+import htsjdk.samtools.Defaults;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
+import picard.annotation.Gene.Transcript;
+import picard.annotation.Gene.Transcript.Exon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The LocusFunction of every base of the genome, as would be assigned by calling
+ * {@link Transcript#assignLocusFunctionForRange} for every transcript overlapping it, stored as runs of bases
+ * with the same function.  Bases outside of all transcripts are INTERGENIC.
+ *
+ * The track is built once from the genes of a refFlat, after which the function of a range of bases is found by
+ * walking the runs it covers rather than by visiting every transcript of every overlapping gene.  Lookups go through
+ * a {@link Cursor}, which remembers where it last was so that coordinate-sorted queries rarely need to search.
+ * A track may also be written to and read back from a cache file, so that it need only be built once per annotation.
+ */
+public class LocusFunctionTrack {
+    private static final Log LOG = Log.getInstance(LocusFunctionTrack.class);
+
+    private static final int CACHE_MAGIC = 0x4c465431; // "LFT1"
+
+    /** The cursor binary searches rather than stepping once it would have to step over more runs than this. */
+    private static final int MAX_RUNS_TO_STEP = 16;
+
+    private static final LocusFunction[] FUNCTIONS = LocusFunction.values();
+
+    private static final Runs INTERGENIC_ONLY = new Runs(new int[]{1}, new byte[]{(byte) LocusFunction.INTERGENIC.ordinal()});
+
+    /** Runs by sequence name.  Sequences without any transcripts are absent. */
+    private final Map<String, Runs> runsBySequence;
+
+    private LocusFunctionTrack(final Map<String, Runs> runsBySequence) {
+        this.runsBySequence = runsBySequence;
+    }
+
+    /** The runs of one sequence: run i starts at starts[i] and ends before starts[i + 1]; the last run never ends. */
+    private static class Runs {
+        final int[] starts;
+        final byte[] functions;
+
+        Runs(final int[] starts, final byte[] functions) {
+            this.starts = starts;
+            this.functions = functions;
+        }
+
+        /** Returns the index of the run containing the 1-based position. */
+        int find(final int position) {
+            final int index = Arrays.binarySearch(starts, position);
+            return index >= 0 ? index : Math.max(0, -index - 2);
+        }
+    }
+
+    /** Builds the track for the given genes. */
+    public static LocusFunctionTrack build(final Collection<Gene> genes) {
+        // Each transcript contributes intervals of INTRONIC, UTR and CODING bases.  An interval becomes two events,
+        // the first base in it and the first base after it, each packed into a long as position, function and
+        // whether the interval opens or closes there.
+        final Map<String, EventList> eventsBySequence = new HashMap<>();
+        for (final Gene gene : genes) {
+            final EventList events = eventsBySequence.computeIfAbsent(gene.getContig(), contig -> new EventList());
+            for (final Transcript tx : gene) {
+                addEvents(tx, events);
+            }
+        }
+
+        final Map<String, Runs> runsBySequence = new HashMap<>();
+        for (final Map.Entry<String, EventList> entry : eventsBySequence.entrySet()) {
+            runsBySequence.put(entry.getKey(), toRuns(entry.getValue().events, entry.getValue().count));
+        }
+        return new LocusFunctionTrack(runsBySequence);
+    }
+
+    /**
+     * Reads the track from cacheFile if it was built from the same refFlat and sequence dictionary, otherwise builds
+     * it from the genes and writes it to cacheFile for next time.  Failing to write the cache is not an error.
+     *
+     * @param genes              The genes loaded from refFlatFile with sequenceDictionary.
+     * @param refFlatFile        The refFlat the genes were loaded from.
+     * @param sequenceDictionary The dictionary the genes were loaded with.
+     * @param cacheFile          Where the track is cached.
+     */
+    public static LocusFunctionTrack loadOrBuild(final Collection<Gene> genes, final File refFlatFile,
+                                                 final SAMSequenceDictionary sequenceDictionary, final File cacheFile) {
+        final String fingerprint = fingerprint(refFlatFile, sequenceDictionary);
+        if (cacheFile.exists()) {
+            final LocusFunctionTrack cached = read(cacheFile, fingerprint);
+            if (cached != null) {
+                LOG.info("Read locus functions from " + cacheFile);
+                return cached;
+            }
+            LOG.info(cacheFile + " was not built from " + refFlatFile + " and this sequence dictionary; rebuilding it.");
+        }
+
+        final LocusFunctionTrack track = build(genes);
+        try {
+            track.write(cacheFile, fingerprint);
+        } catch (final RuntimeIOException e) {
+            LOG.warn(e, "Could not cache locus functions in " + cacheFile);
+        }
+        return track;
+    }
+
+    /** Returns a new cursor over this track.  Cursors are not thread safe; use one per thread. */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /** Looks up locus functions, starting each search from where the previous one ended up. */
+    public class Cursor {
+        private String sequence = null;
+        private Runs runs = INTERGENIC_ONLY;
+        private int run = 0;
+
+        /** Returns the function of the 1-based position on the named sequence. */
+        public LocusFunction getLocusFunction(final String sequenceName, final int position) {
+            seek(sequenceName, position);
+            return FUNCTIONS[runs.functions[run]];
+        }
+
+        /**
+         * Adds to basesByFunction, which is indexed by LocusFunction ordinal, the number of bases of each function
+         * in the given range.
+         *
+         * @param sequenceName  The sequence the range is on.
+         * @param start         1-based position of the first base in the range.
+         * @param length        Number of bases in the range.
+         */
+        public void countBasesByFunction(final String sequenceName, final int start, final int length, final long[] basesByFunction) {
+            seek(sequenceName, start);
+            final int[] starts = runs.starts;
+            final int end = start + length - 1;
+            int position = start;
+            for (int i = run; position <= end; ++i) {
+                final int runEnd = i + 1 < starts.length ? starts[i + 1] - 1 : Integer.MAX_VALUE;
+                final int rangeEnd = Math.min(end, runEnd);
+                basesByFunction[runs.functions[i]] += rangeEnd - position + 1;
+                position = rangeEnd + 1;
+            }
+        }
+
+        private void seek(final String sequenceName, final int position) {
+            if (!sequenceName.equals(sequence)) {
+                sequence = sequenceName;
+                runs = runsBySequence.getOrDefault(sequenceName, INTERGENIC_ONLY);
+                run = runs.find(position);
+            } else if (position < runs.starts[run]) {
+                run = runs.find(position);
+            } else {
+                final int[] starts = runs.starts;
+                for (int steps = 0; run + 1 < starts.length && starts[run + 1] <= position; ++steps) {
+                    if (steps == MAX_RUNS_TO_STEP) {
+                        run = runs.find(position);
+                        break;
+                    }
+                    ++run;
+                }
+            }
+        }
+    }
+
+    private static void addEvents(final Transcript tx, final EventList events) {
+        events.addInterval(tx.transcriptionStart, tx.transcriptionEnd, LocusFunction.INTRONIC);
+        for (final Exon exon : tx.exons) {
+            // Only bases within the transcript are assigned a function by it
+            final int start = Math.max(exon.start, tx.transcriptionStart);
+            final int end = Math.min(exon.end, tx.transcriptionEnd);
+            events.addInterval(start, Math.min(end, tx.codingStart - 1), LocusFunction.UTR);
+            events.addInterval(Math.max(start, tx.codingStart), Math.min(end, tx.codingEnd), LocusFunction.CODING);
+            events.addInterval(Math.max(start, tx.codingEnd + 1), end, LocusFunction.UTR);
+        }
+    }
+
+    /** Sweeps over the sorted events, starting a new run wherever the strongest open function changes. */
+    private static Runs toRuns(final long[] events, final int count) {
+        Arrays.sort(events, 0, count);
+        final int[] open = new int[FUNCTIONS.length];
+        int[] starts = new int[count + 1];
+        byte[] functions = new byte[count + 1];
+        starts[0] = 1;
+        functions[0] = (byte) LocusFunction.INTERGENIC.ordinal();
+        int numRuns = 1;
+
+        int i = 0;
+        while (i < count) {
+            final int position = (int) (events[i] >>> 3);
+            for (; i < count && (int) (events[i] >>> 3) == position; ++i) {
+                final int function = (int) (events[i] >>> 1) & 0x3;
+                open[function] += (events[i] & 1) == 1 ? 1 : -1;
+            }
+            int function = LocusFunction.CODING.ordinal();
+            while (function > LocusFunction.INTERGENIC.ordinal() && open[function] == 0) --function;
+
+            if (function != functions[numRuns - 1]) {
+                if (starts[numRuns - 1] == position) {
+                    // The previous run is empty (only possible for the first), so replace it
+                    functions[numRuns - 1] = (byte) function;
+                } else {
+                    starts[numRuns] = position;
+                    functions[numRuns++] = (byte) function;
+                }
+            }
+        }
+        return new Runs(Arrays.copyOf(starts, numRuns), Arrays.copyOf(functions, numRuns));
+    }
+
+    /** A growable array of packed interval events for one sequence. */
+    private static class EventList {
+        long[] events = new long[1024];
+        int count = 0;
+
+        void addInterval(final int start, final int end, final LocusFunction function) {
+            if (start > end) return;
+            if (count + 2 > events.length) {
+                events = Arrays.copyOf(events, events.length * 2);
+            }
+            events[count++] = ((long) start << 3) | (function.ordinal() << 1) | 1;
+            events[count++] = ((long) end + 1 << 3) | (function.ordinal() << 1);
+        }
+    }
+
+    /** Identifies what a cached track was built from: the refFlat contents and the sequence dictionary. */
+    private static String fingerprint(final File refFlatFile, final SAMSequenceDictionary sequenceDictionary) {
+        try (final InputStream in = new FileInputStream(refFlatFile)) {
+            final MessageDigest md5 = MessageDigest.getInstance("MD5");
+            final byte[] buffer = new byte[Defaults.NON_ZERO_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                md5.update(buffer, 0, read);
+            }
+            return new BigInteger(1, md5.digest()).toString(16) + ":" + sequenceDictionary.md5();
+        } catch (final IOException e) {
+            throw new RuntimeIOException("Error reading " + refFlatFile, e);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 digest is not available", e);
+        }
+    }
+
+    /** Returns the track cached in the file, or null if it was built from something else or cannot be read. */
+    private static LocusFunctionTrack read(final File cacheFile, final String fingerprint) {
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), Defaults.NON_ZERO_BUFFER_SIZE))) {
+            if (in.readInt() != CACHE_MAGIC || !in.readUTF().equals(fingerprint)) {
+                return null;
+            }
+            final int numSequences = in.readInt();
+            final Map<String, Runs> runsBySequence = new HashMap<>(numSequences * 2);
+            for (int s = 0; s < numSequences; ++s) {
+                final String sequenceName = in.readUTF();
+                final int numRuns = in.readInt();
+                final int[] starts = new int[numRuns];
+                for (int i = 0; i < numRuns; ++i) {
+                    starts[i] = in.readInt();
+                }
+                final byte[] functions = new byte[numRuns];
+                in.readFully(functions);
+                runsBySequence.put(sequenceName, new Runs(starts, functions));
+            }
+            return new LocusFunctionTrack(runsBySequence);
+        } catch (final IOException e) {
+            LOG.warn("Could not read locus functions from " + cacheFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Writes to a temporary file that is then moved into place, so that readers never see a partial cache. */
+    private void write(final File cacheFile, final String fingerprint) {
+        File tmp = null;
+        try {
+            tmp = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getAbsoluteFile().getParentFile());
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), Defaults.NON_ZERO_BUFFER_SIZE))) {
+                out.writeInt(CACHE_MAGIC);
+                out.writeUTF(fingerprint);
+                out.writeInt(runsBySequence.size());
+                for (final Map.Entry<String, Runs> entry : runsBySequence.entrySet()) {
+                    final Runs runs = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(runs.starts.length);
+                    for (final int start : runs.starts) {
+                        out.writeInt(start);
+                    }
+                    out.write(runs.functions);
+                }
+            }
+            Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException e) {
+            if (tmp != null) tmp.delete();
+            throw new RuntimeIOException("Error writing " + cacheFile, e);
+        }
+    }
+}
@@ -60,6 +60,10 @@ public class CollectArraysVariantCallingMetrics extends CommandLineProgram {
     @Argument(doc = "Reference dbSNP file in dbSNP or VCF format.")
     public File DBSNP;
 
+    @Argument(doc = "Optional file in which to keep the sites of the dbSNP file, so that later runs memory-map them rather than " +
+            "reading the dbSNP file. Built on first use, and rebuilt if the dbSNP file or sequence dictionary changes.", optional = true)
+    public File DBSNP_CACHE;
+
     @Argument(shortName = StandardOptionDefinitions.SEQUENCE_DICTIONARY_SHORT_NAME, optional = true,
             doc = "If present, speeds loading of dbSNP file, will look for dictionary in vcf if not present here.")
     public File SEQUENCE_DICTIONARY = null;
@@ -86,7 +90,7 @@ public class CollectArraysVariantCallingMetrics extends CommandLineProgram {
                 SAMSequenceDictionaryExtractor.extractDictionary(SEQUENCE_DICTIONARY == null ? INPUT.toPath() : SEQUENCE_DICTIONARY.toPath());
 
         log.info("Loading dbSNP file.");
-        final DbSnpBitSetUtil.DbSnpBitSets dbsnp = DbSnpBitSetUtil.createSnpAndIndelBitSets(DBSNP, sequenceDictionary);
+        final DbSnpBitSetUtil.DbSnpBitSets dbsnp = DbSnpBitSetUtil.createSnpAndIndelBitSets(DBSNP, sequenceDictionary, null, Optional.empty(), DBSNP_CACHE);
 
         log.info("Starting iteration of variants.");
 
@@ -27,7 +27,6 @@ package picard.arrays;
 import org.broadinstitute.barclay.help.DocumentedFeature;
 import picard.arrays.illumina.ArraysControlInfo;
 import picard.arrays.illumina.Build37ExtendedIlluminaManifest;
-import picard.arrays.illumina.Build37ExtendedIlluminaManifestRecord;
 import picard.arrays.illumina.IlluminaManifestRecord;
 import picard.arrays.illumina.InfiniumEGTFile;
 import picard.arrays.illumina.InfiniumGTCFile;
@@ -41,13 +40,11 @@ import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.ProgressLogger;
-import htsjdk.samtools.util.SortingCollection;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.GenotypeBuilder;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
-import htsjdk.variant.variantcontext.VariantContextComparator;
 import htsjdk.variant.variantcontext.VariantContextUtils;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
@@ -59,7 +56,6 @@ import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLine;
 import htsjdk.variant.vcf.VCFHeaderLineType;
 import htsjdk.variant.vcf.VCFInfoHeaderLine;
-import htsjdk.variant.vcf.VCFRecordCodec;
 import htsjdk.variant.vcf.VCFStandardHeaderLines;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
@@ -68,19 +64,19 @@ import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
 import picard.PicardException;
 import picard.cmdline.CommandLineProgram;
 import picard.cmdline.StandardOptionDefinitions;
+import picard.util.TabbedTextFileWithHeaderParser;
+import picard.util.ThreadPoolExecutorUtil;
+import picard.util.ThreadPoolExecutorWithExceptions;
 
-import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.file.Path;
 import java.text.DecimalFormat;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -114,14 +110,26 @@ public class GtcToVcf extends CommandLineProgram {
                     "      CLUSTER_FILE=chip_name.egt \\<br />" +
                     "      ILLUMINA_NORMALIZATION_MANIFEST=chip_name.bpm.csv \\<br />" +
                     "      SAMPLE_ALIAS=my_sample_alias \\<br />" +
+                    "</pre>" +
+                    "<p>To convert many GTC files against the same manifest and cluster file, list them in a BATCH_PARAMS file " +
+                    "in place of INPUT, OUTPUT and SAMPLE_ALIAS.  The manifest and cluster file are then read once and the GTC " +
+                    "files are converted in parallel.</p>" +
+                    "<pre>" +
+                    "java -jar picard.jar GtcToVcf \\<br />" +
+                    "      BATCH_PARAMS=batch.params \\<br />" +
+                    "      REFERENCE_SEQUENCE=reference.fasta \\<br />" +
+                    "      EXTENDED_ILLUMINA_MANIFEST=chip_name.extended.csv \\<br />" +
+                    "      CLUSTER_FILE=chip_name.egt \\<br />" +
+                    "      ILLUMINA_NORMALIZATION_MANIFEST=chip_name.bpm.csv \\<br />" +
+                    "      NUM_PROCESSORS=8 \\<br />" +
                     "</pre>";
 
     private final static Log log = Log.getInstance(GtcToVcf.class);
 
-    @Argument(shortName = StandardOptionDefinitions.INPUT_SHORT_NAME, doc = "GTC file to be converted")
+    @Argument(shortName = StandardOptionDefinitions.INPUT_SHORT_NAME, doc = "GTC file to be converted", mutex = {"BATCH_PARAMS"})
     public File INPUT;
 
-    @Argument(shortName = StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc = "The output VCF file to write.")
+    @Argument(shortName = StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc = "The output VCF file to write.", mutex = {"BATCH_PARAMS"})
     public File OUTPUT;
 
     @Argument(shortName = "MANIFEST", doc = "An Extended Illumina Manifest file (csv).  This is an extended version of the Illumina manifest" +
@@ -134,45 +142,73 @@ public class GtcToVcf extends CommandLineProgram {
     @Argument(shortName = "NORM_MANIFEST", doc = "An Illumina bead pool manifest (a manifest containing the Illumina normalization ids) (bpm.csv)")
     public File ILLUMINA_NORMALIZATION_MANIFEST;
 
-    @Argument(shortName = "E_GENDER", doc = "The expected gender for this sample.", optional = true)
+    @Argument(shortName = "E_GENDER", doc = "The expected gender for this sample.", optional = true, mutex = {"BATCH_PARAMS"})
     public String EXPECTED_GENDER;
 
-    @Argument(doc = "The sample alias")
+    @Argument(doc = "The sample alias", mutex = {"BATCH_PARAMS"})
     public String SAMPLE_ALIAS;
 
     @Argument(doc = "The analysis version of the data used to generate this VCF", optional = true)
     public Integer ANALYSIS_VERSION_NUMBER;
 
-    @Argument(shortName = "G_GTC", doc = "An optional GTC file that was generated by calling the chip using a cluster file designed to optimize gender calling.", optional = true)
+    @Argument(shortName = "G_GTC", doc = "An optional GTC file that was generated by calling the chip using a cluster file designed to optimize gender calling.", optional = true, mutex = {"BATCH_PARAMS"})
     public File GENDER_GTC;
 
-    @Argument(shortName = "FP_VCF", doc = "The fingerprint VCF for this sample", optional = true)
+    @Argument(shortName = "FP_VCF", doc = "The fingerprint VCF for this sample", optional = true, mutex = {"BATCH_PARAMS"})
     public File FINGERPRINT_GENOTYPES_VCF_FILE;
 
     @Argument(doc = "Causes the program to fail if it finds a case where there is a call on an assay that is flagged as 'zeroed-out' in the Illumina cluster file.", optional = true)
     public boolean DO_NOT_ALLOW_CALLS_ON_ZEROED_OUT_ASSAYS = false;
 
-    static final List<Allele> NO_CALL_ALLELES = Collections.unmodifiableList(Arrays.asList(Allele.NO_CALL, Allele.NO_CALL));
+    @Argument(doc = "Tab-separated file with a header line, listing GTC files to convert in place of INPUT, OUTPUT and SAMPLE_ALIAS.  " +
+            "The INPUT, OUTPUT and SAMPLE_ALIAS columns are required; the GENDER_GTC, FINGERPRINT_GENOTYPES_VCF_FILE and " +
+            "EXPECTED_GENDER columns are optional and may be left empty.  Each row is converted as though its values had " +
+            "been given as the arguments of the same name, sharing one read of the manifest and cluster file.",
+            optional = true, mutex = {"INPUT", "OUTPUT", "SAMPLE_ALIAS", "GENDER_GTC", "FINGERPRINT_GENOTYPES_VCF_FILE", "EXPECTED_GENDER"})
+    public File BATCH_PARAMS;
 
-    // This file gets initialized during customCommandLineValidation.
-    // It is a static member so we don't have to parse the file twice.
-    private static InfiniumGTCFile infiniumGTCFile;
+    @Argument(doc = "The number of GTC files in BATCH_PARAMS to convert at once.  If NUM_PROCESSORS = 0, number of cores is " +
+            "automatically set to the number of cores available on the machine. If NUM_PROCESSORS < 0 then the number of " +
+            "cores used will be the number available on the machine less NUM_PROCESSORS.")
+    public int NUM_PROCESSORS = 0;
 
-    private static InfiniumEGTFile infiniumEGTFile;
+    static final List<Allele> NO_CALL_ALLELES = Collections.unmodifiableList(Arrays.asList(Allele.NO_CALL, Allele.NO_CALL));
 
-    private static String gtcGender = null;
+    private static final String[] BATCH_PARAMS_REQUIRED_COLUMNS = {"INPUT", "OUTPUT", "SAMPLE_ALIAS"};
 
-    private static Sex fingerprintGender;
+    private ReferenceSequenceFile refSeq;
 
-    private static ReferenceSequenceFile refSeq;
+    // The GTC files to convert, from INPUT or BATCH_PARAMS, set up during customCommandLineValidation.
+    private List<GtcSample> samples;
 
-    private static final DecimalFormat df = new DecimalFormat();
+    // DecimalFormat is not thread safe, and samples are converted in parallel.
+    private static final ThreadLocal<DecimalFormat> df = ThreadLocal.withInitial(() -> {
+        final DecimalFormat format = new DecimalFormat();
+        format.setMaximumFractionDigits(3);
+        format.setGroupingSize(0);
+        return format;
+    });
 
     private static final String DOT = ".";
 
-    static {
-        df.setMaximumFractionDigits(3);
-        df.setGroupingSize(0);
+    /** A GTC file to convert, with the arguments that are specific to its sample. */
+    static class GtcSample {
+        final File input;
+        final File output;
+        final String sampleAlias;
+        final File genderGtc;
+        final File fingerprintGenotypesVcfFile;
+        final String expectedGender;
+
+        GtcSample(final File input, final File output, final String sampleAlias, final File genderGtc,
+                  final File fingerprintGenotypesVcfFile, final String expectedGender) {
+            this.input = input;
+            this.output = output;
+            this.sampleAlias = sampleAlias;
+            this.genderGtc = genderGtc;
+            this.fingerprintGenotypesVcfFile = fingerprintGenotypesVcfFile;
+            this.expectedGender = expectedGender;
+        }
     }
 
     @Override
@@ -182,25 +218,35 @@ public class GtcToVcf extends CommandLineProgram {
 
     @Override
     protected int doWork() {
-        final Build37ExtendedIlluminaManifest manifest = setupAndGetManifest();
-
-        final VCFHeader vcfHeader = createVCFHeader(manifest, infiniumGTCFile, gtcGender, CLUSTER_FILE,
-                REFERENCE_SEQUENCE, refSeq.getSequenceDictionary());
-
-        // Setup a collection that will sort contexts properly
-        // Necessary because input GTC file is not sorted
-        final SortingCollection<VariantContext> contexts =
-                SortingCollection.newInstance(
-                        VariantContext.class,
-                        new VCFRecordCodec(vcfHeader),
-                        new VariantContextComparator(refSeq.getSequenceDictionary()),
-                        MAX_RECORDS_IN_RAM,
-                        TMP_DIR.stream().map(File::toPath).toArray(Path[]::new));
+        final SAMSequenceDictionary sequenceDictionary = refSeq.getSequenceDictionary();
+        final InfiniumNormalizationManifest infiniumNormalizationManifest = new InfiniumNormalizationManifest(ILLUMINA_NORMALIZATION_MANIFEST);
+        final InfiniumEGTFile infiniumEGTFile;
+        final Build37ExtendedIlluminaManifest manifest;
+        try {
+            infiniumEGTFile = new InfiniumEGTFile(CLUSTER_FILE);
+            manifest = new Build37ExtendedIlluminaManifest(EXTENDED_ILLUMINA_MANIFEST);
+        } catch (IOException e) {
+            throw new PicardException("Error during setup", e);
+        }
 
-        // fill the sorting collection
-        fillContexts(contexts, infiniumGTCFile, manifest, infiniumEGTFile);
+        // The order of the assays in the VCF depends only on the manifest, so it is worked out once for all samples
+        final ManifestAssayTable assays = new ManifestAssayTable(manifest, sequenceDictionary);
+        final int[] egtIndices = getClusterFileIndices(assays, infiniumEGTFile);
 
-        writeVcf(contexts, OUTPUT, refSeq.getSequenceDictionary(), vcfHeader);
+        if (samples.size() == 1) {
+            convert(samples.get(0), manifest, assays, infiniumEGTFile, egtIndices, infiniumNormalizationManifest, sequenceDictionary);
+        } else {
+            final ThreadPoolExecutorWithExceptions pool = new ThreadPoolExecutorWithExceptions(NUM_PROCESSORS);
+            for (final GtcSample sample : samples) {
+                pool.submit(() -> convert(sample, manifest, assays, infiniumEGTFile, egtIndices, infiniumNormalizationManifest, sequenceDictionary));
+            }
+            pool.shutdown();
+            ThreadPoolExecutorUtil.awaitThreadPoolTermination("GTC conversion executor", pool, Duration.ofMinutes(5));
+            if (pool.hasError()) {
+                throw new PicardException("Exception converting GTC files", pool.exception);
+            }
+            log.info("Converted " + samples.size() + " GTC files");
+        }
 
         return 0;
     }
@@ -208,9 +254,7 @@ public class GtcToVcf extends CommandLineProgram {
     @Override
     protected String[] customCommandLineValidation() {
 
-        IOUtil.assertFileIsReadable(INPUT);
         IOUtil.assertFileIsReadable(EXTENDED_ILLUMINA_MANIFEST);
-        IOUtil.assertFileIsWritable(OUTPUT);
         refSeq = ReferenceSequenceFileFactory.getReferenceSequenceFile(REFERENCE_SEQUENCE);
         final SAMSequenceDictionary sequenceDictionary = refSeq.getSequenceDictionary();
         final String assembly = sequenceDictionary.getSequence(0).getAssembly();
@@ -218,47 +262,141 @@ public class GtcToVcf extends CommandLineProgram {
             return new String[]{"The selected reference sequence ('" + assembly + "') is not supported.  This tool is currently only implemented to support NCBI Build 37 / HG19 Reference Sequence."};
         }
 
-        if (FINGERPRINT_GENOTYPES_VCF_FILE != null) {
-            IOUtil.assertFileIsReadable(FINGERPRINT_GENOTYPES_VCF_FILE);
+        if (BATCH_PARAMS != null) {
+            IOUtil.assertFileIsReadable(BATCH_PARAMS);
+            samples = parseBatchParams(BATCH_PARAMS);
+            if (samples.isEmpty()) {
+                return new String[]{"BATCH_PARAMS file " + BATCH_PARAMS + " lists no GTC files."};
+            }
+        } else {
+            samples = Collections.singletonList(new GtcSample(INPUT, OUTPUT, SAMPLE_ALIAS, GENDER_GTC,
+                    FINGERPRINT_GENOTYPES_VCF_FILE, EXPECTED_GENDER));
         }
-        if (GENDER_GTC != null) {
-            IOUtil.assertFileIsReadable(GENDER_GTC);
+
+        for (final GtcSample sample : samples) {
+            IOUtil.assertFileIsReadable(sample.input);
+            IOUtil.assertFileIsWritable(sample.output);
+            if (sample.fingerprintGenotypesVcfFile != null) {
+                IOUtil.assertFileIsReadable(sample.fingerprintGenotypesVcfFile);
+            }
+            if (sample.genderGtc != null) {
+                IOUtil.assertFileIsReadable(sample.genderGtc);
+            }
         }
 
-        return super.customCommandLineValidation();
-    }
+        if (NUM_PROCESSORS == 0) {
+            NUM_PROCESSORS = Runtime.getRuntime().availableProcessors();
+        } else if (NUM_PROCESSORS < 0) {
+            NUM_PROCESSORS = Runtime.getRuntime().availableProcessors() + NUM_PROCESSORS;
+        }
 
-    private Build37ExtendedIlluminaManifest setupAndGetManifest() {
-        fingerprintGender = getFingerprintSex(FINGERPRINT_GENOTYPES_VCF_FILE);
-        final InfiniumNormalizationManifest infiniumNormalizationManifest = new InfiniumNormalizationManifest(ILLUMINA_NORMALIZATION_MANIFEST);
-        try (final DataInputStream gtcInputStream = new DataInputStream(new FileInputStream(INPUT))) {
+        //sanity check if num processors is negative set it to 1
+        if (NUM_PROCESSORS <= 0) {
+            NUM_PROCESSORS = 1;
+        }
 
-            infiniumEGTFile = new InfiniumEGTFile(CLUSTER_FILE);
-            infiniumGTCFile = new InfiniumGTCFile(gtcInputStream, infiniumNormalizationManifest);
-            final Build37ExtendedIlluminaManifest manifest = new Build37ExtendedIlluminaManifest(EXTENDED_ILLUMINA_MANIFEST);
+        return super.customCommandLineValidation();
+    }
 
-            if (GENDER_GTC != null) {
-                try (DataInputStream genderGtcStream = new DataInputStream(new FileInputStream(GENDER_GTC))) {
-                    gtcGender = new InfiniumGTCFile(genderGtcStream, infiniumNormalizationManifest).getGender();
+    /** Reads the GTC files and per-sample arguments listed in a BATCH_PARAMS file. */
+    static List<GtcSample> parseBatchParams(final File batchParams) {
+        final List<GtcSample> samples = new ArrayList<>();
+        try (final TabbedTextFileWithHeaderParser parser = new TabbedTextFileWithHeaderParser(batchParams)) {
+            for (final String column : BATCH_PARAMS_REQUIRED_COLUMNS) {
+                if (!parser.hasColumn(column)) {
+                    throw new PicardException("BATCH_PARAMS file " + batchParams + " does not have column " + column + ".");
                 }
             }
+            for (final TabbedTextFileWithHeaderParser.Row row : parser) {
+                samples.add(new GtcSample(
+                        new File(row.getField("INPUT")),
+                        new File(row.getField("OUTPUT")),
+                        row.getField("SAMPLE_ALIAS"),
+                        getOptionalFile(parser, row, "GENDER_GTC"),
+                        getOptionalFile(parser, row, "FINGERPRINT_GENOTYPES_VCF_FILE"),
+                        getOptionalField(parser, row, "EXPECTED_GENDER")));
+            }
+        }
+        return samples;
+    }
 
-            final String gtcManifestName = FilenameUtils.removeExtension(infiniumGTCFile.getSnpManifest());
-            final String illuminaManifestName = FilenameUtils.removeExtension(manifest.getDescriptorFileName());
+    private static String getOptionalField(final TabbedTextFileWithHeaderParser parser, final TabbedTextFileWithHeaderParser.Row row,
+                                           final String column) {
+        return parser.hasColumn(column) ? StringUtils.trimToNull(row.getField(column)) : null;
+    }
+
+    private static File getOptionalFile(final TabbedTextFileWithHeaderParser parser, final TabbedTextFileWithHeaderParser.Row row,
+                                        final String column) {
+        final String value = getOptionalField(parser, row, column);
+        return value == null ? null : new File(value);
+    }
 
-            if (!gtcManifestName.equalsIgnoreCase(illuminaManifestName)) {
-                throw new PicardException("The GTC's manifest name " + gtcManifestName +
-                        " does not match the Illumina manifest name " + illuminaManifestName);
+    /** Returns the index in the cluster file of each assay in the table. */
+    private static int[] getClusterFileIndices(final ManifestAssayTable assays, final InfiniumEGTFile egtFile) {
+        final int[] egtIndices = new int[assays.size()];
+        for (int i = 0; i < assays.size(); ++i) {
+            final Integer egtIndex = egtFile.rsNameToIndex.get(assays.names[i]);
+            if (egtIndex == null) {
+                throw new PicardException("Found no record in cluster file for manifest entry '" + assays.names[i] + "'");
             }
+            egtIndices[i] = egtIndex;
+        }
+        return egtIndices;
+    }
 
-            if (infiniumGTCFile.getNumberOfSnps() != manifest.getNumAssays()) {
-                log.warn("The number of Assays in the GTC file: " + infiniumGTCFile.getNumberOfSnps() +
-                        " does not equal the number of Assays in the Illumina manifest file: " + manifest.getNumAssays());
+    /** Converts the GTC file of one sample, writing its assays in the order of the table. */
+    private void convert(final GtcSample sample, final Build37ExtendedIlluminaManifest manifest, final ManifestAssayTable assays,
+                         final InfiniumEGTFile egtFile, final int[] egtIndices,
+                         final InfiniumNormalizationManifest infiniumNormalizationManifest, final SAMSequenceDictionary dict) {
+        final Sex fingerprintGender = getFingerprintSex(sample.fingerprintGenotypesVcfFile);
+        final InfiniumGTCFile gtcFile;
+        String gtcGender = null;
+        try {
+            gtcFile = new InfiniumGTCFile(sample.input, infiniumNormalizationManifest);
+
+            if (sample.genderGtc != null) {
+                gtcGender = new InfiniumGTCFile(sample.genderGtc, infiniumNormalizationManifest).getGender();
             }
-            return manifest;
         } catch (IOException e) {
             throw new PicardException("Error during setup", e);
         }
+
+        final String gtcManifestName = FilenameUtils.removeExtension(gtcFile.getSnpManifest());
+        final String illuminaManifestName = FilenameUtils.removeExtension(manifest.getDescriptorFileName());
+
+        if (!gtcManifestName.equalsIgnoreCase(illuminaManifestName)) {
+            throw new PicardException("The GTC's manifest name " + gtcManifestName +
+                    " does not match the Illumina manifest name " + illuminaManifestName);
+        }
+
+        if (gtcFile.getNumberOfSnps() != manifest.getNumAssays()) {
+            log.warn("The number of Assays in the GTC file: " + gtcFile.getNumberOfSnps() +
+                    " does not equal the number of Assays in the Illumina manifest file: " + manifest.getNumAssays());
+        }
+
+        final VCFHeader vcfHeader = createVCFHeader(manifest, sample, gtcFile, gtcGender, fingerprintGender, CLUSTER_FILE,
+                REFERENCE_SEQUENCE, dict);
+
+        final String sampleName = FilenameUtils.removeExtension(sample.input.getName());
+        final ProgressLogger progressLogger = new ProgressLogger(log, 100000, "written");
+        try (final VariantContextWriter writer = new VariantContextWriterBuilder()
+                .setOutputFile(sample.output)
+                .setReferenceDictionary(dict)
+                .setOptions(VariantContextWriterBuilder.DEFAULT_OPTIONS)
+                .build()) {
+
+            writer.writeHeader(vcfHeader);
+
+            for (int i = 0; i < assays.size(); ++i) {
+                final InfiniumGTCRecord gtcRecord = gtcFile.getRecord(assays.manifestIndices[i]);
+                writer.add(makeVariantContext(assays, i, sampleName, gtcRecord, egtFile, egtIndices[i]));
+                progressLogger.record(assays.contigs[i], assays.positions[i]);
+            }
+        }
+
+        log.info(assays.size() + " Variants were written to " + sample.output);
+        log.info(gtcFile.getNumberOfSnps() + " SNPs in the GTC file");
+        log.info(manifest.getNumAssays() + " Variants on the " + manifest.getDescriptorFileName() + " genotyping array manifest file");
     }
 
     static Sex getFingerprintSex(final File file) {
@@ -274,48 +412,16 @@ public class GtcToVcf extends CommandLineProgram {
         return Sex.Unknown;
     }
 
-    private void fillContexts(final SortingCollection<VariantContext> contexts, final InfiniumGTCFile gtcFile,
-                              final Build37ExtendedIlluminaManifest manifest, final InfiniumEGTFile egtFile) {
-        final ProgressLogger progressLogger = new ProgressLogger(log, 100000, "sorted");
-
-        final Iterator<Build37ExtendedIlluminaManifestRecord> iterator = manifest.extendedIterator();
-        int gtcIndex = 0;
-
-        int numVariantsWritten = 0;
-
-        while (iterator.hasNext()) {
-            final Build37ExtendedIlluminaManifestRecord record = iterator.next();
-
-            if (!record.isBad()) {
-                InfiniumGTCRecord gtcRecord = gtcFile.getRecord(gtcIndex);
-                VariantContext context = makeVariantContext(record, gtcRecord, egtFile, progressLogger);
-                numVariantsWritten++;
-                contexts.add(context);
-            }
-            gtcIndex++;
-        }
-
-        log.info(numVariantsWritten + " Variants were written to file");
-        log.info(gtcFile.getNumberOfSnps() + " SNPs in the GTC file");
-        log.info(manifest.getNumAssays() + " Variants on the " + manifest.getDescriptorFileName() + " genotyping array manifest file");
-    }
-
-    private VariantContext makeVariantContext(Build37ExtendedIlluminaManifestRecord record, final InfiniumGTCRecord gtcRecord,
-                                              final InfiniumEGTFile egtFile, final ProgressLogger progressLogger) {
+    private VariantContext makeVariantContext(final ManifestAssayTable assays, final int i, final String sampleName,
+                                              final InfiniumGTCRecord gtcRecord, final InfiniumEGTFile egtFile, final int egtIndex) {
         // If the record is not flagged as errant in the manifest we include it in the VCF
-        Allele A = record.getAlleleA();
-        Allele B = record.getAlleleB();
-        Allele ref = record.getRefAllele();
-
-        final String chr = record.getB37Chr();
-        final Integer position = record.getB37Pos();
-        final Integer endPosition = position + ref.length() - 1;
-        Integer egtIndex = egtFile.rsNameToIndex.get(record.getName());
-        if (egtIndex == null) {
-            throw new PicardException("Found no record in cluster file for manifest entry '" + record.getName() + "'");
-        }
+        final Allele A = assays.alleleAs[i];
+        final Allele B = assays.alleleBs[i];
+        final Allele ref = assays.refAlleles[i];
 
-        progressLogger.record(chr, position);
+        final String chr = assays.contigs[i];
+        final int position = assays.positions[i];
+        final int endPosition = position + ref.length() - 1;
 
         // Create list of unique alleles
         final List<Allele> assayAlleles = new ArrayList<>();
@@ -333,33 +439,32 @@ public class GtcToVcf extends CommandLineProgram {
             assayAlleles.add(B);
         }
 
-        final String sampleName = FilenameUtils.removeExtension(INPUT.getName());
-        final Genotype genotype = getGenotype(sampleName, gtcRecord, record, A, B);
+        final Genotype genotype = getGenotype(sampleName, gtcRecord, assays.names[i], A, B);
 
         final VariantContextBuilder builder = new VariantContextBuilder();
 
-        builder.source(record.getName());
+        builder.source(assays.names[i]);
         builder.chr(chr);
         builder.start(position);
         builder.stop(endPosition);
         builder.alleles(assayAlleles);
         builder.log10PError(VariantContext.NO_LOG10_PERROR);
-        builder.id(record.getName());
+        builder.id(assays.names[i]);
         builder.genotypes(genotype);
 
         VariantContextUtils.calculateChromosomeCounts(builder, false);
 
         //custom info fields
-        builder.attribute(InfiniumVcfFields.ALLELE_A, record.getAlleleA());
-        builder.attribute(InfiniumVcfFields.ALLELE_B, record.getAlleleB());
-        builder.attribute(InfiniumVcfFields.ILLUMINA_STRAND, record.getIlmnStrand());
-        builder.attribute(InfiniumVcfFields.PROBE_A, record.getAlleleAProbeSeq());
-        builder.attribute(InfiniumVcfFields.PROBE_B, record.getAlleleBProbeSeq());
-        builder.attribute(InfiniumVcfFields.BEADSET_ID, record.getBeadSetId());
-        builder.attribute(InfiniumVcfFields.ILLUMINA_CHR, record.getChr());
-        builder.attribute(InfiniumVcfFields.ILLUMINA_POS, record.getPosition());
-        builder.attribute(InfiniumVcfFields.ILLUMINA_BUILD, record.getGenomeBuild());
-        builder.attribute(InfiniumVcfFields.SOURCE, record.getSource().replace(' ', '_'));
+        builder.attribute(InfiniumVcfFields.ALLELE_A, A);
+        builder.attribute(InfiniumVcfFields.ALLELE_B, B);
+        builder.attribute(InfiniumVcfFields.ILLUMINA_STRAND, assays.ilmnStrands[i]);
+        builder.attribute(InfiniumVcfFields.PROBE_A, assays.alleleAProbeSeqs[i]);
+        builder.attribute(InfiniumVcfFields.PROBE_B, assays.alleleBProbeSeqs[i]);
+        builder.attribute(InfiniumVcfFields.BEADSET_ID, assays.beadSetIds[i]);
+        builder.attribute(InfiniumVcfFields.ILLUMINA_CHR, assays.ilmnChrs[i]);
+        builder.attribute(InfiniumVcfFields.ILLUMINA_POS, assays.ilmnPositions[i]);
+        builder.attribute(InfiniumVcfFields.ILLUMINA_BUILD, assays.genomeBuilds[i]);
+        builder.attribute(InfiniumVcfFields.SOURCE, assays.sources[i]);
         builder.attribute(InfiniumVcfFields.GC_SCORE, formatFloatForVcf(egtFile.totalScore[egtIndex]));
 
         for (InfiniumVcfFields.GENOTYPE_VALUES gtValue : InfiniumVcfFields.GENOTYPE_VALUES.values()) {
@@ -379,7 +484,7 @@ public class GtcToVcf extends CommandLineProgram {
         }
 
 
-        final String rsid = record.getRsId();
+        final String rsid = assays.rsIds[i];
         if (StringUtils.isNotEmpty(rsid)) {
             builder.attribute(InfiniumVcfFields.RS_ID, rsid);
         }
@@ -394,9 +499,12 @@ public class GtcToVcf extends CommandLineProgram {
                 }
             }
         }
-        if (record.isDupe()) {
+        if (assays.dupes[i]) {
             builder.filter(InfiniumVcfFields.DUPE);
         }
+        if (assayAlleles.size() > 2) {
+            builder.filter(InfiniumVcfFields.TRIALLELIC);
+        }
         return builder.make();
     }
 
@@ -451,6 +559,14 @@ public class GtcToVcf extends CommandLineProgram {
                                 final IlluminaManifestRecord record,
                                 final Allele A,
                                 final Allele B) {
+        return getGenotype(sampleName, infiniumGtcRecord, record.getName(), A, B);
+    }
+
+    private Genotype getGenotype(final String sampleName,
+                                 final InfiniumGTCRecord infiniumGtcRecord,
+                                 final String assayName,
+                                 final Allele A,
+                                 final Allele B) {
 
         // The Sample Alleles
         final List<Allele> alleles;
@@ -460,7 +576,7 @@ public class GtcToVcf extends CommandLineProgram {
         else if (infiniumGtcRecord.genotype == InfiniumGTCFile.AB_CALL) alleles = Arrays.asList(A, B);
         else if (infiniumGtcRecord.genotype == InfiniumGTCFile.BB_CALL) alleles = Arrays.asList(B, B);
         else {
-            throw new PicardException("Unexpected genotype call [" + infiniumGtcRecord.genotype + "]" + " for SNP: " + record.getName());
+            throw new PicardException("Unexpected genotype call [" + infiniumGtcRecord.genotype + "]" + " for SNP: " + assayName);
         }
 
         final Map<String, Object> attributes = new HashMap<>();
@@ -481,43 +597,18 @@ public class GtcToVcf extends CommandLineProgram {
         if (Float.isNaN(value)) {
             return DOT;
         }
-        return df.format(value);
-    }
-
-    /**
-     * Writes out the VariantContext objects in the order presented to the supplied output file
-     * in VCF format.
-     */
-    private void writeVcf(final SortingCollection<VariantContext> variants,
-                          final File output,
-                          final SAMSequenceDictionary dict,
-                          final VCFHeader vcfHeader) {
-
-        try (final VariantContextWriter writer = new VariantContextWriterBuilder()
-                .setOutputFile(output)
-                .setReferenceDictionary(dict)
-                .setOptions(VariantContextWriterBuilder.DEFAULT_OPTIONS)
-                .build()) {
-
-            writer.writeHeader(vcfHeader);
-
-            for (final VariantContext variant : variants) {
-                if (variant.getAlternateAlleles().size() > 1) {
-                    variant.getCommonInfo().addFilter(InfiniumVcfFields.TRIALLELIC);
-                }
-
-                writer.add(variant);
-            }
-        }
+        return df.get().format(value);
     }
 
     private VCFHeader createVCFHeader(final Build37ExtendedIlluminaManifest manifest,
+                                      final GtcSample sample,
                                       final InfiniumGTCFile gtcFile,
                                       final String gtcGender,
+                                      final Sex fingerprintGender,
                                       final File clusterFile,
                                       final File reference,
                                       final SAMSequenceDictionary dict) {
-        final String inputName = INPUT.getName();
+        final String inputName = sample.input.getName();
         final String chipWellBarcode = inputName.substring(0, inputName.lastIndexOf('.'));
 
         final Set<VCFHeaderLine> lines = new LinkedHashSet<>();
@@ -532,9 +623,9 @@ public class GtcToVcf extends CommandLineProgram {
         if (ANALYSIS_VERSION_NUMBER != null) {
             lines.add(new VCFHeaderLine(InfiniumVcfFields.ANALYSIS_VERSION_NUMBER, ANALYSIS_VERSION_NUMBER.toString()));
         }
-        lines.add(new VCFHeaderLine(InfiniumVcfFields.SAMPLE_ALIAS, SAMPLE_ALIAS));
-        if (EXPECTED_GENDER != null) {
-            lines.add(new VCFHeaderLine(InfiniumVcfFields.EXPECTED_GENDER, EXPECTED_GENDER));
+        lines.add(new VCFHeaderLine(InfiniumVcfFields.SAMPLE_ALIAS, sample.sampleAlias));
+        if (sample.expectedGender != null) {
+            lines.add(new VCFHeaderLine(InfiniumVcfFields.EXPECTED_GENDER, sample.expectedGender));
         }
         //add control codes
         final int measurementCount = gtcFile.getRawControlXIntensities().length / ArraysControlInfo.CONTROL_INFO.length;
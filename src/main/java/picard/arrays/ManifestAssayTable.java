@@ -0,0 +1,193 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.arrays;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.variant.variantcontext.Allele;
+import picard.PicardException;
+import picard.arrays.illumina.Build37ExtendedIlluminaManifest;
+import picard.arrays.illumina.Build37ExtendedIlluminaManifestRecord;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The assays of a Build37ExtendedIlluminaManifest that GtcToVcf writes to a VCF, held in memory in the order in which
+ * they are written, i.e. by build 37 contig and position, with ties in manifest order.
+ *
+ * As that order depends only on the manifest and sequence dictionary, the manifest is parsed and sorted once and the
+ * table is then used to convert any number of GTC files, each of which is written by walking the table in order.
+ * Only the fields that end up in the VCF are kept, in parallel arrays, and the strings that repeat between assays
+ * (chromosomes, builds, sources, alleles) are shared.
+ */
+class ManifestAssayTable {
+    private final int size;
+
+    /** The index of each assay in the manifest, which is also its index in a GTC file. */
+    final int[] manifestIndices;
+    final String[] names;
+    final String[] contigs;
+    final int[] positions;
+    final Allele[] refAlleles;
+    final Allele[] alleleAs;
+    final Allele[] alleleBs;
+    final String[] ilmnStrands;
+    final String[] alleleAProbeSeqs;
+    final String[] alleleBProbeSeqs;
+    final int[] beadSetIds;
+    final String[] ilmnChrs;
+    final int[] ilmnPositions;
+    final String[] genomeBuilds;
+    final String[] sources;
+    final String[] rsIds;
+    final boolean[] dupes;
+
+    /**
+     * Reads the assay records of the manifest, keeping those not flagged as bad.
+     *
+     * @param manifest           A manifest whose assays have not yet been iterated over.
+     * @param sequenceDictionary The dictionary of the reference the VCF is written against, which determines the order.
+     */
+    ManifestAssayTable(final Build37ExtendedIlluminaManifest manifest, final SAMSequenceDictionary sequenceDictionary) {
+        final int capacity = manifest.getNumAssays();
+        final int[] manifestIndices = new int[capacity];
+        final String[] names = new String[capacity];
+        final String[] contigs = new String[capacity];
+        final int[] positions = new int[capacity];
+        final Allele[] refAlleles = new Allele[capacity];
+        final Allele[] alleleAs = new Allele[capacity];
+        final Allele[] alleleBs = new Allele[capacity];
+        final String[] ilmnStrands = new String[capacity];
+        final String[] alleleAProbeSeqs = new String[capacity];
+        final String[] alleleBProbeSeqs = new String[capacity];
+        final int[] beadSetIds = new int[capacity];
+        final String[] ilmnChrs = new String[capacity];
+        final int[] ilmnPositions = new int[capacity];
+        final String[] genomeBuilds = new String[capacity];
+        final String[] sources = new String[capacity];
+        final String[] rsIds = new String[capacity];
+        final boolean[] dupes = new boolean[capacity];
+        // The sort key of each assay: contig index in the high bits, position in the low bits
+        final long[] sortKeys = new long[capacity];
+
+        final Map<Object, Object> shared = new HashMap<>();
+        final Iterator<Build37ExtendedIlluminaManifestRecord> iterator = manifest.extendedIterator();
+        int manifestIndex = 0;
+        int n = 0;
+        while (iterator.hasNext()) {
+            final Build37ExtendedIlluminaManifestRecord record = iterator.next();
+            if (!record.isBad()) {
+                final int contigIndex = sequenceDictionary.getSequenceIndex(record.getB37Chr());
+                if (contigIndex == -1) {
+                    throw new PicardException("Contig '" + record.getB37Chr() + "' of manifest entry '" + record.getName() +
+                            "' is not in the reference sequence dictionary");
+                }
+                manifestIndices[n] = manifestIndex;
+                names[n] = record.getName();
+                contigs[n] = sequenceDictionary.getSequence(contigIndex).getSequenceName();
+                positions[n] = record.getB37Pos();
+                refAlleles[n] = share(shared, record.getRefAllele());
+                alleleAs[n] = share(shared, record.getAlleleA());
+                alleleBs[n] = share(shared, record.getAlleleB());
+                ilmnStrands[n] = share(shared, String.valueOf(record.getIlmnStrand()));
+                alleleAProbeSeqs[n] = record.getAlleleAProbeSeq();
+                alleleBProbeSeqs[n] = record.getAlleleBProbeSeq();
+                beadSetIds[n] = record.getBeadSetId();
+                ilmnChrs[n] = share(shared, record.getChr());
+                ilmnPositions[n] = record.getPosition();
+                genomeBuilds[n] = share(shared, record.getGenomeBuild());
+                sources[n] = share(shared, record.getSource().replace(' ', '_'));
+                rsIds[n] = record.getRsId();
+                dupes[n] = record.isDupe();
+                sortKeys[n] = ((long) contigIndex << 32) | positions[n];
+                n++;
+            }
+            manifestIndex++;
+        }
+        this.size = n;
+
+        final int[] order = sortedOrder(sortKeys, n);
+        this.manifestIndices = permute(manifestIndices, order);
+        this.names = permute(names, order);
+        this.contigs = permute(contigs, order);
+        this.positions = permute(positions, order);
+        this.refAlleles = permute(refAlleles, order);
+        this.alleleAs = permute(alleleAs, order);
+        this.alleleBs = permute(alleleBs, order);
+        this.ilmnStrands = permute(ilmnStrands, order);
+        this.alleleAProbeSeqs = permute(alleleAProbeSeqs, order);
+        this.alleleBProbeSeqs = permute(alleleBProbeSeqs, order);
+        this.beadSetIds = permute(beadSetIds, order);
+        this.ilmnChrs = permute(ilmnChrs, order);
+        this.ilmnPositions = permute(ilmnPositions, order);
+        this.genomeBuilds = permute(genomeBuilds, order);
+        this.sources = permute(sources, order);
+        this.rsIds = permute(rsIds, order);
+        final boolean[] sortedDupes = new boolean[n];
+        for (int i = 0; i < n; ++i) {
+            sortedDupes[i] = dupes[order[i]];
+        }
+        this.dupes = sortedDupes;
+    }
+
+    /** The number of assays in the table. */
+    int size() {
+        return size;
+    }
+
+    /** Returns the index in the table of each assay, in order, after a stable sort by key. */
+    private static int[] sortedOrder(final long[] sortKeys, final int n) {
+        final Integer[] order = new Integer[n];
+        for (int i = 0; i < n; ++i) {
+            order[i] = i;
+        }
+        // Arrays.sort on objects is stable, so assays at the same position stay in manifest order
+        Arrays.sort(order, (a, b) -> Long.compare(sortKeys[a], sortKeys[b]));
+        return Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T share(final Map<Object, Object> shared, final T value) {
+        final Object existing = shared.putIfAbsent(value, value);
+        return existing == null ? value : (T) existing;
+    }
+
+    private static int[] permute(final int[] values, final int[] order) {
+        final int[] permuted = new int[order.length];
+        for (int i = 0; i < order.length; ++i) {
+            permuted[i] = values[order[i]];
+        }
+        return permuted;
+    }
+
+    private static <T> T[] permute(final T[] values, final int[] order) {
+        final T[] permuted = Arrays.copyOf(values, order.length);
+        for (int i = 0; i < order.length; ++i) {
+            permuted[i] = values[order[i]];
+        }
+        return permuted;
+    }
+}
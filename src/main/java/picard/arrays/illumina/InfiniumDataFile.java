@@ -26,15 +26,21 @@ package picard.arrays.illumina;
 
 import org.apache.commons.io.IOUtils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 /**
  * A class to provide methods for accessing Illumina Infinium Data Files.
+ *
+ * The file is held in a little-endian ByteBuffer, memory-mapped when it is read from a File, so that subclasses can
+ * read entries at their table of contents offsets directly and return large arrays as views rather than copies.
  */
 public abstract class InfiniumDataFile {
 
@@ -42,19 +48,20 @@ public abstract class InfiniumDataFile {
     private int numberOfEntries;
     private int fileVersion;
 
-    final DataInputStream stream;
-
-    InfiniumDataFile(final DataInputStream stream, final boolean cacheStream) throws IOException {
-        if (cacheStream) {
-            final byte[] data = readStreamIntoByteArray(stream);
+    /** The whole file, positioned at the next value to be read by the relative parse methods. */
+    final ByteBuffer buffer;
 
-            // Don't need to buffer this one because it is sitting in memory
-            this.stream = new DataInputStream(new ByteArrayInputStream(data));
-        } else {
-            this.stream = stream;
+    InfiniumDataFile(final File file) throws IOException {
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            // The mapping stays valid after the channel is closed
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()).order(ByteOrder.LITTLE_ENDIAN);
         }
     }
 
+    InfiniumDataFile(final DataInputStream stream) throws IOException {
+        this.buffer = ByteBuffer.wrap(IOUtils.toByteArray(stream)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
     /**
      * Utility method for reading a string of data. (Reads from the current offset)
      *
@@ -63,14 +70,14 @@ public abstract class InfiniumDataFile {
      */
     String parseString() throws IOException {
         final String dataString;
-        final byte strLen = stream.readByte();
+        final byte strLen = buffer.get();
         if (strLen != 0) {
             final byte[] stringBytes = new byte[strLen];
-            final int bytesRead = stream.read(stringBytes);
-            if (bytesRead != stringBytes.length) {
-                throw new IOException("Did not fully read string. Read " + bytesRead + " out of "
+            if (buffer.remaining() < stringBytes.length) {
+                throw new IOException("Did not fully read string. Read " + buffer.remaining() + " out of "
                         + stringBytes.length + ".");
             }
+            buffer.get(stringBytes);
             dataString = new String(byteArrayToCharArray(stringBytes));
         } else {
             dataString = "";
@@ -94,16 +101,33 @@ public abstract class InfiniumDataFile {
      * @throws java.io.IOException is thrown when there is a problem reading the stream.
      */
     byte[] parseByteArray(final InfiniumFileTOC toc) throws IOException {
-        stream.skipBytes(toc.getOffset());
-        final int arrayLen = Integer.reverseBytes(stream.readInt());
-        final byte[] byteArray = new byte[arrayLen];
-        for (int i = 0; i < arrayLen; i++) {
-            byteArray[i] = stream.readByte();
-        }
+        buffer.position(toc.getOffset());
+        final byte[] byteArray = new byte[buffer.getInt()];
+        buffer.get(byteArray);
         return byteArray;
     }
 
-    private static final int SHORT_BYTES_LENGTH = 2;
+    /**
+     * Returns a little-endian view, without copying, of the elements of the length-prefixed array at the given offset.
+     *
+     * @param offset       The offset of the array's length in the file.
+     * @param elementBytes The size of each element of the array.
+     * @return A buffer holding exactly the elements of the array, independent of the position of the file's buffer.
+     */
+    ByteBuffer arrayView(final int offset, final int elementBytes) {
+        final int arrayLen = buffer.getInt(offset);
+        final int start = offset + Integer.BYTES;
+        final int end = start + arrayLen * elementBytes;
+        if (arrayLen < 0 || end > buffer.limit()) {
+            throw new BufferUnderflowException();
+        }
+        final ByteBuffer view = buffer.duplicate();
+        view.limit(end).position(start);
+        // slice() resets the byte order, so it has to be set again
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static final int SHORT_BYTES_LENGTH = 2;
 
     /**
      * Utility method to convert an unsigned short to an int.
@@ -147,7 +171,7 @@ public abstract class InfiniumDataFile {
         return Float.intBitsToFloat(tempInt);
     }
 
-    private static final int FLOAT_BYTES_LENGTH = 4;
+    static final int FLOAT_BYTES_LENGTH = 4;
 
     /**
      * Utility method to convert a float to a byte array
@@ -172,9 +196,7 @@ public abstract class InfiniumDataFile {
      * @throws java.io.IOException is thrown when there is a problem reading the stream.
      */
     float parseFloat() throws IOException {
-        final byte[] floatBytes = new byte[FLOAT_BYTES_LENGTH];
-        stream.readFully(floatBytes);
-        return byteArrayToFloat(floatBytes);
+        return buffer.getFloat();
     }
 
     /**
@@ -203,10 +225,8 @@ public abstract class InfiniumDataFile {
      * @throws java.io.IOException is thrown when there is a problem reading the stream.
      */
     float parseFloat(final InfiniumFileTOC toc) throws IOException {
-        final byte[] floatBytes = new byte[FLOAT_BYTES_LENGTH];
-        stream.skipBytes(toc.getOffset());
-        stream.readFully(floatBytes);
-        return byteArrayToFloat(floatBytes);
+        buffer.position(toc.getOffset());
+        return buffer.getFloat();
     }
 
     /**
@@ -219,31 +239,27 @@ public abstract class InfiniumDataFile {
      */
     int[] parseUnsignedShortArray(final InfiniumFileTOC toc)
             throws IOException {
-        final byte[] shortBytes = new byte[2];
-        stream.skipBytes(toc.getOffset());
-        final int arrayLen = Integer.reverseBytes(stream.readInt());
+        buffer.position(toc.getOffset());
+        final int arrayLen = buffer.getInt();
         int[] unsignedShortArray = new int[arrayLen];
         for (int i = 0; i < arrayLen; i++) {
-            stream.readFully(shortBytes);
-            unsignedShortArray[i] = byteArrayToInt(shortBytes);
+            unsignedShortArray[i] = readShort();
         }
         return unsignedShortArray;
     }
 
     int parseShort(final InfiniumFileTOC toc) throws IOException {
-        stream.skipBytes(toc.getOffset());
+        buffer.position(toc.getOffset());
         return readShort();
     }
 
     int readShort() throws IOException {
-        final byte[] shortBytes = new byte[2];
-        stream.readFully(shortBytes);
-        return byteArrayToInt(shortBytes);
+        return Short.toUnsignedInt(buffer.getShort());
     }
 
     int parseInt(final InfiniumFileTOC toc) throws IOException {
-        stream.skipBytes(toc.getOffset());
-        return Integer.reverseBytes(stream.readInt());
+        buffer.position(toc.getOffset());
+        return buffer.getInt();
     }
 
     /**
@@ -254,7 +270,7 @@ public abstract class InfiniumDataFile {
      * @throws java.io.IOException thrown when there is an error reading the data stream.
      */
     String parseString(final InfiniumFileTOC toc) throws IOException {
-        stream.skipBytes(toc.getOffset());
+        buffer.position(toc.getOffset());
         return parseString();
     }
 
@@ -266,32 +282,11 @@ public abstract class InfiniumDataFile {
      * @throws java.io.IOException is thrown when there is a problem reading the stream.
      */
     float[] parseFloatArray(final InfiniumFileTOC toc) throws IOException {
-        stream.skipBytes(toc.getOffset());
-        final int arrayLen = Integer.reverseBytes(stream.readInt());
-
-        final float[] floatArray = new float[arrayLen];
-        for (int i = 0; i < arrayLen; i++) {
-            floatArray[i] = parseFloat();
-        }
+        final float[] floatArray = new float[buffer.getInt(toc.getOffset())];
+        arrayView(toc.getOffset(), FLOAT_BYTES_LENGTH).asFloatBuffer().get(floatArray);
         return floatArray;
     }
 
-    /**
-     * This method is used to avoid a null assignment that was being done for some reason in the caller. By limiting
-     * the scope of the stream, it will accomplish this without the need for a null.
-     *
-     * @param streamToCache The input stream that will be cached.
-     * @return The byte array
-     * @throws java.io.IOException Errors reading the stream
-     */
-    private byte[] readStreamIntoByteArray(final InputStream streamToCache) throws IOException {
-        try (final ByteArrayOutputStream outStream = new ByteArrayOutputStream()) {
-            //read the entire inputstream into memory
-            IOUtils.copy(streamToCache, outStream);
-            return outStream.toByteArray();
-        }
-    }
-
     public String getIdentifier() {
         return identifier;
     }
@@ -326,12 +321,10 @@ public abstract class InfiniumDataFile {
 
         final InfiniumFileTOC[] tableOfContents = new InfiniumFileTOC[getNumberOfEntries()];
 
-        //read in the table of contents... order them by offset so that we
-        //only have to traverse the input stream once.
         for (int i = 0; i < getNumberOfEntries(); i++) {
             final InfiniumFileTOC toc = new InfiniumFileTOC();
-            toc.setTableOfContentsId(Short.reverseBytes(stream.readShort()));
-            toc.setOffset(Integer.reverseBytes(stream.readInt()));
+            toc.setTableOfContentsId(buffer.getShort());
+            toc.setOffset(buffer.getInt());
             tableOfContents[i] = toc;
         }
 
@@ -339,11 +332,11 @@ public abstract class InfiniumDataFile {
     }
 
     int parseInt() throws IOException {
-        return Integer.reverseBytes(stream.readInt());
+        return buffer.getInt();
     }
 
     void skipFloats(int numFloats) throws IOException {
-        stream.skipBytes(numFloats * FLOAT_BYTES_LENGTH);
+        buffer.position(buffer.position() + numFloats * FLOAT_BYTES_LENGTH);
     }
 
     void skipFloat() throws IOException {
@@ -351,11 +344,11 @@ public abstract class InfiniumDataFile {
     }
 
     void skipBoolean() throws IOException {
-        stream.skipBytes(1);
+        buffer.position(buffer.position() + 1);
     }
 
     void skipString() throws IOException {
-        byte strLen = stream.readByte();
-        stream.skipBytes(strLen);
+        byte strLen = buffer.get();
+        buffer.position(buffer.position() + strLen);
     }
 }
@@ -23,12 +23,9 @@
  */
 
 package picard.arrays.illumina;
-import org.apache.commons.io.IOUtils;
 import picard.PicardException;
 
-import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
@@ -38,6 +35,8 @@ import java.util.Map;
  *
  * A cluster file contains information about the clustering information used in mapping red / green intensity information
  * to genotype calls
+ *
+ * The file is memory-mapped and parsed in a single pass.
  */
 public class InfiniumEGTFile extends InfiniumDataFile {
     public static final String EXTENSION = "egt";
@@ -63,17 +62,13 @@ public class InfiniumEGTFile extends InfiniumDataFile {
 
 
     public InfiniumEGTFile(final File clusterFile) throws IOException {
-        super(new DataInputStream(new FileInputStream(clusterFile)), false);
+        super(clusterFile);
         parse();
     }
 
     private void parse() throws IOException {
-        try {
-            readHeaderData();
-            readFileData();
-        } finally {
-            IOUtils.closeQuietly(stream);
-        }
+        readHeaderData();
+        readFileData();
     }
 
     private void readFileData() throws IOException {
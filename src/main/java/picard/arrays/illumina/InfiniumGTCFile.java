@@ -28,7 +28,12 @@ package picard.arrays.illumina;
 import picard.PicardException;
 
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
 
 /**
  * A class to parse the contents of an Illumina Infinium genotype (GTC) file
@@ -37,7 +42,8 @@ import java.io.IOException;
  * contains genotype calls, confidence scores, basecalls and raw intensities for all calls made on the chip.
  *
  * This class will parse the binary GTC file format and allow access to the genotype, scores, basecalls and raw
- * intensities.
+ * intensities.  The per-SNP arrays are not decoded up front: they are views onto the file (which is memory-mapped when
+ * read from a File), and the normalized intensities, R and theta of a SNP are calculated when its record is read.
  */
 public class InfiniumGTCFile extends InfiniumDataFile {
 
@@ -100,12 +106,13 @@ public class InfiniumGTCFile extends InfiniumDataFile {
     private InfiniumTransformation[] normalizationTransformations;
     private int[] rawControlXIntensities;
     private int[] rawControlYIntensities;
-    private int[] rawXIntensities;
-    private int[] rawYIntensities;
-    private byte[] genotypeBytes;
-    private float[] genotypeScores;
-    private float[] bAlleleFreqs;
-    private float[] logRRatios;
+    private ShortBuffer rawXIntensities;
+    private ShortBuffer rawYIntensities;
+    private ByteBuffer genotypeBytes;
+    private FloatBuffer genotypeScores;
+    private FloatBuffer bAlleleFreqs;
+    private FloatBuffer logRRatios;
+    private int baseCallsOffset = -1;
     private byte[][] baseCalls;
 
     //scanner data - 1005
@@ -135,16 +142,24 @@ public class InfiniumGTCFile extends InfiniumDataFile {
 
     private String sentrixBarcode;
 
-    //derived values
-    private float[] normalizedXIntensities;
-    private float[] normalizedYIntensities;
-    private float[] RIlmn;
-    private float[] thetaIlmn;
-
+    // counted from the genotypes when first needed
+    private boolean callsCounted = false;
     private int aaCalls = 0;
     private int abCalls = 0;
     private int bbCalls = 0;
 
+    /**
+     * Creates an InfiniumGTCFile object by memory-mapping and parsing the given GTC file.
+     *
+     * @param gtcFile The gtc file.
+     * @throws IOException is thrown when there is a problem reading the file.
+     */
+    public InfiniumGTCFile(final File gtcFile, final InfiniumNormalizationManifest normalizationManifest) throws IOException {
+        super(gtcFile);
+        this.normalizationManifest = normalizationManifest;
+        parse();
+    }
+
     /**
      * Creates an InfiniumGTCFile object and parses the given input stream.
      *
@@ -152,136 +167,69 @@ public class InfiniumGTCFile extends InfiniumDataFile {
      * @throws IOException is thrown when there is a problem reading the stream.
      */
     public InfiniumGTCFile(final DataInputStream gtcStream, final InfiniumNormalizationManifest normalizationManifest) throws IOException {
-        super(gtcStream, true);
+        super(gtcStream);
         this.normalizationManifest = normalizationManifest;
         parse();
-        normalizeAndCalculateStatistics();
     }
 
     InfiniumGTCFile(final DataInputStream gtcStream) throws IOException {
-        super(gtcStream, true);
+        super(gtcStream);
         this.normalizationManifest = null;
         parse();
     }
 
-    private void calculateStatistics() {
-        calculateRandTheta();
-    }
-
-    private void calculateRandTheta() {
-        thetaIlmn = new float[normalizedXIntensities.length];
-        RIlmn = new float[normalizedXIntensities.length];
-        for (int i = 0; i < normalizedXIntensities.length; i++) {
-            double x = normalizedXIntensities[i];
-            double y = normalizedYIntensities[i];
-            thetaIlmn[i] = (float) (2 * (Math.atan(y / x) / Math.PI));
-            RIlmn[i] = (float) (x + y);
-        }
-    }
-
     /**
      * Main parsing method.
      *
      * @throws IOException thrown when there is a problem reading the stream.
      */
     private void parse() throws IOException {
+        final byte[] curIdentifier = new byte[IDENTIFIER_LENGTH];
+        buffer.get(curIdentifier);
 
-        stream.mark(0);
-
-        try {
-            final byte[] curIdentifier = new byte[IDENTIFIER_LENGTH];
-            for (int i = 0; i < curIdentifier.length; i++) {
-                curIdentifier[i] = stream.readByte();
-            }
-
-            final String identifier = new String(curIdentifier);
-            setIdentifier(identifier);
-            if (!identifier.equals(GTC_IDENTIFIER)) {
-                throw new PicardException("Invalid identifier '" + identifier + "' for GTC file");
-            }
-            setFileVersion(stream.readByte());
-            setNumberOfEntries(Integer.reverseBytes(stream.readInt()));
-
-            //parse the tables of contents
-            for (InfiniumFileTOC toc : getTableOfContents()) {
-                stream.reset();
-                readData(stream, toc);
-            }
-            //older versions don't have extended sample info so we need to infer this
-            if (numCalls == 0) {
-                numCalls = aaCalls + abCalls + bbCalls;
-            }
-
-        } finally {
-            stream.close();
+        final String identifier = new String(curIdentifier);
+        setIdentifier(identifier);
+        if (!identifier.equals(GTC_IDENTIFIER)) {
+            throw new PicardException("Invalid identifier '" + identifier + "' for GTC file");
         }
+        setFileVersion(buffer.get());
+        setNumberOfEntries(buffer.getInt());
 
-        if ((normalizationManifest != null) && (normalizationManifest.getNormIds() != null)) {
-            normalizeIntensities();
+        //parse the tables of contents
+        for (InfiniumFileTOC toc : getTableOfContents()) {
+            readData(toc);
         }
     }
 
-    private void normalizeIntensities() {
-        normalizedXIntensities = new float[numberOfSnps];
-        normalizedYIntensities = new float[numberOfSnps];
-
+    /**
+     * Returns the normalization transformation for the SNP at the given index, or null if its intensities are not
+     * normalized.
+     */
+    private InfiniumTransformation getNormalizationTransformation(final int index) {
+        if (normalizationManifest == null) {
+            return null;
+        }
         final int[] normIds = normalizationManifest.getNormIds();
-        for (int i = 0; i < rawXIntensities.length; i++) {
-            final int rawX = rawXIntensities[i];
-            final int rawY = rawYIntensities[i];
-
-            final int normId;
-            int normIndex = -1;
-            if ((normIds != null) && (normIds.length > i)) {
-                normId = normIds[i];
-                normIndex = getAllNormIndex(normId);
-            }
-
-            if (normIndex != -1) {
-                final InfiniumTransformation xform = normalizationTransformations[normIndex];
-                final float tempX = rawX - xform.getOffsetX();
-                final float tempY = rawY - xform.getOffsetY();
-                final float theta = xform.getTheta();
-                double tempX2 = Math.cos(theta) * tempX + Math.sin(theta) * tempY;
-                double tempY2 = -Math.sin(theta) * tempX + Math.cos(theta) * tempY;
-                double tempX3 = tempX2 - xform.getShear() * tempY2;
-
-                if (tempX3 < 0) {
-                    tempX3 = 0;
-                }
-                if (tempY2 < 0) {
-                    tempY2 = 0;
-                }
-
-                normalizedXIntensities[i] = (float) (tempX3 / xform.getScaleX());
-                normalizedYIntensities[i] = (float) (tempY2 / xform.getScaleY());
-            } else {
-                normalizedXIntensities[i] = rawXIntensities[i];
-                normalizedYIntensities[i] = rawYIntensities[i];
-            }
+        if ((normIds == null) || (normIds.length <= index)) {
+            return null;
         }
+        final int normIndex = getAllNormIndex(normIds[index]);
+        return normIndex == -1 ? null : normalizationTransformations[normIndex];
     }
 
     private int getAllNormIndex(final int normId) {
-        int index = 0;
-
-        for (int currentNormId : normalizationManifest.getAllNormIds()) {
-            if (currentNormId == normId) {
-                return index;
-            }
-            index++;
-        }
-        return -1;
+        // the norm ids are sorted and distinct
+        final int index = Arrays.binarySearch(normalizationManifest.getAllNormIds(), normId);
+        return index < 0 ? -1 : index;
     }
 
     /**
-     * Reads the table of contents data from the input stream.
+     * Reads the table of contents data from the file.  Arrays with a value per SNP are not read, only located.
      *
-     * @param stream The stream to be parsed.
      * @param toc    The table of contents record to be parsed.
-     * @throws IOException thrown when there is a problem reading the stream.
+     * @throws IOException thrown when there is a problem reading the file.
      */
-    private void readData(final DataInputStream stream, final InfiniumFileTOC toc) throws IOException {
+    private void readData(final InfiniumFileTOC toc) throws IOException {
         switch (toc.getTableOfContentsId()) {
             case NUM_SNPS:
                 numberOfSnps = toc.getOffset();
@@ -326,19 +274,19 @@ public class InfiniumGTCFile extends InfiniumDataFile {
                 rawControlYIntensities = parseUnsignedShortArray(toc);
                 break;
             case RAW_X_INTENSITIES:
-                rawXIntensities = parseUnsignedShortArray(toc);
+                rawXIntensities = arrayView(toc.getOffset(), SHORT_BYTES_LENGTH).asShortBuffer();
                 break;
             case RAW_Y_INTESITIES:
-                rawYIntensities = parseUnsignedShortArray(toc);
+                rawYIntensities = arrayView(toc.getOffset(), SHORT_BYTES_LENGTH).asShortBuffer();
                 break;
             case GENOTYPES:
-                genotypeBytes = parseGenotypes(toc);
+                genotypeBytes = arrayView(toc.getOffset(), 1);
                 break;
             case BASE_CALLS:
-                baseCalls = parseBaseCalls(toc);
+                baseCallsOffset = toc.getOffset();
                 break;
             case GENOTYPE_SCORES:
-                genotypeScores = parseFloatArray(toc);
+                genotypeScores = arrayView(toc.getOffset(), FLOAT_BYTES_LENGTH).asFloatBuffer();
                 break;
             case SCANNER_INFO:
                 parseScannerInfo(toc);
@@ -347,8 +295,7 @@ public class InfiniumGTCFile extends InfiniumDataFile {
                 callRate = parseFloat(toc);
                 break;
             case GENDER:
-                stream.skipBytes(toc.getOffset());
-                gender = String.valueOf((char) stream.read());
+                gender = String.valueOf((char) buffer.get(toc.getOffset()));
                 break;
             case LOG_R_DEV:
                 logRDev = parseFloat(toc);
@@ -363,10 +310,10 @@ public class InfiniumGTCFile extends InfiniumDataFile {
                 parseExtendedSampleData(toc);
                 break;
             case B_ALLELE_FREQS:
-                bAlleleFreqs = parseFloatArray(toc);
+                bAlleleFreqs = arrayView(toc.getOffset(), FLOAT_BYTES_LENGTH).asFloatBuffer();
                 break;
             case LOG_R_RATIOS:
-                logRRatios = parseFloatArray(toc);
+                logRRatios = arrayView(toc.getOffset(), FLOAT_BYTES_LENGTH).asFloatBuffer();
                 break;
             case INTENSITY_X_PERCENTILES:
                 redIntensityPercentiles = new IntensityPercentiles(parseShort(toc), readShort(), readShort());
@@ -384,9 +331,9 @@ public class InfiniumGTCFile extends InfiniumDataFile {
 
     private void parseExtendedSampleData(final InfiniumFileTOC toc) throws IOException {
         p50GC = parseFloat(toc);
-        numCalls = Integer.reverseBytes(stream.readInt());
-        numNoCalls = Integer.reverseBytes(stream.readInt());
-        numIntensityOnly = Integer.reverseBytes(stream.readInt());
+        numCalls = parseInt();
+        numNoCalls = parseInt();
+        numIntensityOnly = parseInt();
     }
 
     /**
@@ -397,24 +344,22 @@ public class InfiniumGTCFile extends InfiniumDataFile {
      */
     private void parseScannerInfo(final InfiniumFileTOC toc) throws IOException {
         scannerName = parseString(toc);
-        pmtGreen = Integer.reverseBytes(stream.readInt());
-        pmtRed = Integer.reverseBytes(stream.readInt());
+        pmtGreen = parseInt();
+        pmtRed = parseInt();
         scannerVersion = parseString();
         imagingUser = parseString();
     }
 
     /**
-     * Utility method for parsing out the genotypes (NC for no call)
-     *
-     * @param toc The table of contents record for parsing the genotypes.
-     * @return A byte array containing all of the genotype values.
-     * @throws IOException is thrown when there is a problem reading the stream.
+     * Counts the genotype calls of each type, the first time they are needed.
      */
-    private byte[] parseGenotypes(final InfiniumFileTOC toc) throws IOException {
-        final byte[] genotypeBytes = parseByteArray(toc);
-
-        for (byte genotypeByte : genotypeBytes) {
-            switch (genotypeByte) {
+    private void countCalls() {
+        if (callsCounted) {
+            return;
+        }
+        callsCounted = true;
+        for (int i = 0; i < genotypeBytes.limit(); i++) {
+            switch (genotypeBytes.get(i)) {
                 case NO_CALL: {
                     break;
                 }
@@ -432,24 +377,21 @@ public class InfiniumGTCFile extends InfiniumDataFile {
                 }
             }
         }
-        return genotypeBytes;
     }
 
     /**
      * Utility method for parsing out the basecalls. (- for no call)
      *
-     * @param toc The table of contents record for parsing the basecalls.
+     * @param offset The offset of the basecalls in the file.
      * @return A string array containing all of the basecall values.
-     * @throws IOException is thrown when there is a problem reading the stream.
      */
-    private byte[][] parseBaseCalls(final InfiniumFileTOC toc) throws IOException {
-        stream.skipBytes(toc.getOffset());
-        final int arrayLen = Integer.reverseBytes(stream.readInt());
-        final byte[][] curBaseCalls = new byte[arrayLen][2];
-        for (int i = 0; i < arrayLen; i++) {
+    private byte[][] parseBaseCalls(final int offset) {
+        final ByteBuffer baseCallsView = arrayView(offset, 2);
+        final byte[][] curBaseCalls = new byte[baseCallsView.limit() / 2][2];
+        for (int i = 0; i < curBaseCalls.length; i++) {
             byte[] baseCallBytes = curBaseCalls[i];
             for (int j = 0; j < baseCallBytes.length; j++) {
-                baseCallBytes[j] = stream.readByte();
+                baseCallBytes[j] = baseCallsView.get();
                 if (baseCallBytes[j] == 0) {
                     baseCallBytes[j] = NO_CALL_CHAR;
                 }
@@ -466,12 +408,11 @@ public class InfiniumGTCFile extends InfiniumDataFile {
      * @throws IOException is thrown when there is a problem reading the stream.
      */
     private void parseTransformations(final InfiniumFileTOC toc) throws IOException {
-        stream.skipBytes(toc.getOffset());
-        final int arrayLen = Integer.reverseBytes(stream.readInt());
+        final int arrayLen = parseInt(toc);
         final InfiniumTransformation[] transformations = new InfiniumTransformation[arrayLen];
         for (int i = 0; i < transformations.length; i++) {
             InfiniumTransformation curTransformation = new InfiniumTransformation();
-            curTransformation.setVersion(Integer.reverseBytes(stream.readInt()));
+            curTransformation.setVersion(parseInt());
             curTransformation.setOffsetX(parseFloat());
             curTransformation.setOffsetY(parseFloat());
             curTransformation.setScaleX(parseFloat());
@@ -489,30 +430,95 @@ public class InfiniumGTCFile extends InfiniumDataFile {
         normalizationTransformations = transformations;
     }
 
-    private void normalizeAndCalculateStatistics() {
-        if (normalizationManifest.getNormIds() != null) {
-            normalizeIntensities();
+    /**
+     * Reads the values of the SNP at the given index, normalizing its intensities and calculating its R and theta.
+     */
+    public InfiniumGTCRecord getRecord(int index) {
+        final int rawX = getRawXIntensity(index);
+        final int rawY = getRawYIntensity(index);
+
+        final float normalizedX;
+        final float normalizedY;
+        final InfiniumTransformation xform = getNormalizationTransformation(index);
+        if (xform != null) {
+            final float tempX = rawX - xform.getOffsetX();
+            final float tempY = rawY - xform.getOffsetY();
+            final float theta = xform.getTheta();
+            double tempX2 = Math.cos(theta) * tempX + Math.sin(theta) * tempY;
+            double tempY2 = -Math.sin(theta) * tempX + Math.cos(theta) * tempY;
+            double tempX3 = tempX2 - xform.getShear() * tempY2;
+
+            if (tempX3 < 0) {
+                tempX3 = 0;
+            }
+            if (tempY2 < 0) {
+                tempY2 = 0;
+            }
+
+            normalizedX = (float) (tempX3 / xform.getScaleX());
+            normalizedY = (float) (tempY2 / xform.getScaleY());
+        } else {
+            normalizedX = rawX;
+            normalizedY = rawY;
         }
-        calculateStatistics();
-    }
 
-    public InfiniumGTCRecord getRecord(int index) {
+        final double x = normalizedX;
+        final double y = normalizedY;
         return new InfiniumGTCRecord(
-                rawXIntensities[index],
-                rawYIntensities[index],
-                genotypeBytes[index],
-                genotypeScores[index],
-                normalizedXIntensities[index],
-                normalizedYIntensities[index],
-                RIlmn[index],
-                thetaIlmn[index],
-                bAlleleFreqs[index],
-                logRRatios[index]
+                rawX,
+                rawY,
+                genotypeBytes.get(index),
+                genotypeScores.get(index),
+                normalizedX,
+                normalizedY,
+                (float) (x + y),
+                (float) (2 * (Math.atan(y / x) / Math.PI)),
+                bAlleleFreqs.get(index),
+                logRRatios.get(index)
         );
     }
 
+    public int getRawXIntensity(final int index) {
+        return Short.toUnsignedInt(rawXIntensities.get(index));
+    }
+
+    public int getRawYIntensity(final int index) {
+        return Short.toUnsignedInt(rawYIntensities.get(index));
+    }
+
+    /** The raw X intensities, as unsigned shorts, as a read-only view onto the file. */
+    public ShortBuffer getRawXIntensities() {
+        return rawXIntensities.asReadOnlyBuffer();
+    }
+
+    /** The raw Y intensities, as unsigned shorts, as a read-only view onto the file. */
+    public ShortBuffer getRawYIntensities() {
+        return rawYIntensities.asReadOnlyBuffer();
+    }
+
+    /** The genotype calls (NO_CALL, AA_CALL, AB_CALL or BB_CALL), as a read-only view onto the file. */
+    public ByteBuffer getGenotypes() {
+        return genotypeBytes.asReadOnlyBuffer();
+    }
+
+    /** The genotype scores, as a read-only view onto the file. */
+    public FloatBuffer getGenotypeScores() {
+        return genotypeScores.asReadOnlyBuffer();
+    }
+
+    /** The B allele frequencies, as a read-only view onto the file. */
+    public FloatBuffer getBAlleleFreqs() {
+        return bAlleleFreqs.asReadOnlyBuffer();
+    }
+
+    /** The log R ratios, as a read-only view onto the file. */
+    public FloatBuffer getLogRRatios() {
+        return logRRatios.asReadOnlyBuffer();
+    }
+
     public double getHetPercent() {
-        return (double) abCalls / (double) numCalls;
+        countCalls();
+        return (double) abCalls / (double) getNumCalls();
     }
 
     public String getSampleName() {
@@ -588,6 +594,11 @@ public class InfiniumGTCFile extends InfiniumDataFile {
     }
 
     public int getNumCalls() {
+        //older versions don't have extended sample info so we need to infer this
+        if (numCalls == 0) {
+            countCalls();
+            numCalls = aaCalls + abCalls + bbCalls;
+        }
         return numCalls;
     }
 
@@ -640,10 +651,12 @@ public class InfiniumGTCFile extends InfiniumDataFile {
     }
 
     public long getAaCalls() {
+        countCalls();
         return aaCalls;
     }
 
     public long getBbCalls() {
+        countCalls();
         return bbCalls;
     }
 
@@ -656,10 +669,14 @@ public class InfiniumGTCFile extends InfiniumDataFile {
     }
 
     public byte[][] getBaseCalls() {
+        if (baseCalls == null && baseCallsOffset != -1) {
+            baseCalls = parseBaseCalls(baseCallsOffset);
+        }
         return baseCalls;
     }
 
     public int getAbCalls() {
+        countCalls();
         return abCalls;
     }
 
@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.cmdline;
+
+import htsjdk.samtools.util.Log;
+import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
+import picard.PicardException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An index of the command line programs in a set of packages, generated when Picard is built so that
+ * {@link PicardCommandLine} can resolve a program by name without scanning the classpath.
+ *
+ * The index is a text resource with a header line naming the indexed packages, followed by one line per program
+ * that would be listed on the command line: its simple name and its fully qualified class name, separated by a tab.
+ * When the resource is missing (e.g. when running from an IDE) or a program can't be found in it, callers are
+ * expected to fall back to scanning with {@link ClassFinder}.
+ */
+public class CommandLineProgramIndex {
+    private static final Log log = Log.getInstance(CommandLineProgramIndex.class);
+
+    /** The location of the index on the classpath, relative to this class. */
+    public static final String RESOURCE_NAME = "command-line-programs.txt";
+    private static final String PACKAGES_HEADER = "#packages\t";
+
+    private final List<String> packages;
+    private final Map<String, String> simpleNameToClassName;
+
+    CommandLineProgramIndex(final List<String> packages, final Map<String, String> simpleNameToClassName) {
+        this.packages = packages;
+        this.simpleNameToClassName = simpleNameToClassName;
+    }
+
+    /** Returns the index built with Picard, or null if there isn't one on the classpath. */
+    public static CommandLineProgramIndex load() {
+        final InputStream in = CommandLineProgramIndex.class.getResourceAsStream(RESOURCE_NAME);
+        if (in == null) return null;
+        try (final Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return read(reader);
+        } catch (final IOException | PicardException e) {
+            log.warn("Could not read the command line program index, the classpath will be scanned instead: " + e.getMessage());
+            return null;
+        }
+    }
+
+    static CommandLineProgramIndex read(final Reader reader) throws IOException {
+        final BufferedReader in = new BufferedReader(reader);
+        final String header = in.readLine();
+        if (header == null || !header.startsWith(PACKAGES_HEADER)) {
+            throw new PicardException("Command line program index does not start with a package list");
+        }
+        final List<String> packages = new ArrayList<>();
+        Collections.addAll(packages, header.substring(PACKAGES_HEADER.length()).split("\t"));
+
+        final Map<String, String> simpleNameToClassName = new TreeMap<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            final String[] fields = line.split("\t");
+            if (fields.length != 2) throw new PicardException("Malformed line in command line program index: " + line);
+            simpleNameToClassName.put(fields[0], fields[1]);
+        }
+        return new CommandLineProgramIndex(packages, simpleNameToClassName);
+    }
+
+    /**
+     * Builds the index for the given packages by scanning the classpath, applying the same checks as
+     * {@link PicardCommandLine} does when it lists the available programs.
+     */
+    public static CommandLineProgramIndex build(final List<String> packages) {
+        final Map<String, String> simpleNameToClassName = new TreeMap<>();
+        final List<String> missingAnnotationClasses = new ArrayList<>();
+        PicardCommandLine.processAllCommandLinePrograms(packages, (clazz, clProperties) -> {
+            if (null == clProperties) {
+                missingAnnotationClasses.add(clazz.getSimpleName());
+            } else if (!clProperties.omitFromCommandLine()) {
+                if (simpleNameToClassName.put(clazz.getSimpleName(), clazz.getName()) != null) {
+                    throw new PicardException("Simple class name collision: " + clazz.getSimpleName());
+                }
+            }
+        });
+        if (!missingAnnotationClasses.isEmpty()) {
+            throw new PicardException("The following classes are missing the required CommandLineProgramProperties annotation: " +
+                    String.join(", ", missingAnnotationClasses));
+        }
+        return new CommandLineProgramIndex(new ArrayList<>(packages), simpleNameToClassName);
+    }
+
+    public void write(final Writer writer) {
+        final PrintWriter out = new PrintWriter(writer);
+        out.println(PACKAGES_HEADER + String.join("\t", packages));
+        simpleNameToClassName.forEach((simpleName, className) -> out.println(simpleName + "\t" + className));
+        out.flush();
+    }
+
+    /** True if every one of the given packages was indexed, so that the index alone can resolve programs in them. */
+    public boolean covers(final List<String> packageList) {
+        return packageList.stream().allMatch(pkg -> packages.stream().anyMatch(indexed -> pkg.equals(indexed) || pkg.startsWith(indexed + ".")));
+    }
+
+    /**
+     * Returns the command line program with the given simple name if it is in one of the given packages, or null if
+     * it isn't in the index or can't be loaded.
+     */
+    public Class<? extends CommandLineProgram> findProgram(final String simpleName, final List<String> packageList) {
+        final String className = simpleNameToClassName.get(simpleName);
+        if (className == null || packageList.stream().noneMatch(pkg -> className.startsWith(pkg + "."))) return null;
+
+        try {
+            final Class<?> clazz = Class.forName(className, false, Thread.currentThread().getContextClassLoader());
+            final CommandLineProgramProperties property = PicardCommandLine.getProgramProperty(clazz);
+            if (!CommandLineProgram.class.isAssignableFrom(clazz) || property == null || property.omitFromCommandLine()) {
+                log.debug("Ignoring stale command line program index entry " + className);
+                return null;
+            }
+            return clazz.asSubclass(CommandLineProgram.class);
+        } catch (final ClassNotFoundException | LinkageError e) {
+            log.debug("Ignoring stale command line program index entry " + className + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index of Picard's own programs into the given resource output directory. This is run by the
+     * build after compilation, and the generated file is packaged into the jars next to this class.
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Usage: CommandLineProgramIndex <resource output directory>");
+        }
+        final File output = new File(new File(args[0], CommandLineProgramIndex.class.getPackage().getName().replace('.', File.separatorChar)), RESOURCE_NAME);
+        Files.createDirectories(output.getParentFile().toPath());
+        try (final Writer writer = Files.newBufferedWriter(output.toPath(), StandardCharsets.UTF_8)) {
+            build(PicardCommandLine.getPackageList()).write(writer);
+        }
+    }
+}
@@ -115,6 +115,17 @@ public class PicardCommandLine {
 
     /** Returns the command line program specified, or prints the usage and exits with exit code 1 **/
     private static CommandLineProgram extractCommandLineProgram(final String[] args, final List<String> packageList, final String commandLineName) {
+        // Resolve the program straight from the index built with Picard when we can, since scanning the classpath
+        // dominates the start-up time of short-running tools. Usage, listings and unknown or user-supplied programs
+        // still go through the scan below.
+        if (args.length >= 1 && !args[0].equals("-h") && !args[0].equals("--list-commands")) {
+            final CommandLineProgramIndex index = CommandLineProgramIndex.load();
+            if (index != null && index.covers(packageList)) {
+                final Class<? extends CommandLineProgram> clazz = index.findProgram(args[0], packageList);
+                if (clazz != null) return newInstance(clazz);
+            }
+        }
+
         final Map<String, Class<?>> simpleNameToClass = new HashMap<>();
         final List<String> missingAnnotationClasses = new ArrayList<>();
         processAllCommandLinePrograms(
@@ -149,14 +160,7 @@ public class PicardCommandLine {
                 printCommandList(classes);
             } else {
                 if (simpleNameToClass.containsKey(args[0])) {
-                    final Class clazz = simpleNameToClass.get(args[0]);
-                    try {
-                        return (CommandLineProgram)clazz.newInstance();
-                    } catch (final InstantiationException e) {
-                        throw new RuntimeException(e);
-                    } catch (final IllegalAccessException e) {
-                        throw new RuntimeException(e);
-                    }
+                    return newInstance(simpleNameToClass.get(args[0]));
                 }
                 printUsage(classes, commandLineName);
                 printUnknown(classes, args[0]);
@@ -165,6 +169,16 @@ public class PicardCommandLine {
         return null;
     }
 
+    private static CommandLineProgram newInstance(final Class<?> clazz) {
+        try {
+            return (CommandLineProgram)clazz.newInstance();
+        } catch (final InstantiationException e) {
+            throw new RuntimeException(e);
+        } catch (final IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Process each {@code CommandLineProgram}-derived class given a list of packages.
      * @param packageList list of packages to search
@@ -0,0 +1,441 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.cmdline;
+
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Log;
+import org.broadinstitute.barclay.argparser.Argument;
+import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
+import org.broadinstitute.barclay.help.DocumentedFeature;
+import picard.PicardException;
+import picard.cmdline.programgroups.OtherProgramGroup;
+import picard.util.SharedInputCache;
+import picard.util.ThreadPoolExecutorUtil;
+import picard.util.ThreadPoolExecutorWithExceptions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a warm JVM in which Picard programs are run on behalf of {@link PicardDaemonClient}, so that a workflow of many
+ * short steps doesn't pay for JVM start-up, class loading and JIT warm-up at every step.
+ *
+ * <h3>Usage example:</h3>
+ * <pre>
+ * java -jar picard.jar PicardDaemon \
+ *       PORT_FILE=picard.port \
+ *       SHARED_INPUT_CACHE_SIZE=8 &amp;
+ *
+ * java -cp picard.jar picard.cmdline.PicardDaemonClient picard.port \
+ *       CollectQualityYieldMetrics I=input.bam O=quality_yield.txt
+ *
+ * java -cp picard.jar picard.cmdline.PicardDaemonClient picard.port --shutdown
+ * </pre>
+ *
+ * Each invocation runs in its own thread with its own standard output and error, which are sent back to the client,
+ * and its own temporary directory, which is passed as TMP_DIR unless the client gives one and is deleted when the
+ * invocation finishes. Relative paths are resolved against the
+ * daemon's working directory, so clients must run in the same directory. Programs can't read the client's standard
+ * input.
+ */
+@CommandLineProgramProperties(
+        summary = PicardDaemon.USAGE_SUMMARY + PicardDaemon.USAGE_DETAILS,
+        oneLineSummary = PicardDaemon.USAGE_SUMMARY,
+        programGroup = OtherProgramGroup.class
+)
+@DocumentedFeature
+public class PicardDaemon extends CommandLineProgram {
+    static final String USAGE_SUMMARY = "Runs Picard programs for PicardDaemonClient in a long-lived JVM.";
+    static final String USAGE_DETAILS = "<p>The daemon listens on a loopback port, which it writes to PORT_FILE together with a " +
+            "random token that clients must present, and runs the programs that clients ask for in a warm JVM. This avoids " +
+            "paying for JVM start-up and warm-up at every step of a workflow that runs many short programs. Invocations " +
+            "get their own output streams and temporary directory, but must run in the daemon's working directory.</p>" +
+            "<h3>Usage example:</h3>" +
+            "<pre>" +
+            "java -jar picard.jar PicardDaemon PORT_FILE=picard.port &amp;<br />" +
+            "java -cp picard.jar picard.cmdline.PicardDaemonClient picard.port CollectQualityYieldMetrics I=input.bam O=out.txt<br />" +
+            "java -cp picard.jar picard.cmdline.PicardDaemonClient picard.port --shutdown" +
+            "</pre>";
+
+    @Argument(doc = "File to which the port and access token of the daemon are written. Only the current user can read it, " +
+            "and it is deleted when the daemon stops.")
+    public File PORT_FILE;
+
+    @Argument(doc = "The loopback port to listen on. 0 picks a free port.")
+    public int PORT = 0;
+
+    @Argument(doc = "The number of invocations to run at once. Programs set some JVM-wide defaults (e.g. VALIDATION_STRINGENCY, " +
+            "COMPRESSION_LEVEL and VERBOSITY), so with more than one thread, invocations that run at the same time should " +
+            "all use the same values of those.")
+    public int THREADS = 1;
+
+    @Argument(doc = "The number of immutable shared inputs (haplotype maps, dbSNP sites) to keep in memory between " +
+            "invocations, keyed by path, size and modification time. 0 disables the cache.")
+    public int SHARED_INPUT_CACHE_SIZE = 0;
+
+    private static final Log log = Log.getInstance(PicardDaemon.class);
+
+
+    /** Where each invocation's output goes; threads not running an invocation write to the daemon's own streams. */
+    private static final InheritableThreadLocal<Invocation> CURRENT_INVOCATION = new InheritableThreadLocal<>();
+
+    /**
+     * How long a client may take to send its whole request. Requests are read on the thread that accepts connections,
+     * so that clients that are slow or don't know the token can't take up the threads that run invocations.
+     */
+    int requestTimeoutMillis = 10000;
+
+    private final AtomicLong invocationCounter = new AtomicLong();
+    private volatile boolean stopping = false;
+    private ServerSocket serverSocket;
+    private String token;
+    private File invocationRoot;
+    private String daemonTmpDir;
+    private String workingDirectory;
+
+    @Override
+    protected String[] customCommandLineValidation() {
+        if (THREADS < 1) return new String[]{"THREADS must be at least 1"};
+        if (SHARED_INPUT_CACHE_SIZE < 0) return new String[]{"SHARED_INPUT_CACHE_SIZE cannot be negative"};
+        return super.customCommandLineValidation();
+    }
+
+    @Override
+    protected int doWork() {
+        IOUtil.assertFileIsWritable(PORT_FILE);
+        invocationRoot = IOUtil.getDefaultTmpDir();
+        daemonTmpDir = System.getProperty("java.io.tmpdir");
+        workingDirectory = new File("").getAbsolutePath();
+        token = new BigInteger(130, new SecureRandom()).toString(32);
+        if (SHARED_INPUT_CACHE_SIZE > 0) SharedInputCache.enable(SHARED_INPUT_CACHE_SIZE);
+
+        final PrintStream originalOut = System.out;
+        final PrintStream originalErr = System.err;
+        final PrintStream originalLog = Log.getGlobalPrintStream();
+        final ThreadPoolExecutorWithExceptions pool = new ThreadPoolExecutorWithExceptions(THREADS);
+        try (final ServerSocket server = new ServerSocket(PORT, 50, InetAddress.getLoopbackAddress())) {
+            serverSocket = server;
+            Files.createDirectories(invocationRoot.toPath());
+            writePortFile(server.getLocalPort());
+            log.info("Listening on port " + server.getLocalPort() + " of the loopback interface.");
+
+            final PrintStream routedErr = new PrintStream(new RoutingOutputStream(originalErr, PicardDaemonClient.STDERR), true);
+            System.setOut(new PrintStream(new RoutingOutputStream(originalOut, PicardDaemonClient.STDOUT), true));
+            System.setErr(routedErr);
+            Log.setGlobalPrintStream(routedErr);
+
+            while (!stopping) {
+                final Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (final SocketException e) {
+                    if (stopping) break;
+                    throw e;
+                }
+                final Request request = readRequest(socket);
+                if (request == null) continue;
+                if (request.args.length == 1 && request.args[0].equals(PicardDaemonClient.SHUTDOWN)) {
+                    stop();
+                    request.finish(0);
+                } else {
+                    pool.submit(() -> serve(request));
+                }
+            }
+        } catch (final IOException e) {
+            throw new PicardException("Picard daemon failed", e);
+        } finally {
+            pool.shutdown();
+            ThreadPoolExecutorUtil.awaitThreadPoolTermination("Picard daemon", pool, Duration.ofMinutes(1));
+            System.setOut(originalOut);
+            System.setErr(originalErr);
+            Log.setGlobalPrintStream(originalLog);
+            SharedInputCache.disable();
+            PORT_FILE.delete();
+        }
+        log.info("Stopped after " + invocationCounter.get() + " invocations.");
+        return 0;
+    }
+
+    /** Writes the port and token via a temporary file that only the current user can read. */
+    private void writePortFile(final int port) throws IOException {
+        final File tmp = File.createTempFile(PORT_FILE.getName(), ".tmp", PORT_FILE.getAbsoluteFile().getParentFile());
+        try {
+            tmp.setReadable(false, false);
+            tmp.setReadable(true, true);
+            tmp.setWritable(false, false);
+            tmp.setWritable(true, true);
+            Files.write(tmp.toPath(), (port + " " + token + "\n").getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), PORT_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /** Stops accepting invocations; those already accepted are run before {@link #doWork()} returns. */
+    void stop() {
+        stopping = true;
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (final IOException e) {
+            log.warn("Could not close the daemon socket: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the request on a new connection, or returns null (having closed the connection) if the client doesn't know
+     * the token or doesn't send a whole request in time.
+     */
+    private Request readRequest(final Socket socket) {
+        try {
+            final long deadline = System.currentTimeMillis() + requestTimeoutMillis;
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new DeadlineInputStream(socket, deadline)));
+            if (!token.equals(in.readUTF())) {
+                log.warn("Rejected a connection with the wrong token.");
+                socket.close();
+                return null;
+            }
+            final String clientDirectory = in.readUTF();
+            final int argCount = in.readInt();
+            if (argCount < 0) throw new IOException("malformed request");
+            final String[] args = new String[argCount];
+            for (int i = 0; i < args.length; i++) args[i] = in.readUTF();
+            socket.setSoTimeout(0);
+            return new Request(socket, clientDirectory, args);
+        } catch (final IOException e) {
+            log.warn("Dropped a connection that did not send a request: " + e.getMessage());
+            try {
+                socket.close();
+            } catch (final IOException ignored) {
+                // already dropping it
+            }
+            return null;
+        }
+    }
+
+    private void serve(final Request request) {
+        try (final Socket s = request.socket) {
+            final Invocation invocation = new Invocation(new DataOutputStream(new BufferedOutputStream(s.getOutputStream())));
+            final int result;
+            if (!new File(request.clientDirectory).getCanonicalPath().equals(new File(workingDirectory).getCanonicalPath())) {
+                invocation.print(PicardDaemonClient.STDERR, "The Picard daemon runs in " + workingDirectory +
+                        ", so relative paths would not resolve against " + request.clientDirectory + ". Run the client there.\n");
+                result = 1;
+            } else {
+                result = run(invocation, request.args);
+            }
+            invocation.finish(result);
+        } catch (final IOException e) {
+            log.warn("Lost connection to a client: " + e.getMessage());
+        }
+    }
+
+    /** Runs one program with its output sent to the invocation, and in its own temporary directory. */
+    private int run(final Invocation invocation, final String[] args) throws IOException {
+        final long id = invocationCounter.incrementAndGet();
+        final File tmpDir = Files.createTempDirectory(invocationRoot.toPath(), "picard-daemon-" + id + "-").toFile();
+        log.info("Invocation " + id + ": " + String.join(" ", args));
+        CURRENT_INVOCATION.set(invocation);
+        try {
+            return new PicardCommandLine().instanceMain(withTmpDir(args, tmpDir));
+        } catch (final Throwable t) {
+            // report the failure the way an uncaught exception would be in a JVM of its own
+            final PrintWriter err = new PrintWriter(System.err);
+            t.printStackTrace(err);
+            err.flush();
+            return 1;
+        } finally {
+            CURRENT_INVOCATION.remove();
+            // programs point java.io.tmpdir at their TMP_DIR, which is about to be deleted
+            System.setProperty("java.io.tmpdir", daemonTmpDir);
+            IOUtil.recursiveDelete(tmpDir.toPath());
+            log.info("Invocation " + id + " finished.");
+        }
+    }
+
+    /**
+     * Gives a program the invocation's temporary directory as its TMP_DIR, rather than setting java.io.tmpdir, which
+     * is shared with any other invocations that are running. Arguments that don't run a program, or that already
+     * give a TMP_DIR, are left alone.
+     */
+    static String[] withTmpDir(final String[] args, final File tmpDir) {
+        if (args.length == 0 || args[0].startsWith("-")) return args;
+        for (final String arg : args) {
+            if (arg.matches("-{0,2}TMP_DIR(=.*)?")) return args;
+        }
+        final List<String> withTmpDir = new ArrayList<>(Arrays.asList(args));
+        if (CommandLineProgram.useLegacyParser(PicardDaemon.class)) {
+            withTmpDir.add("TMP_DIR=" + tmpDir.getAbsolutePath());
+        } else {
+            withTmpDir.add("--TMP_DIR");
+            withTmpDir.add(tmpDir.getAbsolutePath());
+        }
+        return withTmpDir.toArray(new String[0]);
+    }
+
+    /** A request from a client that knows the token, whose reply is sent over the same socket. */
+    private static final class Request {
+        private final Socket socket;
+        private final String clientDirectory;
+        private final String[] args;
+
+        private Request(final Socket socket, final String clientDirectory, final String[] args) {
+            this.socket = socket;
+            this.clientDirectory = clientDirectory;
+            this.args = args;
+        }
+
+        /** Replies with just a result, and closes the connection. */
+        private void finish(final int result) {
+            try (final Socket s = socket) {
+                new Invocation(new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))).finish(result);
+            } catch (final IOException e) {
+                log.warn("Lost connection to a client: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Fails reads once the deadline has passed, however slowly the client trickles in its request. */
+    private static final class DeadlineInputStream extends FilterInputStream {
+        private final Socket socket;
+        private final long deadline;
+
+        private DeadlineInputStream(final Socket socket, final long deadline) throws IOException {
+            super(socket.getInputStream());
+            this.socket = socket;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int read() throws IOException {
+            setTimeout();
+            return super.read();
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+            setTimeout();
+            return super.read(bytes, offset, length);
+        }
+
+        private void setTimeout() throws IOException {
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) throw new SocketTimeoutException("timed out");
+            socket.setSoTimeout((int) remaining);
+        }
+    }
+
+    /** The client end of a single invocation, to which output is written in frames. */
+    private static final class Invocation {
+        private final DataOutputStream out;
+        private boolean closed = false;
+
+        private Invocation(final DataOutputStream out) {
+            this.out = out;
+        }
+
+        /** Sends output to the client, returning false if it has gone away or the invocation is over. */
+        private synchronized boolean write(final byte type, final byte[] bytes, final int offset, final int length) {
+            if (closed) return false;
+            try {
+                out.writeByte(type);
+                out.writeInt(length);
+                out.write(bytes, offset, length);
+                out.flush();
+                return true;
+            } catch (final IOException e) {
+                closed = true;
+                return false;
+            }
+        }
+
+        private void print(final byte type, final String message) {
+            final byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            write(type, bytes, 0, bytes.length);
+        }
+
+        private synchronized void finish(final int result) throws IOException {
+            if (closed) return;
+            closed = true;
+            out.writeByte(PicardDaemonClient.EXIT);
+            out.writeInt(result);
+            out.flush();
+        }
+    }
+
+    /**
+     * Sends output to the invocation that the writing thread is running, or to the daemon's own stream if there
+     * is none (or it is over, which can happen for threads that outlive the invocation that started them).
+     */
+    private static final class RoutingOutputStream extends OutputStream {
+        private final PrintStream fallback;
+        private final byte type;
+
+        private RoutingOutputStream(final PrintStream fallback, final byte type) {
+            this.fallback = fallback;
+            this.type = type;
+        }
+
+        @Override
+        public void write(final int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) {
+            final Invocation invocation = CURRENT_INVOCATION.get();
+            if (invocation == null || !invocation.write(type, bytes, offset, length)) {
+                fallback.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (CURRENT_INVOCATION.get() == null) fallback.flush();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.cmdline;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs a Picard program in a {@link PicardDaemon} rather than in this JVM:
+ *
+ * <pre>
+ *     java -cp picard.jar picard.cmdline.PicardDaemonClient &lt;port file&gt; &lt;program name&gt; [program arguments...]
+ *     java -cp picard.jar picard.cmdline.PicardDaemonClient &lt;port file&gt; --shutdown
+ * </pre>
+ *
+ * The program's standard output and error are copied to this process's, and its return value becomes this process's
+ * exit status. This class deliberately depends only on the JDK so that starting it is much cheaper than starting Picard.
+ *
+ * The protocol, over a loopback socket: the client writes the token from the port file, its working directory, and
+ * its arguments, as a count followed by modified UTF-8 strings. The daemon replies with frames that are a type byte
+ * followed by an int: {@link #STDOUT} and {@link #STDERR} frames are followed by that many bytes of output, and an
+ * {@link #EXIT} frame, which is always the last, carries the return value.
+ */
+public final class PicardDaemonClient {
+    static final byte STDOUT = 'O';
+    static final byte STDERR = 'E';
+    static final byte EXIT = 'X';
+
+    /** The argument that asks the daemon to stop once running invocations have finished. */
+    static final String SHUTDOWN = "--shutdown";
+
+    private PicardDaemonClient() {}
+
+    public static void main(final String[] args) {
+        if (args.length < 2) {
+            System.err.println("USAGE: PicardDaemonClient <port file> <program name> [program arguments...]");
+            System.err.println("       PicardDaemonClient <port file> " + SHUTDOWN);
+            System.exit(1);
+        }
+        try {
+            System.exit(run(new File(args[0]), Arrays.asList(args).subList(1, args.length), System.out, System.err));
+        } catch (final IOException e) {
+            System.err.println("Could not run " + args[1] + " in the Picard daemon: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Runs the program named by the first argument in the daemon whose port file is given, and returns its result. */
+    static int run(final File portFile, final List<String> args, final PrintStream stdout, final PrintStream stderr) throws IOException {
+        final String[] portAndToken = new String(Files.readAllBytes(portFile.toPath()), StandardCharsets.UTF_8).trim().split("\\s+");
+        if (portAndToken.length != 2) throw new IOException("Malformed port file " + portFile);
+
+        try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(portAndToken[0]))) {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(portAndToken[1]);
+            out.writeUTF(new File("").getAbsolutePath());
+            out.writeInt(args.size());
+            for (final String arg : args) out.writeUTF(arg);
+            out.flush();
+
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final byte[] buffer = new byte[8192];
+            while (true) {
+                final byte type;
+                final int value;
+                try {
+                    type = in.readByte();
+                    value = in.readInt();
+                } catch (final EOFException e) {
+                    throw new IOException("The Picard daemon closed the connection before the program finished");
+                }
+                if (type == EXIT) {
+                    stdout.flush();
+                    stderr.flush();
+                    return value;
+                }
+                final OutputStream target = type == STDOUT ? stdout : stderr;
+                for (int remaining = value; remaining > 0; ) {
+                    final int n = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (n < 0) throw new EOFException("Truncated output from the Picard daemon");
+                    target.write(buffer, 0, n);
+                    remaining -= n;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.filter;
+
+import htsjdk.samtools.SAMException;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.filter.SamRecordFilter;
+import htsjdk.samtools.util.IOUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Filters records by read name, with the same semantics and READ_LIST_FILE format as htsjdk's ReadNameFilter:
+ * the first whitespace-delimited token of each non-blank line is a read name.
+ *
+ * Rather than a HashSet of Strings, the names are packed one byte per character into pages of bytes and found
+ * through an open-addressed table of their 64-bit hashes, so a list of hundreds of millions of names costs roughly
+ * its size on disk plus 24 bytes per name.  A hash match is always confirmed against the stored name.
+ */
+public class CompactReadNameFilter implements SamRecordFilter {
+    /** The largest array size that JVMs reliably allocate. */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    private static final int MAX_SLOTS = 1 << 30;
+    private static final int DEFAULT_PAGE_SIZE = 1 << 24;
+    private static final int INITIAL_PAGE_SIZE = 1 << 16;
+
+    private final boolean includeReads;
+
+    /**
+     * Names, each stored as its length (as a varint) followed by its characters, and never split across pages.
+     * No page is longer than pageSize bytes, so a name's address is its page times pageSize plus its offset.
+     */
+    private final int pageSize;
+    private byte[][] pages = new byte[1][];
+    private int pageCount = 1;
+    private int pageFill = 0;
+
+    private long[] nameAddresses = new long[1 << 10];
+    private long[] nameHashes = new long[1 << 10];
+    private int nameCount = 0;
+
+    /** Open-addressed table holding 1 + the index of a name, or 0 for an empty slot. */
+    private int[] slots = new int[1 << 11];
+
+    public CompactReadNameFilter(final File readNameFilterFile, final boolean includeReads) {
+        this(readNameFilterFile, includeReads, DEFAULT_PAGE_SIZE);
+    }
+
+    CompactReadNameFilter(final File readNameFilterFile, final boolean includeReads, final int pageSize) {
+        this.includeReads = includeReads;
+        this.pageSize = pageSize;
+        this.pages[0] = new byte[Math.min(pageSize, INITIAL_PAGE_SIZE)];
+
+        IOUtil.assertFileIsReadable(readNameFilterFile);
+        IOUtil.assertFileSizeNonZero(readNameFilterFile);
+
+        try (final BufferedReader in = IOUtil.openFileForBufferedReading(readNameFilterFile)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    add(line.split("\\s+")[0]);
+                }
+            }
+        } catch (final IOException e) {
+            throw new SAMException(e.getMessage(), e);
+        }
+        trimToSize();
+    }
+
+    /** Returns the number of distinct names held by the filter. */
+    public int size() {
+        return nameCount;
+    }
+
+    /** Returns true if the given name was listed in the READ_LIST_FILE. */
+    public boolean contains(final String name) {
+        final long hash = hash(name);
+        final int mask = slots.length - 1;
+        for (int slot = (int) hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            final int index = slots[slot] - 1;
+            if (nameHashes[index] == hash && nameEquals(index, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean filterOut(final SAMRecord samRecord) {
+        return includeReads != contains(samRecord.getReadName());
+    }
+
+    @Override
+    public boolean filterOut(final SAMRecord first, final SAMRecord second) {
+        if (includeReads) {
+            return !(contains(first.getReadName()) && contains(second.getReadName()));
+        } else {
+            return contains(first.getReadName()) || contains(second.getReadName());
+        }
+    }
+
+    private void add(final String name) {
+        final long hash = hash(name);
+        final int mask = slots.length - 1;
+        int slot = (int) hash & mask;
+        for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+            final int index = slots[slot] - 1;
+            if (nameHashes[index] == hash && nameEquals(index, name)) {
+                return;
+            }
+        }
+
+        if (nameCount == nameAddresses.length) {
+            final int capacity = grownCapacity(nameAddresses.length, nameCount + 1L);
+            nameAddresses = Arrays.copyOf(nameAddresses, capacity);
+            nameHashes = Arrays.copyOf(nameHashes, capacity);
+        }
+        nameAddresses[nameCount] = store(name);
+        nameHashes[nameCount] = hash;
+        slots[slot] = ++nameCount;
+
+        // keep the table at most half full, or three quarters once it can grow no further
+        if (nameCount * 2L > slots.length) {
+            if (slots.length < MAX_SLOTS) {
+                rehash(slots.length * 2);
+            } else if (nameCount * 4L > slots.length * 3L) {
+                throw new SAMException("Too many read names to filter on: more than " + nameCount);
+            }
+        }
+    }
+
+    /** Copies the name into the pages, and returns its address. */
+    private long store(final String name) {
+        final int length = name.length();
+        final int storedLength = varIntSize(length) + length;
+        if (storedLength > pageSize) {
+            throw new SAMException("Read name of " + length + " characters is too long to filter on.");
+        }
+
+        byte[] page = pages[pageCount - 1];
+        if (pageFill + storedLength > page.length) {
+            if (pageFill + storedLength <= pageSize) {
+                // grow the first page up to pageSize, so that short lists don't take a whole page
+                page = Arrays.copyOf(page, grownCapacity(page.length, pageFill + (long) storedLength, pageSize));
+            } else {
+                if (pageCount == pages.length) {
+                    pages = Arrays.copyOf(pages, grownCapacity(pages.length, pageCount + 1L));
+                }
+                page = new byte[pageSize];
+                pageCount++;
+                pageFill = 0;
+            }
+            pages[pageCount - 1] = page;
+        }
+
+        final long address = (long) (pageCount - 1) * pageSize + pageFill;
+        int position = pageFill;
+        for (int value = length; ; value >>>= 7) {
+            if (value < 0x80) {
+                page[position++] = (byte) value;
+                break;
+            }
+            page[position++] = (byte) (value & 0x7f | 0x80);
+        }
+        for (int i = 0; i < length; ++i) {
+            page[position++] = (byte) name.charAt(i);
+        }
+        pageFill = position;
+        return address;
+    }
+
+    private void rehash(final int capacity) {
+        slots = new int[capacity];
+        final int mask = capacity - 1;
+        for (int index = 0; index < nameCount; ++index) {
+            int slot = (int) nameHashes[index] & mask;
+            while (slots[slot] != 0) slot = (slot + 1) & mask;
+            slots[slot] = index + 1;
+        }
+    }
+
+    private void trimToSize() {
+        pages = Arrays.copyOf(pages, pageCount);
+        pages[pageCount - 1] = Arrays.copyOf(pages[pageCount - 1], pageFill);
+        nameAddresses = Arrays.copyOf(nameAddresses, nameCount);
+        nameHashes = Arrays.copyOf(nameHashes, nameCount);
+    }
+
+    private boolean nameEquals(final int index, final String name) {
+        final byte[] page = pages[(int) (nameAddresses[index] / pageSize)];
+        int position = (int) (nameAddresses[index] % pageSize);
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = page[position++];
+            length |= (b & 0x7f) << shift;
+            if (b >= 0) break;
+        }
+        if (length != name.length()) return false;
+        for (int i = 0; i < length; ++i) {
+            // read names are restricted to printable ASCII by the SAM spec
+            if (page[position + i] != (byte) name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static int varIntSize(final int value) {
+        int size = 1;
+        for (int v = value >>> 7; v != 0; v >>>= 7) size++;
+        return size;
+    }
+
+    /** Returns the capacity to grow an array to so that it holds at least required elements, doubling it where possible. */
+    static int grownCapacity(final int capacity, final long required) {
+        return grownCapacity(capacity, required, MAX_ARRAY_SIZE);
+    }
+
+    private static int grownCapacity(final int capacity, final long required, final int maxCapacity) {
+        if (required > maxCapacity) {
+            throw new SAMException("Too many read names to filter on: cannot hold more than " + maxCapacity);
+        }
+        return (int) Math.min(maxCapacity, Math.max(capacity * 2L, required));
+    }
+
+    /** 64-bit FNV-1a over the characters of the name, finished with the MurmurHash3 mixer to spread the low bits. */
+    private static long hash(final String name) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < name.length(); ++i) {
+            h ^= name.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -428,7 +428,7 @@ public class CrosscheckFingerprints extends CommandLineProgram {
             IOUtil.assertFileIsReadable(SECOND_INPUT_SAMPLE_MAP);
         }
 
-        final HaplotypeMap map = new HaplotypeMap(HAPLOTYPE_MAP);
+        final HaplotypeMap map = HaplotypeMap.getSharedInstance(HAPLOTYPE_MAP);
         final FingerprintChecker checker = new FingerprintChecker(map);
 
         checker.setAllowDuplicateReads(ALLOW_DUPLICATE_READS);
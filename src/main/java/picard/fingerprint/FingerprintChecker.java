@@ -124,7 +124,7 @@ public class FingerprintChecker {
      * the supplied file.
      */
     public FingerprintChecker(final File haplotypeData) {
-        this.haplotypes = new HaplotypeMap(haplotypeData);
+        this.haplotypes = HaplotypeMap.getSharedInstance(haplotypeData);
     }
 
     /**
@@ -39,6 +39,7 @@ import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
 import htsjdk.variant.vcf.*;
 import picard.PicardException;
+import picard.util.SharedInputCache;
 import picard.vcf.VcfUtils;
 
 import java.io.*;
@@ -275,6 +276,14 @@ public class HaplotypeMap {
         }
     }
 
+    /**
+     * Returns the haplotype map read from file, which is shared with other readers of the same file when the
+     * {@link SharedInputCache} is enabled, and so must not be modified.
+     */
+    public static HaplotypeMap getSharedInstance(final File file) {
+        return SharedInputCache.getOrLoad(HaplotypeMap.class, file, null, () -> new HaplotypeMap(file));
+    }
+
     /**
      * since this constructor doesn't initialize the HaplotypeMap "properly", it should be used carefully!
      */
@@ -337,7 +346,7 @@ public class HaplotypeMap {
     }
 
     /** Returns an IntervalList with an entry for every SNP in every Haplotype in the map. */
-    public IntervalList getIntervalList() {
+    public synchronized IntervalList getIntervalList() {
         this.intervals = this.intervals.sorted(); // TODO: should probably do this elsewhere
         return this.intervals;
     }
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.illumina;
+
+import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.StringUtil;
+import picard.PicardException;
+import picard.illumina.ExtractIlluminaBarcodes.BarcodeMetric;
+import picard.illumina.ExtractIlluminaBarcodes.PerTileBarcodeExtractor;
+import picard.illumina.parser.ReadDescriptor;
+import picard.illumina.parser.ReadStructure;
+import picard.util.IlluminaUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Matches sample barcodes as a NewIlluminaBasecallsConverter reads each tile, using the settings of a
+ * {@link BarcodeMatchingArgumentCollection}, and writes the ExtractIlluminaBarcodes metrics for the lane once
+ * all tiles have been processed.
+ */
+class BarcodeMatcher {
+    private final File metricsFile;
+    private final int maxMismatches;
+    private final int minMismatchDelta;
+    private final int maxNoCalls;
+    private final int minimumBaseQuality;
+    private final DistanceMetric distanceMode;
+
+    private final Map<String, BarcodeMetric> barcodeToMetrics = new LinkedHashMap<>();
+    private final ConcurrentHashMap<String, PerTileBarcodeExtractor.BarcodeMatch> barcodeLookupMap = new ConcurrentHashMap<>();
+    private final List<PerTileBarcodeExtractor> extractors = Collections.synchronizedList(new ArrayList<>());
+    private BarcodeMetric noMatchMetric;
+
+    BarcodeMatcher(final BarcodeMatchingArgumentCollection args) {
+        this.metricsFile = args.BARCODE_METRICS_FILE;
+        this.maxMismatches = args.MAX_MISMATCHES;
+        this.minMismatchDelta = args.MIN_MISMATCH_DELTA;
+        this.maxNoCalls = args.MAX_NO_CALLS;
+        this.minimumBaseQuality = args.MINIMUM_BASE_QUALITY;
+        this.distanceMode = args.DISTANCE_MODE;
+    }
+
+    /**
+     * Adds a barcode to match reads against.
+     *
+     * @param barcodeSeqs One sequence for each sample barcode read
+     * @param libraryName Reported in the metrics for this barcode
+     */
+    void addBarcode(final List<String> barcodeSeqs, final String libraryName) {
+        final String[] seqs = barcodeSeqs.toArray(new String[0]);
+        barcodeToMetrics.put(StringUtil.join("", seqs),
+                new BarcodeMetric("", libraryName == null ? "" : libraryName, IlluminaUtil.barcodeSeqsToString(seqs), seqs));
+    }
+
+    /** Has the converter match the barcodes of every tile it reads, accumulating the metrics here. */
+    void attachTo(final NewIlluminaBasecallsConverter<?> converter) {
+        if (!converter.demultiplex) {
+            throw new PicardException("BARCODE_METRICS_FILE requires output to be demultiplexed by sample barcode.");
+        }
+        IOUtil.assertFileIsWritable(metricsFile);
+        final ReadStructure outputReadStructure = converter.getFactory().getOutputReadStructure();
+        final String[] noMatchBarcode = new String[outputReadStructure.sampleBarcodes.length()];
+        int index = 0;
+        for (final ReadDescriptor d : outputReadStructure.sampleBarcodes) {
+            noMatchBarcode[index++] = StringUtil.repeatCharNTimes('N', d.length);
+        }
+        noMatchMetric = new BarcodeMetric(null, null, IlluminaUtil.barcodeSeqsToString(noMatchBarcode), noMatchBarcode);
+
+        converter.setBarcodeExtractorFactory(tile -> {
+            final PerTileBarcodeExtractor extractor = new PerTileBarcodeExtractor(tile, barcodeToMetrics,
+                    barcodeLookupMap, noMatchMetric, outputReadStructure, minimumBaseQuality, maxNoCalls,
+                    maxMismatches, minMismatchDelta, distanceMode);
+            extractors.add(extractor);
+            return extractor;
+        });
+    }
+
+    /** Sums the metrics of all tiles processed and writes them to the metrics file. */
+    void writeMetrics(final MetricsFile<BarcodeMetric, Integer> metrics) {
+        for (final PerTileBarcodeExtractor extractor : extractors) {
+            for (final String key : barcodeToMetrics.keySet()) {
+                barcodeToMetrics.get(key).merge(extractor.getMetrics().get(key));
+            }
+            noMatchMetric.merge(extractor.getNoMatchMetric());
+        }
+        ExtractIlluminaBarcodes.finalizeMetrics(barcodeToMetrics, noMatchMetric);
+
+        for (final BarcodeMetric barcodeMetric : barcodeToMetrics.values()) {
+            metrics.addMetric(barcodeMetric);
+        }
+        metrics.addMetric(noMatchMetric);
+        metrics.write(metricsFile);
+    }
+}
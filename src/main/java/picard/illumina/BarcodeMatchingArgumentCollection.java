@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.illumina;
+
+import org.broadinstitute.barclay.argparser.Argument;
+
+import java.io.File;
+
+/**
+ * Argument Collection for matching sample barcodes while basecalls are converted, in place of running
+ * ExtractIlluminaBarcodes beforehand and reading back its _barcode.txt files.  Barcodes are matched exactly as
+ * ExtractIlluminaBarcodes would match them, and the same BarcodeMetrics are written for the lane.  The matching
+ * itself is done by a {@link BarcodeMatcher} built from these arguments.
+ */
+public class BarcodeMatchingArgumentCollection {
+    /** The matching arguments are those of ExtractIlluminaBarcodes, and only apply when barcodes are being matched. */
+    private static final String MATCHING_DOC_PREFIX = "Used when matching barcodes (see BARCODE_METRICS_FILE). ";
+
+    @Argument(doc = "If set, sample barcodes are matched as the basecalls are read rather than read from the _barcode.txt " +
+            "files in BARCODES_DIR, and ExtractIlluminaBarcodes metrics for the lane are written to this file.  Reads are " +
+            "only matched against the barcodes being output, so run ExtractIlluminaBarcodes instead if reads should be " +
+            "matched against a larger set of barcodes.  Only supported for CBCL basecalls.", optional = true)
+    public File BARCODE_METRICS_FILE;
+
+    @Argument(doc = MATCHING_DOC_PREFIX + ExtractIlluminaBarcodes.MAX_MISMATCHES_DOC)
+    public int MAX_MISMATCHES = ExtractIlluminaBarcodes.DEFAULT_MAX_MISMATCHES;
+
+    @Argument(doc = MATCHING_DOC_PREFIX + ExtractIlluminaBarcodes.MIN_MISMATCH_DELTA_DOC)
+    public int MIN_MISMATCH_DELTA = ExtractIlluminaBarcodes.DEFAULT_MIN_MISMATCH_DELTA;
+
+    @Argument(doc = MATCHING_DOC_PREFIX + ExtractIlluminaBarcodes.MAX_NO_CALLS_DOC)
+    public int MAX_NO_CALLS = ExtractIlluminaBarcodes.DEFAULT_MAX_NO_CALLS;
+
+    @Argument(doc = MATCHING_DOC_PREFIX + ExtractIlluminaBarcodes.MINIMUM_BASE_QUALITY_DOC)
+    public int MINIMUM_BASE_QUALITY = ExtractIlluminaBarcodes.DEFAULT_MINIMUM_BASE_QUALITY;
+
+    @Argument(doc = MATCHING_DOC_PREFIX + ExtractIlluminaBarcodes.DISTANCE_MODE_DOC)
+    public DistanceMetric DISTANCE_MODE = ExtractIlluminaBarcodes.DEFAULT_DISTANCE_MODE;
+
+    /** Returns true if barcodes should be matched while converting. */
+    public boolean isEnabled() {
+        return BARCODE_METRICS_FILE != null;
+    }
+}
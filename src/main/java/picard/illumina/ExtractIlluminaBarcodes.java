@@ -165,6 +165,18 @@ public class ExtractIlluminaBarcodes extends CommandLineProgram {
             "" +
             "<hr />";
 
+    // The docs and defaults of the barcode matching arguments, shared with BarcodeMatchingArgumentCollection
+    static final String MAX_MISMATCHES_DOC = "Maximum mismatches for a barcode to be considered a match.";
+    static final int DEFAULT_MAX_MISMATCHES = 1;
+    static final String MIN_MISMATCH_DELTA_DOC = "Minimum difference between number of mismatches in the best and second best barcodes for a barcode to be considered a match.";
+    static final int DEFAULT_MIN_MISMATCH_DELTA = 1;
+    static final String MAX_NO_CALLS_DOC = "Maximum allowable number of no-calls in a barcode read before it is considered unmatchable.";
+    static final int DEFAULT_MAX_NO_CALLS = 2;
+    static final String MINIMUM_BASE_QUALITY_DOC = "Minimum base quality. Any barcode bases falling below this quality will be considered a mismatch even if the bases match.";
+    static final int DEFAULT_MINIMUM_BASE_QUALITY = 0;
+    static final String DISTANCE_MODE_DOC = "The distance metric that should be used to compare the barcode-reads and the provided barcodes for finding the best and second-best assignments.";
+    static final DistanceMetric DEFAULT_DISTANCE_MODE = DistanceMetric.HAMMING;
+
     // The following attributes define the command-line arguments
 
     @Argument(doc = "The Illumina basecalls directory. ", shortName = "B")
@@ -191,17 +203,17 @@ public class ExtractIlluminaBarcodes extends CommandLineProgram {
     @Argument(doc = "Per-barcode and per-lane metrics written to this file.", shortName = StandardOptionDefinitions.METRICS_FILE_SHORT_NAME)
     public File METRICS_FILE;
 
-    @Argument(doc = "Maximum mismatches for a barcode to be considered a match.")
-    public int MAX_MISMATCHES = 1;
+    @Argument(doc = MAX_MISMATCHES_DOC)
+    public int MAX_MISMATCHES = DEFAULT_MAX_MISMATCHES;
 
-    @Argument(doc = "Minimum difference between number of mismatches in the best and second best barcodes for a barcode to be considered a match.")
-    public int MIN_MISMATCH_DELTA = 1;
+    @Argument(doc = MIN_MISMATCH_DELTA_DOC)
+    public int MIN_MISMATCH_DELTA = DEFAULT_MIN_MISMATCH_DELTA;
 
-    @Argument(doc = "Maximum allowable number of no-calls in a barcode read before it is considered unmatchable.")
-    public int MAX_NO_CALLS = 2;
+    @Argument(doc = MAX_NO_CALLS_DOC)
+    public int MAX_NO_CALLS = DEFAULT_MAX_NO_CALLS;
 
-    @Argument(shortName = "Q", doc = "Minimum base quality. Any barcode bases falling below this quality will be considered a mismatch even if the bases match.")
-    public int MINIMUM_BASE_QUALITY = 0;
+    @Argument(shortName = "Q", doc = MINIMUM_BASE_QUALITY_DOC)
+    public int MINIMUM_BASE_QUALITY = DEFAULT_MINIMUM_BASE_QUALITY;
 
     @Argument(doc = "The minimum quality (after transforming 0s to 1s) expected from reads.  If qualities are lower than this value, an error is thrown." +
             "The default of 2 is what the Illumina's spec describes as the minimum, but in practice the value has been observed lower.")
@@ -215,8 +227,8 @@ public class ExtractIlluminaBarcodes extends CommandLineProgram {
             "the number available on the machine less NUM_PROCESSORS.")
     public int NUM_PROCESSORS = 1;
 
-    @Argument(doc = "The distance metric that should be used to compare the barcode-reads and the provided barcodes for finding the best and second-best assignments.")
-    public DistanceMetric DISTANCE_MODE = DistanceMetric.HAMMING;
+    @Argument(doc = DISTANCE_MODE_DOC)
+    public DistanceMetric DISTANCE_MODE = DEFAULT_DISTANCE_MODE;
 
     private static final Log LOG = Log.getInstance(ExtractIlluminaBarcodes.class);
 
@@ -687,6 +699,9 @@ public class ExtractIlluminaBarcodes extends CommandLineProgram {
         private final DistanceMetric distanceMode;
         private final ConcurrentHashMap<String, BarcodeMatch> barcodeLookupMap;
         private final static int maxLookupSize = 100000;
+        private int[] barcodeIndices;
+        private byte[][] barcodeSubsequences;
+        private byte[][] qualityScores;
 
         public PerTileBarcodeExtractor(
                 final int tile,
@@ -781,6 +796,42 @@ public class ExtractIlluminaBarcodes extends CommandLineProgram {
             this.distanceMode = distanceMode;
         }
 
+        /**
+         * Constructor for matching the clusters of a tile as they are read by some other consumer, e.g. a basecalls
+         * converter, rather than reading them from a data provider and writing them to a barcode file.  Clusters are
+         * passed one at a time to {@link #extractBarcode(ClusterData)}; {@link #run()} must not be called.
+         *
+         * @param outputReadStructure The read structure of the clusters that will be passed to extractBarcode
+         */
+        public PerTileBarcodeExtractor(
+                final int tile,
+                final Map<String, BarcodeMetric> barcodeToMetrics,
+                final ConcurrentHashMap<String, BarcodeMatch> barcodeLookupMap,
+                final BarcodeMetric noMatchMetric,
+                final ReadStructure outputReadStructure,
+                final int minimumBaseQuality,
+                final int maxNoCalls,
+                final int maxMismatches,
+                final int minMismatchDelta,
+                final DistanceMetric distanceMode
+        ) {
+            this.tile = tile;
+            this.barcodeFile = null;
+            this.usingQualityScores = minimumBaseQuality > 0;
+            this.maxNoCalls = maxNoCalls;
+            this.maxMismatches = maxMismatches;
+            this.minMismatchDelta = minMismatchDelta;
+            this.minimumBaseQuality = minimumBaseQuality;
+            this.metrics = new LinkedHashMap<>(barcodeToMetrics.size());
+            for (final String key : barcodeToMetrics.keySet()) {
+                this.metrics.put(key, BarcodeMetric.copy(barcodeToMetrics.get(key)));
+            }
+            this.barcodeLookupMap = barcodeLookupMap;
+            this.noMatch = BarcodeMetric.copy(noMatchMetric);
+            this.outputReadStructure = outputReadStructure;
+            this.distanceMode = distanceMode;
+        }
+
         // These methods return the results of the extraction
         public synchronized Map<String, BarcodeMetric> getMetrics() {
             return this.metrics;
@@ -809,27 +860,11 @@ public class ExtractIlluminaBarcodes extends CommandLineProgram {
                 // is non-overlapping sets of files so make the  data providers in the individual threads for PerTileBarcodeExtractors
                 // so they are not all waiting for each others file operations
 
-                // Most likely we have SKIPS in our read structure since we replace all template reads with skips in the input data structure
-                // (see customCommnandLineValidation), therefore we must use the outputReadStructure to index into the output cluster data
-                final int[] barcodeIndices = outputReadStructure.sampleBarcodes.getIndices();
                 final BufferedWriter writer = IOUtil.openFileForBufferedWriting(barcodeFile);
-                final byte[][] barcodeSubsequences = new byte[barcodeIndices.length][];
-                final byte[][] qualityScores = usingQualityScores ? new byte[barcodeIndices.length][] : null;
                 while (provider.hasNext()) {
                     // Extract the barcode from the cluster and write it to the file for the tile
                     final ClusterData cluster = provider.next();
-
-                    for (int i = 0; i < barcodeIndices.length; i++) {
-                        barcodeSubsequences[i] = cluster.getRead(barcodeIndices[i]).getBases();
-                        if (usingQualityScores) {
-                            qualityScores[i] = cluster.getRead(barcodeIndices[i]).getQualities();
-                        }
-                    }
-                    final boolean passingFilter = cluster.isPf();
-                    final BarcodeMatch match = findBestBarcode(barcodeSubsequences, qualityScores,
-                            metrics, maxNoCalls, maxMismatches,
-                            minMismatchDelta, minimumBaseQuality);
-                    updateMetrics(match, passingFilter, metrics, noMatch);
+                    final BarcodeMatch match = extractBarcode(cluster);
 
                     final String yOrN = (match.matched ? "Y" : "N");
 
@@ -850,6 +885,31 @@ public class ExtractIlluminaBarcodes extends CommandLineProgram {
             }
         }
 
+        /**
+         * Finds the best barcode match for the sample barcode reads of a single cluster and accumulates it into this
+         * tile's metrics.  The barcode subsequences of the cluster are left in barcodeSubsequences.
+         */
+        public BarcodeMatch extractBarcode(final ClusterData cluster) {
+            if (barcodeIndices == null) {
+                // Most likely we have SKIPS in our read structure since we replace all template reads with skips in the input data structure
+                // (see customCommnandLineValidation), therefore we must use the outputReadStructure to index into the output cluster data
+                barcodeIndices = outputReadStructure.sampleBarcodes.getIndices();
+                barcodeSubsequences = new byte[barcodeIndices.length][];
+                qualityScores = usingQualityScores ? new byte[barcodeIndices.length][] : null;
+            }
+            for (int i = 0; i < barcodeIndices.length; i++) {
+                barcodeSubsequences[i] = cluster.getRead(barcodeIndices[i]).getBases();
+                if (usingQualityScores) {
+                    qualityScores[i] = cluster.getRead(barcodeIndices[i]).getQualities();
+                }
+            }
+            final BarcodeMatch match = findBestBarcode(barcodeSubsequences, qualityScores,
+                    metrics, maxNoCalls, maxMismatches,
+                    minMismatchDelta, minimumBaseQuality);
+            updateMetrics(match, cluster.isPf(), metrics, noMatch);
+            return match;
+        }
+
         private static boolean ensureLookupMinimumValue(final byte[][] qualityScores, final int minimumBaseQuality) {
             if (qualityScores != null) {
                 for (final byte[] qs : qualityScores) {
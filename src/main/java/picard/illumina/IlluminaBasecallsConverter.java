@@ -320,11 +320,12 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> extends Basecalls
      * are synchronized.
      */
     private class TileProcessingRecord {
-        final private Map<String, SortingCollection<CLUSTER_OUTPUT_RECORD>> barcodeToRecordCollection =
+        final private Map<String, TileRecordBuffer<CLUSTER_OUTPUT_RECORD>> barcodeToRecordCollection =
                 new HashMap<>();
         final private Map<String, TileBarcodeProcessingState> barcodeToProcessingState = new HashMap<>();
         private TileProcessingState state = TileProcessingState.NOT_DONE_READING;
         private long recordCount = 0;
+        private boolean spilled = false;
 
         /**
          * Returns the state of this tile's processing.
@@ -347,7 +348,7 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> extends Basecalls
             this.recordCount += 1;
 
             // Grab the existing collection, or initialize it if it doesn't yet exist
-            SortingCollection<CLUSTER_OUTPUT_RECORD> recordCollection = this.barcodeToRecordCollection.get(barcode);
+            TileRecordBuffer<CLUSTER_OUTPUT_RECORD> recordCollection = this.barcodeToRecordCollection.get(barcode);
             if (recordCollection == null) {
                 // TODO: The implementation here for supporting ignoreUnexpectedBarcodes is not efficient,
                 // but the alternative is an extensive rewrite.  We are living with the inefficiency for
@@ -358,11 +359,18 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> extends Basecalls
                     }
                     throw new PicardException(String.format("Read records with barcode %s, but this barcode was not expected.  (Is it referenced in the parameters file?)", barcode));
                 }
-                recordCollection = this.newSortingCollection();
+                recordCollection = new TileRecordBuffer<>(outputRecordComparator, this::newSortingCollection);
+                if (spilled) recordCollection.spill();
                 this.barcodeToRecordCollection.put(barcode, recordCollection);
                 this.barcodeToProcessingState.put(barcode, null);
             }
             recordCollection.add(record);
+
+            // Records stay unsorted in RAM until the tile as a whole outgrows its budget
+            if (!spilled && this.recordCount > maxReadsInRamPerTile) {
+                this.barcodeToRecordCollection.values().forEach(TileRecordBuffer::spill);
+                spilled = true;
+            }
         }
 
         private synchronized SortingCollection<CLUSTER_OUTPUT_RECORD> newSortingCollection() {
@@ -394,7 +402,7 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> extends Basecalls
         /**
          * Returns the mapping of barcodes to records associated with them.
          */
-        public synchronized Map<String, SortingCollection<CLUSTER_OUTPUT_RECORD>> getBarcodeRecords() {
+        public synchronized Map<String, TileRecordBuffer<CLUSTER_OUTPUT_RECORD>> getBarcodeRecords() {
             return barcodeToRecordCollection;
         }
 
@@ -696,7 +704,7 @@ public class IlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> extends Basecalls
                 @Override
                 public void run() {
                     try {
-                        final SortingCollection<CLUSTER_OUTPUT_RECORD> records = tileRecord.getBarcodeRecords().get(barcode);
+                        final TileRecordBuffer<CLUSTER_OUTPUT_RECORD> records = tileRecord.getBarcodeRecords().get(barcode);
                         final ConvertedClusterDataWriter<CLUSTER_OUTPUT_RECORD> writer = barcodeRecordWriterMap.get(barcode);
 
                         log.debug(String.format("Writing records from tile %s with barcode %s ...", tile.getNumber(), barcode));
@@ -36,6 +36,7 @@ import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 import org.broadinstitute.barclay.argparser.Argument;
+import org.broadinstitute.barclay.argparser.ArgumentCollection;
 import org.broadinstitute.barclay.help.DocumentedFeature;
 import picard.PicardException;
 import picard.cmdline.CommandLineProgram;
@@ -177,8 +178,8 @@ public class IlluminaBasecallsToFastq extends CommandLineProgram {
             "is larger than the available memory.")
     public Boolean FORCE_GC = true;
 
-    @Argument(doc = "Configure SortingCollections to store this many records before spilling to disk. For an indexed" +
-            " run, each SortingCollection gets this value/number of indices.")
+    @Argument(doc = "Hold this many records from a tile in RAM, across all indices, before spilling them to disk with" +
+            " SortingCollections. Records held in RAM are only sorted if they were not already in output order.")
     public int MAX_READS_IN_RAM_PER_TILE = 1200000;
 
     @Argument(doc = "The minimum quality (after transforming 0s to 1s) expected from reads.  If qualities are lower than this value, an error is thrown." +
@@ -192,6 +193,9 @@ public class IlluminaBasecallsToFastq extends CommandLineProgram {
             "FASTQs for only a subset of the barcodes in a lane.", shortName = "INGORE_UNEXPECTED")
     public boolean IGNORE_UNEXPECTED_BARCODES = false;
 
+    @ArgumentCollection
+    public BarcodeMatchingArgumentCollection barcodeMatchingArgumentCollection = new BarcodeMatchingArgumentCollection();
+
     @Argument(doc = "The read name header formatting to emit.  Casava1.8 formatting has additional information beyond Illumina, including: " +
             "the passing-filter flag value for the read, the flowcell name, and the sequencer name.")
     public ReadNameFormat READ_NAME_FORMAT = ReadNameFormat.CASAVA_1_8;
@@ -209,6 +213,7 @@ public class IlluminaBasecallsToFastq extends CommandLineProgram {
     private final Map<String, FastqRecordsWriter> sampleBarcodeFastqWriterMap = new HashMap<>();
     private ReadStructure readStructure;
     private BasecallsConverter<FastqRecordsForCluster> basecallsConverter;
+    private BarcodeMatcher barcodeMatcher;
     private static final Log log = Log.getInstance(IlluminaBasecallsToFastq.class);
     private final FastqWriterFactory fastqWriterFactory = new FastqWriterFactory();
     private ReadNameEncoder readNameEncoder;
@@ -219,6 +224,9 @@ public class IlluminaBasecallsToFastq extends CommandLineProgram {
     protected int doWork() {
         initialize();
         basecallsConverter.doTileProcessing();
+        if (barcodeMatcher != null) {
+            barcodeMatcher.writeMetrics(getMetricsFile());
+        }
         return 0;
     }
 
@@ -248,6 +256,9 @@ public class IlluminaBasecallsToFastq extends CommandLineProgram {
      * Prepares loggers, initiates garbage collection thread, parses arguments and initialized variables appropriately/
      */
     private void initialize() {
+        if (barcodeMatchingArgumentCollection.isEnabled()) {
+            barcodeMatcher = new BarcodeMatcher(barcodeMatchingArgumentCollection);
+        }
         fastqWriterFactory.setCreateMd5(CREATE_MD5_FILE);
         switch (READ_NAME_FORMAT) {
             case CASAVA_1_8:
@@ -274,14 +285,22 @@ public class IlluminaBasecallsToFastq extends CommandLineProgram {
         final int readsPerCluster = readStructure.templates.length() + readStructure.sampleBarcodes.length();
         if (IlluminaFileUtil.hasCbcls(BASECALLS_DIR, LANE)) {
             if (BARCODES_DIR == null) BARCODES_DIR = BASECALLS_DIR;
-            basecallsConverter = new NewIlluminaBasecallsConverter<>(BASECALLS_DIR, BARCODES_DIR, LANE, readStructure,
+            final NewIlluminaBasecallsConverter<FastqRecordsForCluster> newConverter = new NewIlluminaBasecallsConverter<>(
+                    BASECALLS_DIR, BARCODES_DIR, LANE, readStructure,
                     sampleBarcodeFastqWriterMap, demultiplex, Math.max(1, MAX_READS_IN_RAM_PER_TILE / readsPerCluster),
                     TMP_DIR, NUM_PROCESSORS,
                     FIRST_TILE, TILE_LIMIT, queryNameComparator,
                     new FastqRecordsForClusterCodec(readStructure.templates.length(),
                             readStructure.sampleBarcodes.length(), readStructure.molecularBarcode.length()),
                     FastqRecordsForCluster.class, bclQualityEvaluationStrategy, IGNORE_UNEXPECTED_BARCODES);
+            if (barcodeMatcher != null) {
+                barcodeMatcher.attachTo(newConverter);
+            }
+            basecallsConverter = newConverter;
         } else {
+            if (barcodeMatcher != null) {
+                throw new PicardException("BARCODE_METRICS_FILE is only supported for CBCL basecalls.");
+            }
             basecallsConverter = new IlluminaBasecallsConverter<>(BASECALLS_DIR, BARCODES_DIR, LANE, readStructure,
                     sampleBarcodeFastqWriterMap, demultiplex, Math.max(1, MAX_READS_IN_RAM_PER_TILE / readsPerCluster), TMP_DIR, NUM_PROCESSORS,
                     FORCE_GC, FIRST_TILE, TILE_LIMIT, queryNameComparator,
@@ -347,6 +366,9 @@ public class IlluminaBasecallsToFastq extends CommandLineProgram {
                 throw new PicardException("Row for barcode " + key + " appears more than once in MULTIPLEX_PARAMS file " +
                         MULTIPLEX_PARAMS);
             }
+            if (key != null && barcodeMatcher != null) {
+                barcodeMatcher.addBarcode(sampleBarcodeValues, null);
+            }
 
             final FastqRecordsWriter writer = buildWriter(new File(row.getField("OUTPUT_PREFIX")));
             sampleBarcodeFastqWriterMap.put(key, writer);
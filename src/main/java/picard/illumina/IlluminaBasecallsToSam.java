@@ -25,13 +25,18 @@
 package picard.illumina;
 
 import htsjdk.samtools.*;
+import htsjdk.samtools.util.BinaryCodec;
 import htsjdk.samtools.util.CollectionUtil;
+import htsjdk.samtools.util.FileExtensions;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Iso8601Date;
 import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.ProgressLoggerInterface;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 import org.broadinstitute.barclay.argparser.Argument;
+import org.broadinstitute.barclay.argparser.ArgumentCollection;
 import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
 import org.broadinstitute.barclay.help.DocumentedFeature;
 import picard.PicardException;
@@ -44,11 +49,15 @@ import picard.illumina.parser.readers.BclQualityEvaluationStrategy;
 import picard.util.AdapterPair;
 import picard.util.IlluminaUtil;
 import picard.util.IlluminaUtil.IlluminaAdapterPair;
+import picard.util.ParallelBlockCompressedOutputStream;
 import picard.util.TabbedTextFileWithHeaderParser;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -59,6 +68,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 /**
  * IlluminaBasecallsToSam transforms a lane of Illumina data file formats (bcl, locs, clocs, qseqs, etc.) into
@@ -212,6 +222,10 @@ public class IlluminaBasecallsToSam extends CommandLineProgram {
             " be the number available on the machine less NUM_PROCESSORS.")
     public Integer NUM_PROCESSORS = 0;
 
+    @Argument(doc = "The number of threads used to compress BAM output, shared by all output files. If 0, each BAM is " +
+            "compressed by the thread writing to it. Not used for SAM output or when CREATE_MD5_FILE is true.")
+    public int NUM_COMPRESSION_THREADS = 0;
+
     @Argument(doc = "If set, this is the first tile to be processed (used for debugging).  Note that tiles are not processed" +
             " in numerical order.",
             mutex = "PROCESS_SINGLE_TILE",
@@ -234,8 +248,8 @@ public class IlluminaBasecallsToSam extends CommandLineProgram {
             " and convert their quality scores to Q2.")
     public boolean APPLY_EAMSS_FILTER = true;
 
-    @Argument(doc = "Configure SortingCollections to store this many records before spilling to disk. For an indexed" +
-            " run, each SortingCollection gets this value/number of indices.")
+    @Argument(doc = "Hold this many records from a tile in RAM, across all indices, before spilling them to disk with" +
+            " SortingCollections. Records held in RAM are only sorted if they were not already in output order.")
     public int MAX_READS_IN_RAM_PER_TILE = 1200000;
 
     @Argument(doc = "The minimum quality (after transforming 0s to 1s) expected from reads.  If qualities are lower than this value, an error is thrown." +
@@ -265,15 +279,32 @@ public class IlluminaBasecallsToSam extends CommandLineProgram {
     @Argument(doc = "Should the barcode quality be included when the sample barcode is included?")
     public boolean INCLUDE_BARCODE_QUALITY = false;
 
+    @ArgumentCollection
+    public BarcodeMatchingArgumentCollection barcodeMatchingArgumentCollection = new BarcodeMatchingArgumentCollection();
+
     private final Map<String, SAMFileWriterWrapper> barcodeSamWriterMap = new HashMap<>();
     private ReadStructure readStructure;
     private BasecallsConverter<SAMRecordsForCluster> basecallsConverter;
+    private ExecutorService compressionExecutor;
+    private BarcodeMatcher barcodeMatcher;
     private static final Log log = Log.getInstance(IlluminaBasecallsToSam.class);
 
     @Override
     protected int doWork() {
-        initialize();
-        basecallsConverter.doTileProcessing();
+        if (NUM_COMPRESSION_THREADS > 0) {
+            compressionExecutor = ParallelBlockCompressedOutputStream.newCompressionExecutor(NUM_COMPRESSION_THREADS);
+        }
+        try {
+            initialize();
+            basecallsConverter.doTileProcessing();
+            if (barcodeMatcher != null) {
+                barcodeMatcher.writeMetrics(getMetricsFile());
+            }
+        } finally {
+            if (compressionExecutor != null) {
+                compressionExecutor.shutdownNow();
+            }
+        }
         return 0;
     }
 
@@ -281,6 +312,9 @@ public class IlluminaBasecallsToSam extends CommandLineProgram {
      * Prepares loggers, initiates garbage collection thread, parses arguments and initialized variables appropriately/
      */
     private void initialize() {
+        if (barcodeMatchingArgumentCollection.isEnabled()) {
+            barcodeMatcher = new BarcodeMatcher(barcodeMatchingArgumentCollection);
+        }
         final BclQualityEvaluationStrategy bclQualityEvaluationStrategy = new BclQualityEvaluationStrategy(MINIMUM_QUALITY);
 
         if (OUTPUT != null) {
@@ -308,13 +342,21 @@ public class IlluminaBasecallsToSam extends CommandLineProgram {
         final boolean demultiplex = readStructure.hasSampleBarcode();
         if (IlluminaFileUtil.hasCbcls(BASECALLS_DIR, LANE)) {
             if (BARCODES_DIR == null) BARCODES_DIR = BASECALLS_DIR;
-            basecallsConverter = new NewIlluminaBasecallsConverter<>(BASECALLS_DIR, BARCODES_DIR, LANE, readStructure,
+            final NewIlluminaBasecallsConverter<SAMRecordsForCluster> newConverter = new NewIlluminaBasecallsConverter<>(
+                    BASECALLS_DIR, BARCODES_DIR, LANE, readStructure,
                     barcodeSamWriterMap, demultiplex, Math.max(1, MAX_READS_IN_RAM_PER_TILE / numOutputRecords),
                     TMP_DIR, NUM_PROCESSORS,
                     FIRST_TILE, TILE_LIMIT, new QueryNameComparator(),
                     new Codec(numOutputRecords),
                     SAMRecordsForCluster.class, bclQualityEvaluationStrategy, IGNORE_UNEXPECTED_BARCODES);
+            if (barcodeMatcher != null) {
+                barcodeMatcher.attachTo(newConverter);
+            }
+            basecallsConverter = newConverter;
         } else {
+            if (barcodeMatcher != null) {
+                throw new PicardException("BARCODE_METRICS_FILE is only supported for CBCL basecalls.");
+            }
             basecallsConverter = new IlluminaBasecallsConverter<>(BASECALLS_DIR, BARCODES_DIR, LANE, readStructure,
                     barcodeSamWriterMap, demultiplex, MAX_READS_IN_RAM_PER_TILE / numOutputRecords, TMP_DIR, NUM_PROCESSORS, FORCE_GC,
                     FIRST_TILE, TILE_LIMIT, new QueryNameComparator(), new Codec(numOutputRecords), SAMRecordsForCluster.class,
@@ -421,6 +463,9 @@ public class IlluminaBasecallsToSam extends CommandLineProgram {
                 throw new PicardException("Row for barcode " + key + " appears more than once in LIBRARY_PARAMS or BARCODE_PARAMS file " +
                         LIBRARY_PARAMS);
             }
+            if (key != null && barcodeMatcher != null) {
+                barcodeMatcher.addBarcode(barcodeValues, row.getField("LIBRARY_NAME"));
+            }
 
             final Map<String, String> samHeaderParams = buildSamHeaderParameters(barcodeValues);
 
@@ -507,6 +552,9 @@ public class IlluminaBasecallsToSam extends CommandLineProgram {
 
         header.setSortOrder(SAMFileHeader.SortOrder.queryname);
         header.addReadGroup(rg);
+        if (compressionExecutor != null && !CREATE_MD5_FILE && output.getName().endsWith(FileExtensions.BAM)) {
+            return new SAMFileWriterWrapper(new ParallelCompressionBamWriter(header, output, compressionExecutor, COMPRESSION_LEVEL));
+        }
         return new SAMFileWriterWrapper(new SAMFileWriterFactory().makeSAMOrBAMWriter(header, presorted, output));
     }
 
@@ -578,6 +626,71 @@ public class IlluminaBasecallsToSam extends CommandLineProgram {
         }
     }
 
+    /**
+     * Writes unmapped, already sorted records to a BAM whose blocks are compressed on a shared executor.  At most a few
+     * blocks per file are held in memory, so that many of these can be open at once.
+     */
+    private static final class ParallelCompressionBamWriter implements SAMFileWriter {
+        private static final int MAX_BLOCKS_IN_FLIGHT = 4;
+        private static final byte[] BAM_MAGIC = "BAM\1".getBytes(StandardCharsets.US_ASCII);
+
+        private final SAMFileHeader header;
+        private final OutputStream outputStream;
+        private final BAMRecordCodec codec;
+        private ProgressLoggerInterface progressLogger = null;
+
+        private ParallelCompressionBamWriter(final SAMFileHeader header, final File output,
+                                             final ExecutorService executor, final int compressionLevel) {
+            this.header = header;
+            this.outputStream = new ParallelBlockCompressedOutputStream(IOUtil.openFileForWriting(output),
+                    executor, compressionLevel, MAX_BLOCKS_IN_FLIGHT);
+            writeHeader(outputStream, header);
+            this.codec = new BAMRecordCodec(header);
+            this.codec.setOutputStream(outputStream, output.getAbsolutePath());
+        }
+
+        /** Writes the BAM magic number and header uncompressed, as BAMFileWriter does, so it goes through our blocks. */
+        private static void writeHeader(final OutputStream outputStream, final SAMFileHeader header) {
+            final StringWriter headerText = new StringWriter();
+            new SAMTextHeaderCodec().encode(headerText, header);
+
+            final BinaryCodec headerCodec = new BinaryCodec(outputStream);
+            headerCodec.writeBytes(BAM_MAGIC);
+            headerCodec.writeString(headerText.toString(), true, false);
+            headerCodec.writeInt(header.getSequenceDictionary().size());
+            for (final SAMSequenceRecord sequenceRecord : header.getSequenceDictionary().getSequences()) {
+                headerCodec.writeString(sequenceRecord.getSequenceName(), true, true);
+                headerCodec.writeInt(sequenceRecord.getSequenceLength());
+            }
+        }
+
+        @Override
+        public void addAlignment(final SAMRecord rec) {
+            rec.setHeader(header);
+            codec.encode(rec);
+            if (progressLogger != null) progressLogger.record(rec);
+        }
+
+        @Override
+        public SAMFileHeader getFileHeader() {
+            return header;
+        }
+
+        @Override
+        public void setProgressLogger(final ProgressLoggerInterface progressLogger) {
+            this.progressLogger = progressLogger;
+        }
+
+        @Override
+        public void close() {
+            try {
+                outputStream.close();
+            } catch (final IOException e) {
+                throw new RuntimeIOException(e);
+            }
+        }
+    }
+
     static class SAMRecordsForCluster {
         final SAMRecord[] records;
 
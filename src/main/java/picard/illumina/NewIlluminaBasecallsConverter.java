@@ -19,14 +19,15 @@ import picard.util.ThreadPoolExecutorWithExceptions;
 
 import java.io.File;
 import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.Queue;
+import java.util.function.IntFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -35,9 +36,16 @@ public class NewIlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> extends Baseca
     private final List<File> cbcls;
     private final List<AbstractIlluminaPositionFileReader.PositionInfo> locs = new ArrayList<>();
     private final File[] filterFiles;
-    private final Map<String, ThreadPoolExecutorWithExceptions> barcodeWriterThreads = new HashMap<>();
-    private final Map<Integer, List<RecordWriter>> completedWork = Collections.synchronizedMap(new HashMap<>());
+    private final Map<String, BarcodeWriterQueue> barcodeWriterQueues = new HashMap<>();
+    private final ThreadPoolExecutorWithExceptions writerExecutor;
+    // Tiles that have finished processing but are waiting on an earlier tile before they can be written; guarded by this
+    private final Map<Integer, List<RecordWriter>> completedWork = new HashMap<>();
+    private int nextTileToWrite = 0;
+    private final File barcodesDir;
+    private final int lane;
     private final Map<Integer, File> barcodesFiles = new HashMap<>();
+    private final int numTilesInLane;
+    private IntFunction<ExtractIlluminaBarcodes.PerTileBarcodeExtractor> barcodeExtractorFactory = null;
 
     /**
      * @param basecallsDir             Where to read basecalls from.
@@ -77,8 +85,12 @@ public class NewIlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> extends Baseca
                 outputRecordClass, numProcessors, new IlluminaDataProviderFactory(basecallsDir,
                         barcodesDir, lane, readStructure, bclQualityEvaluationStrategy));
         this.tiles = new ArrayList<>();
+        this.barcodesDir = barcodesDir;
+        this.lane = lane;
 
-        barcodeRecordWriterMap.keySet().forEach(barcode -> barcodeWriterThreads.put(barcode, new ThreadPoolExecutorWithExceptions(1)));
+        // Writers for all barcodes share one pool; each barcode's queue keeps its writes in tile order
+        writerExecutor = new ThreadPoolExecutorWithExceptions(Math.max(1, Math.min(numThreads, barcodeRecordWriterMap.size())));
+        barcodeRecordWriterMap.keySet().forEach(barcode -> barcodeWriterQueues.put(barcode, new BarcodeWriterQueue()));
 
         final File laneDir = new File(basecallsDir, IlluminaFileUtil.longLaneStr(lane));
 
@@ -118,25 +130,38 @@ public class NewIlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> extends Baseca
         }
         IOUtil.assertFilesAreReadable(Arrays.asList(filterFiles));
         tiles.sort(TILE_NUMBER_COMPARATOR);
+        numTilesInLane = tiles.size();
 
-        if (demultiplex) {
-            final Pattern barcodeRegex = Pattern.compile(ParameterizedFileUtil.escapePeriods(
-                    ParameterizedFileUtil.makeBarcodeRegex(lane)));
-            final File[] barcodeTileFiles = getTiledFiles(barcodesDir, barcodeRegex);
-            if (barcodeTileFiles.length != tiles.size()) {
-                throw new PicardException(String.format(
-                        "Barcode files are required for each tile. Found %d expected %d.",
-                        barcodeTileFiles.length, tiles.size()));
-            }
-            for (final File barcodeFile : barcodeTileFiles) {
-                final Matcher tileMatcher = barcodeRegex.matcher(barcodeFile.getName());
-                if (tileMatcher.matches()) {
-                    barcodesFiles.put(Integer.valueOf(tileMatcher.group(1)), barcodeFile);
-                }
+        setTileLimits(firstTile, tileLimit);
+    }
+
+    /**
+     * Matches sample barcodes as each tile is read instead of reading them from the _barcode.txt files written by
+     * ExtractIlluminaBarcodes, saving a separate pass over the index cycles.  Must be called before
+     * doTileProcessing if demultiplexing without barcode files.
+     *
+     * @param barcodeExtractorFactory Makes the extractor for a given tile number.  The extractor accumulates the
+     *                                tile's barcode metrics; it is called from the tile processing threads.
+     */
+    public void setBarcodeExtractorFactory(final IntFunction<ExtractIlluminaBarcodes.PerTileBarcodeExtractor> barcodeExtractorFactory) {
+        this.barcodeExtractorFactory = barcodeExtractorFactory;
+    }
+
+    private void findBarcodeFiles() {
+        final Pattern barcodeRegex = Pattern.compile(ParameterizedFileUtil.escapePeriods(
+                ParameterizedFileUtil.makeBarcodeRegex(lane)));
+        final File[] barcodeTileFiles = getTiledFiles(barcodesDir, barcodeRegex);
+        if (barcodeTileFiles.length != numTilesInLane) {
+            throw new PicardException(String.format(
+                    "Barcode files are required for each tile. Found %d expected %d.",
+                    barcodeTileFiles.length, numTilesInLane));
+        }
+        for (final File barcodeFile : barcodeTileFiles) {
+            final Matcher tileMatcher = barcodeRegex.matcher(barcodeFile.getName());
+            if (tileMatcher.matches()) {
+                barcodesFiles.put(Integer.valueOf(tileMatcher.group(1)), barcodeFile);
             }
         }
-
-        setTileLimits(firstTile, tileLimit);
     }
 
     public static File[] getTiledFiles(final File baseDirectory, final Pattern pattern) {
@@ -145,12 +170,12 @@ public class NewIlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> extends Baseca
 
     @Override
     public void doTileProcessing() {
-
-        final ThreadPoolExecutorWithExceptions completedWorkExecutor = new ThreadPoolExecutorWithExceptions(1);
-
-        final CompletedWorkChecker workChecker = new CompletedWorkChecker();
-        completedWorkExecutor.submit(workChecker);
-        completedWorkExecutor.shutdown();
+        if (demultiplex && barcodeExtractorFactory == null) {
+            findBarcodeFiles();
+        }
+        if (tiles.isEmpty()) {
+            scheduleClosers();
+        }
 
         //thread by surface tile
         final ThreadPoolExecutorWithExceptions tileProcessingExecutor = new ThreadPoolExecutorWithExceptions(numThreads);
@@ -163,29 +188,25 @@ public class NewIlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> extends Baseca
 
         //wait for all the threads to complete before checking for errors
         ThreadPoolExecutorUtil.awaitThreadPoolTermination("Reading executor", tileProcessingExecutor, Duration.ofMinutes(5));
-        ThreadPoolExecutorUtil.awaitThreadPoolTermination("Tile completion executor", completedWorkExecutor, Duration.ofMinutes(5));
-
-        barcodeWriterThreads.values().forEach(ThreadPoolExecutor::shutdown);
-        barcodeWriterThreads.forEach((barcode, executor) -> ThreadPoolExecutorUtil.awaitThreadPoolTermination(barcode + " writer", executor, Duration.ofMinutes(5)));
 
+        // every tile has been handed off by now, so no more writes can be queued
+        writerExecutor.shutdown();
+        ThreadPoolExecutorUtil.awaitThreadPoolTermination("Writer executor", writerExecutor, Duration.ofMinutes(5));
 
-        if (tileProcessingExecutor.hasError() ||
-                completedWorkExecutor.hasError() ||
-                barcodeWriterThreads.values().stream().anyMatch(ThreadPoolExecutorWithExceptions::hasError)) {
-            int tasksStillRunning = completedWorkExecutor.shutdownNow().size();
-            tasksStillRunning += barcodeWriterThreads.values().stream().mapToLong(executor -> executor.shutdownNow().size()).sum();
+        if (tileProcessingExecutor.hasError() || writerExecutor.hasError()) {
+            final int tasksStillRunning = writerExecutor.shutdownNow().size();
             throw new PicardException("Exceptions in tile processing. There were " + tasksStillRunning
                     + " tasks were still running or queued and have been cancelled.");
         }
     }
 
     private class RecordWriter implements Runnable {
-        private final SortingCollection<CLUSTER_OUTPUT_RECORD> recordCollection;
+        private final TileRecordBuffer<CLUSTER_OUTPUT_RECORD> recordCollection;
         private final ConvertedClusterDataWriter<CLUSTER_OUTPUT_RECORD> writer;
         private final String barcode;
 
         RecordWriter(final ConvertedClusterDataWriter<CLUSTER_OUTPUT_RECORD> writer,
-                     final SortingCollection<CLUSTER_OUTPUT_RECORD> recordCollection, final String barcode) {
+                     final TileRecordBuffer<CLUSTER_OUTPUT_RECORD> recordCollection, final String barcode) {
             this.writer = writer;
             this.recordCollection = recordCollection;
             this.barcode = barcode;
@@ -222,8 +243,10 @@ public class NewIlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> extends Baseca
 
     private class TileProcessor implements Runnable {
         private final int tileNum;
-        private final Map<String, SortingCollection<CLUSTER_OUTPUT_RECORD>> barcodeToRecordCollection = new HashMap<>();
+        private final Map<String, TileRecordBuffer<CLUSTER_OUTPUT_RECORD>> barcodeToRecordCollection = new HashMap<>();
         private final File barcodeFile;
+        private int recordsInRam = 0;
+        private boolean spilled = false;
 
         TileProcessor(final int tileNum, final File barcodeFile) {
             this.tileNum = tileNum;
@@ -233,10 +256,16 @@ public class NewIlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> extends Baseca
         @Override
         public void run() {
             final BaseIlluminaDataProvider dataProvider = factory.makeDataProvider(cbcls, locs, filterFiles, tileNum, barcodeFile);
+            final ExtractIlluminaBarcodes.PerTileBarcodeExtractor barcodeExtractor =
+                    (demultiplex && barcodeExtractorFactory != null) ? barcodeExtractorFactory.apply(tileNum) : null;
 
             while (dataProvider.hasNext()) {
                 final ClusterData cluster = dataProvider.next();
                 readProgressLogger.record(null, 0);
+                if (barcodeExtractor != null) {
+                    final ExtractIlluminaBarcodes.PerTileBarcodeExtractor.BarcodeMatch match = barcodeExtractor.extractBarcode(cluster);
+                    cluster.setMatchedBarcode(match.isMatched() ? match.getBarcode() : null);
+                }
                 final String barcode = (demultiplex ? cluster.getMatchedBarcode() : null);
                 addRecord(barcode, converter.convertClusterToOutputRecord(cluster));
             }
@@ -250,14 +279,14 @@ public class NewIlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> extends Baseca
                 writerList.add(new RecordWriter(writer, value, barcode));
 
             });
-            completedWork.put(tileNum, writerList);
+            completeTile(tileNum, writerList);
 
             log.info("Finished processing tile " + tileNum);
         }
 
         private synchronized void addRecord(final String barcode, final CLUSTER_OUTPUT_RECORD record) {
             // Grab the existing collection, or initialize it if it doesn't yet exist
-            SortingCollection<CLUSTER_OUTPUT_RECORD> recordCollection = this.barcodeToRecordCollection.get(barcode);
+            TileRecordBuffer<CLUSTER_OUTPUT_RECORD> recordCollection = this.barcodeToRecordCollection.get(barcode);
             if (recordCollection == null) {
                 // TODO: The implementation here for supporting ignoreUnexpectedBarcodes is not efficient,
                 // but the alternative is an extensive rewrite.  We are living with the inefficiency for
@@ -268,10 +297,18 @@ public class NewIlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> extends Baseca
                     }
                     throw new PicardException(String.format("Read records with barcode %s, but this barcode was not expected.  (Is it referenced in the parameters file?)", barcode));
                 }
-                recordCollection = newSortingCollection();
+                recordCollection = new TileRecordBuffer<>(outputRecordComparator, this::newSortingCollection);
+                if (spilled) recordCollection.spill();
                 this.barcodeToRecordCollection.put(barcode, recordCollection);
             }
             recordCollection.add(record);
+
+            // Records stay unsorted in RAM until the tile as a whole outgrows its budget
+            if (!spilled && ++recordsInRam > maxReadsInRamPerTile) {
+                log.debug("Tile " + tileNum + " exceeded " + maxReadsInRamPerTile + " records in RAM, spilling to disk.");
+                barcodeToRecordCollection.values().forEach(TileRecordBuffer::spill);
+                spilled = true;
+            }
         }
 
         private synchronized SortingCollection<CLUSTER_OUTPUT_RECORD> newSortingCollection() {
@@ -288,30 +325,83 @@ public class NewIlluminaBasecallsConverter<CLUSTER_OUTPUT_RECORD> extends Baseca
     }
 
 
-    private class CompletedWorkChecker implements Runnable {
+    /**
+     * Records that a tile has finished processing, then queues the writers of this and any following tiles that are
+     * now next in tile order.  Once the last tile has been queued, the closes for all writers are queued behind it.
+     */
+    private synchronized void completeTile(final int tileNum, final List<RecordWriter> writers) {
+        completedWork.put(tileNum, writers);
+        while (nextTileToWrite < tiles.size() && completedWork.containsKey(tiles.get(nextTileToWrite))) {
+            final Integer tile = tiles.get(nextTileToWrite++);
+            log.info("Writing out tile " + tile);
+            completedWork.remove(tile).forEach(writer -> barcodeWriterQueues.get(writer.getBarcode()).add(writer));
+            if (nextTileToWrite == tiles.size()) {
+                scheduleClosers();
+            }
+        }
+    }
+
+    private void scheduleClosers() {
+        barcodeRecordWriterMap.forEach((barcode, writer) -> barcodeWriterQueues.get(barcode).add(new Closer(writer, barcode)));
+    }
 
-        private int currentTileIndex = 0;
+    /**
+     * Runs the writes for a single barcode one at a time and in the order they were added, on the shared writer pool.
+     * At most one drain of the queue is submitted to the pool at any time.  If a write fails, the barcode's remaining
+     * writes are dropped, but its writer is still closed.
+     */
+    private class BarcodeWriterQueue implements Runnable {
+        private final Queue<Runnable> pending = new ArrayDeque<>();
+        private boolean scheduled = false;
+        private boolean failed = false;
+
+        synchronized void add(final Runnable task) {
+            if (failed && !(task instanceof NewIlluminaBasecallsConverter.Closer)) return;
+            pending.add(task);
+            if (!scheduled) {
+                scheduled = true;
+                writerExecutor.submit(this);
+            }
+        }
 
         @Override
         public void run() {
-            while (currentTileIndex < tiles.size()) {
-                final Integer currentTile = tiles.get(currentTileIndex);
-                if (completedWork.containsKey(currentTile)) {
-                    log.info("Writing out tile " + currentTile);
-                    completedWork.get(currentTile).forEach(writer -> barcodeWriterThreads.get(writer.getBarcode()).submit(writer));
-                    currentTileIndex++;
-                } else {
-                    try {
-                        Thread.sleep(5000);
-                    } catch (final InterruptedException e) {
-                        throw new PicardException(e.getMessage(), e);
+            Runnable task;
+            while ((task = next()) != null) {
+                try {
+                    task.run();
+                } catch (final Throwable t) {
+                    // the pool records the failure; the writer must still be closed, or its output is left open
+                    for (final Runnable closer : fail()) {
+                        try {
+                            closer.run();
+                        } catch (final Throwable closeFailure) {
+                            t.addSuppressed(closeFailure);
+                        }
                     }
+                    throw t;
                 }
             }
+        }
 
-            //we are all done scheduling work.. now schedule the closes
-            barcodeRecordWriterMap.forEach((barcode, writer) -> barcodeWriterThreads.get(barcode).submit(new Closer(writer, barcode)));
+        private synchronized Runnable next() {
+            final Runnable task = pending.poll();
+            if (task == null) {
+                scheduled = false;
+            }
+            return task;
         }
 
+        /** Drops the pending writes and returns the pending closes, so that a later close is scheduled as usual. */
+        private synchronized List<Runnable> fail() {
+            failed = true;
+            scheduled = false;
+            final List<Runnable> closers = new ArrayList<>();
+            for (final Runnable task : pending) {
+                if (task instanceof NewIlluminaBasecallsConverter.Closer) closers.add(task);
+            }
+            pending.clear();
+            return closers;
+        }
     }
 }
@@ -0,0 +1,68 @@
+package picard.illumina;
+
+import htsjdk.samtools.util.SortingCollection;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Holds the output records of one barcode within one tile until they are written.
+ *
+ * Records are kept in a plain list for as long as the tile's RAM budget allows, and the list is only sorted if the
+ * records did not already arrive in comparator order.  Once the owner calls {@link #spill()}, the records move to a
+ * SortingCollection, which sorts and spills to disk as before.  Not thread safe; callers synchronize on the tile.
+ */
+class TileRecordBuffer<REC> implements Iterable<REC> {
+    private final Comparator<REC> comparator;
+    private final Supplier<SortingCollection<REC>> sortingCollectionFactory;
+
+    private List<REC> records = new ArrayList<>();
+    private boolean inOrder = true;
+    private SortingCollection<REC> sortingCollection = null;
+
+    TileRecordBuffer(final Comparator<REC> comparator, final Supplier<SortingCollection<REC>> sortingCollectionFactory) {
+        this.comparator = comparator;
+        this.sortingCollectionFactory = sortingCollectionFactory;
+    }
+
+    void add(final REC record) {
+        if (sortingCollection != null) {
+            sortingCollection.add(record);
+            return;
+        }
+        if (inOrder && !records.isEmpty() && comparator.compare(records.get(records.size() - 1), record) > 0) {
+            inOrder = false;
+        }
+        records.add(record);
+    }
+
+    /** Moves the records into a SortingCollection, which bounds the RAM used by this buffer from here on. */
+    void spill() {
+        if (sortingCollection != null) return;
+        sortingCollection = sortingCollectionFactory.get();
+        records.forEach(sortingCollection::add);
+        records = null;
+    }
+
+    void doneAdding() {
+        if (sortingCollection != null) {
+            sortingCollection.doneAdding();
+        } else if (!inOrder) {
+            records.sort(comparator);
+        }
+    }
+
+    /** May only be called once, after {@link #doneAdding()}. */
+    @Override
+    public Iterator<REC> iterator() {
+        if (sortingCollection != null) {
+            return sortingCollection.iterator();
+        }
+        final Iterator<REC> iterator = records.iterator();
+        records = null;
+        return iterator;
+    }
+}
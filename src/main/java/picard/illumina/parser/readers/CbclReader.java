@@ -15,7 +15,6 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -66,13 +65,18 @@ import java.util.zip.GZIPInputStream;
 public class CbclReader extends BaseBclReader implements CloseableIterator<CbclData> {
 
     private byte[][] cachedTile;
-    private final int[] cachedTilePosition;
+    // All cycles of a tile hold the same clusters, so a single position and count serve every cached cycle
+    private int cachedTilePosition = 0;
+    private int cachedTileClusters = Integer.MAX_VALUE;
+    // Per cycle, the base and quality for each of the 16 possible nibble values
+    private final byte[][] qualityLookup;
 
     private CbclData queue = null;
     private Iterator<AbstractIlluminaPositionFileReader.PositionInfo> positionInfoIterator;
     private final CycleData[] cycleData;
     private final Map<Integer, File> filterFileMap;
-    private final Map<Integer, List<Boolean>> cachedFilter = new HashMap<>();
+    private final Map<Integer, boolean[]> cachedFilter = new HashMap<>();
+    private final Map<Integer, Integer> cachedPfCount = new HashMap<>();
     private final Map<Integer, Map<Integer, File>> surfaceToTileToCbclMap;
     private int headerSize;
     private final Map<Integer, List<TileData>> allTiles = new HashMap<>();
@@ -81,6 +85,16 @@ public class CbclReader extends BaseBclReader implements CloseableIterator<CbclD
     private static final int INITIAL_HEADER_SIZE = 6;
     private static final Log log = Log.getInstance(CbclReader.class);
     private static final Pattern PATTERN = Pattern.compile("^.+C(\\d{1,4}).+L(\\d{1,3})_(\\d).cbcl$");
+    private static final byte[] BASE_LOOKUP = new byte[16];
+    private static final byte NO_QUALITY_BIN = -1;
+
+    static {
+        final byte[] bases = new byte[]{'A', 'C', 'G', 'T'};
+        BASE_LOOKUP[0] = '.';
+        for (int i = 1; i < BASE_LOOKUP.length; i++) {
+            BASE_LOOKUP[i] = bases[i & 0x3];
+        }
+    }
 
     public CbclReader(final List<File> cbcls, final Map<Integer, File> filterFileMap, final int[] outputLengths,
                       final int tileNum, final List<AbstractIlluminaPositionFileReader.PositionInfo> locs, final int[] outputCycles, final boolean headerOnly) {
@@ -94,7 +108,7 @@ public class CbclReader extends BaseBclReader implements CloseableIterator<CbclD
         this.filterFileMap = filterFileMap;
         cycleData = new CycleData[cycles];
         cachedTile = new byte[cycles][];
-        cachedTilePosition = new int[cycles];
+        qualityLookup = new byte[cycles][];
         for (int i = 1; i <= cycles; i++) {
             allTiles.put(i, new ArrayList<>());
         }
@@ -181,6 +195,7 @@ public class CbclReader extends BaseBclReader implements CloseableIterator<CbclD
                     }
 
                     cycleData[i] = new CycleData(version, headerSize, bitsPerBasecall, bitsPerQualityScore, numberOfBins, qualityBins, numTiles, tileInfo, pfExcluded);
+                    qualityLookup[i] = makeQualityLookup(qualityBins);
                     this.streams[i] = stream;
                     this.streamFiles[i] = bclFile;
                     byteBuffer.clear();
@@ -208,6 +223,8 @@ public class CbclReader extends BaseBclReader implements CloseableIterator<CbclD
                             }
                             cacheTile(totalCycleCount, cycleData[totalCycleCount].tileInfo, currentCycleData);
                         }
+                        cachedTileClusters = Math.min(cachedTileClusters,
+                                Math.min(cachedTile[totalCycleCount].length, currentCycleData.tileInfo.numClustersInTile));
                     } catch (final IOException e) {
                         // when logging the error, increment cycle by 1, since totalCycleCount is zero-indexed but Illumina directories are 1-indexed.
                         throw new PicardException(String.format("Error while reading from BCL file for cycle %d. Offending file on disk is %s",
@@ -268,23 +285,26 @@ public class CbclReader extends BaseBclReader implements CloseableIterator<CbclD
     }
 
     private void advance() {
-        int totalCycleCount = 0;
-        final CbclData data = new CbclData(outputLengths, cycleData[totalCycleCount].tileInfo.tileNum);
+        if (cachedTilePosition >= cachedTileClusters) {
+            // end of tile
+            return;
+        }
+        final CbclData data = new CbclData(outputLengths, cycleData[0].tileInfo.tileNum);
+        final int cluster = cachedTilePosition++;
 
+        int totalCycleCount = 0;
         for (int read = 0; read < outputLengths.length; read++) {
+            final byte[] bases = data.bases[read];
+            final byte[] qualities = data.qualities[read];
             for (int cycle = 0; cycle < outputLengths[read]; cycle++) {
-                final CycleData currentCycleData = cycleData[totalCycleCount];
-
-                if (cachedTilePosition[totalCycleCount] >= cachedTile[totalCycleCount].length
-                        || cachedTilePosition[totalCycleCount] >= cycleData[totalCycleCount].getTileInfo().getNumClustersInTile()) {
-                    // end of tile
-                    return;
+                final int nibble = cachedTile[totalCycleCount][cluster];
+                final byte quality = qualityLookup[totalCycleCount][nibble];
+                if (quality == NO_QUALITY_BIN) {
+                    throw new PicardException(String.format("No quality bin for value %d in cycle %d of file %s",
+                            nibble >>> 2, totalCycleCount + 1, this.streamFiles[totalCycleCount].getAbsolutePath()));
                 }
-
-                final int singleByte = cachedTile[totalCycleCount][cachedTilePosition[totalCycleCount]++];
-
-                decodeQualityBinnedBasecall(data, read, cycle, singleByte, currentCycleData);
-
+                bases[cycle] = BASE_LOOKUP[nibble];
+                qualities[cycle] = quality;
                 totalCycleCount++;
             }
         }
@@ -292,24 +312,34 @@ public class CbclReader extends BaseBclReader implements CloseableIterator<CbclD
         this.queue = data;
     }
 
+    /**
+     * Builds the quality for each of the 16 values a basecall nibble can take: zero is a no-call with quality 2,
+     * otherwise the upper two bits select the quality bin.
+     */
+    private static byte[] makeQualityLookup(final byte[] qualityBins) {
+        final byte[] lookup = new byte[16];
+        lookup[0] = 2;
+        for (int i = 1; i < lookup.length; i++) {
+            lookup[i] = (i >>> 2) < qualityBins.length ? qualityBins[i >>> 2] : NO_QUALITY_BIN;
+        }
+        return lookup;
+    }
+
     private void cacheFilterAndLocs(final TileData currentTileData, final List<AbstractIlluminaPositionFileReader.PositionInfo> locs) {
-        final List<Boolean> filterValues = new ArrayList<>();
         final FilterFileReader reader = new FilterFileReader(filterFileMap.get(currentTileData.tileNum));
         final Iterator<AbstractIlluminaPositionFileReader.PositionInfo> positionInfoIterator = locs.iterator();
 
-        while (reader.hasNext()) {
-            filterValues.add(reader.next());
-        }
-
+        final boolean[] filterValues = reader.readRemaining();
         final List<AbstractIlluminaPositionFileReader.PositionInfo> positions = new ArrayList<>();
-        for (final boolean filterValue : filterValues) {
+        for (int i = 0; i < filterValues.length; i++) {
             final AbstractIlluminaPositionFileReader.PositionInfo info = positionInfoIterator.next();
-            if (filterValue) {
+            if (filterValues[i]) {
                 positions.add(info);
             }
         }
         this.positionInfoIterator = positions.iterator();
         cachedFilter.put(currentTileData.tileNum, filterValues);
+        cachedPfCount.put(currentTileData.tileNum, positions.size());
     }
 
     private void cacheTile(final int totalCycleCount, final TileData tileData, final CycleData currentCycleData) throws IOException {
@@ -329,40 +359,28 @@ public class CbclReader extends BaseBclReader implements CloseableIterator<CbclD
         }
 
         // Decompress the data from the buffer we just wrote - use gzip input stream to write to uncompressed buffer
-        final ByteArrayInputStream byteInputStream = new ByteArrayInputStream(Arrays.copyOfRange(tileByteArray, 0, readBytes));
-        byte[] decompressedByteArray = decompressTile(totalCycleCount, tileData, byteInputStream);
-
-        // Read uncompressed data from the buffer and expand each nibble into a full byte for ease of use
-        byte[] unNibbledByteArray = promoteNibblesToBytes(decompressedByteArray);
-        cachedTile[totalCycleCount] = filterNonPfReads(tileData, currentCycleData, unNibbledByteArray);
+        final ByteArrayInputStream byteInputStream = new ByteArrayInputStream(tileByteArray, 0, readBytes);
+        final byte[] decompressedByteArray = decompressTile(totalCycleCount, tileData, byteInputStream);
 
-        cachedTilePosition[totalCycleCount] = 0;
+        // Expand each nibble into a full byte for ease of use, stripping out the nonPF reads in the same pass
+        if (currentCycleData.pfExcluded) {
+            cachedTile[totalCycleCount] = promoteNibblesToBytes(decompressedByteArray);
+        } else {
+            cachedTile[totalCycleCount] = promotePfNibblesToBytes(decompressedByteArray,
+                    cachedFilter.get(tileData.tileNum), cachedPfCount.get(tileData.tileNum));
+        }
     }
 
-    private byte[] filterNonPfReads(TileData tileData, CycleData currentCycleData, byte[] unNibbledByteArray) {
-        // Write buffer contents to cached tile array
-        // if nonPF reads are included we need to strip them out
-        if (!currentCycleData.pfExcluded) {
-            final List<Boolean> filterDatas = cachedFilter.get(tileData.tileNum);
-            int sum = 0;
-            for (final boolean b : filterDatas) {
-                sum += b ? 1 : 0;
+    private byte[] promotePfNibblesToBytes(final byte[] decompressedByteArray, final boolean[] filterValues, final int pfCount) {
+        final byte[] filteredByteArray = new byte[pfCount];
+        int basecallIndex = 0;
+        for (int filterIndex = 0; filterIndex < filterValues.length; filterIndex++) {
+            if (filterValues[filterIndex]) {
+                final byte packed = decompressedByteArray[filterIndex >> 1];
+                filteredByteArray[basecallIndex++] = (byte) ((filterIndex & 1) == 0 ? packed & 0x0f : (packed >> 4) & 0x0f);
             }
-            final byte[] filteredByteArray = new byte[sum];
-            int filterIndex = 0;
-            int basecallIndex = 0;
-            for (final boolean filterData : filterDatas) {
-                final byte readByte = unNibbledByteArray[filterIndex];
-                if (filterData) {
-                    filteredByteArray[basecallIndex] = readByte;
-                    basecallIndex++;
-                }
-                filterIndex++;
-            }
-            return filteredByteArray;
-        } else {
-            return unNibbledByteArray;
         }
+        return filteredByteArray;
     }
 
     private byte[] promoteNibblesToBytes(byte[] decompressedByteArray) {
@@ -28,6 +28,7 @@ import picard.util.UnsignedTypeUtil;
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
 
 /**
  * The clocs file format is one of 3 Illumina formats(pos, locs, and clocs) that stores position data exclusively.
@@ -69,8 +70,11 @@ public class ClocsFileReader extends AbstractIlluminaPositionFileReader {
     /** Total number of bins */
     private final long numBins;
 
-    /** An iterator through clocsFile's bytes */
-    private final BinaryFileIterator<Byte> byteIterator;
+    /** Every byte of clocsFile after the header, read in one call since a clocs file holds a single tile */
+    private final byte[] bytes;
+
+    /** The index in bytes of the next byte to decode */
+    private int byteIndex;
 
     //mutable vars
     private float xOffset;
@@ -82,12 +86,15 @@ public class ClocsFileReader extends AbstractIlluminaPositionFileReader {
     public ClocsFileReader(final File clocsFile) {
         super(clocsFile);
 
-        byteIterator = MMapBackedIteratorFactory.getByteIterator(HEADER_SIZE, clocsFile);
+        final BinaryFileIterator<Byte> byteIterator = MMapBackedIteratorFactory.getByteIterator(HEADER_SIZE, clocsFile);
 
         final ByteBuffer hbs = byteIterator.getHeaderBytes();
         hbs.get(); //unusedByte
         numBins = UnsignedTypeUtil.uIntToLong(hbs.getInt());
 
+        bytes = new byte[(int) byteIterator.getElementsInFile()];
+        byteIterator.readBytes(bytes);
+
         xOffset = 0;
         yOffset = 0;
         currentBin = 0;
@@ -102,8 +109,8 @@ public class ClocsFileReader extends AbstractIlluminaPositionFileReader {
      */
     @Override
     protected PositionInfo unsafeNextInfo() {
-        final byte xByte = byteIterator.next();
-        final byte yByte = byteIterator.next();
+        final byte xByte = nextByte();
+        final byte yByte = nextByte();
 
         final float xPos = UnsignedTypeUtil.uByteToInt(xByte)/10f + xOffset;
         final float yPos = UnsignedTypeUtil.uByteToInt(yByte)/10f + yOffset;
@@ -132,9 +139,17 @@ public class ClocsFileReader extends AbstractIlluminaPositionFileReader {
 
     /** Start the next block by reading it's numBlocks byte and setting the currentBlock index to 0 */
     private void startBlock() {
-        numClustersInBin = UnsignedTypeUtil.uByteToInt(byteIterator.next());
+        numClustersInBin = UnsignedTypeUtil.uByteToInt(nextByte());
         currentClusterInBin = 0;
     }
+
+    private byte nextByte() {
+        if (byteIndex == bytes.length) {
+            throw new NoSuchElementException("Reached the end of clocs file(" + getFile().getAbsolutePath() + ") " +
+                    "before reading the number of expected bins(" + numBins + ")");
+        }
+        return bytes[byteIndex++];
+    }
     
     @Override
     protected String makeExceptionMsg() {
@@ -146,8 +161,8 @@ public class ClocsFileReader extends AbstractIlluminaPositionFileReader {
     @Override
     public boolean hasNext() { 
         boolean valuesRemain = currentClusterInBin < numClustersInBin || currentBin < (numBins -1);
-        if(!valuesRemain && byteIterator.hasNext()) {
-            throw new PicardException("Read the number of expected bins( " + numBins + ") but still had more elements in file( " + byteIterator.getFile().getAbsolutePath() + ") ");
+        if(!valuesRemain && byteIndex < bytes.length) {
+            throw new PicardException("Read the number of expected bins( " + numBins + ") but still had more elements in file( " + getFile().getAbsolutePath() + ") ");
         }
         return valuesRemain;
     }
@@ -29,6 +29,7 @@ import picard.util.UnsignedTypeUtil;
 import java.io.File;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Illumina uses an algorithm described in "Theory of RTA" that determines whether or not a cluster passes filter("PF") or not.
@@ -44,9 +45,17 @@ public class FilterFileReader implements Iterator<Boolean> {
     /** Expected Version */
     public static final int EXPECTED_VERSION = 3;
 
-    /** Iterator over each cluster in the FilterFile */
+    /** The most clusters whose values are read from the file at a time by next() */
+    private static final int CLUSTERS_PER_READ = 1 << 16;
+
+    /** Iterator over each cluster in the FilterFile, read in bulk */
     private final BinaryFileIterator<Byte> bbIterator;
 
+    /** Values read from the file but not yet returned by next(), from valueIndex up to valuesRead */
+    private byte[] values;
+    private int valueIndex;
+    private int valuesRead;
+
     /** Version number found in the FilterFile, this should equal 3 */
     public final int version;
 
@@ -91,8 +100,42 @@ public class FilterFileReader implements Iterator<Boolean> {
     }
 
     public Boolean next() {
-        final byte value = bbIterator.next();
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more clusters in file(" + bbIterator.getFile().getAbsolutePath() + ")");
+        }
+        if (valueIndex == valuesRead) {
+            if (values == null) {
+                values = new byte[(int) Math.min(CLUSTERS_PER_READ, numClusters)];
+            }
+            valuesRead = (int) Math.min(values.length, numClusters - currentCluster);
+            bbIterator.readBytes(values, 0, valuesRead);
+            valueIndex = 0;
+        }
         currentCluster += 1;
+        return isPf(values[valueIndex++], currentCluster);
+    }
+
+    /**
+     * Reads the values of all remaining clusters in one call, e.g. a whole tile from a per-tile filter file.
+     * @return true for each cluster that passed filter
+     */
+    public boolean[] readRemaining() {
+        final boolean[] pf = new boolean[(int) (numClusters - currentCluster)];
+        int i = 0;
+        while (i < pf.length && valueIndex < valuesRead) {
+            currentCluster += 1;
+            pf[i++] = isPf(values[valueIndex++], currentCluster);
+        }
+        final byte[] remaining = new byte[pf.length - i];
+        bbIterator.readBytes(remaining);
+        for (final byte value : remaining) {
+            currentCluster += 1;
+            pf[i++] = isPf(value, currentCluster);
+        }
+        return pf;
+    }
+
+    private boolean isPf(final byte value, final int cluster) {
         if(value == PassedFilter) {
             return true;
         } else if(value == FailedFilter) {
@@ -100,12 +143,15 @@ public class FilterFileReader implements Iterator<Boolean> {
         } else {
             String hexVal = Integer.toHexString(value);
             hexVal = (hexVal.length() < 2 ? "0x0" : "0x") + hexVal;
-            throw new PicardException("Didn't recognized PF Byte (" + hexVal + ")" + " for element (" + currentCluster + ") in file(" + bbIterator.getFile().getAbsolutePath() + ")");
+            throw new PicardException("Didn't recognized PF Byte (" + hexVal + ")" + " for element (" + cluster + ") in file(" + bbIterator.getFile().getAbsolutePath() + ")");
         }
     }
 
     public void skipRecords(final int numToSkip) {
-        bbIterator.skipElements(numToSkip);
+        final int readToSkip = Math.min(numToSkip, valuesRead - valueIndex);
+        valueIndex += readToSkip;
+        bbIterator.skipElements(numToSkip - readToSkip);
+        currentCluster += numToSkip;
     }
 
     public void remove() {
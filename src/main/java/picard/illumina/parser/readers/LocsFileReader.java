@@ -51,10 +51,19 @@ public class LocsFileReader extends AbstractIlluminaPositionFileReader {
     /** The expected version of locs files */
     private static final float VERSION = 1.0f;
 
-    /** An iterator over all of the coordinate values in the file, remember next needs to be called
-     * twice per coordinate pair */
+    /** The most clusters whose coordinates are decoded from the file at a time */
+    private static final int CLUSTERS_PER_READ = 1 << 16;
+
+    /** An iterator over all of the coordinate values in the file, read in bulk into coordinates */
     private BinaryFileIterator<Float> bbIterator;
 
+    /** Interleaved x and y coordinates of the clusters decoded but not yet returned */
+    private float[] coordinates;
+
+    /** The index in coordinates of the next x coordinate, and the number of values decoded into coordinates */
+    private int coordinateIndex;
+    private int coordinatesDecoded;
+
     /** Total clusters in the file as read in the file header */
     private long numClusters;
 
@@ -89,16 +98,27 @@ public class LocsFileReader extends AbstractIlluminaPositionFileReader {
 
         numClusters = UnsignedTypeUtil.uIntToLong(headerBuf.getInt());
         bbIterator.assertTotalElementsEqual(numClusters * 2);
+        coordinates = new float[2 * (int) Math.min(CLUSTERS_PER_READ, numClusters)];
     }
 
     @Override
     protected PositionInfo unsafeNextInfo() {
-        final float xVal = bbIterator.next();
-        final float yVal = bbIterator.next();
+        if (coordinateIndex == coordinatesDecoded) {
+            decodeCoordinates();
+        }
+        final float xVal = coordinates[coordinateIndex++];
+        final float yVal = coordinates[coordinateIndex++];
         ++nextCluster;
         return new PositionInfo(xVal, yVal, getLane(), getTile());
     }
 
+    /** Decodes the coordinates of as many of the following clusters as fit in the coordinates array in one read */
+    private void decodeCoordinates() {
+        coordinatesDecoded = 2 * (int) Math.min(coordinates.length / 2, numClusters - nextCluster);
+        bbIterator.readFloats(coordinates, 0, coordinatesDecoded);
+        coordinateIndex = 0;
+    }
+
     @Override
     protected String makeExceptionMsg() {
         return "LocsFileReader(file=" + getFile().getAbsolutePath() + ", numClusters=" + numClusters + ") ";
@@ -111,9 +131,13 @@ public class LocsFileReader extends AbstractIlluminaPositionFileReader {
 
     public void close() {
         bbIterator = null;
+        coordinates = null;
     }
 
     public void skipRecords(final int numToSkip) {
-        bbIterator.skipElements(numToSkip * 2);
+        final int decodedToSkip = Math.min(numToSkip, (coordinatesDecoded - coordinateIndex) / 2);
+        coordinateIndex += decodedToSkip * 2;
+        bbIterator.skipElements((numToSkip - decodedToSkip) * 2);
+        nextCluster += numToSkip;
     }
 }
@@ -148,6 +148,36 @@ public class MMapBackedIteratorFactory {
             buffer.position(buffer.position() + (numElements * elementSize));
         }
 
+        public void readBytes(final byte[] dst, final int offset, final int length) {
+            checkRemaining(length, BYTE_SIZE);
+            buffer.get(dst, offset, length);
+        }
+
+        public void readInts(final int[] dst, final int offset, final int length) {
+            checkRemaining(length, INT_SIZE);
+            buffer.asIntBuffer().get(dst, offset, length);
+            buffer.position(buffer.position() + length * INT_SIZE);
+        }
+
+        public void readFloats(final float[] dst, final int offset, final int length) {
+            checkRemaining(length, FLOAT_SIZE);
+            buffer.asFloatBuffer().get(dst, offset, length);
+            buffer.position(buffer.position() + length * FLOAT_SIZE);
+        }
+
+        public void readLongs(final long[] dst, final int offset, final int length) {
+            checkRemaining(length, LONG_SIZE);
+            buffer.asLongBuffer().get(dst, offset, length);
+            buffer.position(buffer.position() + length * LONG_SIZE);
+        }
+
+        private void checkRemaining(final int length, final int valueSize) {
+            if ((long) length * valueSize > buffer.remaining()) {
+                throw new NoSuchElementException("Requested " + length + " values of " + valueSize + " bytes but only " +
+                        buffer.remaining() + " bytes remain in file(" + file.getAbsolutePath() + ")");
+            }
+        }
+
         /** The method that actually retrieves the data from the enclosing buffer */
         protected abstract TYPE getElement();
 
@@ -288,10 +318,41 @@ abstract class BinaryFileIterator<TYPE> implements Iterator<TYPE>, Iterable<TYPE
         return this;
     }
 
+    /** Reads dst.length bytes into dst; see {@link #readBytes(byte[], int, int)} */
+    public void readBytes(final byte[] dst) {
+        readBytes(dst, 0, dst.length);
+    }
+
+    /** Reads dst.length ints into dst; see {@link #readInts(int[], int, int)} */
+    public void readInts(final int[] dst) {
+        readInts(dst, 0, dst.length);
+    }
+
+    /** Reads dst.length floats into dst; see {@link #readFloats(float[], int, int)} */
+    public void readFloats(final float[] dst) {
+        readFloats(dst, 0, dst.length);
+    }
+
+    /** Reads dst.length longs into dst; see {@link #readLongs(long[], int, int)} */
+    public void readLongs(final long[] dst) {
+        readLongs(dst, 0, dst.length);
+    }
+
     /** The method that actually retrieves the data from the enclosing buffer */
     protected abstract TYPE getElement();
     public abstract void skipElements(final int numElementsToSkip);
     public abstract boolean hasNext();
+
+    /**
+     * The bulk read methods below copy the next length values straight out of the file into dst, starting at offset,
+     * and advance past them, without boxing.  They read the raw little endian values whatever TYPE is, so callers
+     * should keep reads of a size that divides evenly into the element size if they also use next().
+     * A NoSuchElementException is thrown, and nothing is read, if fewer than length values remain.
+     */
+    public abstract void readBytes(final byte[] dst, final int offset, final int length);
+    public abstract void readInts(final int[] dst, final int offset, final int length);
+    public abstract void readFloats(final float[] dst, final int offset, final int length);
+    public abstract void readLongs(final long[] dst, final int offset, final int length);
 }
 
 
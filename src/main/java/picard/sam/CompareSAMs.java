@@ -98,6 +98,9 @@ public class CompareSAMs extends CommandLineProgram {
     @ArgumentCollection
     public SAMComparisonArgumentCollection samComparisonArgumentCollection = new SAMComparisonArgumentCollection();
 
+    @Argument(doc = "The number of threads to use when comparing alignments.  If both inputs are coordinate sorted and indexed, " +
+            "the alignments on each contig are compared in parallel.")
+    public int NUM_THREADS = 1;
 
 
     /**
@@ -113,8 +116,8 @@ public class CompareSAMs extends CommandLineProgram {
         try (final SamReader samReader1 = samReaderFactory.open(SAM_FILES.get(0));
              final SamReader samReader2 = samReaderFactory.open(SAM_FILES.get(1)))
         {
-            final SamComparison comparison = new SamComparison(samReader1, samReader2,
-                    SAM_FILES.get(0).getAbsolutePath(), SAM_FILES.get(1).getAbsolutePath(), samComparisonArgumentCollection);
+            final SamComparison comparison = new SamComparison(samReader1, samReader2, SAM_FILES.get(0), SAM_FILES.get(1),
+                    samReaderFactory, samComparisonArgumentCollection, NUM_THREADS);
             if (OUTPUT != null) {
                 comparison.writeReport(OUTPUT, getDefaultHeaders());
             }
@@ -39,6 +39,7 @@ import org.broadinstitute.barclay.help.DocumentedFeature;
 import picard.cmdline.CommandLineProgram;
 import picard.cmdline.StandardOptionDefinitions;
 import picard.cmdline.programgroups.ReadDataManipulationProgramGroup;
+import picard.filter.CompactReadNameFilter;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -287,6 +288,73 @@ public class FilterSamReads extends CommandLineProgram {
         return IntervalList.fromFile(intervalFile).getIntervals();
     }
 
+    /**
+     * Returns an iterator over the reads that overlap the intervals, and their mates.  When the input is indexed only
+     * the merged intervals are read, followed by a second query that also covers the positions of mates that lie
+     * outside of them; otherwise the whole input is streamed through the filter.
+     */
+    private FilteringSamIterator pairedIntervalsIterator(final SamReader samReader, final List<Interval> intervals) {
+        final IntervalKeepPairFilter filter = new IntervalKeepPairFilter(intervals);
+        final SAMFileHeader header = samReader.getFileHeader();
+        if (!samReader.hasIndex() || header.getSortOrder() != SAMFileHeader.SortOrder.coordinate) {
+            return new FilteringSamIterator(samReader.iterator(), filter);
+        }
+
+        final SAMSequenceDictionary dictionary = header.getSequenceDictionary();
+        final List<QueryInterval> queryIntervals = new ArrayList<>(intervals.size());
+        for (final Interval interval : intervals) {
+            final int sequenceIndex = dictionary.getSequenceIndex(interval.getContig());
+            if (sequenceIndex != -1) {
+                queryIntervals.add(new QueryInterval(sequenceIndex, interval.getStart(), interval.getEnd()));
+            }
+        }
+        final QueryInterval[] targets = QueryInterval.optimizeIntervals(queryIntervals.toArray(new QueryInterval[0]));
+
+        if (targets.length == 0) {
+            return new FilteringSamIterator(Collections.emptyIterator(), filter);
+        }
+
+        // A mate starting outside of the targets is only found by the second query if its start is included in it.
+        // An unmapped mate is placed at the start of its mapped read, which may itself begin before the targets.
+        final List<QueryInterval> mateIntervals = new ArrayList<>(Arrays.asList(targets));
+        try (final SAMRecordIterator iterator = samReader.query(targets, false)) {
+            while (iterator.hasNext()) {
+                final SAMRecord rec = iterator.next();
+                if (filter.filterOut(rec)) continue;
+                final boolean placedMate = rec.getMateUnmappedFlag();
+                final int mateReferenceIndex = placedMate ? rec.getReferenceIndex() : rec.getMateReferenceIndex();
+                final int mateStart = placedMate ? rec.getAlignmentStart() : rec.getMateAlignmentStart();
+                if (mateReferenceIndex != SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX && !overlapsAny(targets, mateReferenceIndex, mateStart)) {
+                    mateIntervals.add(new QueryInterval(mateReferenceIndex, mateStart, mateStart));
+                }
+            }
+        }
+        log.info("Querying " + targets.length + " merged intervals and " + (mateIntervals.size() - targets.length) +
+                " mate positions outside of them.");
+
+        return new FilteringSamIterator(samReader.query(QueryInterval.optimizeIntervals(
+                mateIntervals.toArray(new QueryInterval[0])), false), filter);
+    }
+
+    /** Returns true if the position lies within one of the sorted, non-overlapping intervals. */
+    private static boolean overlapsAny(final QueryInterval[] intervals, final int referenceIndex, final int position) {
+        int low = 0;
+        int high = intervals.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final QueryInterval interval = intervals[mid];
+            if (interval.referenceIndex < referenceIndex ||
+                    (interval.referenceIndex == referenceIndex && interval.end != -1 && interval.end < position)) {
+                low = mid + 1;
+            } else if (interval.referenceIndex > referenceIndex || interval.start > position) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     protected int doWork() {
 
@@ -314,11 +382,11 @@ public class FilterSamReads extends CommandLineProgram {
                     break;
                 case includeReadList:
                     filteringIterator = new FilteringSamIterator(samReader.iterator(),
-                            new ReadNameFilter(READ_LIST_FILE, true));
+                            new CompactReadNameFilter(READ_LIST_FILE, true));
                     break;
                 case excludeReadList:
                     filteringIterator = new FilteringSamIterator(samReader.iterator(),
-                            new ReadNameFilter(READ_LIST_FILE, false));
+                            new CompactReadNameFilter(READ_LIST_FILE, false));
                     break;
                 case includeJavascript:
                     filteringIterator = new FilteringSamIterator(samReader.iterator(),
@@ -327,8 +395,7 @@ public class FilterSamReads extends CommandLineProgram {
                                     samReader.getFileHeader()));
                     break;
                 case includePairedIntervals:
-                    filteringIterator = new FilteringSamIterator(samReader.iterator(),
-                            new IntervalKeepPairFilter(getIntervalList(INTERVAL_LIST)));
+                    filteringIterator = pairedIntervalsIterator(samReader, getIntervalList(INTERVAL_LIST));
                     break;
                 case includeTagValues:
                     filteringIterator = new FilteringSamIterator(samReader.iterator(),
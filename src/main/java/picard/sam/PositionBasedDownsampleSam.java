@@ -36,12 +36,17 @@ import picard.cmdline.programgroups.ReadDataManipulationProgramGroup;
 import picard.sam.markduplicates.MarkDuplicates;
 import picard.sam.util.PhysicalLocationInt;
 import picard.sam.util.ReadNameParser;
+import picard.util.TabbedTextFileWithHeaderParser;
+import picard.util.ThreadPoolExecutorWithExceptions;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 
 
 /**
@@ -63,7 +68,9 @@ import java.util.Map;
  * By default the program expects the read names to have 5 or 7 fields separated by colons (:), and it takes the last two
  * to indicate the x and y coordinates of the reads within the tile whence it was sequenced. See
  * {@link ReadNameParser#DEFAULT_READ_NAME_REGEX} for more detail. The program traverses the {@link #INPUT} twice: first
- * to find out the size of each of the tiles, and next to perform the downsampling.
+ * to find out the size of each of the tiles, and next to perform the downsampling. The first pass can be run on several
+ * threads if the input is indexed (see {@link #NUM_THREADS}), or skipped if the size of each tile is already known (see
+ * {@link #TILE_EXTENTS}).
  *
  * Downsampling invalidates the duplicate flag because duplicate reads before downsampling may not all remain duplicated
  * after downsampling. Thus, the default setting also removes the duplicate information.
@@ -122,6 +129,8 @@ import java.util.Map;
               "to indicate the x and y coordinates of the reads within the tile whence it was sequenced. See " +
               "DEFAULT_READ_NAME_REGEX for more detail. The program traverses the INPUT twice: first " +
               "to find out the size of each of the tiles, and next to perform the downsampling. " +
+              "The first pass can be run on several threads if the input is indexed (see NUM_THREADS), or skipped if the " +
+              "size of each tile is already known (see TILE_EXTENTS). " +
               "Downsampling invalidates the duplicate flag because duplicate reads before downsampling " +
               "may not all remain duplicated after downsampling. Thus, the default setting also removes the duplicate information. " +
               "\n\n" +
@@ -190,6 +199,16 @@ public class PositionBasedDownsampleSam extends CommandLineProgram {
     @Argument(doc = "Allow downsampling again despite this being a bad idea with possibly unexpected results.", optional = true)
     public boolean ALLOW_MULTIPLE_DOWNSAMPLING_DESPITE_WARNINGS = false;
 
+    @Argument(doc = "A tab-delimited file with a header line and the columns TILE, MIN_X, MAX_X, MIN_Y and MAX_Y, giving the " +
+            "range of the x and y coordinates of the clusters in each tile, for example as derived from the flowcell's locs or " +
+            "clocs files.  If provided, these are used as is, and the first pass over the INPUT, which estimates them from the " +
+            "reads, is skipped.", optional = true)
+    public File TILE_EXTENTS = null;
+
+    @Argument(doc = "The number of threads to use in the first pass over the INPUT.  Only used if the INPUT is indexed, in which " +
+            "case the reads on each contig are examined in parallel, and STOP_AFTER is not set.")
+    public int NUM_THREADS = 1;
+
     private final Log log = Log.getInstance(PositionBasedDownsampleSam.class);
 
     private ReadNameParser readNameParser;
@@ -206,10 +225,6 @@ public class PositionBasedDownsampleSam extends CommandLineProgram {
 
     final private Map<Short, Coord> tileCoord = new CollectionUtil.DefaultingMap<>(defaultingMapFactory, true);
 
-
-    final Map<Short, Histogram<Short>> xPositions = new HashMap<>();
-    final Map<Short, Histogram<Short>> yPositions = new HashMap<>();
-
     @Override
     protected String[] customCommandLineValidation() {
         final List<String> errors = new ArrayList<>();
@@ -218,6 +233,10 @@ public class PositionBasedDownsampleSam extends CommandLineProgram {
             errors.add("FRACTION must be a value between 0 and 1, found: " + FRACTION);
         }
 
+        if (NUM_THREADS < 1) {
+            errors.add("NUM_THREADS must be at least 1, found: " + NUM_THREADS);
+        }
+
         if (!errors.isEmpty())
             return errors.toArray(new String[errors.size()]);
 
@@ -235,9 +254,14 @@ public class PositionBasedDownsampleSam extends CommandLineProgram {
 
         readNameParser = new ReadNameParser(READ_NAME_REGEX);
 
-        log.info("Starting first pass. Examining read distribution in tiles.");
-        fillTileMinMaxCoord();
-        log.info("First pass done.");
+        if (TILE_EXTENTS != null) {
+            log.info("Reading tile extents from " + TILE_EXTENTS + ", skipping the first pass.");
+            readTileExtents();
+        } else {
+            log.info("Starting first pass. Examining read distribution in tiles.");
+            fillTileMinMaxCoord();
+            log.info("First pass done.");
+        }
 
         log.info("Starting second pass. Outputting reads.");
         outputSamRecords();
@@ -275,13 +299,10 @@ public class PositionBasedDownsampleSam extends CommandLineProgram {
 
             total++;
 
-            final PhysicalLocationInt pos = getSamRecordLocation(rec);
+            final PhysicalLocationInt pos = getSamRecordLocation(rec, readNameParser);
 
-            if (!xPositions.containsKey(pos.getTile())) {
-                xPositions.put(pos.getTile(), new Histogram<>(pos.getTile() + "-xpos", "count"));
-            }
-            if (!yPositions.containsKey(pos.getTile())) {
-                yPositions.put(pos.getTile(), new Histogram<>(pos.getTile() + "-ypos", "count"));
+            if (TILE_EXTENTS != null && !tileCoord.containsKey(pos.getTile())) {
+                throw new PicardException("Read " + rec.getReadName() + " is from tile " + pos.getTile() + ", which was not found in " + TILE_EXTENTS);
             }
 
             final boolean keepRecord = selector.select(pos, tileCoord.get(pos.getTile()));
@@ -326,16 +347,89 @@ public class PositionBasedDownsampleSam extends CommandLineProgram {
 
         final SamReader in = SamReaderFactory.makeDefault().referenceSequence(REFERENCE_SEQUENCE).open(INPUT);
 
-        final ProgressLogger progress = new ProgressLogger(log, (int) 1e7, "Read");
+        if (NUM_THREADS > 1 && STOP_AFTER == null && in.hasIndex()) {
+            fillTileMinMaxCoordByContig(in.getFileHeader().getSequenceDictionary().size());
+        } else {
+            final ProgressLogger progress = new ProgressLogger(log, (int) 1e7, "Read");
+            try (final CloseableIterator<SAMRecord> iterator = in.iterator()) {
+                accumulateTileMinMaxCoord(iterator, tileCoord, readNameParser, progress);
+            }
+        }
+
+        // now that we know what the maximal/minimal numbers were, we should increase/decrease them a little, to account for sampling error
+        for (final Coord coord : tileCoord.values()) {
+
+            final int diffX = coord.maxX - coord.minX;
+            final int diffY = coord.maxY - coord.minY;
+
+            coord.maxX += diffX / coord.count;
+            coord.minX -= diffX / coord.count;
+
+            coord.maxY += diffY / coord.count;
+            coord.minY -= diffY / coord.count;
+        }
+
+        CloserUtil.close(in);
+    }
+
+    /**
+     * Examines the reads on each contig (and the reads without a reference) on a separate reader and in parallel, and then
+     * combines the coordinate ranges found for each tile.
+     */
+    private void fillTileMinMaxCoordByContig(final int numContigs) {
+        final ExecutorService executor = new ThreadPoolExecutorWithExceptions(NUM_THREADS);
+        final ExecutorCompletionService<Map<Short, Coord>> executorCompletionService = new ExecutorCompletionService<>(executor);
+
+        // a contig index of -1 denotes the reads without a reference
+        for (int contig = -1; contig < numContigs; contig++) {
+            final int contigIndex = contig;
+            executorCompletionService.submit(() -> {
+                final Map<Short, Coord> contigTileCoord = new CollectionUtil.DefaultingMap<>(defaultingMapFactory, true);
+                try (final SamReader in = SamReaderFactory.makeDefault().referenceSequence(REFERENCE_SEQUENCE).open(INPUT);
+                     final CloseableIterator<SAMRecord> iterator = contigIndex == -1 ? in.queryUnmapped() :
+                             in.queryOverlapping(new QueryInterval[]{new QueryInterval(contigIndex, 1, -1)})) {
+                    // the parser keeps state, so each thread needs its own
+                    accumulateTileMinMaxCoord(iterator, contigTileCoord, new ReadNameParser(READ_NAME_REGEX), null);
+                }
+                return contigTileCoord;
+            });
+        }
+        executor.shutdown();
+
+        for (int i = -1; i < numContigs; i++) {
+            final Map<Short, Coord> contigTileCoord;
+            try {
+                contigTileCoord = executorCompletionService.take().get();
+            } catch (InterruptedException | ExecutionException e) {
+                executor.shutdownNow();
+                throw new PicardException("Failed to examine read distribution in tiles", e);
+            }
+            for (final Map.Entry<Short, Coord> entry : contigTileCoord.entrySet()) {
+                final Coord pos = tileCoord.get(entry.getKey());
+                final Coord contigPos = entry.getValue();
+
+                pos.maxX = Math.max(pos.maxX, contigPos.maxX);
+                pos.minX = Math.min(pos.minX, contigPos.minX);
+
+                pos.maxY = Math.max(pos.maxY, contigPos.maxY);
+                pos.minY = Math.min(pos.minY, contigPos.minY);
+
+                pos.count += contigPos.count;
+            }
+        }
+    }
 
+    private void accumulateTileMinMaxCoord(final Iterator<SAMRecord> iterator, final Map<Short, Coord> tileCoord,
+                                           final ReadNameParser readNameParser, final ProgressLogger progress) {
         int total = 0;
 
-        for (final SAMRecord rec : in) {
+        while (iterator.hasNext()) {
+            final SAMRecord rec = iterator.next();
             if (STOP_AFTER != null && total >= STOP_AFTER) break;
 
             total++;
-            progress.record(rec);
-            final PhysicalLocationInt location = getSamRecordLocation(rec);
+            if (progress != null) progress.record(rec);
+            final PhysicalLocationInt location = getSamRecordLocation(rec, readNameParser);
 
             //Defaulting map will create a new Coord if it's not there.
 
@@ -348,26 +442,29 @@ public class PositionBasedDownsampleSam extends CommandLineProgram {
             Pos.minY = Math.min(Pos.minY, location.getY());
 
             Pos.count++;
-
         }
+    }
 
-        // now that we know what the maximal/minimal numbers were, we should increase/decrease them a little, to account for sampling error
-        for (final Coord coord : tileCoord.values()) {
-
-            final int diffX = coord.maxX - coord.minX;
-            final int diffY = coord.maxY - coord.minY;
-
-            coord.maxX += diffX / coord.count;
-            coord.minX -= diffX / coord.count;
-
-            coord.maxY += diffY / coord.count;
-            coord.minY -= diffY / coord.count;
+    // read the coordinate ranges of the tiles from TILE_EXTENTS, instead of estimating them from the reads.
+    private void readTileExtents() {
+        IOUtil.assertFileIsReadable(TILE_EXTENTS);
+        final TabbedTextFileWithHeaderParser parser = new TabbedTextFileWithHeaderParser(TILE_EXTENTS);
+        for (final String column : new String[]{"TILE", "MIN_X", "MAX_X", "MIN_Y", "MAX_Y"}) {
+            if (!parser.hasColumn(column)) {
+                throw new PicardException("TILE_EXTENTS file " + TILE_EXTENTS + " is missing the column " + column);
+            }
         }
-
-        CloserUtil.close(in);
+        for (final TabbedTextFileWithHeaderParser.Row row : parser) {
+            final Coord coord = tileCoord.get(row.getIntegerField("TILE").shortValue());
+            coord.minX = row.getIntegerField("MIN_X");
+            coord.maxX = row.getIntegerField("MAX_X");
+            coord.minY = row.getIntegerField("MIN_Y");
+            coord.maxY = row.getIntegerField("MAX_Y");
+        }
+        CloserUtil.close(parser);
     }
 
-    private PhysicalLocationInt getSamRecordLocation(final SAMRecord rec) {
+    private static PhysicalLocationInt getSamRecordLocation(final SAMRecord rec, final ReadNameParser readNameParser) {
         final PhysicalLocationInt pos = new PhysicalLocationInt();
         readNameParser.addLocationInformation(rec.getReadName(), pos);
         return pos;
@@ -62,7 +62,7 @@ public abstract class AbstractOpticalDuplicateFinderCommandLineProgram extends C
 
     @Argument(doc = "This number is the maximum size of a set of duplicate reads for which we will attempt to determine " +
             "which are optical duplicates.  Please be aware that if you raise this value too high and do encounter a very " +
-            "large set of duplicate reads, it will severely affect the runtime of this tool.  To completely disable this check, " +
+            "large set of duplicate reads, it will affect the runtime and memory usage of this tool.  To completely disable this check, " +
             "set the value to -1.")
     public long MAX_OPTICAL_DUPLICATE_SET_SIZE = OpticalDuplicateFinder.DEFAULT_MAX_DUPLICATE_SET_SIZE;
 
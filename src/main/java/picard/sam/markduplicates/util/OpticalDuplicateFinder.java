@@ -28,7 +28,6 @@ import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.ProgressLogger;
 import picard.sam.util.PhysicalLocation;
 import picard.sam.util.ReadNameParser;
-import picard.util.GraphUtils;
 
 import java.io.Serializable;
 import java.util.*;
@@ -45,7 +44,7 @@ public class OpticalDuplicateFinder extends ReadNameParser implements Serializab
 
     public static final int DEFAULT_OPTICAL_DUPLICATE_DISTANCE = 100;
     public static final int DEFAULT_BIG_DUPLICATE_SET_SIZE = 1000;
-    public static final int DEFAULT_MAX_DUPLICATE_SET_SIZE = 300000; // larger than this number will generate over 100 billion comparisons in the n^2 algorithm below
+    public static final int DEFAULT_MAX_DUPLICATE_SET_SIZE = 300000; // a safety limit; the grid-based clustering below is close to linear in the set size
 
     private int bigDuplicateSetSize = DEFAULT_BIG_DUPLICATE_SET_SIZE;
     private long maxDuplicateSetSize = DEFAULT_MAX_DUPLICATE_SET_SIZE;
@@ -64,13 +63,10 @@ public class OpticalDuplicateFinder extends ReadNameParser implements Serializab
      * Sets the size of a set that is too big to process.
      * Defaults to {@value picard.sam.markduplicates.util.OpticalDuplicateFinder#DEFAULT_MAX_DUPLICATE_SET_SIZE}
      *
-     * @param maxDuplicateSetSize the size of a set that is too big enough to process
+     * @param maxDuplicateSetSize the size of a set that is too big enough to process, or a value less than 1 for no limit
      */
     public void setMaxDuplicateSetSize(final long maxDuplicateSetSize) {
-        if (maxDuplicateSetSize < 1) {
-            this.maxDuplicateSetSize = Long.MAX_VALUE;
-        }
-        this.maxDuplicateSetSize = maxDuplicateSetSize;
+        this.maxDuplicateSetSize = maxDuplicateSetSize < 1 ? Long.MAX_VALUE : maxDuplicateSetSize;
     }
 
     /**
@@ -96,13 +92,13 @@ public class OpticalDuplicateFinder extends ReadNameParser implements Serializab
     /**
      * @param readNameRegex                 see {@link ReadNameParser#DEFAULT_READ_NAME_REGEX}.
      * @param opticalDuplicatePixelDistance the optical duplicate pixel distance
-     * @param maxDuplicateSetSize           the size of a set that is too big enough to process
+     * @param maxDuplicateSetSize           the size of a set that is too big enough to process, or a value less than 1 for no limit
      * @param log                           the log to which to write messages.
      */
     public OpticalDuplicateFinder(final String readNameRegex, final int opticalDuplicatePixelDistance, final long maxDuplicateSetSize, final Log log) {
         super(readNameRegex, log);
         this.opticalDuplicatePixelDistance = opticalDuplicatePixelDistance;
-        this.maxDuplicateSetSize = maxDuplicateSetSize;
+        setMaxDuplicateSetSize(maxDuplicateSetSize);
     }
 
     /**
@@ -123,7 +119,7 @@ public class OpticalDuplicateFinder extends ReadNameParser implements Serializab
         final boolean[] opticalDuplicateFlags = new boolean[length];
 
         // If there is only one or zero reads passed in (so there are obviously no optical duplicates),
-        // or if there are too many reads (so we don't want to try to run this expensive n^2 algorithm),
+        // or if there are too many reads (so we don't want to try to run this expensive algorithm),
         // then just return an array of all false
         if (this.readNameRegex == null || length < 2 || length > maxDuplicateSetSize) {
             return opticalDuplicateFlags;
@@ -204,14 +200,14 @@ public class OpticalDuplicateFinder extends ReadNameParser implements Serializab
      * Compute the optical duplicates correctly in the case where the duplicate group could end up with transitive optical duplicates
      */
     private boolean[] getOpticalDuplicatesFlagWithGraph(List<? extends PhysicalLocation> list, PhysicalLocation keeper, boolean[] opticalDuplicateFlags, Log log, ProgressLogger progressLoggerForKeeper, ProgressLogger progressLoggerForRest, boolean logProgress) {
-        // Make a graph where the edges are reads that lie within the optical duplicate pixel distance from each other,
-        // we will then use the union-find algorithm to cluster the graph and find optical duplicate groups
-        final GraphUtils.Graph<Integer> opticalDistanceRelationGraph = new GraphUtils.Graph<>();
+        // Cluster the reads that lie within the optical duplicate pixel distance from each other (transitively), using
+        // the union-find algorithm over read indices, to find optical duplicate groups
         if (logProgress) {
             log.debug("Building adjacency graph for duplicate group");
         }
 
         final Map<Integer, List<Integer>> tileRGmap = new HashMap<>();
+        final int[] opticalDuplicateClusters = new int[list.size()];
 
         int keeperIndex = -1;
         for (int i = 0; i < list.size(); i++) {
@@ -230,14 +226,13 @@ public class OpticalDuplicateFinder extends ReadNameParser implements Serializab
                     tileRGmap.put(key, pLocation);
                 }
             }
-            opticalDistanceRelationGraph.addNode(i);
+            opticalDuplicateClusters[i] = i;
         }
 
-        // Since because finding adjacent optical duplicates is an O(n^2) operation, we can subdivide the input into its
-        // readgroups in order to reduce the amount of redundant checks across readgroups between reads.
+        // Reads can only be optical duplicates of reads in the same readgroup and tile, so cluster each of those separately
         for (List<Integer> tileGroup : tileRGmap.values()) {
             if (tileGroup.size() > 1) {
-                fillGraphFromAGroup(list, tileGroup, logProgress, progressLoggerForKeeper,  this.opticalDuplicatePixelDistance, opticalDistanceRelationGraph);
+                clusterAGroup(list, tileGroup, logProgress, progressLoggerForKeeper, this.opticalDuplicatePixelDistance, opticalDuplicateClusters);
             }
         }
 
@@ -245,21 +240,19 @@ public class OpticalDuplicateFinder extends ReadNameParser implements Serializab
             log.debug("Finished building adjacency graph for duplicate group, moving onto clustering");
         }
 
-        // Keep a map of the reads and their cluster assignments
-        final Map<Integer, Integer> opticalDuplicateClusterMap = opticalDistanceRelationGraph.cluster();
+        // Keep a map of the clusters and their representative reads
         final Map<Integer, Integer> clusterToRepresentativeRead = new HashMap<>();
         Integer keeperCluster = null;
 
         // Specially mark the keeper as specifically not a duplicate if it exists
         if (keeperIndex >= 0) {
-            clusterToRepresentativeRead.put(opticalDuplicateClusterMap.get(keeperIndex), keeperIndex);
-            keeperCluster = opticalDuplicateClusterMap.get(keeperIndex);
+            keeperCluster = findCluster(opticalDuplicateClusters, keeperIndex);
+            clusterToRepresentativeRead.put(keeperCluster, keeperIndex);
         }
 
-        for (final Map.Entry<Integer, Integer> entry : opticalDuplicateClusterMap.entrySet()) {
+        for (int recordIndex = 0; recordIndex < list.size(); recordIndex++) {
             // logging here for same reason as above
-            final int recordIndex = entry.getKey();
-            final int recordAssignedCluster = entry.getValue();
+            final int recordAssignedCluster = findCluster(opticalDuplicateClusters, recordIndex);
             if (logProgress) {
                 progressLoggerForRest.record(String.format("%d", list.get(recordIndex).getReadGroup()), list.get(recordIndex).getX());
             }
@@ -287,11 +280,20 @@ public class OpticalDuplicateFinder extends ReadNameParser implements Serializab
         return opticalDuplicateFlags;
     }
 
-    private void fillGraphFromAGroup(final List<? extends PhysicalLocation> wholeList, final List<Integer> groupList, final boolean logProgress, final ProgressLogger progressLoggerForKeeper, final int distance, final GraphUtils.Graph<Integer> opticalDistanceRelationGraph) {
+    /**
+     * Joins the clusters of all reads within the group that lie within the given distance of each other.
+     *
+     * Rather than comparing all pairs of reads, the reads are binned into a uniform grid whose cells are distance pixels
+     * wide, so that any two reads in the same cell are close enough, and any two reads that are close enough lie in the
+     * same or adjacent cells.  Each cell is therefore a single cluster, and we only have to compare reads across adjacent
+     * cells that are not already in the same cluster, which makes this close to linear in the size of the group.
+     */
+    private void clusterAGroup(final List<? extends PhysicalLocation> wholeList, final List<Integer> groupList, final boolean logProgress, final ProgressLogger progressLoggerForKeeper, final int distance, final int[] opticalDuplicateClusters) {
+        final int cellSize = Math.max(distance, 1);
+        final Map<Long, List<Integer>> cells = new LinkedHashMap<>();
 
-        for (int i = 0; i < groupList.size(); i++) {
-            final int iIndex = groupList.get(i);
-            final PhysicalLocation currentLoc = wholeList.get(iIndex);
+        for (final int index : groupList) {
+            final PhysicalLocation currentLoc = wholeList.get(index);
             // The main point of adding this log and if statement (also below) is a workaround a bug in the JVM
             // which causes a deep exception (https://github.com/broadinstitute/picard/issues/472).
             // It seems that this is related to https://bugs.openjdk.java.net/browse/JDK-8033717 which
@@ -303,17 +305,69 @@ public class OpticalDuplicateFinder extends ReadNameParser implements Serializab
                 progressLoggerForKeeper.record(String.format("%d", currentLoc.getReadGroup()), currentLoc.getX());
             }
 
-            for (int j = i + 1; j < groupList.size(); j++) {
-                final int jIndex = groupList.get(j);
-                final PhysicalLocation other = wholeList.get(jIndex);
+            final List<Integer> cell = cells.computeIfAbsent(cellKey(Math.floorDiv(currentLoc.getX(), cellSize), Math.floorDiv(currentLoc.getY(), cellSize)), k -> new ArrayList<>());
+            if (!cell.isEmpty()) {
+                joinClusters(opticalDuplicateClusters, cell.get(0), index);
+            }
+            cell.add(index);
+        }
+
+        // Visit each pair of adjacent cells once, by only looking at the neighbours "after" each cell
+        for (final Map.Entry<Long, List<Integer>> entry : cells.entrySet()) {
+            final int cellX = (int) (entry.getKey() >> 32);
+            final int cellY = (int) (long) entry.getKey();
+            final List<Integer> cell = entry.getValue();
+            for (final int[] offset : FORWARD_NEIGHBOUR_OFFSETS) {
+                final List<Integer> neighbour = cells.get(cellKey(cellX + offset[0], cellY + offset[1]));
+                if (neighbour != null) {
+                    joinIfAnyCloseEnough(wholeList, cell, neighbour, distance, opticalDuplicateClusters);
+                }
+            }
+        }
+    }
+
+    /** The offsets of the adjacent grid cells such that each pair of adjacent cells is visited exactly once. */
+    private static final int[][] FORWARD_NEIGHBOUR_OFFSETS = {{1, -1}, {1, 0}, {1, 1}, {0, 1}};
 
-                if (closeEnoughShort(currentLoc, other, distance)) {
-                    opticalDistanceRelationGraph.addEdge(iIndex, jIndex);
+    private static long cellKey(final int cellX, final int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+
+    /** Since each cell is a single cluster, one pair of close enough reads is sufficient to join the two cells. */
+    private void joinIfAnyCloseEnough(final List<? extends PhysicalLocation> wholeList, final List<Integer> cell, final List<Integer> neighbour, final int distance, final int[] opticalDuplicateClusters) {
+        if (findCluster(opticalDuplicateClusters, cell.get(0)) == findCluster(opticalDuplicateClusters, neighbour.get(0))) return;
+        for (final int i : cell) {
+            final PhysicalLocation currentLoc = wholeList.get(i);
+            for (final int j : neighbour) {
+                if (closeEnoughShort(currentLoc, wholeList.get(j), distance)) {
+                    joinClusters(opticalDuplicateClusters, i, j);
+                    return;
                 }
             }
         }
     }
 
+    // Part of Union-Find with Path Compression that joins two reads to be part of the same cluster.
+    private static void joinClusters(final int[] clusters, final int index1, final int index2) {
+        final int rep1 = findCluster(clusters, index1);
+        final int rep2 = findCluster(clusters, index2);
+        if (rep1 != rep2) clusters[rep1] = rep2;
+    }
+
+    // Part of Union-Find with Path Compression to determine the cluster a particular read belongs to.
+    private static int findCluster(final int[] clusters, int index) {
+        int rep = index;
+        while (rep != clusters[rep]) {
+            rep = clusters[rep];
+        }
+        while (index != rep) {
+            final int next = clusters[index];
+            clusters[index] = rep;
+            index = next;
+        }
+        return rep;
+    }
+
     /** Returns the keeper if it is contained within the list and has location information, otherwise null. */
     private PhysicalLocation keeperOrNull(final List<? extends PhysicalLocation> list, final PhysicalLocation keeper) {
         if (keeper != null && keeper.hasLocation()) {
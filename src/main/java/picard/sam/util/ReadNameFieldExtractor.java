@@ -0,0 +1,381 @@
+package picard.sam.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A specialized replacement for a {@link java.util.regex.Matcher} on a read name regex that captures the tile, x and y
+ * locations as three groups of digits from fields separated by a single delimiter character.  Typical examples are:
+ *  [a-zA-Z0-9]+:[0-9]:([0-9]+):([0-9]+):([0-9]+).*
+ *  (?:.*:)?([0-9]+)[^:]*:([0-9]+)[^:]*:([0-9]+)[^:]*$
+ *
+ * The regex is compiled into a list of fields, each described by at most two character-class runs.  None of the classes
+ * may contain the delimiter, so the read name can be split on the delimiter and each field checked in isolation, which
+ * gives the same result as a full regex match without backtracking.  Regexes that do not fit this shape are rejected by
+ * {@link #compile(String)}, in which case the caller should fall back to the regex.
+ */
+final class ReadNameFieldExtractor implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** The number of capture groups we expect: tile, x and y. */
+    private static final int NUM_CAPTURES = 3;
+
+    private enum Quantifier { ONE, OPTIONAL, STAR, PLUS }
+
+    /** A run of characters from a single character class. */
+    private static final class Run implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        /** Membership of the ASCII characters; characters >= 128 are members iff the class is negated. */
+        final boolean[] members;
+        final boolean negated;
+        final Quantifier quantifier;
+        final boolean capture;
+
+        Run(final boolean[] members, final boolean negated, final Quantifier quantifier, final boolean capture) {
+            this.members = members;
+            this.negated = negated;
+            this.quantifier = quantifier;
+            this.capture = capture;
+        }
+
+        boolean contains(final char c) {
+            return c < members.length ? members[c] : negated;
+        }
+
+        boolean acceptsLength(final int length) {
+            switch (quantifier) {
+                case ONE:      return length == 1;
+                case OPTIONAL: return length <= 1;
+                case PLUS:     return length >= 1;
+                default:       return true;
+            }
+        }
+    }
+
+    private final char delimiter;
+    /** The runs making up each field, in order. */
+    private final Run[][] fields;
+    /** True if the regex started with (?:.*D)?, i.e. the fields are matched against the last fields of the read name. */
+    private final boolean anchoredRight;
+    /** True if the regex ended with .*, i.e. the last field extends to the end of the read name, including delimiters. */
+    private final boolean trailingAny;
+
+    private ReadNameFieldExtractor(final char delimiter, final Run[][] fields, final boolean anchoredRight, final boolean trailingAny) {
+        this.delimiter = delimiter;
+        this.fields = fields;
+        this.anchoredRight = anchoredRight;
+        this.trailingAny = trailingAny;
+    }
+
+    /**
+     * Extracts the three captured values from the read name.
+     *
+     * @param readName the read name to parse
+     * @param values the array in which to store the tile, x and y values
+     * @return true if the read name matches the regex this extractor was compiled from, false otherwise
+     * @throws NumberFormatException if a captured value does not fit in an int
+     */
+    boolean extract(final String readName, final int[] values) throws NumberFormatException {
+        final int length = readName.length();
+        final int numFields = fields.length;
+
+        // find the start of the first field we need to match
+        int start = 0;
+        if (anchoredRight) {
+            int found = 0;
+            int i = length - 1;
+            for (; 0 <= i; i--) {
+                if (readName.charAt(i) == delimiter && ++found == numFields) break;
+            }
+            if (found < numFields - 1 || containsLineTerminator(readName, 0, Math.max(i, 0))) return false;
+            start = i + 1;
+        }
+
+        int valueIdx = 0;
+        for (int f = 0; f < numFields; f++) {
+            final boolean lastField = f == numFields - 1;
+            int end;
+            if (lastField) {
+                end = length;
+                if (!trailingAny && readName.indexOf(delimiter, start) != -1) return false;
+            } else {
+                end = readName.indexOf(delimiter, start);
+                if (end == -1) return false;
+            }
+
+            final Run[] runs = fields[f];
+            final Run first = runs[0];
+            int pos = start;
+            if (lastField && trailingAny) {
+                // a greedy run followed by .*, which may span delimiters but not line terminators
+                final int maxFirst = first.quantifier == Quantifier.ONE || first.quantifier == Quantifier.OPTIONAL ? 1 : Integer.MAX_VALUE;
+                while (pos < end && pos - start < maxFirst && first.contains(readName.charAt(pos))) pos++;
+                if (!first.acceptsLength(pos - start) || containsLineTerminator(readName, pos, end)) return false;
+            } else if (runs.length == 1) {
+                while (pos < end && first.contains(readName.charAt(pos))) pos++;
+                if (pos != end || !first.acceptsLength(end - start)) return false;
+            } else {
+                // a greedy run followed by a run of zero or more characters; since the greedy run is maximal, the
+                // remainder matches iff some split of the field matches, so there is no need to backtrack
+                final int maxFirst = first.quantifier == Quantifier.ONE || first.quantifier == Quantifier.OPTIONAL ? 1 : Integer.MAX_VALUE;
+                while (pos < end && pos - start < maxFirst && first.contains(readName.charAt(pos))) pos++;
+                if (!first.acceptsLength(pos - start)) return false;
+                final Run second = runs[1];
+                int i = pos;
+                while (i < end && second.contains(readName.charAt(i))) i++;
+                if (i != end) return false;
+            }
+            if (first.capture) {
+                values[valueIdx++] = parseDigits(readName, start, pos);
+            }
+            start = end + 1;
+        }
+        return true;
+    }
+
+    /** The characters in [start, end) that a '.' in a regex does not match. */
+    private static boolean containsLineTerminator(final String s, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') return true;
+        }
+        return false;
+    }
+
+    /** Parses the digits in [start, end), which are known to be non-empty and to only contain digits. */
+    private static int parseDigits(final String s, final int start, final int end) throws NumberFormatException {
+        long val = 0;
+        for (int i = start; i < end; i++) {
+            val = val * 10 + (s.charAt(i) - '0');
+            if (val > Integer.MAX_VALUE) {
+                throw new NumberFormatException("For input string: \"" + s.substring(start, end) + "\"");
+            }
+        }
+        return (int) val;
+    }
+
+    /**
+     * Attempts to compile the given regex into a field extractor.
+     *
+     * @return the extractor, or null if the regex is not of a form this class supports.
+     */
+    static ReadNameFieldExtractor compile(final String regex) {
+        if (regex == null) return null;
+        try {
+            return new Compiler(regex).compile();
+        } catch (final UnsupportedRegexException e) {
+            return null;
+        }
+    }
+
+    /** Thrown by the compiler, and caught by {@link #compile(String)}, when the regex is not of a supported form. */
+    private static final class UnsupportedRegexException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedRegexException() {
+            // only used to unwind the parser, so there is no need for a stack trace
+            super(null, null, false, false);
+        }
+    }
+
+    /** A small recursive-descent parser over the supported subset of the regex syntax. */
+    private static final class Compiler {
+        private static final String META = "\\[](){}.*+?^$|";
+
+        private final String regex;
+        private int pos = 0;
+        private int delimiter = -1;
+
+        Compiler(final String regex) {
+            // the regex is used with Matcher.matches(), so the anchors are redundant
+            String body = regex;
+            if (body.startsWith("^")) body = body.substring(1);
+            if (body.endsWith("$") && !body.endsWith("\\$")) body = body.substring(0, body.length() - 1);
+            this.regex = body;
+        }
+
+        ReadNameFieldExtractor compile() {
+            boolean anchoredRight = false;
+            if (regex.startsWith("(?:.*")) {
+                pos = "(?:.*".length();
+                delimiter = parseLiteral();
+                expect(")?");
+                anchoredRight = true;
+            }
+
+            final List<Run[]> fields = new ArrayList<>();
+            final List<Run> current = new ArrayList<>();
+            boolean trailingAny = false;
+            while (pos < regex.length()) {
+                if (regex.startsWith(".*", pos) && pos + 2 == regex.length()) {
+                    if (anchoredRight) throw unsupported();
+                    trailingAny = true;
+                    pos += 2;
+                } else if (regex.charAt(pos) == '(') {
+                    current.add(parseCapture());
+                } else if (isClassStart()) {
+                    current.add(parseRun(false));
+                } else {
+                    final int c = parseLiteral();
+                    if (delimiter == -1) delimiter = c;
+                    else if (c != delimiter) throw unsupported();
+                    fields.add(toField(current));
+                    current.clear();
+                }
+            }
+            fields.add(toField(current));
+            if (trailingAny && fields.get(fields.size() - 1).length != 1) throw unsupported();
+            if (delimiter == -1) throw unsupported();
+
+            // validate: exactly three captures, and no class may match the delimiter
+            int captures = 0;
+            for (final Run[] field : fields) {
+                for (final Run run : field) {
+                    if (run.contains((char) delimiter)) throw unsupported();
+                    if (run.capture) captures++;
+                }
+            }
+            if (captures != NUM_CAPTURES) throw unsupported();
+            return new ReadNameFieldExtractor((char) delimiter, fields.toArray(new Run[0][]), anchoredRight, trailingAny);
+        }
+
+        /** A field is a single run, or a greedy run followed by a run of zero or more characters. */
+        private Run[] toField(final List<Run> runs) {
+            if (runs.isEmpty() || runs.size() > 2) throw unsupported();
+            if (runs.size() == 2 && (runs.get(1).capture || runs.get(1).quantifier != Quantifier.STAR)) throw unsupported();
+            return runs.toArray(new Run[0]);
+        }
+
+        private boolean isClassStart() {
+            final char c = regex.charAt(pos);
+            if (c == '[') return true;
+            return c == '\\' && pos + 1 < regex.length() && (regex.charAt(pos + 1) == 'd' || regex.charAt(pos + 1) == 'w');
+        }
+
+        /** Only captures of one or more digits are supported. */
+        private Run parseCapture() {
+            expect("(");
+            if (regex.startsWith("?", pos)) throw unsupported();
+            final Run inner = parseRun(true);
+            expect(")");
+            final boolean[] digits = new boolean[128];
+            for (char c = '0'; c <= '9'; c++) digits[c] = true;
+            for (int i = 0; i < 128; i++) {
+                if (inner.members[i] != digits[i]) throw unsupported();
+            }
+            if (inner.negated || inner.quantifier != Quantifier.PLUS) throw unsupported();
+            return inner;
+        }
+
+        private Run parseRun(final boolean capture) {
+            final boolean[] members = new boolean[128];
+            boolean negated = false;
+            if (regex.startsWith("\\d", pos)) {
+                addRange(members, '0', '9');
+                pos += 2;
+            } else if (regex.startsWith("\\w", pos)) {
+                addWord(members);
+                pos += 2;
+            } else {
+                expect("[");
+                if (regex.startsWith("^", pos)) {
+                    negated = true;
+                    pos++;
+                }
+                boolean firstChar = true;
+                while (pos < regex.length() && (regex.charAt(pos) != ']' || firstChar)) {
+                    firstChar = false;
+                    if (regex.startsWith("\\d", pos)) {
+                        addRange(members, '0', '9');
+                        pos += 2;
+                        continue;
+                    } else if (regex.startsWith("\\w", pos)) {
+                        addWord(members);
+                        pos += 2;
+                        continue;
+                    }
+                    final char from = parseClassChar();
+                    if (pos + 1 < regex.length() && regex.charAt(pos) == '-' && regex.charAt(pos + 1) != ']') {
+                        pos++;
+                        final char to = parseClassChar();
+                        if (to < from) throw unsupported();
+                        addRange(members, from, to);
+                    } else {
+                        addRange(members, from, from);
+                    }
+                }
+                expect("]");
+                if (negated) {
+                    for (int i = 0; i < members.length; i++) members[i] = !members[i];
+                }
+            }
+            return new Run(members, negated, parseQuantifier(), capture);
+        }
+
+        private char parseClassChar() {
+            char c = regex.charAt(pos++);
+            if (c == '\\') {
+                if (pos >= regex.length()) throw unsupported();
+                c = regex.charAt(pos++);
+                if (Character.isLetterOrDigit(c)) throw unsupported(); // \s, \p{..}, etc.
+            } else if (c == '[' || c == '&') {
+                throw unsupported(); // nested classes, unions and intersections
+            }
+            if (c >= 128) throw unsupported();
+            return c;
+        }
+
+        private Quantifier parseQuantifier() {
+            if (pos >= regex.length()) return Quantifier.ONE;
+            final Quantifier quantifier;
+            switch (regex.charAt(pos)) {
+                case '*': quantifier = Quantifier.STAR; break;
+                case '+': quantifier = Quantifier.PLUS; break;
+                case '?': quantifier = Quantifier.OPTIONAL; break;
+                case '{': throw unsupported();
+                default:  return Quantifier.ONE;
+            }
+            pos++;
+            // lazy and possessive quantifiers may change which characters are captured
+            if (pos < regex.length() && (regex.charAt(pos) == '?' || regex.charAt(pos) == '+')) throw unsupported();
+            return quantifier;
+        }
+
+        /** Parses a single literal character, possibly escaped. */
+        private int parseLiteral() {
+            if (pos >= regex.length()) throw unsupported();
+            char c = regex.charAt(pos++);
+            if (c == '\\') {
+                if (pos >= regex.length()) throw unsupported();
+                c = regex.charAt(pos++);
+                if (Character.isLetterOrDigit(c)) throw unsupported();
+            } else if (META.indexOf(c) != -1) {
+                throw unsupported();
+            }
+            if (c >= 128) throw unsupported();
+            return c;
+        }
+
+        private void expect(final String s) {
+            if (!regex.startsWith(s, pos)) throw unsupported();
+            pos += s.length();
+        }
+
+        private static void addRange(final boolean[] members, final char from, final char to) {
+            for (char c = from; c <= to; c++) members[c] = true;
+        }
+
+        private static void addWord(final boolean[] members) {
+            addRange(members, 'a', 'z');
+            addRange(members, 'A', 'Z');
+            addRange(members, '0', '9');
+            members['_'] = true;
+        }
+
+        private static UnsupportedRegexException unsupported() {
+            return new UnsupportedRegexException();
+        }
+    }
+}
@@ -24,6 +24,9 @@ public class ReadNameParser implements Serializable {
      * three fields, ignoring any trailing non-digit characters, assuming the delimiter ':'.  This should consider correctly read names
      * where we have 5 or 7 field with the last three fields being tile/x/y, as is the case for the majority of read names produced by
      * Illumina technology.
+     *
+     * Custom regexes that capture the three values from fields split on a single delimiter (see {@link ReadNameFieldExtractor}) are
+     * compiled into a field extractor, so that they avoid the cost of a regex match per read name.  All other regexes are matched as is.
      */
     public static final String DEFAULT_READ_NAME_REGEX = "<optimized capture of last three ':' separated fields as numeric values>".intern();
 
@@ -35,6 +38,8 @@ public class ReadNameParser implements Serializable {
 
     private Pattern readNamePattern;
 
+    private final ReadNameFieldExtractor fieldExtractor; // null if the regex could not be compiled into a field extractor
+
     private boolean warnedAboutRegexNotMatching = false;
 
     private transient final Log log;
@@ -65,6 +70,7 @@ public class ReadNameParser implements Serializable {
     public ReadNameParser(final String readNameRegex, final Log log) {
         this.useOptimizedDefaultParsing = DEFAULT_READ_NAME_REGEX.equals(readNameRegex);
         this.readNameRegex = readNameRegex;
+        this.fieldExtractor = this.useOptimizedDefaultParsing ? null : ReadNameFieldExtractor.compile(readNameRegex);
         this.log = log;
     }
 
@@ -97,6 +103,16 @@ public class ReadNameParser implements Serializable {
                 return true;
             } else if (this.readNameRegex == null) {
                 return false;
+            } else if (this.fieldExtractor != null) {
+                // Custom regex that was compiled into a delimiter and field indices, so no Matcher is needed
+                if (!this.fieldExtractor.extract(readName, tmpLocationFields)) {
+                    warnRegexNotMatching(readName);
+                    return false;
+                }
+                loc.setTile((short) tmpLocationFields[0]);
+                loc.setX(tmpLocationFields[1]);
+                loc.setY(tmpLocationFields[2]);
+                return true;
             } else {
                 // Standard version that will use the regex
                 if (this.readNamePattern == null) this.readNamePattern = Pattern.compile(this.readNameRegex);
@@ -108,12 +124,7 @@ public class ReadNameParser implements Serializable {
                     loc.setY(Integer.parseInt(m.group(3)));
                     return true;
                 } else {
-                    if (null != log && !this.warnedAboutRegexNotMatching) {
-                        this.log.warn(String.format("READ_NAME_REGEX '%s' did not match read name '%s'.  Your regex may not be correct.  " +
-                                        "Note that this message will not be emitted again even if other read names do not match the regex.",
-                                this.readNameRegex, readName));
-                        warnedAboutRegexNotMatching = true;
-                    }
+                    warnRegexNotMatching(readName);
                     return false;
                 }
             }
@@ -128,6 +139,15 @@ public class ReadNameParser implements Serializable {
         }
     }
 
+    private void warnRegexNotMatching(final String readName) {
+        if (null != log && !this.warnedAboutRegexNotMatching) {
+            this.log.warn(String.format("READ_NAME_REGEX '%s' did not match read name '%s'.  Your regex may not be correct.  " +
+                            "Note that this message will not be emitted again even if other read names do not match the regex.",
+                    this.readNameRegex, readName));
+            warnedAboutRegexNotMatching = true;
+        }
+    }
+
     /**
      * Given a string, splits the string by the delimiter, and returns the the last three fields parsed as integers.  Parsing a field
      * considers only a sequence of digits up until the first non-digit character.  The three values are stored in the passed-in array.
@@ -3,14 +3,20 @@ package picard.sam.util;
 import htsjdk.samtools.*;
 import htsjdk.samtools.metrics.Header;
 import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.IterableAdapter;
+import htsjdk.samtools.util.PeekableIterator;
 import htsjdk.samtools.util.SortingCollection;
 import picard.PicardException;
 import picard.sam.SamComparisonMetric;
+import picard.util.ThreadPoolExecutorWithExceptions;
 
 import java.io.File;
 import java.util.*;
-import java.util.function.BiConsumer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -32,6 +38,15 @@ public final class SamComparison {
     private SortingCollection<SAMRecord> markDuplicatesCheckLeft;
     private SortingCollection<SAMRecord> markDuplicatesCheckRight;
 
+    // Only needed to compare contigs in parallel, otherwise null
+    private final SamReaderFactory samReaderFactory;
+    private final File leftFile;
+    private final File rightFile;
+    private final int threads;
+
+    /** Orders records the same way as their PrimaryAlignmentKeys, so that unmatched records can be matched up by merging. */
+    private static final Comparator<SAMRecord> PRIMARY_ALIGNMENT_KEY_COMPARATOR = Comparator.comparing(PrimaryAlignmentKey::new);
+
     public enum AlignmentComparison {
         UNMAPPED_BOTH, UNMAPPED_LEFT, UNMAPPED_RIGHT, MAPPINGS_DIFFER, MAPPINGS_MATCH
     }
@@ -44,9 +59,39 @@ public final class SamComparison {
     }
 
     public SamComparison(final SamReader leftReader, final SamReader rightReader, final String leftName, final String rightName, final SAMComparisonArgumentCollection samComparisonArgumentCollection) {
+        this(leftReader, rightReader, leftName, rightName, samComparisonArgumentCollection, null, null, null, 1);
+    }
+
+    /**
+     * Compares the two given files.  If both are coordinate sorted and indexed, and more than one thread is requested,
+     * the alignments on each contig are compared in parallel, each contig using its own pair of readers opened from
+     * samReaderFactory.  Note: the caller must make sure the SamReaders are closed properly.
+     *
+     * @param leftReader a reader of leftFile
+     * @param rightReader a reader of rightFile
+     * @param leftFile the left file to compare
+     * @param rightFile the right file to compare
+     * @param samReaderFactory the factory with which to open additional readers of the files
+     * @param samComparisonArgumentCollection the comparison arguments
+     * @param threads the number of threads to use when comparing alignments
+     */
+    public SamComparison(final SamReader leftReader, final SamReader rightReader, final File leftFile, final File rightFile,
+                         final SamReaderFactory samReaderFactory, final SAMComparisonArgumentCollection samComparisonArgumentCollection,
+                         final int threads) {
+        this(leftReader, rightReader, leftFile.getAbsolutePath(), rightFile.getAbsolutePath(), samComparisonArgumentCollection,
+                samReaderFactory, leftFile, rightFile, threads);
+    }
+
+    private SamComparison(final SamReader leftReader, final SamReader rightReader, final String leftName, final String rightName,
+                          final SAMComparisonArgumentCollection samComparisonArgumentCollection, final SamReaderFactory samReaderFactory,
+                          final File leftFile, final File rightFile, final int threads) {
         this.leftReader = leftReader;
         this.rightReader = rightReader;
         this.samComparisonArgumentCollection = samComparisonArgumentCollection;
+        this.samReaderFactory = samReaderFactory;
+        this.leftFile = leftFile;
+        this.rightFile = rightFile;
+        this.threads = threads;
         comparisonMetric.LEFT_FILE = leftName;
         comparisonMetric.RIGHT_FILE = rightName;
         if (samComparisonArgumentCollection.LENIENT_DUP) {
@@ -176,31 +221,93 @@ public final class SamComparison {
     }
 
     private boolean compareCoordinateSortedAlignments() {
-        final SecondaryOrSupplementarySkippingIterator itLeft =
-                new SecondaryOrSupplementarySkippingIterator(leftReader.iterator());
-        final SecondaryOrSupplementarySkippingIterator itRight =
-                new SecondaryOrSupplementarySkippingIterator(rightReader.iterator());
+        // Save any reads which haven't been matched during in-order scan, spilling them to disk if there are many.
+        final SortingCollection<SAMRecord> leftUnmatched = newUnmatchedCollection(leftReader.getFileHeader());
+        final SortingCollection<SAMRecord> rightUnmatched = newUnmatchedCollection(rightReader.getFileHeader());
+
+        if (threads > 1 && samReaderFactory != null && leftReader.hasIndex() && rightReader.hasIndex()) {
+            compareCoordinateSortedAlignmentsByContig(leftUnmatched, rightUnmatched);
+        } else {
+            try (final CloseableIterator<SAMRecord> leftIterator = leftReader.iterator();
+                 final CloseableIterator<SAMRecord> rightIterator = rightReader.iterator()) {
+                compareCoordinateSortedAlignments(leftIterator, rightIterator, comparisonMetric, leftUnmatched, rightUnmatched);
+            }
+        }
 
-        // Save any reads which haven't been matched during in-order scan.
-        final Map<PrimaryAlignmentKey, SAMRecord> leftUnmatched = new LinkedHashMap<>();
-        final Map<PrimaryAlignmentKey, SAMRecord> rightUnmatched = new LinkedHashMap<>();
+        // Look up reads that were unmatched from left, and see if they are in rightUnmatched.
+        compareUnmatchedAlignments(leftUnmatched, rightUnmatched);
 
-        while (itLeft.hasCurrent()) {
-            if (!itRight.hasCurrent()) {
-                // Exhausted right side.  See if any of the remaining left reads match
-                // any of the saved right reads.
-                for (; itLeft.hasCurrent(); itLeft.advance()) {
-                    final SAMRecord left = itLeft.getCurrent();
-                    final PrimaryAlignmentKey leftKey = new PrimaryAlignmentKey(left);
-                    final SAMRecord right = rightUnmatched.remove(leftKey);
-                    if (right == null) {
-                        ++comparisonMetric.MISSING_RIGHT;
-                    } else {
-                        tallyAlignmentRecords(left, right);
-                    }
+        return comparisonMetric.allVisitedAlignmentsEqual();
+    }
+
+    /**
+     * Compares the alignments one contig at a time on a thread pool, each contig (and finally the reads without a reference)
+     * with its own pair of indexed readers.  Reads that are not matched within their contig are matched up at the end, so
+     * that reads aligned to different contigs in the two files are still compared.
+     */
+    private void compareCoordinateSortedAlignmentsByContig(final SortingCollection<SAMRecord> leftUnmatched, final SortingCollection<SAMRecord> rightUnmatched) {
+        final int numContigs = leftReader.getFileHeader().getSequenceDictionary().size();
+        final ExecutorService executor = new ThreadPoolExecutorWithExceptions(threads);
+        final ExecutorCompletionService<SamComparisonMetric> executorCompletionService = new ExecutorCompletionService<>(executor);
+
+        // a contig index of -1 denotes the reads without a reference
+        for (int contig = -1; contig < numContigs; contig++) {
+            final int contigIndex = contig;
+            executorCompletionService.submit(() -> {
+                final SamComparisonMetric contigMetric = new SamComparisonMetric();
+                try (final SamReader left = samReaderFactory.open(leftFile);
+                     final SamReader right = samReaderFactory.open(rightFile);
+                     final CloseableIterator<SAMRecord> leftIterator = queryContig(left, contigIndex);
+                     final CloseableIterator<SAMRecord> rightIterator = queryContig(right, contigIndex)) {
+                    compareCoordinateSortedAlignments(leftIterator, rightIterator, contigMetric, leftUnmatched, rightUnmatched);
                 }
-                break;
+                return contigMetric;
+            });
+        }
+        executor.shutdown();
+
+        for (int i = -1; i < numContigs; i++) {
+            try {
+                addMetrics(executorCompletionService.take().get());
+            } catch (InterruptedException | ExecutionException e) {
+                executor.shutdownNow();
+                throw new PicardException("Failed to compare alignments", e);
             }
+        }
+    }
+
+    private static CloseableIterator<SAMRecord> queryContig(final SamReader reader, final int contigIndex) {
+        if (contigIndex == -1) {
+            return reader.queryUnmapped();
+        }
+        return reader.queryOverlapping(new QueryInterval[]{new QueryInterval(contigIndex, 1, -1)});
+    }
+
+    /** Adds the alignment comparison counts from one contig to the overall counts. */
+    private void addMetrics(final SamComparisonMetric contigMetric) {
+        comparisonMetric.MAPPINGS_MATCH += contigMetric.MAPPINGS_MATCH;
+        comparisonMetric.MAPPINGS_DIFFER += contigMetric.MAPPINGS_DIFFER;
+        comparisonMetric.UNMAPPED_BOTH += contigMetric.UNMAPPED_BOTH;
+        comparisonMetric.UNMAPPED_LEFT += contigMetric.UNMAPPED_LEFT;
+        comparisonMetric.UNMAPPED_RIGHT += contigMetric.UNMAPPED_RIGHT;
+        comparisonMetric.MISSING_LEFT += contigMetric.MISSING_LEFT;
+        comparisonMetric.MISSING_RIGHT += contigMetric.MISSING_RIGHT;
+        comparisonMetric.DUPLICATE_MARKINGS_DIFFER += contigMetric.DUPLICATE_MARKINGS_DIFFER;
+    }
+
+    /**
+     * Compares the alignments from two coordinate sorted iterators, matching up reads with the same coordinate.  Reads that
+     * are not matched at their coordinate are added to leftUnmatched or rightUnmatched.
+     */
+    private void compareCoordinateSortedAlignments(final CloseableIterator<SAMRecord> leftIterator,
+                                                   final CloseableIterator<SAMRecord> rightIterator,
+                                                   final SamComparisonMetric metric,
+                                                   final SortingCollection<SAMRecord> leftUnmatched,
+                                                   final SortingCollection<SAMRecord> rightUnmatched) {
+        final SecondaryOrSupplementarySkippingIterator itLeft = new SecondaryOrSupplementarySkippingIterator(leftIterator);
+        final SecondaryOrSupplementarySkippingIterator itRight = new SecondaryOrSupplementarySkippingIterator(rightIterator);
+
+        while (itLeft.hasCurrent()) {
             // Don't assume stability of order beyond the coordinate.  Therefore grab all the
             // reads from the left that has the same coordinate.
             final SAMRecord left = itLeft.getCurrent();
@@ -218,9 +325,7 @@ public final class SamComparison {
             }
             // Advance the right iterator until it is >= the left reads that have just been grabbed
             while (itRight.hasCurrent() && compareAlignmentCoordinates(left, itRight.getCurrent()) > 0) {
-                final SAMRecord right = itRight.getCurrent();
-                final PrimaryAlignmentKey rightKey = new PrimaryAlignmentKey(right);
-                rightUnmatched.put(rightKey, right);
+                addUnmatched(rightUnmatched, itRight.getCurrent());
                 itRight.advance();
             }
             // For each right read that has the same coordinate as the current left reads,
@@ -231,39 +336,76 @@ public final class SamComparison {
                 final PrimaryAlignmentKey rightKey = new PrimaryAlignmentKey(right);
                 final SAMRecord matchingLeft = leftCurrentCoordinate.remove(rightKey);
                 if (matchingLeft != null) {
-                    tallyAlignmentRecords(matchingLeft, right);
+                    tallyAlignmentRecords(matchingLeft, right, metric);
                 } else {
-                    rightUnmatched.put(rightKey, right);
+                    addUnmatched(rightUnmatched, right);
                 }
             }
 
             // Anything left in leftCurrentCoordinate has not been matched
             for (final SAMRecord samRecord : leftCurrentCoordinate.values()) {
-                final PrimaryAlignmentKey recordKey = new PrimaryAlignmentKey(samRecord);
-                leftUnmatched.put(recordKey, samRecord);
+                addUnmatched(leftUnmatched, samRecord);
             }
         }
-        // The left iterator has been exhausted.  See if any of the remaining right reads
-        // match any of the saved left reads.
-        consumeUnmatchedRights(itRight, leftUnmatched);
+        // The left iterator has been exhausted, so the remaining right reads can only match saved left reads.
+        for (; itRight.hasCurrent(); itRight.advance()) {
+            addUnmatched(rightUnmatched, itRight.getCurrent());
+        }
+    }
 
-        // Look up reads that were unmatched from left, and see if they are in rightUnmatched.
-        // If found, remove from rightUnmatched and tally.
-        for (final Map.Entry<PrimaryAlignmentKey, SAMRecord> leftEntry : leftUnmatched.entrySet()) {
-            final PrimaryAlignmentKey leftKey = leftEntry.getKey();
-            final SAMRecord left = leftEntry.getValue();
-            final SAMRecord right = rightUnmatched.remove(leftKey);
-            if (right == null) {
+    /**
+     * Creates a collection for reads that could not be matched during the in-order scan, sorted such that the unmatched
+     * reads from the two files can be matched up by merging.
+     */
+    private static SortingCollection<SAMRecord> newUnmatchedCollection(final SAMFileHeader header) {
+        return SortingCollection.newInstance(SAMRecord.class, new BAMRecordCodec(header),
+                PRIMARY_ALIGNMENT_KEY_COMPARATOR, SAMFileWriterImpl.getDefaultMaxRecordsInRam());
+    }
+
+    /**
+     * Saves a read for matching later.  Unless duplicate marking is checked leniently, which needs the full record, only the
+     * fields needed to compare alignments are kept.
+     */
+    private void addUnmatched(final SortingCollection<SAMRecord> unmatched, final SAMRecord record) {
+        if (!samComparisonArgumentCollection.LENIENT_DUP) {
+            record.setReadBases(SAMRecord.NULL_SEQUENCE);
+            record.setBaseQualities(SAMRecord.NULL_QUALS);
+            record.clearAttributes();
+        }
+        synchronized (unmatched) {
+            unmatched.add(record);
+        }
+    }
+
+    /**
+     * Matches up the saved reads from the two files, tallying the reads found in both and counting the rest as missing.
+     */
+    private void compareUnmatchedAlignments(final SortingCollection<SAMRecord> leftUnmatched, final SortingCollection<SAMRecord> rightUnmatched) {
+        leftUnmatched.doneAdding();
+        rightUnmatched.doneAdding();
+        try (final PeekableIterator<SAMRecord> itLeft = new PeekableIterator<>(leftUnmatched.iterator());
+             final PeekableIterator<SAMRecord> itRight = new PeekableIterator<>(rightUnmatched.iterator())) {
+            while (itLeft.hasNext() && itRight.hasNext()) {
+                final int cmp = PRIMARY_ALIGNMENT_KEY_COMPARATOR.compare(itLeft.peek(), itRight.peek());
+                if (cmp < 0) {
+                    itLeft.next();
+                    ++comparisonMetric.MISSING_RIGHT;
+                } else if (cmp > 0) {
+                    itRight.next();
+                    ++comparisonMetric.MISSING_LEFT;
+                } else {
+                    tallyAlignmentRecords(itLeft.next(), itRight.next(), comparisonMetric);
+                }
+            }
+            for (; itLeft.hasNext(); itLeft.next()) {
                 ++comparisonMetric.MISSING_RIGHT;
-                continue;
             }
-            tallyAlignmentRecords(left, right);
+            for (; itRight.hasNext(); itRight.next()) {
+                ++comparisonMetric.MISSING_LEFT;
+            }
         }
-
-        // Any elements remaining in rightUnmatched are guaranteed not to be in leftUnmatched.
-        comparisonMetric.MISSING_LEFT += rightUnmatched.size();
-
-        return comparisonMetric.allVisitedAlignmentsEqual();
+        leftUnmatched.cleanup();
+        rightUnmatched.cleanup();
     }
 
     private int compareAlignmentCoordinates(final SAMRecord left, final SAMRecord right) {
@@ -303,7 +445,7 @@ public final class SamComparison {
                 ++comparisonMetric.MISSING_LEFT;
                 it2.advance();
             } else {
-                tallyAlignmentRecords(it1.getCurrent(), it2.getCurrent());
+                tallyAlignmentRecords(it1.getCurrent(), it2.getCurrent(), comparisonMetric);
                 it1.advance();
                 it2.advance();
             }
@@ -319,50 +461,29 @@ public final class SamComparison {
      * basis of their PrimaryAlignmentKey.
      */
     private boolean compareUnsortedAlignments() {
-        final SecondaryOrSupplementarySkippingIterator it1 = new SecondaryOrSupplementarySkippingIterator(leftReader.iterator());
-        final SecondaryOrSupplementarySkippingIterator it2 = new SecondaryOrSupplementarySkippingIterator(rightReader.iterator());
+        final SortingCollection<SAMRecord> leftUnmatched = newUnmatchedCollection(leftReader.getFileHeader());
+        final SortingCollection<SAMRecord> rightUnmatched = newUnmatchedCollection(rightReader.getFileHeader());
 
-        final Map<PrimaryAlignmentKey, SAMRecord> leftUnmatched = new LinkedHashMap<>();
-
-        // Consume all of the lefts by adding them to the leftUnmatched map, then consume all of the
-        // rights by finding and removing their left mate from the "leftUnmatched" map. Anything remaining
-        // after that is unmatched.
-        consumeAll(it1, (alignmentRecord, primaryKey) -> leftUnmatched.put(primaryKey, alignmentRecord));
-        consumeUnmatchedRights(it2, leftUnmatched);
-
-        comparisonMetric.MISSING_RIGHT += leftUnmatched.size();
+        // Consume all of the lefts and all of the rights, sorting each by PrimaryAlignmentKey, and then match them
+        // up. Anything remaining after that is unmatched.
+        try (final CloseableIterator<SAMRecord> leftIterator = leftReader.iterator();
+             final CloseableIterator<SAMRecord> rightIterator = rightReader.iterator()) {
+            consumeAll(new SecondaryOrSupplementarySkippingIterator(leftIterator), record -> addUnmatched(leftUnmatched, record));
+            consumeAll(new SecondaryOrSupplementarySkippingIterator(rightIterator), record -> addUnmatched(rightUnmatched, record));
+        }
+        compareUnmatchedAlignments(leftUnmatched, rightUnmatched);
 
         return comparisonMetric.allVisitedAlignmentsEqual();
     }
 
     /**
-     * Consume every record in the "right" iterator by either finding its matched "left", or
-     * failing that, incrementing the number of missing "lefts".
-     */
-    private void consumeUnmatchedRights(
-            final SecondaryOrSupplementarySkippingIterator rightIt,
-            final Map<PrimaryAlignmentKey, SAMRecord> leftUnmatched) {
-        consumeAll(rightIt,
-                (alignmentRecord, primaryKey) -> {
-                    final SAMRecord left = leftUnmatched.remove(primaryKey);
-                    if (left != null) {
-                        tallyAlignmentRecords(left, alignmentRecord);
-                    } else {
-                        ++comparisonMetric.MISSING_LEFT;
-                    }
-                });
-    }
-
-    /**
-     * Consume every record in the iterator, passing it and the corresponding PrimaryAlignmentKey.
-     * to the provided handler.
+     * Consume every record in the iterator, passing it to the provided handler.
      */
     private void consumeAll(
             final SecondaryOrSupplementarySkippingIterator it,
-            final BiConsumer<SAMRecord, PrimaryAlignmentKey> recordKeyHandler) {
+            final Consumer<SAMRecord> recordHandler) {
         for (; it.hasCurrent(); it.advance()) {
-            final SAMRecord record = it.getCurrent();
-            recordKeyHandler.accept(record, new PrimaryAlignmentKey(record));
+            recordHandler.accept(it.getCurrent());
         }
     }
 
@@ -400,25 +521,27 @@ public final class SamComparison {
     /**
      * Compare the mapping information for two SAMRecords.  Makes comparison of alignments, and also catalogs duplicate marking differences.
      */
-    private void tallyAlignmentRecords(final SAMRecord s1, final SAMRecord s2) {
+    private void tallyAlignmentRecords(final SAMRecord s1, final SAMRecord s2, final SamComparisonMetric metric) {
         if (!s1.getReadName().equals(s2.getReadName())) {
             throw new PicardException("Read names do not match: " + s1.getReadName() + " : " + s2.getReadName());
         }
-        catalogDuplicateDifferences(s1, s2);
+        catalogDuplicateDifferences(s1, s2, metric);
         final AlignmentComparison comp = compareAlignmentRecords(s1, s2);
-        comparisonMetric.updateMetric(comp);
+        metric.updateMetric(comp);
     }
 
-    private void catalogDuplicateDifferences(final SAMRecord s1, final SAMRecord s2) {
+    private void catalogDuplicateDifferences(final SAMRecord s1, final SAMRecord s2, final SamComparisonMetric metric) {
         // if strict, reads with differing duplicate marking are counted by DUPLICATE_MARKINGS_DIFFER.
         // if lenient, reads with differing duplicate marking are added to markDuplicatesCheckLeft/Right
         // to later be counted while allowing for swaps withing duplicate sets by updateLenientDuplicateMarkingDifferences
         if (s1.getDuplicateReadFlag() != s2.getDuplicateReadFlag()) {
             if (samComparisonArgumentCollection.LENIENT_DUP) {
-                markDuplicatesCheckLeft.add(s1);
-                markDuplicatesCheckRight.add(s2);
+                synchronized (this) {
+                    markDuplicatesCheckLeft.add(s1);
+                    markDuplicatesCheckRight.add(s2);
+                }
             } else {
-                comparisonMetric.DUPLICATE_MARKINGS_DIFFER++;
+                metric.DUPLICATE_MARKINGS_DIFFER++;
             }
         }
     }
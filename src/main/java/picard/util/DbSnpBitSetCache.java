@@ -0,0 +1,209 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.util;
+
+import htsjdk.samtools.Defaults;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The dbSNP sites of a VCF, as DbSnpBitSetUtils for all variants, SNPs and indels, kept in a file so that they are
+ * read from the VCF once and then memory-mapped, read-only, by every later run (including concurrent ones).
+ *
+ * The file is specific to the dbSNP file (as identified by its length and modification time) and sequence dictionary
+ * it was built for; a file that does not match is rebuilt.  It holds a header (those identities, then the name and
+ * number of 64-bit words of each sequence's three bit sets) followed by the words of each bit set in turn.
+ */
+final class DbSnpBitSetCache {
+    private static final Log LOG = Log.getInstance(DbSnpBitSetCache.class);
+
+    private static final int MAGIC = 0x44425331; // "DBS1"
+
+    private static final Set<VariantType> INDEL_TYPES = EnumSet.of(VariantType.insertion, VariantType.deletion);
+
+    final DbSnpBitSetUtil all;
+    final DbSnpBitSetUtil snps;
+    final DbSnpBitSetUtil indels;
+
+    private DbSnpBitSetCache(final DbSnpBitSetUtil all, final DbSnpBitSetUtil snps, final DbSnpBitSetUtil indels) {
+        this.all = all;
+        this.snps = snps;
+        this.indels = indels;
+    }
+
+    /**
+     * Returns the sites of the given variant types, or null if the combination is not one that is cached (which is
+     * the case for SNPs together with indels).
+     */
+    DbSnpBitSetUtil get(final Collection<VariantType> variantsToMatch) {
+        if (variantsToMatch.isEmpty()) return all;
+        if (variantsToMatch.equals(EnumSet.of(VariantType.SNP))) return snps;
+        if (INDEL_TYPES.containsAll(variantsToMatch)) return indels;
+        return null;
+    }
+
+    /**
+     * Memory-maps the bit sets in cacheFile if they were built from this dbSNP file and sequence dictionary, otherwise
+     * reads the dbSNP file to (re)build them first.  If the file cannot be written, the bit sets read are used as is.
+     */
+    static DbSnpBitSetCache loadOrBuild(final File cacheFile, final File dbSnpFile,
+                                        final SAMSequenceDictionary sequenceDictionary, final Optional<Log> log) {
+        final String dictionaryMd5 = sequenceDictionary.md5();
+        return SharedInputCache.getOrLoad(DbSnpBitSetCache.class, dbSnpFile, cacheFile.getAbsolutePath() + "\t" + dictionaryMd5,
+                () -> loadOrBuild(cacheFile, dbSnpFile, sequenceDictionary, dictionaryMd5, log));
+    }
+
+    private static DbSnpBitSetCache loadOrBuild(final File cacheFile, final File dbSnpFile, final SAMSequenceDictionary sequenceDictionary,
+                                                final String dictionaryMd5, final Optional<Log> log) {
+        if (cacheFile.exists()) {
+            final DbSnpBitSetCache cache = load(cacheFile, dbSnpFile, dictionaryMd5);
+            if (cache != null) {
+                LOG.info("Loaded dbSNP sites from " + cacheFile);
+                return cache;
+            }
+            LOG.info(cacheFile + " was not built from " + dbSnpFile + " with this sequence dictionary; rebuilding it.");
+        }
+
+        final DbSnpBitSetCache built = new DbSnpBitSetCache(new DbSnpBitSetUtil(), new DbSnpBitSetUtil(), new DbSnpBitSetUtil());
+        final Map<DbSnpBitSetUtil, Set<VariantType>> map = new HashMap<>();
+        map.put(built.all, EnumSet.noneOf(VariantType.class));
+        map.put(built.snps, EnumSet.of(VariantType.SNP));
+        map.put(built.indels, INDEL_TYPES);
+        DbSnpBitSetUtil.loadVcf(dbSnpFile, sequenceDictionary, map, null, log);
+
+        try {
+            write(built, cacheFile, dbSnpFile, dictionaryMd5);
+        } catch (final IOException e) {
+            LOG.warn("Could not write dbSNP sites to " + cacheFile + ": " + e.getMessage());
+            return built;
+        }
+        final DbSnpBitSetCache cache = load(cacheFile, dbSnpFile, dictionaryMd5);
+        return cache == null ? built : cache;
+    }
+
+    /**
+     * Writes the bit sets via a temporary file, so that readers never see a partial file.  The header's word counts come
+     * from the bit sets' lengths, so that the words themselves can be written one bit set at a time.
+     */
+    private static void write(final DbSnpBitSetCache cache, final File cacheFile, final File dbSnpFile,
+                              final String dictionaryMd5) throws IOException {
+        LOG.info("Writing dbSNP sites to " + cacheFile);
+        final Set<String> sequences = new TreeSet<>(cache.all.sequenceToBitSet.keySet());
+
+        final File tmp = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getAbsoluteFile().getParentFile());
+        try {
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), Defaults.NON_ZERO_BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeLong(dbSnpFile.length());
+                out.writeLong(dbSnpFile.lastModified());
+                out.writeUTF(dictionaryMd5);
+                out.writeInt(sequences.size());
+                for (final String sequence : sequences) {
+                    out.writeUTF(sequence);
+                    for (final DbSnpBitSetUtil bitSets : cache.bitSets()) {
+                        out.writeInt(numWords(bitSets, sequence));
+                    }
+                }
+                for (final String sequence : sequences) {
+                    for (final DbSnpBitSetUtil bitSets : cache.bitSets()) {
+                        final BitSet bits = bitSets.sequenceToBitSet.get(sequence);
+                        if (bits == null) continue;
+                        for (final long word : bits.toLongArray()) {
+                            out.writeLong(word);
+                        }
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private List<DbSnpBitSetUtil> bitSets() {
+        return Arrays.asList(all, snps, indels);
+    }
+
+    /** The number of words that BitSet.toLongArray() returns for the sequence's bit set. */
+    private static int numWords(final DbSnpBitSetUtil bitSets, final String sequence) {
+        final BitSet bits = bitSets.sequenceToBitSet.get(sequence);
+        return bits == null ? 0 : (int) ((bits.length() + Long.SIZE - 1L) / Long.SIZE);
+    }
+
+    /** Returns the mapped bit sets, or null if the file was not built from this dbSNP file and sequence dictionary. */
+    private static DbSnpBitSetCache load(final File cacheFile, final File dbSnpFile, final String dictionaryMd5) {
+        try (final RandomAccessFile in = new RandomAccessFile(cacheFile, "r")) {
+            if (in.readInt() != MAGIC || in.readLong() != dbSnpFile.length() || in.readLong() != dbSnpFile.lastModified() ||
+                    !in.readUTF().equals(dictionaryMd5)) {
+                return null;
+            }
+            final int numSequences = in.readInt();
+            final String[] sequences = new String[numSequences];
+            final int[][] numWords = new int[numSequences][3];
+            for (int i = 0; i < numSequences; ++i) {
+                sequences[i] = in.readUTF();
+                for (int j = 0; j < 3; ++j) {
+                    numWords[i][j] = in.readInt();
+                }
+            }
+
+            final FileChannel channel = in.getChannel();
+            final List<Map<String, LongBuffer>> words = Arrays.asList(new HashMap<>(), new HashMap<>(), new HashMap<>());
+            long offset = in.getFilePointer();
+            for (int i = 0; i < numSequences; ++i) {
+                for (int j = 0; j < 3; ++j) {
+                    final long length = (long) numWords[i][j] * Long.BYTES;
+                    if (offset + length > in.length()) return null;
+                    words.get(j).put(sequences[i], channel.map(FileChannel.MapMode.READ_ONLY, offset, length).asLongBuffer());
+                    offset += length;
+                }
+            }
+            return new DbSnpBitSetCache(new DbSnpBitSetUtil(words.get(0)), new DbSnpBitSetUtil(words.get(1)), new DbSnpBitSetUtil(words.get(2)));
+        } catch (final IOException e) {
+            LOG.warn("Could not read dbSNP sites from " + cacheFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
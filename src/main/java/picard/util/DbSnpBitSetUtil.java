@@ -33,6 +33,7 @@ import htsjdk.variant.vcf.VCFFileReader;
 import picard.vcf.ByIntervalListVariantContextIterator;
 
 import java.io.File;
+import java.nio.LongBuffer;
 import java.util.*;
 
 /**
@@ -41,7 +42,10 @@ import java.util.*;
  */
 public class DbSnpBitSetUtil {
 
-    private final Map<String, BitSet> sequenceToBitSet = new HashMap<>();
+    final Map<String, BitSet> sequenceToBitSet = new HashMap<>();
+
+    /** When the sites were memory-mapped from a DbSnpBitSetCache, the words of each sequence's bit set; otherwise null. */
+    private final Map<String, LongBuffer> sequenceToWords;
 
     /** Little tuple class to contain one bitset for SNPs and another for Indels. */
     public static class DbSnpBitSets {
@@ -49,8 +53,15 @@ public class DbSnpBitSetUtil {
         public DbSnpBitSetUtil indels;
     }
 
-    /** Private empty contructor for use by factory methods only. */
-    private DbSnpBitSetUtil() { }
+    /** Empty contructor for use by factory methods only. */
+    DbSnpBitSetUtil() {
+        this.sequenceToWords = null;
+    }
+
+    /** Constructor for bit sets held, as returned by BitSet.toLongArray(), in the given buffers. */
+    DbSnpBitSetUtil(final Map<String, LongBuffer> sequenceToWords) {
+        this.sequenceToWords = sequenceToWords;
+    }
 
     /** Constructor that creates a bit set with bits set to true for all variant types. */
     public DbSnpBitSetUtil(final File dbSnpFile, final SAMSequenceDictionary sequenceDictionary) {
@@ -92,11 +103,33 @@ public class DbSnpBitSetUtil {
                            final Collection<VariantType> variantsToMatch,
                            final IntervalList intervals,
                            final Optional<Log> log) {
+        this(dbSnpFile, sequenceDictionary, variantsToMatch, intervals, log, null);
+    }
+
+    /**
+     * Constructor as above, that keeps the sites of the dbSNP file in cacheFile, if given, so that later runs can
+     * memory-map them rather than reading the dbSNP file.  The cache is only used when all sites are wanted (intervals
+     * is null) and a sequence dictionary is given.
+     */
+    public DbSnpBitSetUtil(final File dbSnpFile,
+                           final SAMSequenceDictionary sequenceDictionary,
+                           final Collection<VariantType> variantsToMatch,
+                           final IntervalList intervals,
+                           final Optional<Log> log,
+                           final File cacheFile) {
 
         if (dbSnpFile == null) throw new IllegalArgumentException("null dbSnpFile");
-        final Map<DbSnpBitSetUtil, Set<VariantType>> tmp = new HashMap<>();
-        tmp.put(this, EnumSet.copyOf(variantsToMatch));
-        loadVcf(dbSnpFile, sequenceDictionary, tmp, intervals, log);
+        final DbSnpBitSetUtil cached = useCache(cacheFile, sequenceDictionary, intervals) ?
+                DbSnpBitSetCache.loadOrBuild(cacheFile, dbSnpFile, sequenceDictionary, log).get(variantsToMatch) : null;
+        if (cached != null) {
+            this.sequenceToWords = cached.sequenceToWords;
+            this.sequenceToBitSet.putAll(cached.sequenceToBitSet);
+        } else {
+            this.sequenceToWords = null;
+            final Map<DbSnpBitSetUtil, Set<VariantType>> tmp = new HashMap<>();
+            tmp.put(this, EnumSet.copyOf(variantsToMatch));
+            loadVcf(dbSnpFile, sequenceDictionary, tmp, intervals, log);
+        }
     }
 
     /** Factory method to create both a SNP bitmask and an indel bitmask in a single pass of the VCF. */
@@ -120,8 +153,26 @@ public class DbSnpBitSetUtil {
                                                         final SAMSequenceDictionary sequenceDictionary,
                                                         final IntervalList intervals,
                                                         final Optional<Log> log) {
+        return createSnpAndIndelBitSets(dbSnpFile, sequenceDictionary, intervals, log, null);
+    }
+
+    /** Factory method as above, that keeps the sites of the dbSNP file in cacheFile, if given, so that later runs can
+     * memory-map them rather than reading the dbSNP file.  The cache is only used when intervals is null and a
+     * sequence dictionary is given. */
+    public static DbSnpBitSets createSnpAndIndelBitSets(final File dbSnpFile,
+                                                        final SAMSequenceDictionary sequenceDictionary,
+                                                        final IntervalList intervals,
+                                                        final Optional<Log> log,
+                                                        final File cacheFile) {
 
         final DbSnpBitSets sets = new DbSnpBitSets();
+        if (useCache(cacheFile, sequenceDictionary, intervals)) {
+            final DbSnpBitSetCache cache = DbSnpBitSetCache.loadOrBuild(cacheFile, dbSnpFile, sequenceDictionary, log);
+            sets.snps = cache.snps;
+            sets.indels = cache.indels;
+            return sets;
+        }
+
         sets.snps   = new DbSnpBitSetUtil();
         sets.indels = new DbSnpBitSetUtil();
 
@@ -132,12 +183,16 @@ public class DbSnpBitSetUtil {
         return sets;
     }
 
-    /** Private helper method to read through the VCF and create one or more bit sets. */
-    private static void loadVcf(final File dbSnpFile,
-                                final SAMSequenceDictionary sequenceDictionary,
-                                final Map<DbSnpBitSetUtil, Set<VariantType>> bitSetsToVariantTypes,
-                                final IntervalList intervals,
-                                final Optional<Log> log) {
+    private static boolean useCache(final File cacheFile, final SAMSequenceDictionary sequenceDictionary, final IntervalList intervals) {
+        return cacheFile != null && sequenceDictionary != null && intervals == null;
+    }
+
+    /** Helper method to read through the VCF and create one or more bit sets. */
+    static void loadVcf(final File dbSnpFile,
+                        final SAMSequenceDictionary sequenceDictionary,
+                        final Map<DbSnpBitSetUtil, Set<VariantType>> bitSetsToVariantTypes,
+                        final IntervalList intervals,
+                        final Optional<Log> log) {
 
         final Optional<ProgressLogger> progress = log.map(l -> new ProgressLogger(l, (int) 1e5, "Read", "variants"));
         final VCFFileReader variantReader = new VCFFileReader(dbSnpFile, intervals != null);
@@ -182,6 +237,11 @@ public class DbSnpBitSetUtil {
      * Returns true if there is a dbSnp entry at pos in sequenceName, otherwise false
      */
     public boolean isDbSnpSite(final String sequenceName, final int pos) {
+        if (sequenceToWords != null) {
+            final LongBuffer words = sequenceToWords.get(sequenceName);
+            final int wordIndex = pos >>> 6;
+            return words != null && wordIndex < words.limit() && (words.get(wordIndex) & (1L << pos)) != 0;
+        }
         // When we have a dbSnpFile with no sequence dictionary, this line will be necessary
         return sequenceToBitSet.get(sequenceName) != null &&
                 pos <= sequenceToBitSet.get(sequenceName).length() &&
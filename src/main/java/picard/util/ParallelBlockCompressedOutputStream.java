@@ -0,0 +1,266 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.util;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.samtools.util.RuntimeIOException;
+import picard.PicardException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes BGZF, the block compressed gzip format used by BAM, handing each block to an executor to be compressed.
+ * Many streams can share one executor, so that compression for a large number of files is spread across a fixed
+ * number of threads while each file's blocks are still written in order by the thread that writes to the stream.
+ *
+ * A stream holds at most maxBlocksInFlight blocks that have been handed off but not yet written; once that many are
+ * outstanding, a write waits for the oldest to finish compressing.  This bounds the memory used by each open stream
+ * to a few blocks regardless of how many streams are open.
+ *
+ * Each compression thread keeps its own deflaters and output buffer for every block it compresses.  Executors made by
+ * {@link #newCompressionExecutor(int)} release those when they shut down; other executors' threads hold on to them until
+ * the threads themselves are garbage collected.
+ *
+ * Unlike htsjdk's BlockCompressedOutputStream, this stream does not track virtual file pointers, so it cannot be used
+ * where an index is being built.
+ */
+public class ParallelBlockCompressedOutputStream extends OutputStream {
+    private static final int MAX_CDATA_SIZE = BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE
+            - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+
+    // Not created with an initial value, so that a thread that never compressed anything has nothing to end
+    private static final ThreadLocal<Compressor> COMPRESSORS = new ThreadLocal<>();
+
+    private final OutputStream out;
+    private final ExecutorService executor;
+    private final int compressionLevel;
+    private final int maxBlocksInFlight;
+
+    private final ArrayDeque<Future<byte[]>> blocksInFlight = new ArrayDeque<>();
+    // The uncompressed buffer behind each block in flight, reused once that block has been written
+    private final ArrayDeque<byte[]> buffersInFlight = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> freeBuffers = new ArrayDeque<>();
+    private byte[] buffer = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+    private int bufferOffset = 0;
+    private boolean closed = false;
+
+    /**
+     * @param out               Where to write the compressed blocks.  Closed when this stream is closed.
+     * @param executor          Compresses the blocks; may be shared with other streams.
+     * @param compressionLevel  The deflate compression level, 0 to 9.
+     * @param maxBlocksInFlight The most blocks this stream will have handed to the executor and not yet written.
+     */
+    public ParallelBlockCompressedOutputStream(final OutputStream out, final ExecutorService executor,
+                                               final int compressionLevel, final int maxBlocksInFlight) {
+        if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        if (maxBlocksInFlight < 1) {
+            throw new IllegalArgumentException("maxBlocksInFlight must be at least 1: " + maxBlocksInFlight);
+        }
+        this.out = out;
+        this.executor = executor;
+        this.compressionLevel = compressionLevel;
+        this.maxBlocksInFlight = maxBlocksInFlight;
+    }
+
+    /**
+     * Makes an executor to compress blocks on the given number of threads, which end their deflaters when the executor
+     * is shut down.
+     */
+    public static ExecutorService newCompressionExecutor(final int numThreads) {
+        final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+        return Executors.newFixedThreadPool(numThreads, task -> threadFactory.newThread(() -> {
+            try {
+                task.run();
+            } finally {
+                final Compressor compressor = COMPRESSORS.get();
+                if (compressor != null) {
+                    COMPRESSORS.remove();
+                    compressor.end();
+                }
+            }
+        }));
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        buffer[bufferOffset++] = (byte) b;
+        if (bufferOffset == buffer.length) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(final byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            final int toCopy = Math.min(length, buffer.length - bufferOffset);
+            System.arraycopy(bytes, offset, buffer, bufferOffset, toCopy);
+            bufferOffset += toCopy;
+            offset += toCopy;
+            length -= toCopy;
+            if (bufferOffset == buffer.length) {
+                submitBlock();
+            }
+        }
+    }
+
+    /** Hands off any partial block and writes out every block handed off so far. */
+    @Override
+    public void flush() throws IOException {
+        if (bufferOffset > 0) {
+            submitBlock();
+        }
+        while (!blocksInFlight.isEmpty()) {
+            writeOldestBlock();
+        }
+        out.flush();
+    }
+
+    /** Writes out all remaining blocks followed by the BGZF end-of-file marker, then closes the underlying stream. */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            flush();
+            out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+        } finally {
+            blocksInFlight.forEach(block -> block.cancel(false));
+            out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] uncompressed = buffer;
+        final int length = bufferOffset;
+        final int level = compressionLevel;
+        blocksInFlight.add(executor.submit(() -> compressBlock(uncompressed, length, level)));
+        buffersInFlight.add(uncompressed);
+
+        // Write out whatever has already been compressed, waiting on the oldest block if too many are outstanding
+        while (!blocksInFlight.isEmpty() && (blocksInFlight.size() > maxBlocksInFlight || blocksInFlight.peek().isDone())) {
+            writeOldestBlock();
+        }
+
+        buffer = freeBuffers.isEmpty() ? new byte[uncompressed.length] : freeBuffers.pop();
+        bufferOffset = 0;
+    }
+
+    private void writeOldestBlock() throws IOException {
+        final byte[] block;
+        try {
+            block = blocksInFlight.peek().get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PicardException("Interrupted while compressing a block", e);
+        } catch (final ExecutionException e) {
+            throw new RuntimeIOException("Failed to compress a block", e.getCause());
+        }
+        blocksInFlight.poll();
+        freeBuffers.push(buffersInFlight.poll());
+        out.write(block);
+    }
+
+    /** Compresses one block and returns it with its gzip header and footer. */
+    private static byte[] compressBlock(final byte[] uncompressed, final int length, final int level) {
+        Compressor compressor = COMPRESSORS.get();
+        if (compressor == null) {
+            compressor = new Compressor();
+            COMPRESSORS.set(compressor);
+        }
+        final byte[] cdata = compressor.cdata;
+        int cdataLength = deflate(compressor.deflater(level), uncompressed, length, cdata);
+        if (cdataLength < 0) {
+            // Did not compress enough to fit, e.g. random data; store it instead, as htsjdk does
+            cdataLength = deflate(compressor.deflater(Deflater.NO_COMPRESSION), uncompressed, length, cdata);
+            if (cdataLength < 0) {
+                throw new IllegalStateException("Uncompressed block does not fit in a BGZF block");
+            }
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(uncompressed, 0, length);
+
+        final int blockSize = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + cdataLength
+                + BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+        final ByteBuffer block = ByteBuffer.allocate(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+        block.put(BlockCompressedStreamConstants.GZIP_ID1);
+        block.put((byte) BlockCompressedStreamConstants.GZIP_ID2);
+        block.put(BlockCompressedStreamConstants.GZIP_CM_DEFLATE);
+        block.put((byte) BlockCompressedStreamConstants.GZIP_FLG);
+        block.putInt(0); // modification time
+        block.put((byte) BlockCompressedStreamConstants.GZIP_XFL);
+        block.put((byte) BlockCompressedStreamConstants.GZIP_OS_UNKNOWN);
+        block.putShort(BlockCompressedStreamConstants.GZIP_XLEN);
+        block.put(BlockCompressedStreamConstants.BGZF_ID1);
+        block.put(BlockCompressedStreamConstants.BGZF_ID2);
+        block.putShort(BlockCompressedStreamConstants.BGZF_LEN);
+        block.putShort((short) (blockSize - 1));
+        block.put(cdata, 0, cdataLength);
+        block.putInt((int) crc.getValue());
+        block.putInt(length);
+        return block.array();
+    }
+
+    /** Returns the compressed length, or -1 if the data does not fit in the output buffer. */
+    private static int deflate(final Deflater deflater, final byte[] uncompressed, final int length, final byte[] cdata) {
+        deflater.reset();
+        deflater.setInput(uncompressed, 0, length);
+        deflater.finish();
+        final int cdataLength = deflater.deflate(cdata, 0, cdata.length);
+        return deflater.finished() ? cdataLength : -1;
+    }
+
+    /** The deflaters, one per compression level, and the output buffer of one compression thread. */
+    private static final class Compressor {
+        private final Deflater[] deflaters = new Deflater[Deflater.BEST_COMPRESSION + 1];
+        private final byte[] cdata = new byte[MAX_CDATA_SIZE];
+
+        private Deflater deflater(final int level) {
+            if (deflaters[level] == null) {
+                deflaters[level] = new Deflater(level, true);
+            }
+            return deflaters[level];
+        }
+
+        private void end() {
+            for (final Deflater deflater : deflaters) {
+                if (deflater != null) deflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.util;
+
+import picard.PicardException;
+
+import java.util.Arrays;
+
+/**
+ * Packs short reference contexts into ints, two bits per base (A=0, C=1, G=2, T=3) with the first base
+ * in the most significant position. Codes therefore sort in the same order as the upper-cased context
+ * strings, and can be used to index dense arrays of size {@link #numberOfContexts(int)}.
+ */
+public final class ReferenceContextCodes {
+
+    /** The longest context that fits into a non-negative int. */
+    public static final int MAX_CONTEXT_LENGTH = 15;
+
+    /** Returned for contexts containing anything other than A, C, G or T. */
+    public static final int INVALID = -1;
+
+    private static final byte[] CODE_TO_BASE = {'A', 'C', 'G', 'T'};
+    private static final int[] BASE_TO_CODE = new int[256];
+    static {
+        Arrays.fill(BASE_TO_CODE, INVALID);
+        for (int i = 0; i < CODE_TO_BASE.length; i++) {
+            BASE_TO_CODE[CODE_TO_BASE[i]] = i;
+            BASE_TO_CODE[Character.toLowerCase(CODE_TO_BASE[i])] = i;
+        }
+    }
+
+    private ReferenceContextCodes() {}
+
+    /** Returns the two bit code of a base, ignoring case, or {@link #INVALID} if it is not A, C, G or T. */
+    public static int baseCode(final byte base) {
+        return BASE_TO_CODE[base & 0xff];
+    }
+
+    /** Returns the number of distinct codes for contexts of the given length. */
+    public static int numberOfContexts(final int contextLength) {
+        checkLength(contextLength);
+        return 1 << (2 * contextLength);
+    }
+
+    /** Returns the mask that keeps the bits of the last contextLength bases of a rolling code. */
+    public static int mask(final int contextLength) {
+        return numberOfContexts(contextLength) - 1;
+    }
+
+    /** Encodes length bases starting at offset, or returns {@link #INVALID} if any of them is not A, C, G or T. */
+    public static int encode(final byte[] bases, final int offset, final int length) {
+        checkLength(length);
+        int code = 0;
+        for (int i = offset; i < offset + length; i++) {
+            final int baseCode = baseCode(bases[i]);
+            if (baseCode == INVALID) return INVALID;
+            code = (code << 2) | baseCode;
+        }
+        return code;
+    }
+
+    /** Encodes a whole context string, or returns {@link #INVALID} if it contains anything other than A, C, G or T. */
+    public static int encode(final String context) {
+        checkLength(context.length());
+        int code = 0;
+        for (int i = 0; i < context.length(); i++) {
+            final char base = context.charAt(i);
+            final int baseCode = base < 256 ? baseCode((byte) base) : INVALID;
+            if (baseCode == INVALID) return INVALID;
+            code = (code << 2) | baseCode;
+        }
+        return code;
+    }
+
+    /** Turns a code back into an upper-case context string of the given length. */
+    public static String decode(final int code, final int contextLength) {
+        checkLength(contextLength);
+        final byte[] bases = new byte[contextLength];
+        for (int i = contextLength - 1, c = code; i >= 0; i--, c >>>= 2) {
+            bases[i] = CODE_TO_BASE[c & 3];
+        }
+        return new String(bases);
+    }
+
+    /** Returns the code of the reverse complement of the context with the given code. */
+    public static int reverseComplement(final int code, final int contextLength) {
+        checkLength(contextLength);
+        int result = 0;
+        for (int i = 0, c = code; i < contextLength; i++, c >>>= 2) {
+            // with A=0, C=1, G=2, T=3 the complement of a base code is 3 - code
+            result = (result << 2) | (3 - (c & 3));
+        }
+        return result;
+    }
+
+    private static void checkLength(final int contextLength) {
+        if (contextLength < 0 || contextLength > MAX_CONTEXT_LENGTH) {
+            throw new PicardException("Context length must be between 0 and " + MAX_CONTEXT_LENGTH + " but was " + contextLength);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.util;
+
+import htsjdk.samtools.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * A process-wide cache of objects loaded from immutable shared inputs such as haplotype maps and dbSNP sites, so that
+ * a long-lived JVM (see {@link picard.cmdline.PicardDaemon}) only reads them once across many tool invocations.
+ *
+ * Entries are keyed by the type of object, any variant the caller needs to distinguish (e.g. a sequence dictionary
+ * MD5), and the identity of the file: its canonical path, length and last-modified time, so that an input that is
+ * replaced on disk is read again. Only objects that are never modified after loading may be cached.
+ *
+ * The cache is disabled by default, in which case {@link #getOrLoad} simply calls the loader.
+ */
+public final class SharedInputCache {
+    private static final Log log = Log.getInstance(SharedInputCache.class);
+
+    private static volatile Map<Key, Object> entries = null;
+
+    private SharedInputCache() {}
+
+    /** Enables the cache, keeping at most maxEntries of the most recently used objects. */
+    public static synchronized void enable(final int maxEntries) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        entries = new LruMap(maxEntries);
+    }
+
+    /** Disables the cache and drops everything in it. */
+    public static synchronized void disable() {
+        entries = null;
+    }
+
+    public static boolean isEnabled() {
+        return entries != null;
+    }
+
+    /**
+     * Returns the cached object of the given type loaded from file (with the given variant), calling loader to load
+     * it if it isn't cached or the cache is disabled. Concurrent misses may load the same object more than once.
+     */
+    public static <T> T getOrLoad(final Class<T> type, final File file, final String variant, final Supplier<T> loader) {
+        final Map<Key, Object> cache = entries;
+        if (cache == null) return loader.get();
+
+        final Key key = new Key(type, file, variant);
+        synchronized (cache) {
+            final Object cached = cache.get(key);
+            if (cached != null) {
+                log.debug("Using cached " + type.getSimpleName() + " for " + file);
+                return type.cast(cached);
+            }
+        }
+        final T loaded = loader.get();
+        synchronized (cache) {
+            cache.put(key, loaded);
+        }
+        return loaded;
+    }
+
+    /** A map in access order that drops its least recently used entry once it holds more than maxEntries. */
+    private static final class LruMap extends LinkedHashMap<Key, Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        private LruMap(final int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, Object> eldest) {
+            return size() > maxEntries;
+        }
+    }
+
+    private static final class Key {
+        private final Class<?> type;
+        private final String path;
+        private final long length;
+        private final long lastModified;
+        private final String variant;
+
+        private Key(final Class<?> type, final File file, final String variant) {
+            this.type = type;
+            String path;
+            try {
+                path = file.getCanonicalPath();
+            } catch (final IOException e) {
+                path = file.getAbsolutePath();
+            }
+            this.path = path;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.variant = variant;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key other = (Key) o;
+            return type == other.type && length == other.length && lastModified == other.lastModified &&
+                    path.equals(other.path) && Objects.equals(variant, other.variant);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, path, length, lastModified, variant);
+        }
+    }
+}
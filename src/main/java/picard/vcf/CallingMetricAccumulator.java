@@ -45,7 +45,8 @@ import static picard.vcf.CollectVariantCallingMetrics.VariantCallingSummaryMetri
 
 /**
  * Collects variants and generates metrics about them.  To use, construct, call {@link #setup(VCFHeader)} once, then
- * {@link #accumulate(htsjdk.variant.variantcontext.VariantContext)} as desired, then call {@link #result()}.
+ * {@link #accumulate(htsjdk.variant.variantcontext.VariantContext)} (or {@link #accumulate(VcfLineReader)} for each record of a
+ * text VCF) as desired, then call {@link #result()}.
  *
  * @author mccowan
  */
@@ -90,6 +91,9 @@ public class CallingMetricAccumulator implements VariantProcessor.Accumulator<Ca
     private static final Log LOG = Log.getInstance(CallingMetricAccumulator.class);
     private static final ProgressLogger progress = new ProgressLogger(LOG, 10000);
 
+    /** The call passed in place of a sample's when updating the summary metric, which has no genotype. */
+    private static final byte NO_GENOTYPE = -1;
+
     private final DbSnpBitSetUtil.DbSnpBitSets dbsnp;
     private final VariantCallingSummaryMetrics summaryMetric = new VariantCallingSummaryMetrics();
     /**
@@ -119,14 +123,61 @@ public class CallingMetricAccumulator implements VariantProcessor.Accumulator<Ca
         progress.record(vc.getContig(), vc.getStart());
         if (!isVariantExcluded(vc)) {
             final String singletonSample = getSingletonSample(vc);
-            updateSummaryMetric(summaryMetric, null, vc, singletonSample != null); // The summary metric has no genotype.
+            updateSummaryMetric(summaryMetric, NO_GENOTYPE, -1, -1, vc, singletonSample != null); // The summary metric has no genotype.
 
-            vc.getSampleNames().stream()
-                    .filter(sampleName -> !vc.getGenotype(sampleName).isHomRef())
-                    .forEach(sampleName ->
-                            updateDetailMetric(sampleMetricsMap.get(sampleName), vc.getGenotype(sampleName), vc,
-                                    sampleName.equals(singletonSample)));
+            for (final Genotype genotype : vc.getGenotypes()) {
+                if (genotype.isHomRef()) continue;
+                final int[] alleleDepths = genotype.getAD();
+                final boolean hasDepths = alleleDepths != null && alleleDepths.length > 1;
+                updateDetailMetric(sampleMetricsMap.get(genotype.getSampleName()), VcfLineReader.callOf(genotype), genotype.getGQ(),
+                        hasDepths ? alleleDepths[0] : -1, hasDepths ? alleleDepths[1] : -1, vc,
+                        genotype.getSampleName().equals(singletonSample));
+            }
+        }
+    }
+
+    /**
+     * Incorporates the current record of the provided reader into the metric analysis, reading just the call, GQ and AD of
+     * each sample instead of decoding their {@link Genotype}s.  Gives the same metrics as {@code accumulate(reader.decode())}.
+     */
+    void accumulate(final VcfLineReader reader) {
+        if (!reader.parseCalls()) {
+            accumulate(reader.decode());
+            return;
         }
+        progress.record(reader.getContig(), reader.getStart());
+
+        // Same as isVariantExcluded() and getSingletonSample(), but on the calls
+        boolean allHomRef = true;
+        int numVariantSamples = 0;
+        int singletonSample = -1;
+        for (int i = 0; i < reader.getNumSamples(); i++) {
+            final byte call = reader.getCall(i);
+            if (call != VcfLineReader.HOM_REF) allHomRef = false;
+            if (call == VcfLineReader.HET || call == VcfLineReader.HOM_VAR) {
+                numVariantSamples++;
+                singletonSample = (call == VcfLineReader.HET) ? i : -1;
+            }
+        }
+        if (allHomRef || reader.getNumAlleles() == 1) return;
+        if (numVariantSamples != 1) singletonSample = -1;
+
+        final VariantContext vc = decodeSite(reader);
+        if (!vc.isVariant()) return;
+
+        updateSummaryMetric(summaryMetric, NO_GENOTYPE, -1, -1, vc, singletonSample != -1);
+        final List<String> sampleNames = reader.getSampleNames();
+        for (int i = 0; i < reader.getNumSamples(); i++) {
+            final byte call = reader.getCall(i);
+            if (call == VcfLineReader.HOM_REF) continue;
+            updateDetailMetric(sampleMetricsMap.get(sampleNames.get(i)), call, reader.getGQ(i),
+                    reader.getRefDepth(i), reader.getAltDepth(i), vc, i == singletonSample);
+        }
+    }
+
+    /** Decodes the site (without genotypes) of the reader's current record, after its calls have been parsed. */
+    VariantContext decodeSite(final VcfLineReader reader) {
+        return reader.decodeSite();
     }
 
     /**
@@ -174,31 +225,42 @@ public class CallingMetricAccumulator implements VariantProcessor.Accumulator<Ca
     }
 
     private void updateDetailMetric(final VariantCallingDetailMetrics metric,
-                                    final Genotype genotype,
+                                    final byte call,
+                                    final int genotypeQuality,
+                                    final int refDepth,
+                                    final int altDepth,
                                     final VariantContext vc,
                                     final boolean hasSingletonSample) {
-        updateSummaryMetric(metric, genotype, vc, hasSingletonSample);
+        updateSummaryMetric(metric, call, refDepth, altDepth, vc, hasSingletonSample);
 
-        if (genotype != null && !vc.isFiltered()) {
-            if (genotype.getGQ() == 0) {
+        if (!vc.isFiltered()) {
+            if (genotypeQuality == 0) {
                 ++metric.TOTAL_GQ0_VARIANTS;
             }
-            if (genotype.isHet()) {
+            if (call == VcfLineReader.HET) {
                 ++metric.numHets;
-            } else if (genotype.isHomVar()) {
+            } else if (call == VcfLineReader.HOM_VAR) {
                 ++metric.numHomVar;
             }
         }
     }
 
-    /** Amends the provided metric with the data in the provided variant.  Also amends the summary metric re: reference bias. */
+    /**
+     * Amends the provided metric with the data in the provided variant.  Also amends the summary metric re: reference bias.
+     *
+     * @param call the call of the sample, as in {@link VcfLineReader#getCall(int)}, or {@link #NO_GENOTYPE} for the summary metric
+     * @param refDepth the first value of the sample's AD, or -1 if not known
+     * @param altDepth the second value of the sample's AD, or -1 if not known
+     */
     private void updateSummaryMetric(final VariantCallingSummaryMetrics metric,
-                                     final Genotype genotype,
+                                     final byte call,
+                                     final int refDepth,
+                                     final int altDepth,
                                      final VariantContext vc,
                                      final boolean hasSingletonSample) {
 
         // If this sample's genotype doesn't have any variation, exclude it
-        if (genotype != null && genotype.isNoCall()) return;
+        if (call == VcfLineReader.NO_CALL) return;
 
         // Tally up the filtered SNPs & indels, then exit. The other metrics shouldn't be
         // computed on low-confidence calls.
@@ -228,26 +290,22 @@ public class CallingMetricAccumulator implements VariantProcessor.Accumulator<Ca
                 else metric.novelTransversions++;
             }
 
-            // Calculate reference bias numbers.  Note: genotype == null for summary metric, so this block won't be called when metric ==
+            // Calculate reference bias numbers.  Note: call == NO_GENOTYPE for summary metric, so this block won't be called when metric ==
             // summaryMetric.
-            if (genotype != null && genotype.isHet()) { //
-                final int[] alleleDepths = genotype.getAD();
+            if (call == VcfLineReader.HET) {
                 /*
-                 * Null check: work around GATK issue in which some biallelic sites are missing allele depth.  This should affect only ~1%
+                 * Missing check: work around GATK issue in which some biallelic sites are missing allele depth.  This should affect only ~1%
                  * of samples and should not have a significant impact on the reference bias calculation.
                  */
-                if (alleleDepths != null) {
-                    final int indexOfRef = vc.getAlleleIndex(vc.getReference());
-                    final int indexOfAlt = (indexOfRef + 1) % 2;
-
-                    metric.refAlleleObs += alleleDepths[indexOfRef];
-                    metric.altAlleleObs += alleleDepths[indexOfAlt];
+                if (refDepth >= 0) {
+                    metric.refAlleleObs += refDepth;
+                    metric.altAlleleObs += altDepth;
 
                     // Always count these values for summary metrics.
-                    summaryMetric.refAlleleObs += alleleDepths[indexOfRef];
-                    summaryMetric.altAlleleObs += alleleDepths[indexOfAlt];
+                    summaryMetric.refAlleleObs += refDepth;
+                    summaryMetric.altAlleleObs += altDepth;
                 } else {
-                    LOG.debug("Skipping aggregation of genotype due to missing allele depth data: ", genotype, ".");
+                    LOG.debug("Skipping aggregation of genotype due to missing allele depth data: ", vc, ".");
                 }
             }
         } else if (vc.isSNP() && vc.getAlternateAlleles().size() > 1) {
@@ -24,8 +24,10 @@
 package picard.vcf;
 
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.metrics.MetricsFile;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.FileExtensions;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.IntervalList;
 import htsjdk.samtools.util.Log;
@@ -35,6 +37,7 @@ import htsjdk.variant.vcf.VCFHeader;
 import org.broadinstitute.barclay.argparser.Argument;
 import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
 import org.broadinstitute.barclay.help.DocumentedFeature;
+import picard.PicardException;
 import picard.analysis.MergeableMetricBase;
 import picard.cmdline.CommandLineProgram;
 import picard.cmdline.StandardOptionDefinitions;
@@ -44,7 +47,10 @@ import picard.vcf.processor.VariantProcessor;
 
 import java.io.File;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /** Collects summary and per-sample metrics about variant calls in a VCF file. */
 @CommandLineProgramProperties(
@@ -65,6 +71,10 @@ public class CollectVariantCallingMetrics extends CommandLineProgram {
     @Argument(doc = "Reference dbSNP file in dbSNP or VCF format.")
     public File DBSNP;
 
+    @Argument(doc = "Optional file in which to keep the sites of the dbSNP file, so that later runs memory-map them rather than " +
+            "reading the dbSNP file. Built on first use, and rebuilt if the dbSNP file or sequence dictionary changes. Not used with TARGET_INTERVALS.", optional = true)
+    public File DBSNP_CACHE;
+
     @Argument(shortName = "TI", doc = "Target intervals to restrict analysis to.", optional = true)
     public File TARGET_INTERVALS;
 
@@ -91,6 +101,10 @@ public class CollectVariantCallingMetrics extends CommandLineProgram {
         final VCFFileReader variantReader = new VCFFileReader(INPUT, requiresIndex);
         final VCFHeader vcfHeader = variantReader.getFileHeader();
         CloserUtil.close(variantReader);
+        if (vcfHeader.getSequenceDictionary() == null) {
+            // the contigs of INPUT to process are those of its own dictionary, even when SEQUENCE_DICTIONARY is given
+            throw new PicardException("The header of " + INPUT.getAbsolutePath() + " has no sequence dictionary (##contig lines).");
+        }
 
         final SAMSequenceDictionary sequenceDictionary =
                 SAMSequenceDictionaryExtractor.extractDictionary(SEQUENCE_DICTIONARY == null ? INPUT.toPath() : SEQUENCE_DICTIONARY.toPath());
@@ -98,27 +112,33 @@ public class CollectVariantCallingMetrics extends CommandLineProgram {
         final IntervalList targetIntervals = (TARGET_INTERVALS == null) ? null : IntervalList.fromFile(TARGET_INTERVALS).uniqued();
 
         log.info("Loading dbSNP file ...");
-        final DbSnpBitSetUtil.DbSnpBitSets dbsnp = DbSnpBitSetUtil.createSnpAndIndelBitSets(DBSNP, sequenceDictionary, targetIntervals, Optional.of(log));
+        final DbSnpBitSetUtil.DbSnpBitSets dbsnp = DbSnpBitSetUtil.createSnpAndIndelBitSets(DBSNP, sequenceDictionary, targetIntervals, Optional.of(log), DBSNP_CACHE);
 
         log.info("Starting iteration of variants.");
 
-        final VariantProcessor.Builder<CallingMetricAccumulator, CallingMetricAccumulator.Result> builder =
-                VariantProcessor.Builder
-                        .generatingAccumulatorsBy(() -> {
-                            CallingMetricAccumulator accumulator = GVCF_INPUT ? new GvcfMetricAccumulator(dbsnp) : new CallingMetricAccumulator(dbsnp);
-                            accumulator.setup(vcfHeader);
-                            return accumulator;
-                        })
-                        .combiningResultsBy(CallingMetricAccumulator.Result::merge)
-                        .withInput(INPUT)
-                        .multithreadingBy(THREAD_COUNT);
-
-        if (targetIntervals != null) {
-            builder.limitingProcessedRegionsTo(targetIntervals);
+        final CallingMetricAccumulator.Result result;
+        if (THREAD_COUNT == 1 && targetIntervals == null && !INPUT.getName().endsWith(FileExtensions.BCF)) {
+            // A single pass over a text VCF reads the records directly, without decoding the genotypes of every sample
+            result = accumulateVcfLines(GVCF_INPUT ? new GvcfMetricAccumulator(dbsnp) : new CallingMetricAccumulator(dbsnp), vcfHeader);
+        } else {
+            final VariantProcessor.Builder<CallingMetricAccumulator, CallingMetricAccumulator.Result> builder =
+                    VariantProcessor.Builder
+                            .generatingAccumulatorsBy(() -> {
+                                CallingMetricAccumulator accumulator = GVCF_INPUT ? new GvcfMetricAccumulator(dbsnp) : new CallingMetricAccumulator(dbsnp);
+                                accumulator.setup(vcfHeader);
+                                return accumulator;
+                            })
+                            .combiningResultsBy(CallingMetricAccumulator.Result::merge)
+                            .withInput(INPUT)
+                            .multithreadingBy(THREAD_COUNT);
+
+            if (targetIntervals != null) {
+                builder.limitingProcessedRegionsTo(targetIntervals);
+            }
+
+            result = builder.build().process();
         }
 
-        final CallingMetricAccumulator.Result result = builder.build().process();
-
         // Fetch and write the metrics.
         final MetricsFile<CollectVariantCallingMetrics.VariantCallingDetailMetrics, Integer> detail = getMetricsFile();
         final MetricsFile<CollectVariantCallingMetrics.VariantCallingSummaryMetrics, Integer> summary = getMetricsFile();
@@ -132,6 +152,31 @@ public class CollectVariantCallingMetrics extends CommandLineProgram {
         return 0;
     }
 
+    /**
+     * Accumulates every record of INPUT, in file order, on the contigs of its sequence dictionary: the same records, and the same
+     * results, as a single-threaded {@link VariantProcessor}.
+     */
+    private CallingMetricAccumulator.Result accumulateVcfLines(final CallingMetricAccumulator accumulator, final VCFHeader vcfHeader) {
+        accumulator.setup(vcfHeader);
+        final Set<String> contigs = vcfHeader.getSequenceDictionary().getSequences().stream()
+                .map(SAMSequenceRecord::getSequenceName)
+                .collect(Collectors.toSet());
+
+        try (final VcfLineReader reader = new VcfLineReader(INPUT)) {
+            String lastContig = null;
+            boolean isKnownContig = false;
+            while (reader.next()) {
+                final String contig = reader.getContig();
+                if (contig != lastContig) { // the reader returns the same String for consecutive records on a contig
+                    lastContig = contig;
+                    isKnownContig = contigs.contains(contig);
+                }
+                if (isKnownContig) accumulator.accumulate(reader);
+            }
+        }
+        return CallingMetricAccumulator.Result.merge(Collections.singletonList(accumulator.result()));
+    }
+
     /** A collection of metrics relating to snps and indels within a variant-calling file (VCF). */
     public static class VariantCallingSummaryMetrics extends MergeableMetricBase {
         /** The number of passing bi-allelic SNPs calls (i.e. non-reference genotypes) that were examined */
@@ -23,10 +23,13 @@ package picard.vcf;
  * THE SOFTWARE.
  */
 
+import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
 import htsjdk.variant.vcf.VCFHeader;
 import picard.util.DbSnpBitSetUtil;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -61,4 +64,15 @@ public class GvcfMetricAccumulator extends CallingMetricAccumulator {
         final VariantContext subContext = vc.subContextFromSample(sample);
         super.accumulate(subContext);
     }
+
+    /** Subsets the site to the alleles called in the only sample, as {@link VariantContext#subContextFromSample(String)} would. */
+    @Override
+    VariantContext decodeSite(final VcfLineReader reader) {
+        final VariantContext site = reader.decodeSite();
+        final List<Allele> calledAlleles = new ArrayList<>(site.getNAlleles());
+        for (int i = 0; i < site.getNAlleles(); i++) {
+            if (i == 0 || reader.isCalled(i)) calledAlleles.add(site.getAlleles().get(i));
+        }
+        return calledAlleles.size() == site.getNAlleles() ? site : new VariantContextBuilder(site).alleles(calledAlleles).make();
+    }
 }
@@ -46,21 +46,26 @@ import htsjdk.variant.vcf.VCFInfoHeaderLine;
 import org.broadinstitute.barclay.argparser.Argument;
 import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
 import org.broadinstitute.barclay.help.DocumentedFeature;
+import picard.PicardException;
 import picard.cmdline.CommandLineProgram;
 import picard.cmdline.StandardOptionDefinitions;
 import picard.cmdline.programgroups.VariantEvaluationProgramGroup;
 import picard.pedigree.PedFile;
+import picard.util.ThreadPoolExecutorUtil;
+import picard.util.ThreadPoolExecutorWithExceptions;
 import picard.vcf.processor.VariantProcessor;
 
 import java.io.File;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 
 import static htsjdk.variant.variantcontext.writer.Options.INDEX_ON_THE_FLY;
 
@@ -195,6 +200,18 @@ public class FindMendelianViolations extends CommandLineProgram {
                 }
             });
 
+    /** The header lines of the per-family violation VCFs: those of the input, and the INFO fields describing the violation. */
+    private final Lazy<Set<VCFHeaderLine>> violationHeaderLines = new Lazy<>(
+            () -> {
+                final Set<VCFHeaderLine> headerLines = new LinkedHashSet<>(inputHeader.get().getMetaDataInInputOrder());
+
+                headerLines.add(new VCFInfoHeaderLine(MendelianViolationDetector.MENDELIAN_VIOLATION_KEY, 1, VCFHeaderLineType.String, "Type of mendelian violation."));
+                headerLines.add(new VCFInfoHeaderLine(MendelianViolationDetector.ORIGINAL_AC, VCFHeaderLineCount.A, VCFHeaderLineType.Integer, "Original AC"));
+                headerLines.add(new VCFInfoHeaderLine(MendelianViolationDetector.ORIGINAL_AF, VCFHeaderLineCount.A, VCFHeaderLineType.Float, "Original AF"));
+                headerLines.add(new VCFInfoHeaderLine(MendelianViolationDetector.ORIGINAL_AN, 1, VCFHeaderLineType.Integer, "Original AN"));
+                return Collections.unmodifiableSet(headerLines);
+            });
+
     private final Lazy<PedFile> pedFile = new Lazy<>(()-> PedFile.fromFile(TRIOS, TAB_MODE));
 
     private final Lazy<Set<Interval>> parIntervals = new Lazy<>(() -> Collections.unmodifiableSet(parseIntervalLists(PSEUDO_AUTOSOMAL_REGIONS)));
@@ -267,35 +284,50 @@ public class FindMendelianViolations extends CommandLineProgram {
             LOG.info(String.format("Writing family violation VCFs to %s/", VCF_DIR.getAbsolutePath()));
 
             final VariantContextComparator vcComparator = new VariantContextComparator(inputHeader.get().getContigLines());
-            final Set<VCFHeaderLine> headerLines = new LinkedHashSet<>(inputHeader.get().getMetaDataInInputOrder());
-
-            headerLines.add(new VCFInfoHeaderLine(MendelianViolationDetector.MENDELIAN_VIOLATION_KEY, 1, VCFHeaderLineType.String, "Type of mendelian violation."));
-            headerLines.add(new VCFInfoHeaderLine(MendelianViolationDetector.ORIGINAL_AC, VCFHeaderLineCount.A, VCFHeaderLineType.Integer, "Original AC"));
-            headerLines.add(new VCFInfoHeaderLine(MendelianViolationDetector.ORIGINAL_AF, VCFHeaderLineCount.A, VCFHeaderLineType.Float, "Original AF"));
-            headerLines.add(new VCFInfoHeaderLine(MendelianViolationDetector.ORIGINAL_AN, 1, VCFHeaderLineType.Integer, "Original AN"));
+            final Set<VCFHeaderLine> headerLines = violationHeaderLines.get();
 
+            // Trios of the same family share its VCF, which is written with the samples of all of them
+            final Map<String, Set<String>> familySamples = new LinkedHashMap<>();
             for (final PedFile.PedTrio trio : pedFile.get().values()) {
-                final File outputFile = new File(VCF_DIR, IOUtil.makeFileNameSafe(trio.getFamilyId() + IOUtil.VCF_FILE_EXTENSION));
-                LOG.info(String.format("Writing %s violation VCF to %s", trio.getFamilyId(), outputFile.getAbsolutePath()));
-
-                final VariantContextWriter out = new VariantContextWriterBuilder()
-                        .setOutputFile(outputFile)
-                        .unsetOption(INDEX_ON_THE_FLY)
-                        .build();
-
-                final VCFHeader newHeader = new VCFHeader(headerLines, CollectionUtil.makeList(trio.getMaternalId(), trio.getPaternalId(), trio.getIndividualId()));
-                final TreeSet<VariantContext> orderedViolations = new TreeSet<>(vcComparator);
-
-                orderedViolations.addAll(result.violations().get(trio.getFamilyId()));
-                out.writeHeader(newHeader);
-                orderedViolations.forEach(out::add);
+                familySamples.computeIfAbsent(trio.getFamilyId(), family -> new LinkedHashSet<>())
+                        .addAll(CollectionUtil.makeList(trio.getMaternalId(), trio.getPaternalId(), trio.getIndividualId()));
+            }
 
-                out.close();
+            // Families are written in parallel, each reading back its own spilled violations
+            final ThreadPoolExecutorWithExceptions pool = new ThreadPoolExecutorWithExceptions(THREAD_COUNT);
+            for (final Map.Entry<String, Set<String>> family : familySamples.entrySet()) {
+                final String familyId = family.getKey();
+                pool.execute(() -> {
+                    final File outputFile = new File(VCF_DIR, IOUtil.makeFileNameSafe(familyId + IOUtil.VCF_FILE_EXTENSION));
+                    LOG.info(String.format("Writing %s violation VCF to %s", familyId, outputFile.getAbsolutePath()));
+
+                    final VariantContextWriter out = new VariantContextWriterBuilder()
+                            .setOutputFile(outputFile)
+                            .unsetOption(INDEX_ON_THE_FLY)
+                            .build();
+
+                    final VCFHeader newHeader = new VCFHeader(headerLines, family.getValue());
+
+                    // Offspring of the same family may each violate at the same site, so keep all records at a position
+                    final List<VariantContext> orderedViolations = result.violations().get(familyId);
+                    orderedViolations.sort(vcComparator);
+                    out.writeHeader(newHeader);
+                    orderedViolations.forEach(out::add);
+
+                    out.close();
+                });
+            }
+            pool.shutdown();
+            ThreadPoolExecutorUtil.awaitThreadPoolTermination("Mendelian violation VCF writers", pool, Duration.ofMinutes(1));
+            result.violations().deleteSpillFiles();
+            if (pool.hasError()) {
+                throw new PicardException("Exception writing family violation VCFs", pool.exception);
             }
         }
     }
 
     private MendelianViolationDetector buildDetector() {
+        final List<MendelianViolationMetrics> trioMetrics = generateTrioMetricsBase();
         return new MendelianViolationDetector(
                 ImmutableSet.copyOf(SKIP_CHROMS),
                 ImmutableSet.copyOf(MALE_CHROMS),
@@ -303,9 +335,11 @@ public class FindMendelianViolations extends CommandLineProgram {
                 MIN_HET_FRACTION,
                 MIN_GQ,
                 MIN_DP,
-                generateTrioMetricsBase(),
+                trioMetrics,
                 ImmutableList.copyOf(parIntervals.get()),
-                progressLogger
+                progressLogger,
+                inputHeader.get().getGenotypeSamples(),
+                VCF_DIR == null ? null : new MendelianViolationsByFamily(violationHeaderLines.get(), trioMetrics, TMP_DIR.toArray(new File[0]))
         );
     }
 
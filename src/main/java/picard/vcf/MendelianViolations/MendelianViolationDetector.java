@@ -36,13 +36,14 @@ import picard.pedigree.Sex;
 import picard.vcf.processor.VariantProcessor;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.stream.IntStream;
 
 /**
  * @author mccowan
@@ -58,9 +59,22 @@ class MendelianViolationDetector implements VariantProcessor.Accumulator<Mendeli
     private final ProgressLogger logger;
     private final MendelianViolationsByFamily familyToViolations;
 
+    /** The number of samples in the VCF, and the indices of each trio's mother, father and offspring among them. */
+    private final int numSamples;
+    private final int[] motherIndices, fatherIndices, offspringIndices;
+    /** The indices of every sample in any trio. */
+    private final int[] trioSampleIndices;
+    /** The genotype code (see {@link #genotypeCode(VariantContext, Genotype)}) of each sample at the current site. */
+    private final int[] genotypeCodes;
+
+    /**
+     * @param samples the samples of the VCF, in the order of its genotypes, which must include those of every trio
+     * @param familyToViolations where to record violations, or null if they are only to be counted
+     */
     MendelianViolationDetector(final Set<String> skip_chroms, final Set<String> male_chroms, final Set<String> female_chroms,
                                final double min_het_fraction, final int min_gq, final int min_dp, final List<MendelianViolationMetrics> trios,
-                               final List<Interval> parIntervals, final ProgressLogger logger) {
+                               final List<Interval> parIntervals, final ProgressLogger logger, final List<String> samples,
+                               final MendelianViolationsByFamily familyToViolations) {
         SKIP_CHROMS = skip_chroms;
         MALE_CHROMS = male_chroms;
         FEMALE_CHROMS = female_chroms;
@@ -70,8 +84,18 @@ class MendelianViolationDetector implements VariantProcessor.Accumulator<Mendeli
         this.trios = trios;
         this.parIntervals = parIntervals;
         this.logger = logger;
-        familyToViolations = new MendelianViolationsByFamily();
-        }
+        this.familyToViolations = familyToViolations;
+
+        final Map<String, Integer> sampleIndices = new HashMap<>();
+        for (int i = 0; i < samples.size(); i++) sampleIndices.put(samples.get(i), i);
+        numSamples = samples.size();
+        motherIndices = trios.stream().mapToInt(trio -> sampleIndices.get(trio.MOTHER)).toArray();
+        fatherIndices = trios.stream().mapToInt(trio -> sampleIndices.get(trio.FATHER)).toArray();
+        offspringIndices = trios.stream().mapToInt(trio -> sampleIndices.get(trio.OFFSPRING)).toArray();
+        trioSampleIndices = IntStream.concat(IntStream.concat(Arrays.stream(motherIndices), Arrays.stream(fatherIndices)), Arrays.stream(offspringIndices))
+                .distinct().sorted().toArray();
+        genotypeCodes = new int[numSamples];
+    }
 
     /** A little enum to describe the different type of Mendelian violations possible at a bi-allelic site. */
     enum MendelianViolation {
@@ -111,34 +135,42 @@ class MendelianViolationDetector implements VariantProcessor.Accumulator<Mendeli
         if (!ctx.isVariant()) return;
         if (SKIP_CHROMS.contains(variantChrom)) return;
 
-        for (final MendelianViolationMetrics trio : trios) {
-            final Genotype momGt = ctx.getGenotype(trio.MOTHER);
-            final Genotype dadGt = ctx.getGenotype(trio.FATHER);
-            final Genotype kidGt = ctx.getGenotype(trio.OFFSPRING);
+        // if the reference isn't a SNP allele, every trio would be ignored below
+        if (ctx.getReference().length() != 1) return;
+        if (ctx.getNSamples() != numSamples) {
+            throw new IllegalArgumentException("Expected " + numSamples + " genotypes, found " + ctx.getNSamples() + " at " + variantChrom + ":" + variantPos);
+        }
+
+        // Read the genotype of each sample once, rather than once per trio it is in
+        for (final int sample : trioSampleIndices) {
+            genotypeCodes[sample] = genotypeCode(ctx, ctx.getGenotype(sample));
+        }
+
+        for (int trioIndex = 0; trioIndex < trios.size(); trioIndex++) {
+            final MendelianViolationMetrics trio = trios.get(trioIndex);
+            final int momCode = genotypeCodes[motherIndices[trioIndex]];
+            final int dadCode = genotypeCodes[fatherIndices[trioIndex]];
+            final int kidCode = genotypeCodes[offspringIndices[trioIndex]];
 
             // if any genotype:
             // - has a non-snp allele; or
             // - lacks a reference allele
             //
             // then ignore this trio
-            if (CollectionUtil.makeList(momGt, dadGt, kidGt).stream().anyMatch(gt ->
-                    gt.isHetNonRef() ||
-                            Stream.concat(Stream.of(ctx.getReference()), gt.getAlleles().stream()).anyMatch(a -> a.length() != 1 || a.isSymbolic()))) {
-                continue;
-            }
+            if (momCode == INELIGIBLE || dadCode == INELIGIBLE || kidCode == INELIGIBLE) continue;
 
             // if between the trio there are more than 2 alleles including the reference, continue
-            if (Stream.concat(
-                    Collections.singleton(ctx.getReference()).stream(),
-                    CollectionUtil.makeList(momGt, dadGt, kidGt)
-                            .stream()
-                            .flatMap(gt -> gt.getAlleles().stream()))
-                    .collect(Collectors.toSet()).size() > 2) continue;
+            final int nonRefAllele = Math.max(momCode, Math.max(dadCode, kidCode)) >> 1;
+            if (!hasOnlyAllele(momCode, nonRefAllele) || !hasOnlyAllele(dadCode, nonRefAllele) || !hasOnlyAllele(kidCode, nonRefAllele)) continue;
+
+            // Check that the site is in fact variant in the trio before looking at the genotypes themselves
+            if (((momCode | dadCode | kidCode) & CALLED_NON_REF) == 0) continue;
+
+            final Genotype momGt = ctx.getGenotype(motherIndices[trioIndex]);
+            final Genotype dadGt = ctx.getGenotype(fatherIndices[trioIndex]);
+            final Genotype kidGt = ctx.getGenotype(offspringIndices[trioIndex]);
 
-            // Test to make sure:
-            //   1) That the site is in fact variant in the trio
-            //   2) that the offspring doesn't have a really wacky het allele balance
-            if (!isVariant(momGt, dadGt, kidGt)) continue;
+            // Test to make sure that the offspring doesn't have a really wacky het allele balance
             if (kidGt.isHet()) {
                 final int[] ad = kidGt.getAD();
                 if (ad == null) continue;
@@ -240,7 +272,7 @@ class MendelianViolationDetector implements VariantProcessor.Accumulator<Mendeli
             }
 
             // Output a record into the family's violation VCF
-            if (type != null) {
+            if (type != null && familyToViolations != null) {
                 // Create a new Context subsetted to the three samples
                 final VariantContextBuilder builder = new VariantContextBuilder(ctx);
                 builder.genotypes(ctx.getGenotypes().subsetToSamples(CollectionUtil.makeSet(trio.MOTHER, trio.FATHER, trio.OFFSPRING)));
@@ -255,7 +287,7 @@ class MendelianViolationDetector implements VariantProcessor.Accumulator<Mendeli
                     builder.attribute(ORIGINAL_AN, ctx.getAttribute(VCFConstants.ALLELE_NUMBER_KEY));
 
                 // Write out the variant record
-                familyToViolations.get(trio.FAMILY_ID).add(builder.make());
+                familyToViolations.add(trio.FAMILY_ID, builder.make());
             }
         }
     }
@@ -265,13 +297,35 @@ class MendelianViolationDetector implements VariantProcessor.Accumulator<Mendeli
         return new Result(trios, familyToViolations);
     }
 
-    /** Tests to ensure that a locus is bi-allelic within the given set of samples. */
-    private boolean isVariant(final Genotype... gts) {
-        for (final Genotype gt : gts) {
-            if (gt.isCalled() && !gt.isHomRef()) return true;
+    /** The code of a genotype that has a non-SNP allele, or more than one allele other than the reference. */
+    private static final int INELIGIBLE = -1;
+    /** The bit of a genotype code that is set for called, non-hom-ref genotypes. */
+    private static final int CALLED_NON_REF = 1;
+    /** The allele of a genotype code (above its lowest bit) for genotypes that have a no-call allele. */
+    private static final int NO_CALL_ALLELE = 1;
+
+    /**
+     * Encodes what the trio tests need of a genotype in an int: {@link #INELIGIBLE}, or the one allele other than the reference
+     * that the genotype has (0 for none, {@link #NO_CALL_ALLELE}, or 1 + the index of an alternate allele) shifted left by one,
+     * with {@link #CALLED_NON_REF} set if the genotype is called and isn't hom-ref.
+     */
+    private static int genotypeCode(final VariantContext ctx, final Genotype gt) {
+        int nonRefAllele = 0;
+        for (final Allele allele : gt.getAlleles()) {
+            if (allele.length() != 1 || allele.isSymbolic()) return INELIGIBLE;
+            if (allele.isReference()) continue;
+
+            final int alleleCode = allele.isNoCall() ? NO_CALL_ALLELE : 1 + ctx.getAlleleIndex(allele);
+            if (nonRefAllele != 0 && nonRefAllele != alleleCode) return INELIGIBLE;
+            nonRefAllele = alleleCode;
         }
+        return nonRefAllele << 1 | (gt.isCalled() && !gt.isHomRef() ? CALLED_NON_REF : 0);
+    }
 
-        return false;
+    /** True if the genotype has no allele other than the reference, or only the given one. */
+    private static boolean hasOnlyAllele(final int genotypeCode, final int nonRefAllele) {
+        final int allele = genotypeCode >> 1;
+        return allele == 0 || allele == nonRefAllele;
     }
 
     /** Tests whether the alleles of the offspring are possible given the alleles of the parents. */
@@ -326,15 +380,15 @@ class MendelianViolationDetector implements VariantProcessor.Accumulator<Mendeli
         }
 
         private static MendelianViolationsByFamily mergeViolations(final Collection<MendelianViolationsByFamily> resultsToReduce) {
-            final MendelianViolationsByFamily masterFamilyViolationsMap = new MendelianViolationsByFamily();
-            
-            for (final Map<String, Collection<VariantContext>> childFamilyViolationsMap : resultsToReduce) {
-                for (final String childFamily : childFamilyViolationsMap.keySet()) {
-                    masterFamilyViolationsMap.get(childFamily).addAll(childFamilyViolationsMap.get(childFamily));
-                }
+            MendelianViolationsByFamily masterFamilyViolations = null;
+
+            for (final MendelianViolationsByFamily childFamilyViolations : resultsToReduce) {
+                if (childFamilyViolations == null) continue;
+                if (masterFamilyViolations == null) masterFamilyViolations = childFamilyViolations;
+                else masterFamilyViolations.addAll(childFamilyViolations);
             }
-            
-            return masterFamilyViolationsMap;
+
+            return masterFamilyViolations;
         }
 
         /** Flattens out the provided metrics, collates them by "sample", and merges those collations. */
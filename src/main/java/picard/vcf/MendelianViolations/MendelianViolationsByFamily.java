@@ -25,17 +25,144 @@
 package picard.vcf.MendelianViolations;
 
 import htsjdk.samtools.util.CollectionUtil;
+import htsjdk.samtools.util.IOUtil;
 import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFEncoder;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLine;
+import htsjdk.variant.vcf.VCFHeaderVersion;
+import picard.PicardException;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
+ * The violations found for each family, kept as VCF lines over the samples of all of the family's trios rather than as
+ * {@link VariantContext}s.  Lines are buffered in memory up to {@link #MAX_BUFFERED_CHARS} by default, beyond which they are
+ * spilled to a temporary file per family, so that memory doesn't grow with the number of violations in large cohorts.
+ *
  * Created by farjoun on 6/25/16.
  */
-public class MendelianViolationsByFamily extends CollectionUtil.DefaultingMap<String, Collection<VariantContext>> {
+public class MendelianViolationsByFamily {
+    /** The number of characters of VCF lines to keep in memory, across all families, before spilling them to disk. */
+    static final long MAX_BUFFERED_CHARS = 16L << 20;
+
+    private final long maxBufferedChars;
+    private final File[] tmpDirs;
+    private final Map<String, VCFHeader> familyHeaders = new HashMap<>();
+    private final Map<String, VCFEncoder> familyEncoders = new HashMap<>();
+    private final Map<String, List<String>> bufferedLines = new HashMap<>();
+    private final Map<String, List<File>> spillFiles = new HashMap<>();
+    private final Map<String, File> ownSpillFiles = new HashMap<>();
+    private long bufferedChars = 0;
+
+    /**
+     * @param headerLines the header lines of the per-family violation VCFs
+     * @param trios the trios whose violations will be added; the lines of a family are over the samples of all its trios
+     * @param tmpDirs where to spill violations
+     */
+    public MendelianViolationsByFamily(final Set<VCFHeaderLine> headerLines, final Collection<MendelianViolationMetrics> trios, final File[] tmpDirs) {
+        this(headerLines, trios, tmpDirs, MAX_BUFFERED_CHARS);
+    }
+
+    MendelianViolationsByFamily(final Set<VCFHeaderLine> headerLines, final Collection<MendelianViolationMetrics> trios, final File[] tmpDirs,
+                                final long maxBufferedChars) {
+        this.maxBufferedChars = maxBufferedChars;
+        this.tmpDirs = tmpDirs;
+        final Map<String, Set<String>> familySamples = new LinkedHashMap<>();
+        for (final MendelianViolationMetrics trio : trios) {
+            familySamples.computeIfAbsent(trio.FAMILY_ID, family -> new LinkedHashSet<>())
+                    .addAll(CollectionUtil.makeList(trio.MOTHER, trio.FATHER, trio.OFFSPRING));
+        }
+        familySamples.forEach((family, samples) -> familyHeaders.put(family, new VCFHeader(headerLines, samples)));
+    }
+
+    /**
+     * Adds a violation of the given family, whose genotypes are those of one of the family's trios; the genotypes of the
+     * family's other samples are written as no-calls.
+     */
+    public void add(final String familyId, final VariantContext violation) {
+        final VCFEncoder encoder = familyEncoders.computeIfAbsent(familyId, family -> new VCFEncoder(familyHeaders.get(family), true, false));
+        addLine(familyId, encoder.encode(violation));
+    }
+
+    /** Moves all the violations of another instance, with the same header lines and trios, into this one. */
+    public void addAll(final MendelianViolationsByFamily other) {
+        other.spillFiles.forEach((family, files) -> spillFiles.computeIfAbsent(family, f -> new ArrayList<>()).addAll(files));
+        other.bufferedLines.forEach((family, lines) -> lines.forEach(line -> addLine(family, line)));
+        other.spillFiles.clear();
+        other.bufferedLines.clear();
+        other.bufferedChars = 0;
+    }
+
+    /** Returns all the violations of the given family, in no particular order. */
+    public List<VariantContext> get(final String familyId) {
+        final VCFHeader header = familyHeaders.get(familyId);
+        if (header == null) return Collections.emptyList();
+
+        final VCFCodec codec = new VCFCodec();
+        codec.setVCFHeader(header, VCFHeaderVersion.VCF4_2);
+        final List<VariantContext> violations = new ArrayList<>();
+        for (final File file : spillFiles.getOrDefault(familyId, Collections.emptyList())) {
+            try (final BufferedReader in = IOUtil.openFileForBufferedReading(file)) {
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    violations.add(codec.decode(line));
+                }
+            } catch (final IOException e) {
+                throw new PicardException("Error reading spilled violations from " + file.getAbsolutePath(), e);
+            }
+        }
+        bufferedLines.getOrDefault(familyId, Collections.emptyList()).forEach(line -> violations.add(codec.decode(line)));
+        return violations;
+    }
+
+    /** Deletes the files violations were spilled to. */
+    public void deleteSpillFiles() {
+        spillFiles.values().forEach(IOUtil::deleteFiles);
+        spillFiles.clear();
+    }
+
+    private void addLine(final String familyId, final String line) {
+        bufferedLines.computeIfAbsent(familyId, family -> new ArrayList<>()).add(line);
+        bufferedChars += line.length();
+        if (bufferedChars > maxBufferedChars) spill();
+    }
 
-    public MendelianViolationsByFamily() {
-        super(s -> new ArrayList<>(), true);
+    /** Appends the buffered lines of each family to that family's spill file. */
+    private void spill() {
+        for (final Map.Entry<String, List<String>> entry : bufferedLines.entrySet()) {
+            final String familyId = entry.getKey();
+            try {
+                File file = ownSpillFiles.get(familyId);
+                if (file == null) {
+                    file = IOUtil.newTempFile("mendelian_violations.", ".vcf_lines", tmpDirs);
+                    file.deleteOnExit();
+                    ownSpillFiles.put(familyId, file);
+                    spillFiles.computeIfAbsent(familyId, family -> new ArrayList<>()).add(file);
+                }
+                try (final BufferedWriter out = IOUtil.openFileForBufferedWriting(file, true)) {
+                    for (final String line : entry.getValue()) {
+                        out.write(line);
+                        out.newLine();
+                    }
+                }
+            } catch (final IOException e) {
+                throw new PicardException("Error spilling violations of family " + familyId, e);
+            }
+        }
+        bufferedLines.clear();
+        bufferedChars = 0;
     }
 }
@@ -0,0 +1,344 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.vcf;
+
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.tribble.readers.LineIterator;
+import htsjdk.tribble.readers.LineIteratorImpl;
+import htsjdk.tribble.readers.SynchronousLineReader;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFConstants;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.List;
+
+/**
+ * Reads the lines of a text VCF as a reusable, lazily decoded view of the current record, so that metrics over many
+ * samples can be collected without building a {@link VariantContext} with a {@link Genotype} for every sample.
+ *
+ * {@link #parseCalls()} reads only the GT, GQ and AD fields of every sample into primitive arrays, which are reused
+ * from one record to the next. The site itself (alleles, filters and INFO) is only decoded, without genotypes, when
+ * {@link #decodeSite()} is called. Records that use anything this view doesn't reproduce exactly as htsjdk would
+ * (e.g. a GT field that isn't first, or malformed values) make {@link #parseCalls()} return false, in which case the
+ * caller should use {@link #decode()} to decode the whole record the usual way.
+ */
+final class VcfLineReader implements Closeable {
+    /** The call of a sample, as {@link Genotype#getType()} would classify it. */
+    static final byte HOM_REF = 0, NO_CALL = 1, HET = 2, HOM_VAR = 3, OTHER = 4;
+
+    private final LineIterator lines;
+    private final VCFCodec codec = new VCFCodec();
+    private final VCFCodec siteCodec = new VCFCodec();
+    private final int numSamples;
+
+    // the current line, and where its columns start
+    private String line;
+    private int contigEnd, formatStart, infoEnd;
+    private String contig = "";
+
+    private int numAlleles;
+    private final byte[] calls;
+    private final int[] genotypeQualities;
+    private final int[] refDepths;
+    private final int[] altDepths;
+    // which alleles are called by any sample, by allele index
+    private boolean[] calledAlleles = new boolean[8];
+
+    VcfLineReader(final File vcf) {
+        this.lines = new LineIteratorImpl(new SynchronousLineReader(IOUtil.openFileForReading(vcf)));
+        final VCFHeader header = (VCFHeader) codec.readActualHeader(lines);
+        siteCodec.setVCFHeader(new VCFHeader(header.getMetaDataInInputOrder()), codec.getVersion());
+        this.numSamples = header.getNGenotypeSamples();
+        this.calls = new byte[numSamples];
+        this.genotypeQualities = new int[numSamples];
+        this.refDepths = new int[numSamples];
+        this.altDepths = new int[numSamples];
+    }
+
+    VCFHeader getHeader() {
+        return codec.getHeader();
+    }
+
+    List<String> getSampleNames() {
+        return codec.getHeader().getGenotypeSamples();
+    }
+
+    /** Moves to the next record, returning false at the end of the file. */
+    boolean next() {
+        while (lines.hasNext()) {
+            line = lines.next();
+            if (!line.isEmpty()) {
+                contigEnd = line.indexOf('\t');
+                if (contigEnd < 0) contigEnd = line.length();
+                return true;
+            }
+        }
+        line = null;
+        return false;
+    }
+
+    /** Returns the CHROM of the current record, the same String as long as consecutive records are on the same contig. */
+    String getContig() {
+        if (contigEnd != contig.length() || !line.startsWith(contig)) contig = line.substring(0, contigEnd);
+        return contig;
+    }
+
+    /** Returns the POS of the current record, or -1 if it can't be read. */
+    int getStart() {
+        int posEnd = line.indexOf('\t', contigEnd + 1);
+        if (posEnd < 0) posEnd = line.length();
+        return parseNonNegativeInt(contigEnd + 1, posEnd);
+    }
+
+    /** Decodes the whole current record, genotypes and all. */
+    VariantContext decode() {
+        return codec.decode(line);
+    }
+
+    /** Decodes the alleles, filters and INFO of the current record, but none of its genotypes. Only valid after {@link #parseCalls()}. */
+    VariantContext decodeSite() {
+        return siteCodec.decode(line.substring(0, infoEnd));
+    }
+
+    int getNumSamples() { return numSamples; }
+
+    /** Returns the call of a sample, one of {@link #HOM_REF}, {@link #NO_CALL}, {@link #HET}, {@link #HOM_VAR} or {@link #OTHER}. */
+    byte getCall(final int sample) { return calls[sample]; }
+
+    /** Returns the GQ of a sample, or -1 if it has none, like {@link Genotype#getGQ()}. */
+    int getGQ(final int sample) { return genotypeQualities[sample]; }
+
+    /** Returns the first value of the AD of a sample, or -1 if it has none. */
+    int getRefDepth(final int sample) { return refDepths[sample]; }
+
+    /** Returns the second value of the AD of a sample, or -1 if it has none. */
+    int getAltDepth(final int sample) { return altDepths[sample]; }
+
+    int getNumAlleles() { return numAlleles; }
+
+    /** True if any sample calls the allele with the given index (0 being the reference). */
+    boolean isCalled(final int alleleIndex) { return calledAlleles[alleleIndex]; }
+
+    /**
+     * Reads the calls of every sample in the current record. Returns false, having read nothing, if the record has to
+     * be decoded with {@link #decode()} to be sure of getting the same result as htsjdk.
+     */
+    boolean parseCalls() {
+        // find the columns we need: ALT to count alleles, INFO's end for the site, and the genotype columns
+        int columnStart = 0;
+        int altStart = -1, altEnd = -1;
+        formatStart = -1;
+        infoEnd = -1;
+        for (int column = 0; column < 8; column++) {
+            final int end = line.indexOf('\t', columnStart);
+            if (end < 0) {
+                if (column != 7 || numSamples != 0) return false;
+                infoEnd = line.length();
+                break;
+            }
+            if (column == 4) {
+                altStart = columnStart;
+                altEnd = end;
+            }
+            if (column == 7) {
+                infoEnd = end;
+                formatStart = end + 1;
+            }
+            columnStart = end + 1;
+        }
+        if (altStart < 0) return false;
+        numAlleles = 1;
+        if (!(altEnd - altStart == 1 && line.charAt(altStart) == '.')) {
+            for (int i = altStart; i < altEnd; i++) {
+                if (line.charAt(i) == ',') numAlleles++;
+            }
+            numAlleles++;
+        }
+        if (calledAlleles.length < numAlleles) calledAlleles = new boolean[Math.max(numAlleles, 2 * calledAlleles.length)];
+        for (int i = 0; i < numAlleles; i++) calledAlleles[i] = false;
+
+        if (numSamples == 0) return true;
+
+        // find which FORMAT keys hold GT, GQ and AD. htsjdk requires GT to be first when present.
+        final int formatEnd = line.indexOf('\t', formatStart);
+        if (formatEnd < 0) return false;
+        int numKeys = 0;
+        boolean hasGT = false;
+        int gqKey = -1, adKey = -1;
+        for (int keyStart = formatStart; keyStart <= formatEnd; ) {
+            int keyEnd = line.indexOf(':', keyStart);
+            if (keyEnd < 0 || keyEnd > formatEnd) keyEnd = formatEnd;
+            if (matches(keyStart, keyEnd, VCFConstants.GENOTYPE_KEY)) {
+                if (numKeys != 0) return false;
+                hasGT = true;
+            } else if (matches(keyStart, keyEnd, VCFConstants.GENOTYPE_QUALITY_KEY)) {
+                gqKey = numKeys;
+            } else if (matches(keyStart, keyEnd, VCFConstants.GENOTYPE_ALLELE_DEPTHS)) {
+                adKey = numKeys;
+            }
+            numKeys++;
+            keyStart = keyEnd + 1;
+        }
+
+        int sampleStart = formatEnd + 1;
+        for (int sample = 0; sample < numSamples; sample++) {
+            int sampleEnd = line.indexOf('\t', sampleStart);
+            if (sampleEnd < 0) {
+                if (sample != numSamples - 1) return false;
+                sampleEnd = line.length();
+            } else if (sample == numSamples - 1) {
+                return false;
+            }
+
+            genotypeQualities[sample] = -1;
+            refDepths[sample] = -1;
+            altDepths[sample] = -1;
+            calls[sample] = OTHER; // a sample without GT has no alleles, and so is neither called nor a no-call
+
+            int key = 0;
+            for (int valueStart = sampleStart; valueStart <= sampleEnd; key++) {
+                int valueEnd = line.indexOf(':', valueStart);
+                if (valueEnd < 0 || valueEnd > sampleEnd) valueEnd = sampleEnd;
+                if (key >= numKeys) return false;
+                if (indexOf('%', valueStart, valueEnd) >= 0) return false; // percent-encoded values are decoded by htsjdk
+
+                if (key == 0 && hasGT) {
+                    final byte call = parseGenotype(valueStart, valueEnd);
+                    if (call < 0) return false;
+                    calls[sample] = call;
+                } else if (!(valueEnd - valueStart == 1 && line.charAt(valueStart) == '.')) {
+                    if (key == gqKey) {
+                        if (!parseGenotypeQuality(sample, valueStart, valueEnd)) return false;
+                    } else if (key == adKey) {
+                        if (!parseAlleleDepths(sample, valueStart, valueEnd)) return false;
+                    }
+                }
+                valueStart = valueEnd + 1;
+            }
+            sampleStart = sampleEnd + 1;
+        }
+        return true;
+    }
+
+    /** Classifies a GT value the way {@link Genotype#getType()} does, or returns -1 if it can't be parsed here. */
+    private byte parseGenotype(final int start, final int end) {
+        if (start == end) return -1;
+        boolean sawNoCall = false, sawMultipleAlleles = false;
+        int firstCalled = -1;
+        for (int alleleStart = start; alleleStart <= end; ) {
+            int alleleEnd = alleleStart;
+            while (alleleEnd < end && line.charAt(alleleEnd) != '/' && line.charAt(alleleEnd) != '|') alleleEnd++;
+            if (alleleEnd - alleleStart == 1 && line.charAt(alleleStart) == '.') {
+                sawNoCall = true;
+            } else {
+                final int allele = parseNonNegativeInt(alleleStart, alleleEnd);
+                if (allele < 0 || allele >= numAlleles) return -1;
+                calledAlleles[allele] = true;
+                if (firstCalled < 0) firstCalled = allele;
+                else if (allele != firstCalled) sawMultipleAlleles = true;
+            }
+            alleleStart = alleleEnd + 1;
+        }
+        if (sawNoCall) return firstCalled < 0 ? NO_CALL : OTHER;
+        if (sawMultipleAlleles) return HET;
+        return firstCalled == 0 ? HOM_REF : HOM_VAR;
+    }
+
+    private boolean parseGenotypeQuality(final int sample, final int start, final int end) {
+        int gq = parseNonNegativeInt(start, end);
+        if (gq < 0) {
+            // htsjdk reads GQ as a (possibly negative or fractional) number and rounds it
+            try {
+                gq = (int) Math.round(VCFUtils.parseVcfDouble(line.substring(start, end)));
+            } catch (final NumberFormatException e) {
+                return false;
+            }
+        }
+        genotypeQualities[sample] = gq;
+        return true;
+    }
+
+    /** Reads the first two values of AD. Anything but a list of at least two integers is left to htsjdk. */
+    private boolean parseAlleleDepths(final int sample, final int start, final int end) {
+        final int firstEnd = indexOf(',', start, end);
+        if (firstEnd < 0) return false;
+        int secondEnd = indexOf(',', firstEnd + 1, end);
+        if (secondEnd < 0) secondEnd = end;
+        for (int valueStart = secondEnd + 1; valueStart <= end; ) {
+            int valueEnd = indexOf(',', valueStart, end);
+            if (valueEnd < 0) valueEnd = end;
+            if (parseNonNegativeInt(valueStart, valueEnd) < 0) return false;
+            valueStart = valueEnd + 1;
+        }
+        refDepths[sample] = parseNonNegativeInt(start, firstEnd);
+        altDepths[sample] = parseNonNegativeInt(firstEnd + 1, secondEnd);
+        return refDepths[sample] >= 0 && altDepths[sample] >= 0;
+    }
+
+    /** Returns the number in [start, end), or -1 if it isn't a plain non-negative int. */
+    private int parseNonNegativeInt(final int start, final int end) {
+        if (start >= end || end - start > 9) return -1;
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            final char c = line.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private int indexOf(final char c, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (line.charAt(i) == c) return i;
+        }
+        return -1;
+    }
+
+    private boolean matches(final int start, final int end, final String key) {
+        return end - start == key.length() && line.regionMatches(start, key, 0, key.length());
+    }
+
+    /** Returns the call of a decoded genotype, with the same meaning as {@link #getCall(int)}. */
+    static byte callOf(final Genotype genotype) {
+        switch (genotype.getType()) {
+            case HOM_REF: return HOM_REF;
+            case NO_CALL: return NO_CALL;
+            case HET: return HET;
+            case HOM_VAR: return HOM_VAR;
+            default: return OTHER;
+        }
+    }
+
+    @Override
+    public void close() {
+        CloserUtil.close(lines);
+    }
+}
@@ -33,6 +33,7 @@ import htsjdk.samtools.SAMRecordSetBuilder;
 import htsjdk.samtools.metrics.MetricsFile;
 import htsjdk.samtools.SAMException;
 import htsjdk.variant.utils.SAMSequenceDictionaryExtractor;
+import org.apache.commons.lang3.ArrayUtils;
 import org.testng.Assert;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
@@ -251,6 +252,30 @@ public class CollectGcBiasMetricsTest extends CommandLineProgramTest {
         }
     }
 
+    @Test
+    public void runGcProfileTest() throws IOException {
+        final File detailsOutfile = File.createTempFile("test", ".gc_bias_detail_metrics");
+        final File summaryOutfile = File.createTempFile("test", ".gc_bias_summary_metrics");
+        final File profile = File.createTempFile("test", ".gc100");
+        detailsOutfile.deleteOnExit();
+        summaryOutfile.deleteOnExit();
+        profile.deleteOnExit();
+        Assert.assertTrue(profile.delete());
+
+        runGcBias(tempSamFileChrM_O, REFERENCE_FILE_1, summaryOutfile, detailsOutfile, false);
+        final MetricsFile<GcBiasDetailMetrics, Comparable<?>> expected = new MetricsFile<>();
+        expected.read(new FileReader(detailsOutfile));
+
+        // The first run builds the profile and the second memory-maps it
+        for (int i = 0; i < 2; ++i) {
+            runGcBias(tempSamFileChrM_O, REFERENCE_FILE_1, summaryOutfile, detailsOutfile, false, "GC_PROFILE=" + profile.getAbsolutePath());
+            Assert.assertTrue(profile.exists());
+            final MetricsFile<GcBiasDetailMetrics, Comparable<?>> actual = new MetricsFile<>();
+            actual.read(new FileReader(detailsOutfile));
+            Assert.assertEquals(actual.getMetrics(), expected.getMetrics());
+        }
+    }
+
     /////////////////////////////////////////////////////////////////////////////
     // Writes the setBuilders to a SAMFileWriter and sorts the sam.
     // Takes in a list of SAMRecordSetBuilders because of the multi-level collection: setBuilders cannot take in more than one read group
@@ -285,7 +310,7 @@ public class CollectGcBiasMetricsTest extends CommandLineProgramTest {
     // Runs CollectGcBias with input Sam file and outputs details and summary files for truth assertion.
     /////////////////////////////////////////////////////////////////////////////
     public void runGcBias (final File input, final String referenceFile, final File summaryOutfile, final File detailsOutfile,
-                           final boolean nonDups) throws IOException {
+                           final boolean nonDups, final String... extraArgs) throws IOException {
         final File pdf = File.createTempFile("test", ".pdf");
         pdf.deleteOnExit();
 
@@ -309,7 +334,7 @@ public class CollectGcBiasMetricsTest extends CommandLineProgramTest {
                 "ASSUME_SORTED=" + assumeSorted,
                 "ALSO_IGNORE_DUPLICATES=" + nonDups
         };
-        runPicardCommandLine(args);
+        runPicardCommandLine(ArrayUtils.addAll(args, extraArgs));
     }
 
     /**
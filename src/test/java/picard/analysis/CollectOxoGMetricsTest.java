@@ -172,6 +172,28 @@ public class CollectOxoGMetricsTest {
         Assert.assertEquals(metrics.G_REF_OXO_Q, Double.NaN);
     }
 
+    @Test
+    public void testCollectOxoGMetricsContextsTooLongToCode() throws IOException {
+        // contexts this long are too long to be coded as ints, so they are looked up by string
+        final File outputFile = File.createTempFile("test", ".oxo_g_metrics", TEST_DATA_DIR);
+        outputFile.deleteOnExit();
+        final String[] args = new String[]{
+                "INPUT=" + SAM_FILE.getAbsolutePath(),
+                "OUTPUT=" + outputFile.getAbsolutePath(),
+                "REFERENCE_SEQUENCE=" + REFERENCE_SEQUENCE.getAbsolutePath(),
+                "CONTEXT_SIZE=8",
+                "CONTEXTS=AAAAAAAACAAAAAAAA"
+        };
+        Assert.assertEquals(new CollectOxoGMetrics().instanceMain(args), 0,
+                "Can't process " + SAM_FILE.getAbsolutePath() + " correctly");
+
+        final MetricsFile<CollectOxoGMetrics.CpcgMetrics, Comparable<?>> output = new MetricsFile<>();
+        try (final FileReader reader = new FileReader(outputFile)) {
+            output.read(reader);
+        }
+        Assert.assertEquals(output.getMetrics().size(), 1);
+        Assert.assertEquals(output.getMetrics().get(0).CONTEXT, "AAAAAAAACAAAAAAAA");
+    }
 
     @DataProvider(name = "RightOptions")
     public static Object[][] rightOptions() {
@@ -181,9 +203,13 @@ public class CollectOxoGMetricsTest {
         final HashSet<String> rightContext2 = new HashSet<>();
         rightContext2.add("AACAA");
         rightContext2.add("ATCAT");
+
+        final HashSet<String> rightContext8 = new HashSet<>();
+        rightContext8.add("AAAAAAAACAAAAAAAA");
         return new Object[][] {
                 {5, 10, 1, rightContext1}, //contextSize = 1
-                {10, 10, 2, rightContext2} //contextSize = 2
+                {10, 10, 2, rightContext2}, //contextSize = 2
+                {10, 10, 8, rightContext8} //contextSize = 8, too long to be coded as an int
         };
     }
 
@@ -115,6 +115,70 @@ public class CollectRnaSeqMetricsTest extends CommandLineProgramTest {
         Assert.assertEquals(metrics.PCT_R2_TRANSCRIPT_STRAND_READS, 0.666667);
     }
 
+    @Test
+    public void testRefFlatCache() throws Exception {
+        final String sequence = "chr1";
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(true, SAMFileHeader.SortOrder.coordinate);
+        builder.setRandomSeed(0);
+        final int sequenceIndex = builder.getHeader().getSequenceIndex(sequence);
+        builder.addPair("pair1", sequenceIndex, 45, 475);
+        builder.addPair("pair2", sequenceIndex, 90, 225);
+        builder.addFrag("frag1", sequenceIndex, 150, true);
+        builder.addFrag("frag2", sequenceIndex, 450, true);
+
+        final File samFile = File.createTempFile("tmp.collectRnaSeqMetrics.", ".sam");
+        samFile.deleteOnExit();
+        try (final SAMFileWriter samWriter = new SAMFileWriterFactory().makeSAMWriter(builder.getHeader(), false, samFile)) {
+            for (final SAMRecord rec : builder.getRecords()) samWriter.addAlignment(rec);
+        }
+
+        final File refFlatFile = getRefFlatFile(sequence);
+        final File cacheFile = File.createTempFile("tmp.", ".refFlat_cache");
+        cacheFile.deleteOnExit();
+        Assert.assertTrue(cacheFile.delete());
+
+        final RnaSeqMetrics expected = runWithRefFlatCache(samFile, refFlatFile, null);
+        // The first run writes the cache, the second reads it
+        for (int i = 0; i < 2; ++i) {
+            final RnaSeqMetrics metrics = runWithRefFlatCache(samFile, refFlatFile, cacheFile);
+            Assert.assertTrue(cacheFile.exists());
+            Assert.assertEquals(metrics.CODING_BASES, expected.CODING_BASES);
+            Assert.assertEquals(metrics.UTR_BASES, expected.UTR_BASES);
+            Assert.assertEquals(metrics.INTRONIC_BASES, expected.INTRONIC_BASES);
+            Assert.assertEquals(metrics.INTERGENIC_BASES, expected.INTERGENIC_BASES);
+            Assert.assertEquals(metrics.CORRECT_STRAND_READS, expected.CORRECT_STRAND_READS);
+        }
+
+        // A cache written for a different refFlat must not be used
+        final File otherRefFlatFile = File.createTempFile("tmp.", ".refFlat");
+        otherRefFlatFile.deleteOnExit();
+        try (final PrintStream refFlatStream = new PrintStream(otherRefFlatFile)) {
+            refFlatStream.println("otherGene\totherTranscript\t" + sequence + "\t+\t0\t1000\t0\t1000\t1\t0,\t1000,");
+        }
+        final RnaSeqMetrics other = runWithRefFlatCache(samFile, otherRefFlatFile, cacheFile);
+        Assert.assertEquals(other.CODING_BASES, other.PF_ALIGNED_BASES);
+        Assert.assertEquals(other.INTERGENIC_BASES, 0);
+    }
+
+    private RnaSeqMetrics runWithRefFlatCache(final File samFile, final File refFlatFile, final File cacheFile) throws Exception {
+        final File metricsFile = File.createTempFile("tmp.", ".rna_metrics");
+        metricsFile.deleteOnExit();
+
+        final String[] args = new String[] {
+                "INPUT=" +               samFile.getAbsolutePath(),
+                "OUTPUT=" +              metricsFile.getAbsolutePath(),
+                "REF_FLAT=" +            refFlatFile.getAbsolutePath(),
+                "STRAND_SPECIFICITY=SECOND_READ_TRANSCRIPTION_STRAND",
+                "RRNA_FRAGMENT_PERCENTAGE=0.8",
+                "REF_FLAT_CACHE=" +      (cacheFile == null ? "null" : cacheFile.getAbsolutePath())
+        };
+        Assert.assertEquals(runPicardCommandLine(args), 0);
+
+        final MetricsFile<RnaSeqMetrics, Comparable<?>> output = new MetricsFile<>();
+        output.read(new FileReader(metricsFile));
+        return output.getMetrics().get(0);
+    }
+
     @DataProvider(name = "rRnaIntervalsFiles")
     public static Object[][] rRnaIntervalsFiles() throws IOException {
         return new Object[][] {
@@ -27,11 +27,14 @@ package picard.analysis;
 import htsjdk.samtools.*;
 import htsjdk.samtools.metrics.MetricsFile;
 import htsjdk.samtools.util.Histogram;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.IntervalList;
 import htsjdk.variant.utils.SAMSequenceDictionaryExtractor;
 import org.testng.Assert;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
+import picard.PicardException;
 import picard.cmdline.CommandLineProgramTest;
 import picard.sam.SortSam;
 import picard.util.TestNGUtil;
@@ -40,6 +43,10 @@ import picard.vcf.VcfTestUtils;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 
 /**
@@ -403,6 +410,250 @@ public class CollectWgsMetricsTest extends CommandLineProgramTest {
         Assert.assertEquals(metrics.PCT_EXC_CAPPED, 0.0);
     }
 
+    @DataProvider(name = "parallelWgsMetrics")
+    public Object[][] parallelWgsMetrics() {
+        return new Object[][]{
+                {"false", false},
+                {"true", false},
+                {"false", true},
+                {"true", true},
+        };
+    }
+
+    @Test(dataProvider = "parallelWgsMetrics")
+    public void testContigsInParallel(final String useFastAlgorithm, final boolean useIntervals) throws IOException {
+        final File reference = new File(TEST_DIR, "merger.fasta");
+        final File tempSamFile = VcfTestUtils.createTemporaryIndexedFile("CollectWgsMetrics", ".bam");
+
+        final SAMRecordSetBuilder setBuilder = CollectWgsMetricsTestUtils.createTestSAMBuilder(reference, READ_GROUP_ID, SAMPLE, PLATFORM, LIBRARY);
+        setBuilder.setReadLength(20);
+        final Random rg = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            final int contig = rg.nextInt(8);
+            final int contigLength = setBuilder.getHeader().getSequence(contig).getSequenceLength();
+            final int start = 1 + rg.nextInt(contigLength - 40);
+            setBuilder.addPair("pair" + i, contig, start, start + rg.nextInt(20), false, false, "20M", "20M", true, false, 10 + rg.nextInt(30));
+        }
+        // exercise each of the counting filters
+        for (final SAMRecord record : setBuilder.getRecords()) {
+            final int r = rg.nextInt(20);
+            if (r == 0) record.setDuplicateReadFlag(true);
+            else if (r == 1) record.setMappingQuality(5);
+            else if (r == 2) record.setMateUnmappedFlag(true);
+        }
+
+        // the input must be indexed for its contigs to be processed in parallel
+        setBuilder.getHeader().setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        try (SAMFileWriter writer = new SAMFileWriterFactory()
+                .setCreateIndex(true).makeBAMWriter(setBuilder.getHeader(), false, tempSamFile)) {
+            for (final SAMRecord record : setBuilder) {
+                writer.addAlignment(record);
+            }
+        }
+
+        final File intervals = File.createTempFile("testWgsMetrics", ".interval_list");
+        intervals.deleteOnExit();
+        final IntervalList intervalList = new IntervalList(setBuilder.getHeader());
+        // intervals on a single contig, as with the fast algorithm a single-threaded run over intervals on several contigs
+        // does not count each contig as it would on its own
+        intervalList.add(new Interval("chr7", 1, 150));
+        intervalList.add(new Interval("chr7", 300, 404));
+        intervalList.write(intervals);
+
+        final List<MetricsFile<WgsMetrics, Integer>> outputs = new ArrayList<>();
+        for (final int numProcessors : new int[]{1, 3}) {
+            final File outfile = File.createTempFile("testWgsMetrics", ".txt");
+            outfile.deleteOnExit();
+            final List<String> args = new ArrayList<>(Arrays.asList(
+                    "INPUT=" + tempSamFile.getAbsolutePath(),
+                    "OUTPUT=" + outfile.getAbsolutePath(),
+                    "REFERENCE_SEQUENCE=" + reference.getAbsolutePath(),
+                    "INCLUDE_BQ_HISTOGRAM=true",
+                    "COVERAGE_CAP=10",
+                    "USE_FAST_ALGORITHM=" + useFastAlgorithm,
+                    "NUM_PROCESSORS=" + numProcessors));
+            if (useIntervals) {
+                args.add("INTERVALS=" + intervals.getAbsolutePath());
+            }
+            Assert.assertEquals(runPicardCommandLine(args), 0);
+
+            final MetricsFile<WgsMetrics, Integer> output = new MetricsFile<>();
+            try (FileReader reader = new FileReader(outfile)) {
+                output.read(reader);
+            }
+            outputs.add(output);
+        }
+
+        final WgsMetrics metrics = outputs.get(0).getMetrics().get(0);
+        Assert.assertTrue(metrics.MEAN_COVERAGE > 0);
+        Assert.assertTrue(metrics.PCT_EXC_DUPE > 0);
+        Assert.assertTrue(metrics.PCT_EXC_MAPQ > 0);
+        Assert.assertTrue(metrics.PCT_EXC_UNPAIRED > 0);
+        Assert.assertTrue(outputs.get(0).areMetricsEqual(outputs.get(1)));
+        Assert.assertTrue(outputs.get(0).areHistogramsEqual(outputs.get(1)));
+    }
+
+    @Test(dataProvider = "wgsAlgorithm")
+    public void testContigsInParallelReportsReadErrors(final String useFastAlgorithm) throws IOException {
+        final File reference = new File(TEST_DIR, "merger.fasta");
+        final File tempSamFile = VcfTestUtils.createTemporaryIndexedFile("CollectWgsMetrics", ".bam");
+
+        final SAMRecordSetBuilder setBuilder = CollectWgsMetricsTestUtils.createTestSAMBuilder(reference, READ_GROUP_ID, SAMPLE, PLATFORM, LIBRARY);
+        setBuilder.setReadLength(20);
+        setBuilder.addPair("pair", 0, 1, 30, false, false, "20M", "20M", true, false, 30);
+
+        // the reads refer to a read group that is not in the header
+        setBuilder.getHeader().setReadGroups(Collections.emptyList());
+        setBuilder.getHeader().setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        try (SAMFileWriter writer = new SAMFileWriterFactory()
+                .setCreateIndex(true).makeBAMWriter(setBuilder.getHeader(), false, tempSamFile)) {
+            for (final SAMRecord record : setBuilder) {
+                writer.addAlignment(record);
+            }
+        }
+
+        final File intervals = File.createTempFile("testWgsMetrics", ".interval_list");
+        intervals.deleteOnExit();
+        final IntervalList intervalList = new IntervalList(setBuilder.getHeader());
+        intervalList.add(new Interval("chr1", 1, 100));
+        intervalList.write(intervals);
+
+        try {
+            runWgsMetrics(tempSamFile, reference, 10, "USE_FAST_ALGORITHM=" + useFastAlgorithm,
+                    "INTERVALS=" + intervals.getAbsolutePath(), "NUM_PROCESSORS=2");
+            Assert.fail("Expected the read group error to be reported.");
+        } catch (final PicardException e) {
+            boolean reported = false;
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                Assert.assertFalse(cause instanceof NullPointerException, "The read group error was hidden by " + cause);
+                reported |= cause.getMessage() != null && cause.getMessage().contains("READ_GROUP_NOT_FOUND");
+            }
+            Assert.assertTrue(reported, "Unexpected exception: " + e);
+        }
+    }
+
+    @Test(expectedExceptions = PicardException.class, expectedExceptionsMessageRegExp = ".*not in the sequence dictionary.*")
+    public void testContigsInParallelIntervalsOffDictionary() throws IOException {
+        final File reference = new File(TEST_DIR, "merger.fasta");
+        final File tempSamFile = VcfTestUtils.createTemporaryIndexedFile("CollectWgsMetrics", ".bam");
+
+        final SAMRecordSetBuilder setBuilder = CollectWgsMetricsTestUtils.createTestSAMBuilder(reference, READ_GROUP_ID, SAMPLE, PLATFORM, LIBRARY);
+        setBuilder.setReadLength(20);
+        setBuilder.addPair("pair", 0, 1, 30, false, false, "20M", "20M", true, false, 30);
+        setBuilder.getHeader().setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        try (SAMFileWriter writer = new SAMFileWriterFactory()
+                .setCreateIndex(true).makeBAMWriter(setBuilder.getHeader(), false, tempSamFile)) {
+            for (final SAMRecord record : setBuilder) {
+                writer.addAlignment(record);
+            }
+        }
+
+        final SAMFileHeader intervalsHeader = new SAMFileHeader();
+        intervalsHeader.setSequenceDictionary(new SAMSequenceDictionary(Collections.singletonList(new SAMSequenceRecord("chrNotInInput", 100))));
+        final File intervals = File.createTempFile("testWgsMetrics", ".interval_list");
+        intervals.deleteOnExit();
+        final IntervalList intervalList = new IntervalList(intervalsHeader);
+        intervalList.add(new Interval("chrNotInInput", 1, 100));
+        intervalList.write(intervals);
+
+        runWgsMetrics(tempSamFile, reference, 10, "INTERVALS=" + intervals.getAbsolutePath(), "NUM_PROCESSORS=2");
+    }
+
+    @DataProvider(name = "alignmentBlockCigars")
+    public Object[][] alignmentBlockCigars() {
+        return new Object[][]{
+                {new String[]{"20M"}},
+                {new String[]{"20M", "20M", "8M2D12M", "5M1I14M", "3M4D6M1I10M"}},
+        };
+    }
+
+    @Test(dataProvider = "alignmentBlockCigars")
+    public void testAlignmentBlocks(final String[] cigars) throws IOException {
+        final File reference = new File(TEST_DIR, "merger.fasta");
+        final File tempSamFile = VcfTestUtils.createTemporaryIndexedFile("CollectWgsMetrics", ".bam");
+
+        final SAMRecordSetBuilder setBuilder = CollectWgsMetricsTestUtils.createTestSAMBuilder(reference, READ_GROUP_ID, SAMPLE, PLATFORM, LIBRARY);
+        setBuilder.setReadLength(20);
+        final Random rg = new Random(43);
+        for (int i = 0; i < 3000; i++) {
+            final int contig = rg.nextInt(8);
+            final int contigLength = setBuilder.getHeader().getSequence(contig).getSequenceLength();
+            final int start = 1 + rg.nextInt(contigLength - 60);
+            // mates that overlap, with any indels splitting them into several alignment blocks
+            setBuilder.addPair("pair" + i, contig, start, start + rg.nextInt(25), false, false,
+                    cigars[rg.nextInt(cigars.length)], cigars[rg.nextInt(cigars.length)], true, false, 30);
+            if (rg.nextInt(20) == 0) {
+                setBuilder.addFrag("pair" + i, contig, start + rg.nextInt(10), false, false,
+                        cigars[rg.nextInt(cigars.length)], null, 30, false, true);
+            }
+        }
+        for (final SAMRecord record : setBuilder.getRecords()) {
+            final byte[] qualities = new byte[record.getReadLength()];
+            final byte[] bases = record.getReadBases();
+            for (int i = 0; i < qualities.length; i++) {
+                qualities[i] = (byte) rg.nextInt(40);
+                if (cigars.length > 1 && rg.nextInt(50) == 0) bases[i] = 'N';
+            }
+            record.setBaseQualities(qualities);
+            record.setReadBases(bases);
+            final int r = rg.nextInt(20);
+            if (r == 0) record.setDuplicateReadFlag(true);
+            else if (r == 1) record.setMappingQuality(5);
+            else if (r == 2) record.setReadFailsVendorQualityCheckFlag(true);
+        }
+
+        setBuilder.getHeader().setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        try (SAMFileWriter writer = new SAMFileWriterFactory()
+                .setCreateIndex(true).makeBAMWriter(setBuilder.getHeader(), false, tempSamFile)) {
+            for (final SAMRecord record : setBuilder) {
+                writer.addAlignment(record);
+            }
+        }
+
+        // With reads of a single alignment block and no N bases, the fast algorithm excludes the same overlapping bases as
+        // the default algorithm, and both count bases towards the coverage cap in the order of the reads
+        final MetricsFile<WgsMetrics, Integer> defaultOutput = runWgsMetrics(tempSamFile, reference, 5, "USE_FAST_ALGORITHM=false");
+        final MetricsFile<WgsMetrics, Integer> fastOutput = runWgsMetrics(tempSamFile, reference, 5, "USE_FAST_ALGORITHM=true");
+        final WgsMetrics metrics = fastOutput.getMetrics().get(0);
+        final WgsMetrics defaultMetrics = defaultOutput.getMetrics().get(0);
+        Assert.assertTrue(metrics.PCT_EXC_OVERLAP > 0);
+        Assert.assertTrue(metrics.PCT_EXC_BASEQ > 0);
+        Assert.assertTrue(metrics.PCT_EXC_CAPPED > 0);
+        if (cigars.length == 1) {
+            Assert.assertTrue(defaultOutput.areMetricsEqual(fastOutput));
+            Assert.assertTrue(defaultOutput.areHistogramsEqual(fastOutput));
+        } else {
+            Assert.assertEquals(metrics.GENOME_TERRITORY, defaultMetrics.GENOME_TERRITORY);
+            Assert.assertEquals(metrics.PCT_EXC_BASEQ, defaultMetrics.PCT_EXC_BASEQ);
+            Assert.assertEquals(metrics.HET_SNP_Q, defaultMetrics.HET_SNP_Q);
+        }
+
+        final MetricsFile<WgsMetrics, Integer> fastParallelOutput = runWgsMetrics(tempSamFile, reference, 5, "USE_FAST_ALGORITHM=true", "NUM_PROCESSORS=3");
+        Assert.assertTrue(fastOutput.areMetricsEqual(fastParallelOutput));
+        Assert.assertTrue(fastOutput.areHistogramsEqual(fastParallelOutput));
+    }
+
+    private MetricsFile<WgsMetrics, Integer> runWgsMetrics(final File input, final File reference, final int coverageCap,
+                                                           final String... extraArgs) throws IOException {
+        final File outfile = File.createTempFile("testWgsMetrics", ".txt");
+        outfile.deleteOnExit();
+        final List<String> args = new ArrayList<>(Arrays.asList(
+                "INPUT=" + input.getAbsolutePath(),
+                "OUTPUT=" + outfile.getAbsolutePath(),
+                "REFERENCE_SEQUENCE=" + reference.getAbsolutePath(),
+                "INCLUDE_BQ_HISTOGRAM=true",
+                "COVERAGE_CAP=" + coverageCap,
+                "COUNT_UNPAIRED=true"));
+        args.addAll(Arrays.asList(extraArgs));
+        Assert.assertEquals(runPicardCommandLine(args), 0);
+
+        final MetricsFile<WgsMetrics, Integer> output = new MetricsFile<>();
+        try (FileReader reader = new FileReader(outfile)) {
+            output.read(reader);
+        }
+        return output;
+    }
+
     @Test(dataProvider = "wgsAlgorithm")
     public void testAdapterReads(final String useFastAlgorithm) throws IOException {
         final File metricsTestDir = new File(TEST_DIR.getParentFile(), "metrics");
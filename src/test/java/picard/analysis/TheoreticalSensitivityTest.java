@@ -297,6 +297,43 @@ public class TheoreticalSensitivityTest {
         Assert.assertEquals(result, expected, tolerance);
     }
 
+    @Test
+    public void testExactSensitivityMatchesSimulation() throws Exception {
+        final MetricsFile<?, Integer> metrics = new MetricsFile<>();
+        try (final FileReader metricsFileReader = new FileReader(new File(TEST_DIR, "test_25103070136.targeted_pcr_metrics"))) {
+            metrics.read(metricsFileReader);
+        }
+        final TheoreticalSensitivity.QualitySumModel qualitySumModel = new TheoreticalSensitivity.QualitySumModel(metrics.getAllHistograms().get(1));
+
+        // Depths below and above the number of draws at which the sum of qualities is approximated as Gaussian.
+        for (final int depth : new int[]{5, 10, 30, 200}) {
+            for (final double alleleFraction : new double[]{0.05, 0.1, 0.3, 0.5}) {
+                final double exact = qualitySumModel.exactSensitivity(depth, 3, alleleFraction);
+                final double simulated = qualitySumModel.simulateSensitivity(depth, 3, 10000, alleleFraction, 0);
+                Assert.assertEquals(simulated, exact, 0.01);
+            }
+        }
+    }
+
+    @Test
+    public void testCalculateSensitivitiesIndependentOfThreads() throws Exception {
+        final MetricsFile<?, Integer> metrics = new MetricsFile<>();
+        try (final FileReader metricsFileReader = new FileReader(new File(TEST_DIR, "test_Solexa-332667.wgs_metrics"))) {
+            metrics.read(metricsFileReader);
+        }
+        final List<Histogram<Integer>> histograms = metrics.getAllHistograms();
+        final List<Double> alleleFractions = Arrays.asList(0.05, 0.1, 0.3, 0.5);
+
+        final List<TheoreticalSensitivityMetrics> serial = TheoreticalSensitivity.calculateSensitivities(500, histograms.get(0), histograms.get(1), alleleFractions);
+        final List<TheoreticalSensitivityMetrics> parallel = TheoreticalSensitivity.calculateSensitivities(500, histograms.get(0), histograms.get(1), alleleFractions, 3);
+
+        Assert.assertEquals(parallel.size(), alleleFractions.size());
+        for (int i = 0; i < alleleFractions.size(); i++) {
+            Assert.assertEquals(parallel.get(i).ALLELE_FRACTION, alleleFractions.get(i));
+            Assert.assertEquals(parallel.get(i).THEORETICAL_SENSITIVITY, serial.get(i).THEORETICAL_SENSITIVITY);
+        }
+    }
+
     @DataProvider(name = "equivalanceHetVsArbitrary")
     public Object[][] equivalenceHetVsFull() {
         final File wgsMetricsFile = new File(TEST_DIR, "test_Solexa-332667.wgs_metrics");
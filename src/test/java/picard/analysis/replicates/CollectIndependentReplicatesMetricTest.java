@@ -203,6 +203,52 @@ public class CollectIndependentReplicatesMetricTest {
         }
     }
 
+    @Test
+    public void testThreadCountDoesNotChangeMetrics() throws IOException {
+        final List<List<String>> outputs = new ArrayList<>();
+        for (final int threads : new int[]{1, 3}) {
+            final CollectIndependentReplicateMetrics est = new CollectIndependentReplicateMetrics();
+            est.INPUT = bams.get("multipleContigs");
+            est.VCF = new File(testdir, "multipleContigs.vcf");
+            est.OUTPUT = IOUtil.newTempFile("multipleContigs", ".duplication_metric", new File[]{bamOutDir});
+            est.SAMPLE = "SAMPLE1";
+            est.THREAD_COUNT = threads;
+            est.OUTPUT.deleteOnExit();
+
+            est.doWork();
+
+            final List<String> lines = new ArrayList<>(IOUtil.slurpLines(est.OUTPUT));
+            lines.removeIf(line -> line.startsWith("#"));
+            outputs.add(lines);
+        }
+        Assert.assertEquals(outputs.get(1), outputs.get(0));
+    }
+
+    @DataProvider(name = "editDistanceData")
+    public Object[][] editDistanceData() {
+        return new Object[][]{
+                {"", "", 0},
+                {"ACGT", "ACGT", 0},
+                {"ACGT", "TCGA", 2},
+                {"AAAAAAAA", "CGTCGTCG", 8},
+                {"ACGTN", "ACGTA", 1},
+                {"ACGT-TTGA", "ACGA-TTGC", 2},
+                {"acgt", "ACGT", 4},
+                {"ACGTACGTACGTACGTACGTACGTACGTACGTAC", "ACGTACGTACGTACGTACGTACGTACGTACGTTT", 2},
+        };
+    }
+
+    @Test(dataProvider = "editDistanceData")
+    public void testCalculateEditDistance(final String lhs, final String rhs, final int expected) {
+        Assert.assertEquals(CollectIndependentReplicateMetrics.calculateEditDistance(lhs, rhs), expected);
+        Assert.assertEquals(CollectIndependentReplicateMetrics.calculateEditDistance(rhs, lhs), expected);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testCalculateEditDistanceOfDifferentLengths() {
+        CollectIndependentReplicateMetrics.calculateEditDistance("ACGT", "ACG");
+    }
+
     /**
      * Converts a sam-file to a bam-file changing the extension from .sam to .bam
      *
@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.annotation;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class LocusFunctionTrackTest {
+    private static final int SEQUENCE_LENGTH = 20000;
+
+    /** Compares the track against assigning functions transcript by transcript, for random overlapping genes. */
+    @Test
+    public void testMatchesTranscripts() {
+        final Random random = new Random(42);
+        final List<Gene> genes = new ArrayList<>();
+        for (int g = 0; g < 40; ++g) {
+            final int start = 1 + random.nextInt(SEQUENCE_LENGTH - 3000);
+            final Gene gene = new Gene("chr1", start, start + 2999, random.nextBoolean(), "gene" + g);
+            for (int t = 0; t < 1 + random.nextInt(3); ++t) {
+                final int txStart = start + random.nextInt(500);
+                final int txEnd = start + 2999 - random.nextInt(500);
+                // Some transcripts are non-coding, with the coding start after the coding end
+                final int codingStart = random.nextInt(4) == 0 ? txEnd + 1 : txStart + random.nextInt(1000);
+                final int codingEnd = random.nextInt(4) == 0 ? txEnd : codingStart + random.nextInt(1000);
+                final int numExons = 1 + random.nextInt(5);
+                final Gene.Transcript tx = gene.addTranscript("tx" + t, txStart, txEnd, codingStart, codingEnd, numExons);
+                final int exonSpacing = (txEnd - txStart) / numExons;
+                for (int e = 0; e < numExons; ++e) {
+                    final int exonStart = txStart + e * exonSpacing + random.nextInt(exonSpacing / 2);
+                    tx.addExon(exonStart, exonStart + random.nextInt(exonSpacing / 2));
+                }
+            }
+            genes.add(gene);
+        }
+
+        final LocusFunction[] expected = new LocusFunction[SEQUENCE_LENGTH];
+        Arrays.fill(expected, LocusFunction.INTERGENIC);
+        for (final Gene gene : genes) {
+            for (final Gene.Transcript tx : gene) {
+                tx.assignLocusFunctionForRange(1, expected);
+            }
+        }
+
+        final LocusFunctionTrack track = LocusFunctionTrack.build(genes);
+        final LocusFunctionTrack.Cursor cursor = track.cursor();
+        for (int position = 1; position <= SEQUENCE_LENGTH; ++position) {
+            Assert.assertEquals(cursor.getLocusFunction("chr1", position), expected[position - 1], "position " + position);
+        }
+
+        // Random ranges, which are out of order and so exercise seeking backwards and far forwards
+        for (int i = 0; i < 1000; ++i) {
+            final int start = 1 + random.nextInt(SEQUENCE_LENGTH - 200);
+            final int length = 1 + random.nextInt(200);
+            final long[] expectedCounts = new long[LocusFunction.values().length];
+            for (int position = start; position < start + length; ++position) {
+                ++expectedCounts[expected[position - 1].ordinal()];
+            }
+            final long[] counts = new long[LocusFunction.values().length];
+            cursor.countBasesByFunction("chr1", start, length, counts);
+            Assert.assertEquals(counts, expectedCounts, "range " + start + "+" + length);
+        }
+    }
+
+    @Test
+    public void testSequenceWithoutGenes() {
+        final Gene gene = new Gene("chr1", 100, 200, false, "gene");
+        gene.addTranscript("tx", 100, 200, 100, 200, 1).addExon(100, 200);
+        final LocusFunctionTrack.Cursor cursor = LocusFunctionTrack.build(Arrays.asList(gene)).cursor();
+
+        Assert.assertEquals(cursor.getLocusFunction("chr1", 150), LocusFunction.CODING);
+        Assert.assertEquals(cursor.getLocusFunction("chr2", 150), LocusFunction.INTERGENIC);
+        Assert.assertEquals(cursor.getLocusFunction("chr1", 201), LocusFunction.INTERGENIC);
+        Assert.assertEquals(cursor.getLocusFunction("chr1", 1), LocusFunction.INTERGENIC);
+    }
+}
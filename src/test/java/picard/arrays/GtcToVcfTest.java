@@ -1,5 +1,7 @@
 package picard.arrays;
 
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
@@ -17,6 +19,7 @@ import picard.pedigree.Sex;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -27,6 +30,7 @@ import java.util.Set;
 public class GtcToVcfTest {
     private static final File TEST_DATA_DIR = new File("testdata/picard/arrays/illumina");
     private static final File TEST_EXTENDED_MANIFEST_FILE = new File(TEST_DATA_DIR, "HumanExome-12v1-1_A.extended.csv");
+    private static final File TEST_EXTENDED_MANIFEST_1_3_FILE = new File(TEST_DATA_DIR, "HumanExome-12v1-1_A.1.3.extended.csv");
     private static final File TEST_GTC_RECORDS_FILE = new File(TEST_DATA_DIR, "Test.gtc_records.csv");
     private static final File TEST_FINGERPRINT_GENOTYPES_FILE = new File(TEST_DATA_DIR, "Test.fingerprint.vcf");
 
@@ -99,6 +103,62 @@ public class GtcToVcfTest {
         Assert.assertEquals(GtcToVcf.getFingerprintSex(null), Sex.Unknown);
     }
 
+    @Test
+    public void testManifestAssayTableOrder() throws IOException {
+        final SAMSequenceDictionary dictionary = new SAMSequenceDictionary();
+        for (int i = 1; i <= 22; i++) {
+            dictionary.addSequence(new SAMSequenceRecord(String.valueOf(i), 250000000));
+        }
+        final ManifestAssayTable assays = new ManifestAssayTable(new Build37ExtendedIlluminaManifest(TEST_EXTENDED_MANIFEST_1_3_FILE), dictionary);
+
+        // Bad assays are left out, and the two assays at the same position stay in manifest order
+        final List<String> names = Arrays.asList(assays.names);
+        Assert.assertEquals(names, Arrays.asList("exm-rs10218696", "exm-rs10005603", "exm-rs1000797", "exm1011325",
+                "exm1011325-other", "exm-rs1000026"));
+        Assert.assertEquals(assays.manifestIndices, new int[]{1, 2, 3, 5, 6, 0});
+        Assert.assertEquals(assays.contigs[0], "1");
+        Assert.assertEquals(assays.positions[0], 172823534);
+        Assert.assertTrue(assays.dupes[3]);
+        Assert.assertFalse(assays.dupes[4]);
+        Assert.assertEquals(assays.rsIds[5], "rs1000026");
+    }
+
+    @Test(expectedExceptions = PicardException.class)
+    public void testManifestAssayTableMissingContig() throws IOException {
+        final SAMSequenceDictionary dictionary = new SAMSequenceDictionary();
+        dictionary.addSequence(new SAMSequenceRecord("1", 250000000));
+        new ManifestAssayTable(new Build37ExtendedIlluminaManifest(TEST_EXTENDED_MANIFEST_1_3_FILE), dictionary);
+    }
+
+    @Test
+    public void testParseBatchParams() throws IOException {
+        final File batchParams = File.createTempFile("GtcToVcfTest.", ".batch.params");
+        batchParams.deleteOnExit();
+        Files.write(batchParams.toPath(), Arrays.asList(
+                "INPUT\tOUTPUT\tSAMPLE_ALIAS\tEXPECTED_GENDER",
+                "a.gtc\ta.vcf\tsample_a\tFemale",
+                "b.gtc\tb.vcf\tsample_b\t"));
+
+        final List<GtcToVcf.GtcSample> samples = GtcToVcf.parseBatchParams(batchParams);
+        Assert.assertEquals(samples.size(), 2);
+        Assert.assertEquals(samples.get(0).input, new File("a.gtc"));
+        Assert.assertEquals(samples.get(0).output, new File("a.vcf"));
+        Assert.assertEquals(samples.get(0).sampleAlias, "sample_a");
+        Assert.assertEquals(samples.get(0).expectedGender, "Female");
+        Assert.assertNull(samples.get(0).genderGtc);
+        Assert.assertNull(samples.get(0).fingerprintGenotypesVcfFile);
+        Assert.assertEquals(samples.get(1).sampleAlias, "sample_b");
+        Assert.assertNull(samples.get(1).expectedGender);
+    }
+
+    @Test(expectedExceptions = PicardException.class)
+    public void testParseBatchParamsMissingColumn() throws IOException {
+        final File batchParams = File.createTempFile("GtcToVcfTest.", ".batch.params");
+        batchParams.deleteOnExit();
+        Files.write(batchParams.toPath(), Arrays.asList("INPUT\tOUTPUT", "a.gtc\ta.vcf"));
+        GtcToVcf.parseBatchParams(batchParams);
+    }
+
     @Test(dataProvider = "polarToEuclideanDataProvider")
     public void testPolarToEuclidean(float r, float rDeviation, float theta, float thetaDeviation, float expectedMeanX, float expectedMeanY, float expectedDevX, float expectedDevY) {
         GtcToVcf gtcToVcf = new GtcToVcf();
@@ -0,0 +1,77 @@
+package picard.arrays.illumina;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Tests for InfiniumEGTFile, against a small cluster file written by the test.
+ */
+public class InfiniumEGTFileTest {
+
+    private static final String[] RS_NAMES = {"rs1", "exm2"};
+
+    private static File writeEgtFile() throws IOException {
+        final ByteBuffer data = ByteBuffer.allocate(2048).order(ByteOrder.LITTLE_ENDIAN);
+        // header: version, gc, cluster, call and normalization versions, date created, isWGT, manifest name
+        data.putInt(3);
+        for (int i = 0; i < 5; i++) putString(data, "x");
+        data.put((byte) 0);
+        putString(data, "TestManifest.bpm");
+
+        data.putInt(9);
+        putString(data, "TestManifest.bpm");
+        data.putInt(RS_NAMES.length);
+        for (int code = 0; code < RS_NAMES.length; code++) {
+            for (int gt = 0; gt < InfiniumVcfFields.NUM_GENOTYPE_VALUES; gt++) data.putInt(10 * code + gt);
+            // devR, meanR, devTheta, meanTheta
+            for (int field = 0; field < 4; field++) {
+                for (int gt = 0; gt < InfiniumVcfFields.NUM_GENOTYPE_VALUES; gt++) data.putFloat(code + field / 10f + gt / 100f);
+            }
+            for (int i = 0; i < 15; i++) data.putFloat(-1f);
+        }
+        for (int code = 0; code < RS_NAMES.length; code++) {
+            data.putFloat(-1f);
+            data.putFloat(code == 0 ? 0.9f : 0f);
+            data.putFloat(-1f);
+            data.put((byte) 1);
+        }
+        for (int code = 0; code < RS_NAMES.length; code++) putString(data, "unused");
+        for (final String rsName : RS_NAMES) putString(data, rsName);
+
+        final File egtFile = File.createTempFile("InfiniumEGTFileTest.", ".egt");
+        egtFile.deleteOnExit();
+        Files.write(egtFile.toPath(), Arrays.copyOf(data.array(), data.position()));
+        return egtFile;
+    }
+
+    private static void putString(final ByteBuffer data, final String value) {
+        data.put((byte) value.length());
+        data.put(value.getBytes());
+    }
+
+    @Test
+    public void testReadEgtFile() throws IOException {
+        final InfiniumEGTFile egt = new InfiniumEGTFile(writeEgtFile());
+        Assert.assertEquals(egt.manifestName, "TestManifest.bpm");
+        Assert.assertEquals(egt.numCodes, 2);
+        Assert.assertEquals(egt.rsNames, RS_NAMES);
+        Assert.assertEquals((int) egt.rsNameToIndex.get("exm2"), 1);
+        Assert.assertEquals(egt.totalScore, new float[]{0.9f, 0f});
+        Assert.assertEquals(egt.n[1], new int[]{10, 11, 12});
+        for (int code = 0; code < RS_NAMES.length; code++) {
+            for (int gt = 0; gt < InfiniumVcfFields.NUM_GENOTYPE_VALUES; gt++) {
+                Assert.assertEquals(egt.devR[code][gt], code + gt / 100f);
+                Assert.assertEquals(egt.meanR[code][gt], code + 1 / 10f + gt / 100f);
+                Assert.assertEquals(egt.devTheta[code][gt], code + 2 / 10f + gt / 100f);
+                Assert.assertEquals(egt.meanTheta[code][gt], code + 3 / 10f + gt / 100f);
+            }
+        }
+    }
+}
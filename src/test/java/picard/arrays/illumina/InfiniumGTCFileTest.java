@@ -0,0 +1,161 @@
+package picard.arrays.illumina;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import picard.PicardException;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Tests for InfiniumGTCFile, against a small GTC file written by the test.
+ */
+public class InfiniumGTCFileTest {
+
+    private static final int[] RAW_X = {1000, 40000, 0};
+    private static final int[] RAW_Y = {500, 2, 65535};
+    private static final byte[] GENOTYPES = {InfiniumGTCFile.AA_CALL, InfiniumGTCFile.AB_CALL, InfiniumGTCFile.NO_CALL};
+    private static final float[] SCORES = {0.5f, 0.75f, 0f};
+    private static final float[] B_ALLELE_FREQS = {0.01f, 0.5f, Float.NaN};
+    private static final float[] LOG_R_RATIOS = {-0.1f, 0.2f, Float.NaN};
+
+    /** Writes a version 5 GTC file with three SNPs, and two normalization transformations that halve and quarter. */
+    private static File writeGtcFile() throws IOException {
+        final ByteBuffer data = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        final int numEntries = 11;
+        final int dataStart = 3 + 1 + 4 + numEntries * 6;
+        data.position(dataStart);
+
+        final int manifestOffset = data.position();
+        putString(data, "TestManifest.bpm");
+        final int rawXOffset = data.position();
+        data.putInt(RAW_X.length);
+        for (final int x : RAW_X) data.putShort((short) x);
+        final int rawYOffset = data.position();
+        data.putInt(RAW_Y.length);
+        for (final int y : RAW_Y) data.putShort((short) y);
+        final int genotypesOffset = data.position();
+        data.putInt(GENOTYPES.length);
+        data.put(GENOTYPES);
+        final int scoresOffset = putFloats(data, SCORES);
+        final int bafOffset = putFloats(data, B_ALLELE_FREQS);
+        final int lrrOffset = putFloats(data, LOG_R_RATIOS);
+        final int baseCallsOffset = data.position();
+        data.putInt(3);
+        data.put(new byte[]{'A', 'A', 'A', 'G', 0, 0});
+        final int genderOffset = data.position();
+        data.put((byte) 'F');
+        final int transformationsOffset = data.position();
+        data.putInt(2);
+        for (final float scale : new float[]{2f, 4f}) {
+            data.putInt(1);
+            // offsets, scales, shear, theta, then six reserved values
+            data.putFloat(0f).putFloat(0f).putFloat(scale).putFloat(scale).putFloat(0f).putFloat(0f);
+            for (int i = 0; i < 6; i++) data.putFloat(0f);
+        }
+        final int end = data.position();
+
+        data.position(0);
+        data.put(new byte[]{'g', 't', 'c'});
+        data.put((byte) 5);
+        data.putInt(numEntries);
+        putToc(data, 1, RAW_X.length); // NUM_SNPS
+        putToc(data, 101, manifestOffset);
+        putToc(data, 1000, rawXOffset);
+        putToc(data, 1001, rawYOffset);
+        putToc(data, 1002, genotypesOffset);
+        putToc(data, 1003, baseCallsOffset);
+        putToc(data, 1004, scoresOffset);
+        putToc(data, 1007, genderOffset);
+        putToc(data, 1012, bafOffset);
+        putToc(data, 400, transformationsOffset);
+        putToc(data, 1013, lrrOffset);
+
+        final File gtcFile = File.createTempFile("InfiniumGTCFileTest.", ".gtc");
+        gtcFile.deleteOnExit();
+        Files.write(gtcFile.toPath(), Arrays.copyOf(data.array(), end));
+        return gtcFile;
+    }
+
+    private static void putToc(final ByteBuffer data, final int id, final int offset) {
+        data.putShort((short) id);
+        data.putInt(offset);
+    }
+
+    private static void putString(final ByteBuffer data, final String value) {
+        data.put((byte) value.length());
+        data.put(value.getBytes());
+    }
+
+    private static int putFloats(final ByteBuffer data, final float[] values) {
+        final int offset = data.position();
+        data.putInt(values.length);
+        for (final float value : values) data.putFloat(value);
+        return offset;
+    }
+
+    @Test
+    public void testReadGtcFile() throws IOException {
+        final File gtcFile = writeGtcFile();
+        final File normalizationManifestFile = File.createTempFile("InfiniumGTCFileTest.", ".bpm.csv");
+        normalizationManifestFile.deleteOnExit();
+        Files.write(normalizationManifestFile.toPath(), Arrays.asList(
+                "Index,Name,Chromosome,Position,GenTrain Score,SNP,ILMN Strand,Customer Strand,NormID",
+                "1,snp1,1,100,0.5,[A/G],TOP,TOP,3",
+                "2,snp2,1,200,0.5,[A/G],TOP,TOP,9",
+                "3,snp3,2,300,0.5,[A/G],TOP,TOP,3"));
+
+        final InfiniumGTCFile gtc = new InfiniumGTCFile(gtcFile, new InfiniumNormalizationManifest(normalizationManifestFile));
+        Assert.assertEquals(gtc.getNumberOfSnps(), 3);
+        Assert.assertEquals(gtc.getSnpManifest(), "TestManifest.bpm");
+        Assert.assertEquals(gtc.getGender(), "F");
+        Assert.assertEquals(gtc.getAaCalls(), 1);
+        Assert.assertEquals(gtc.getAbCalls(), 1);
+        Assert.assertEquals(gtc.getBbCalls(), 0);
+        // No extended sample data, so the number of calls is inferred from the genotypes
+        Assert.assertEquals(gtc.getNumCalls(), 2);
+        Assert.assertEquals(gtc.getHetPercent(), 0.5);
+        Assert.assertTrue(Arrays.deepEquals(gtc.getBaseCalls(), new byte[][]{{'A', 'A'}, {'A', 'G'}, {'-', '-'}}));
+
+        Assert.assertEquals(gtc.getRawXIntensities().capacity(), 3);
+        Assert.assertEquals(gtc.getGenotypeScores().get(1), 0.75f);
+        for (int i = 0; i < 3; i++) {
+            final InfiniumGTCRecord record = gtc.getRecord(i);
+            Assert.assertEquals(record.rawXIntensity, RAW_X[i]);
+            Assert.assertEquals(record.rawYIntensity, RAW_Y[i]);
+            Assert.assertEquals(record.genotype, GENOTYPES[i]);
+            Assert.assertEquals(record.genotypeScore, SCORES[i]);
+            Assert.assertEquals(record.bAlleleFreq, B_ALLELE_FREQS[i]);
+            Assert.assertEquals(record.logRRatio, LOG_R_RATIOS[i]);
+
+            // Norm id 3 is the first of the manifest's norm ids and so uses the first transformation, which halves
+            final float scale = i == 1 ? 4f : 2f;
+            Assert.assertEquals(record.normalizedXIntensity, RAW_X[i] / scale);
+            Assert.assertEquals(record.normalizedYIntensity, RAW_Y[i] / scale);
+            Assert.assertEquals(record.RIlmn, (float) ((double) record.normalizedXIntensity + record.normalizedYIntensity));
+        }
+    }
+
+    @Test
+    public void testReadGtcStreamWithoutNormalization() throws IOException {
+        final File gtcFile = writeGtcFile();
+        final InfiniumGTCFile gtc = new InfiniumGTCFile(new DataInputStream(new FileInputStream(gtcFile)));
+        final InfiniumGTCRecord record = gtc.getRecord(1);
+        Assert.assertEquals(record.normalizedXIntensity, (float) RAW_X[1]);
+        Assert.assertEquals(record.normalizedYIntensity, (float) RAW_Y[1]);
+    }
+
+    @Test(expectedExceptions = PicardException.class)
+    public void testInvalidIdentifier() throws IOException {
+        final File notGtcFile = File.createTempFile("InfiniumGTCFileTest.", ".gtc");
+        notGtcFile.deleteOnExit();
+        Files.write(notGtcFile.toPath(), new byte[]{'b', 'p', 'm', 1, 0, 0, 0, 0});
+        new InfiniumGTCFile(notGtcFile, null);
+    }
+}
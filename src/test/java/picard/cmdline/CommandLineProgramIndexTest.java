@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.cmdline;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import picard.sam.SortSam;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class CommandLineProgramIndexTest {
+
+    @Test
+    public void testBuildWriteAndRead() throws IOException {
+        final CommandLineProgramIndex built = CommandLineProgramIndex.build(PicardCommandLine.getPackageList());
+        final StringWriter writer = new StringWriter();
+        built.write(writer);
+        final CommandLineProgramIndex index = CommandLineProgramIndex.read(new StringReader(writer.toString()));
+
+        Assert.assertTrue(index.covers(Collections.singletonList("picard")));
+        Assert.assertTrue(index.covers(Collections.singletonList("picard.sam")));
+        Assert.assertFalse(index.covers(Arrays.asList("picard", "org.example")));
+
+        Assert.assertEquals(index.findProgram("SortSam", PicardCommandLine.getPackageList()), SortSam.class);
+        Assert.assertEquals(index.findProgram("SortSam", Collections.singletonList("picard.sam")), SortSam.class);
+        Assert.assertNull(index.findProgram("SortSam", Collections.singletonList("picard.vcf")));
+        Assert.assertNull(index.findProgram("NoSuchProgram", PicardCommandLine.getPackageList()));
+
+        // the index lists exactly the programs that PicardCommandLine would offer
+        final Map<String, Class<?>> expected = new HashMap<>();
+        PicardCommandLine.processAllCommandLinePrograms(PicardCommandLine.getPackageList(), (clazz, properties) -> {
+            if (properties != null && !properties.omitFromCommandLine()) expected.put(clazz.getSimpleName(), clazz);
+        });
+        expected.forEach((simpleName, clazz) -> Assert.assertEquals(index.findProgram(simpleName, PicardCommandLine.getPackageList()), clazz));
+        Assert.assertEquals(writer.toString().split("\n").length, expected.size() + 1);
+    }
+
+    @Test
+    public void testStaleEntriesAreIgnored() throws IOException {
+        final CommandLineProgramIndex index = CommandLineProgramIndex.read(new StringReader(
+                "#packages\tpicard\nGone\tpicard.sam.NoLongerHere\nNotAProgram\tpicard.PicardException\n"));
+        Assert.assertNull(index.findProgram("Gone", PicardCommandLine.getPackageList()));
+        Assert.assertNull(index.findProgram("NotAProgram", PicardCommandLine.getPackageList()));
+    }
+}
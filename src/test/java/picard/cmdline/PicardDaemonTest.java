@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.cmdline;
+
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import picard.analysis.CollectQualityYieldMetrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class PicardDaemonTest {
+    private static final File TEST_BAM = new File("testdata/picard/sam/aligned_queryname_sorted.bam");
+
+    @Test
+    public void testRunProgramsInDaemon() throws Exception {
+        final File dir = IOUtil.createTempDir("PicardDaemonTest", null);
+        final File portFile = new File(dir, "picard.port");
+        final File metrics = new File(dir, "quality_yield.txt");
+
+        final int[] daemonResult = {-1};
+        final Thread daemon = new Thread(() ->
+                daemonResult[0] = new PicardDaemon().instanceMain(new String[]{"PORT_FILE=" + portFile.getAbsolutePath()}));
+        daemon.start();
+        try {
+            for (int i = 0; i < 600 && !portFile.exists(); i++) Thread.sleep(50);
+            Assert.assertTrue(portFile.exists(), "The daemon did not start");
+
+            // a real program, twice so that the second runs in the warm JVM
+            for (int i = 0; i < 2; i++) {
+                final Output output = run(portFile, Arrays.asList(CollectQualityYieldMetrics.class.getSimpleName(),
+                        "I=" + TEST_BAM.getPath(), "O=" + metrics.getAbsolutePath()));
+                Assert.assertEquals(output.result, 0, output.stderr);
+                Assert.assertTrue(output.stderr.contains(CollectQualityYieldMetrics.class.getName() + " done"), output.stderr);
+                Assert.assertTrue(metrics.length() > 0);
+                Assert.assertTrue(metrics.delete());
+            }
+
+            // output and the result of a failing invocation come back to the client
+            final Output unknown = run(portFile, Collections.singletonList("NoSuchProgram"));
+            Assert.assertEquals(unknown.result, 1);
+            Assert.assertTrue(unknown.stderr.contains("'NoSuchProgram' is not a valid command"), unknown.stderr);
+
+            final Output list = run(portFile, Collections.singletonList("--list-commands"));
+            Assert.assertTrue(list.stdout.contains(CollectQualityYieldMetrics.class.getSimpleName()), list.stdout);
+
+            // a client that doesn't know the token is turned away without running anything
+            final File wrongToken = new File(dir, "wrong.port");
+            Files.write(wrongToken.toPath(), (new String(Files.readAllBytes(portFile.toPath())).split(" ")[0] + " nope\n").getBytes());
+            Assert.assertThrows(IOException.class, () -> run(wrongToken, Collections.singletonList("--list-commands")));
+        } finally {
+            if (portFile.exists()) run(portFile, Collections.singletonList(PicardDaemonClient.SHUTDOWN));
+            daemon.join(60000);
+        }
+        Assert.assertFalse(daemon.isAlive());
+        Assert.assertEquals(daemonResult[0], 0);
+        Assert.assertFalse(portFile.exists());
+        IOUtil.recursiveDelete(dir.toPath());
+    }
+
+    @Test
+    public void testIdleConnectionsDoNotHoldTheWorker() throws Exception {
+        final File dir = IOUtil.createTempDir("PicardDaemonTest", null);
+        final File portFile = new File(dir, "picard.port");
+
+        final PicardDaemon picardDaemon = new PicardDaemon();
+        picardDaemon.requestTimeoutMillis = 500;
+        final Thread daemon = new Thread(() -> picardDaemon.instanceMain(new String[]{"PORT_FILE=" + portFile.getAbsolutePath(), "THREADS=1",
+                "TMP_DIR=" + dir.getAbsolutePath()}));
+        daemon.start();
+        try (final Socket idle = new Socket()) {
+            for (int i = 0; i < 600 && !portFile.exists(); i++) Thread.sleep(50);
+            Assert.assertTrue(portFile.exists(), "The daemon did not start");
+
+            // a connection that never sends a request is dropped rather than taking the only thread
+            final int port = Integer.parseInt(new String(Files.readAllBytes(portFile.toPath())).split(" ")[0]);
+            idle.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            final Output list = run(portFile, Collections.singletonList("--list-commands"));
+            Assert.assertTrue(list.stdout.contains(CollectQualityYieldMetrics.class.getSimpleName()), list.stdout);
+            Assert.assertEquals(idle.getInputStream().read(), -1);
+        } finally {
+            if (portFile.exists()) run(portFile, Collections.singletonList(PicardDaemonClient.SHUTDOWN));
+            daemon.join(60000);
+        }
+        Assert.assertFalse(daemon.isAlive());
+        // invocations were given their own TMP_DIR, and the daemon's is in place again after them
+        Assert.assertEquals(System.getProperty("java.io.tmpdir"), dir.getAbsolutePath());
+        IOUtil.recursiveDelete(dir.toPath());
+    }
+
+    @Test
+    public void testWithTmpDir() {
+        final File tmpDir = new File("invocation-tmp");
+        final String[] args = {"CollectQualityYieldMetrics", "I=in.bam", "O=out.txt"};
+        final List<String> withTmpDir = Arrays.asList(PicardDaemon.withTmpDir(args, tmpDir));
+        Assert.assertEquals(withTmpDir.subList(0, args.length), Arrays.asList(args));
+        Assert.assertTrue(String.join(" ", withTmpDir).endsWith("TMP_DIR=" + tmpDir.getAbsolutePath()) ||
+                String.join(" ", withTmpDir).endsWith("--TMP_DIR " + tmpDir.getAbsolutePath()), withTmpDir.toString());
+
+        // the client's own temporary directory, and arguments that don't run a program, are left alone
+        final String[] own = {"CollectQualityYieldMetrics", "I=in.bam", "O=out.txt", "TMP_DIR=mine"};
+        Assert.assertSame(PicardDaemon.withTmpDir(own, tmpDir), own);
+        final String[] list = {"--list-commands"};
+        Assert.assertSame(PicardDaemon.withTmpDir(list, tmpDir), list);
+    }
+
+    private static Output run(final File portFile, final List<String> args) throws IOException {
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        final int result = PicardDaemonClient.run(portFile, args, new PrintStream(stdout, true), new PrintStream(stderr, true));
+        return new Output(result, stdout.toString(), stderr.toString());
+    }
+
+    private static final class Output {
+        final int result;
+        final String stdout;
+        final String stderr;
+
+        Output(final int result, final String stdout, final String stderr) {
+            this.result = result;
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.filter;
+
+import htsjdk.samtools.SAMException;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class CompactReadNameFilterTest {
+
+    private static File writeReadList(final List<String> lines) throws IOException {
+        final File readList = File.createTempFile("CompactReadNameFilterTest", ".txt");
+        readList.deleteOnExit();
+        try (final PrintWriter writer = new PrintWriter(readList)) {
+            lines.forEach(writer::println);
+        }
+        return readList;
+    }
+
+    @DataProvider(name = "pageSizes")
+    public Object[][] pageSizes() {
+        // pages smaller than, about as large as, and much larger than the names, the last being the default
+        return new Object[][]{{24}, {200}, {1 << 24}};
+    }
+
+    @Test(dataProvider = "pageSizes")
+    public void testNamesAcrossPages(final int pageSize) throws IOException {
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            names.add("read:" + i + ":" + Integer.toHexString(i * 7919));
+        }
+        // names of several bytes' worth of length, and repeated names
+        final StringBuilder longName = new StringBuilder();
+        for (int i = 0; i < 20; i++) longName.append('x');
+        names.add(longName.toString());
+        final List<String> lines = new ArrayList<>(names);
+        lines.add("read:0:0 with a comment");
+        lines.add("");
+        lines.add("  read:1:" + Integer.toHexString(7919) + "  ");
+
+        final CompactReadNameFilter filter = new CompactReadNameFilter(writeReadList(lines), true, pageSize);
+        Assert.assertEquals(filter.size(), names.size());
+        for (final String name : names) {
+            Assert.assertTrue(filter.contains(name), name);
+        }
+        Assert.assertFalse(filter.contains("read:5000:" + Integer.toHexString(5000 * 7919)));
+        Assert.assertFalse(filter.contains("read:1:" + Integer.toHexString(7919).substring(1)));
+        Assert.assertFalse(filter.contains(longName.substring(1)));
+        Assert.assertFalse(filter.contains(""));
+    }
+
+    @Test
+    public void testLongNames() throws IOException {
+        final StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 300; i++) name.append((char) ('a' + i % 26));
+        final CompactReadNameFilter filter = new CompactReadNameFilter(writeReadList(Arrays.asList(name.toString(), "short")), true, 1 << 10);
+        Assert.assertTrue(filter.contains(name.toString()));
+        Assert.assertTrue(filter.contains("short"));
+        Assert.assertFalse(filter.contains(name.substring(0, 299)));
+    }
+
+    @Test(expectedExceptions = SAMException.class)
+    public void testNameLongerThanPage() throws IOException {
+        new CompactReadNameFilter(writeReadList(Collections.singletonList("a_name_longer_than_a_page")), true, 16);
+    }
+
+    @DataProvider(name = "capacities")
+    public Object[][] capacities() {
+        return new Object[][]{
+                {16, 17L, 32},
+                {16, 100L, 100},
+                {1 << 30, (1L << 30) + 1, Integer.MAX_VALUE - 8},
+                {Integer.MAX_VALUE - 9, Integer.MAX_VALUE - 8L, Integer.MAX_VALUE - 8},
+        };
+    }
+
+    @Test(dataProvider = "capacities")
+    public void testGrownCapacity(final int capacity, final long required, final int expected) {
+        Assert.assertEquals(CompactReadNameFilter.grownCapacity(capacity, required), expected);
+    }
+
+    @Test(expectedExceptions = SAMException.class)
+    public void testGrownCapacityBeyondMaximum() {
+        CompactReadNameFilter.grownCapacity(Integer.MAX_VALUE - 8, Integer.MAX_VALUE - 7L);
+    }
+}
@@ -23,7 +23,11 @@
  */
 package picard.illumina;
 
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SamFileValidator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.metrics.MetricsFile;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.util.*;
 import org.testng.Assert;
@@ -38,6 +42,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -94,6 +99,35 @@ public class IlluminaBasecallsToSamTest extends CommandLineProgramTest {
         IOUtil.assertFilesEqual(outputBam, new File(TEST_DATA_DIR, "nonBarcodedDescriptionNonBI.sam"));
     }
 
+    @Test
+    public void testParallelBamCompression() throws Exception {
+        final File outputBam = File.createTempFile("parallelCompression.", ".bam");
+        outputBam.deleteOnExit();
+
+        Assert.assertEquals(runPicardCommandLine(new String[]{
+                "BASECALLS_DIR=" + BASECALLS_DIR,
+                "LANE=1",
+                "READ_STRUCTURE=25S8S25T",
+                "OUTPUT=" + outputBam,
+                "RUN_BARCODE=HiMom",
+                "SAMPLE_ALIAS=HiDad",
+                "SEQUENCING_CENTER=BI",
+                "LIBRARY_NAME=Hello, World",
+                "NUM_COMPRESSION_THREADS=2"
+        }), 0);
+
+        try (final SamReader actual = SamReaderFactory.makeDefault().open(outputBam);
+             final SamReader expected = SamReaderFactory.makeDefault().open(new File(TEST_DATA_DIR, "nonBarcoded.sam"))) {
+            Assert.assertEquals(actual.getFileHeader().getReadGroups(), expected.getFileHeader().getReadGroups());
+            Assert.assertEquals(actual.getFileHeader().getSortOrder(), SAMFileHeader.SortOrder.queryname);
+            final Iterator<SAMRecord> expectedRecords = expected.iterator();
+            for (final SAMRecord rec : actual) {
+                Assert.assertEquals(rec.getSAMString(), expectedRecords.next().getSAMString());
+            }
+            Assert.assertFalse(expectedRecords.hasNext());
+        }
+    }
+
     @DataProvider
     public Object[][] molecularBarcodeData() {
         return new Object[][]{
@@ -182,6 +216,49 @@ public class IlluminaBasecallsToSamTest extends CommandLineProgramTest {
         runStandardTest(1, jobName, libraryParamsFile, nColumnFields, cigar, baseCallingDir, samDir, tile, false, ClusterDataToSamConverter.PopulateBarcode.ORPHANS_ONLY, false);
     }
 
+    @Test
+    public void testCbclConvertMatchingBarcodes() throws Exception {
+        // No _barcode.txt files in BARCODES_DIR, so the barcodes must be matched while converting
+        final Path emptyBarcodesDir = Files.createTempDirectory("noBarcodes.");
+        final File metricsFile = File.createTempFile("inlineBarcodes.", ".metrics");
+        metricsFile.deleteOnExit();
+        try {
+            runStandardTest(1, "cbclConvert.", "library_double.params", 2, "151T8B8B151T", TEST_DATA_DIR_WITH_CBCLS,
+                    DUAL_CBCL_TEST_DATA_DIR, null, false, ClusterDataToSamConverter.PopulateBarcode.ORPHANS_ONLY, false,
+                    "BARCODES_DIR=" + emptyBarcodesDir, "BARCODE_METRICS_FILE=" + metricsFile);
+        } finally {
+            IOUtil.recursiveDelete(emptyBarcodesDir);
+        }
+
+        // The metrics should count the same matches as ExtractIlluminaBarcodes
+        final Path extractDir = Files.createTempDirectory("extractBarcodes.");
+        final File extractMetricsFile = new File(extractDir.toFile(), "extract.metrics");
+        try {
+            Assert.assertEquals(new ExtractIlluminaBarcodes().instanceMain(new String[]{
+                    "BASECALLS_DIR=" + TEST_DATA_DIR_WITH_CBCLS,
+                    "OUTPUT_DIR=" + extractDir,
+                    "LANE=1",
+                    "READ_STRUCTURE=151T8B8B151T",
+                    "BARCODE_FILE=" + new File(TEST_DATA_DIR_WITH_CBCLS, "barcodeData.1"),
+                    "METRICS_FILE=" + extractMetricsFile
+            }), 0);
+            final List<ExtractIlluminaBarcodes.BarcodeMetric> expected = MetricsFile.readBeans(extractMetricsFile);
+            final List<ExtractIlluminaBarcodes.BarcodeMetric> actual = MetricsFile.readBeans(metricsFile);
+            Assert.assertEquals(actual.size(), expected.size());
+            for (int i = 0; i < actual.size(); i++) {
+                Assert.assertEquals(actual.get(i).BARCODE, expected.get(i).BARCODE);
+                Assert.assertEquals(actual.get(i).READS, expected.get(i).READS);
+                Assert.assertEquals(actual.get(i).PF_READS, expected.get(i).PF_READS);
+                Assert.assertEquals(actual.get(i).PERFECT_MATCHES, expected.get(i).PERFECT_MATCHES);
+                Assert.assertEquals(actual.get(i).ONE_MISMATCH_MATCHES, expected.get(i).ONE_MISMATCH_MATCHES);
+                Assert.assertEquals(actual.get(i).PCT_MATCHES, expected.get(i).PCT_MATCHES);
+                Assert.assertEquals(actual.get(i).PF_NORMALIZED_MATCHES, expected.get(i).PF_NORMALIZED_MATCHES);
+            }
+        } finally {
+            IOUtil.recursiveDelete(extractDir);
+        }
+    }
+
     /**
      * Ensures that a run missing a barcode from the parameters file throws an error.
      */
@@ -212,7 +289,7 @@ public class IlluminaBasecallsToSamTest extends CommandLineProgramTest {
     private void runStandardTest(final int lane, final String jobName, final String libraryParamsFile,
                                  final int concatNColumnFields, final String readStructure,
                                  final File baseCallsDir, final File testDataDir, final Integer tile, final boolean includeBcInHeader, final ClusterDataToSamConverter.PopulateBarcode populateBarcode,
-                                 final boolean includeBarcodeQuality) throws Exception {
+                                 final boolean includeBarcodeQuality, final String... extraArgs) throws Exception {
         final Path outputDir = Files.createTempDirectory(jobName);
         try {
             final String tilePrefix = (tile != null) ? tile + "." : "";
@@ -253,6 +330,7 @@ public class IlluminaBasecallsToSamTest extends CommandLineProgramTest {
             if (tile != null) {
                 args.add("PROCESS_SINGLE_TILE=" + tile);
             }
+            args.addAll(Arrays.asList(extraArgs));
 
             Assert.assertEquals(runPicardCommandLine(args), 0);
 
@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.illumina;
+
+import htsjdk.samtools.util.SortingCollection;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import picard.PicardException;
+import picard.illumina.parser.ReadStructure;
+import picard.illumina.parser.readers.BclQualityEvaluationStrategy;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class NewIlluminaBasecallsConverterTest {
+    private static final File BASECALLS_DIR = new File("testdata/picard/illumina/151T8B8B151T_cbcl/Data/Intensities/BaseCalls");
+    private static final String[] BARCODES = {"CCCCGCTTTTGCGTGT", "TTGCGGCCGGTTTAAC", "CACCTAGTACTCGAGT", "GCTATAGTCCAGCAGC"};
+
+    @DataProvider
+    public Object[][] threadsAndRecordsInRam() {
+        return new Object[][]{
+                {1, 1000000},
+                {4, 1000000},
+                {4, 10}
+        };
+    }
+
+    @Test(dataProvider = "threadsAndRecordsInRam")
+    public void testWritesInTileOrder(final int numProcessors, final int maxReadsInRamPerTile) {
+        final Map<String, RecordingWriter> expected = convert(1, 1000000, null);
+        final Map<String, RecordingWriter> actual = convert(numProcessors, maxReadsInRamPerTile, null);
+
+        int total = 0;
+        for (final Map.Entry<String, RecordingWriter> entry : actual.entrySet()) {
+            final RecordingWriter writer = entry.getValue();
+            Assert.assertEquals(writer.closes, 1, "barcode " + entry.getKey());
+            Assert.assertFalse(writer.overlapped, "barcode " + entry.getKey());
+            Assert.assertEquals(writer.records, expected.get(entry.getKey()).records, "barcode " + entry.getKey());
+
+            // every record of a tile is written before any of the next, and each tile is sorted
+            final List<String> sorted = new ArrayList<>(writer.records);
+            sorted.sort(RECORD_ORDER);
+            Assert.assertEquals(writer.records, sorted);
+            total += writer.records.size();
+        }
+        Assert.assertTrue(total > 0);
+    }
+
+    @Test
+    public void testFailedWriteStillClosesWriters() {
+        final Map<String, RecordingWriter> writers = new LinkedHashMap<>();
+        try {
+            convert(4, 1000000, writers, BARCODES[0]);
+            Assert.fail("The failed write was not reported");
+        } catch (final PicardException e) {
+            // expected
+        }
+        writers.forEach((barcode, writer) -> Assert.assertEquals(writer.closes, 1, "barcode " + barcode));
+        Assert.assertTrue(writers.get(BARCODES[0]).records.isEmpty());
+    }
+
+    private static Map<String, RecordingWriter> convert(final int numProcessors, final int maxReadsInRamPerTile, final String failingBarcode) {
+        final Map<String, RecordingWriter> writers = new LinkedHashMap<>();
+        convert(numProcessors, maxReadsInRamPerTile, writers, failingBarcode);
+        return writers;
+    }
+
+    private static void convert(final int numProcessors, final int maxReadsInRamPerTile,
+                                final Map<String, RecordingWriter> writers, final String failingBarcode) {
+        writers.put(null, new RecordingWriter(false));
+        for (final String barcode : BARCODES) writers.put(barcode, new RecordingWriter(barcode.equals(failingBarcode)));
+
+        final NewIlluminaBasecallsConverter<String> converter = new NewIlluminaBasecallsConverter<>(BASECALLS_DIR,
+                BASECALLS_DIR, 1, new ReadStructure("151T8B8B151T"), writers, true, maxReadsInRamPerTile,
+                Collections.singletonList(new File(System.getProperty("java.io.tmpdir"))), numProcessors, null, null,
+                RECORD_ORDER, new StringCodec(), String.class,
+                new BclQualityEvaluationStrategy(BclQualityEvaluationStrategy.ILLUMINA_ALLEGED_MINIMUM_QUALITY), true);
+        converter.setConverter(cluster -> cluster.getTile() + ":" + cluster.getX() + ":" + cluster.getY());
+        converter.doTileProcessing();
+    }
+
+    /** Orders records by tile, then by position. */
+    private static final Comparator<String> RECORD_ORDER = Comparator.comparingLong(record -> {
+        final String[] fields = record.split(":");
+        return Long.parseLong(fields[0]) << 40 | Long.parseLong(fields[1]) << 20 | Long.parseLong(fields[2]);
+    });
+
+    /** Records what is written, and whether writes to it ever ran at the same time. */
+    private static final class RecordingWriter implements BasecallsConverter.ConvertedClusterDataWriter<String> {
+        private final boolean fail;
+        private final AtomicBoolean inUse = new AtomicBoolean();
+        private final List<String> records = new ArrayList<>();
+        private volatile boolean overlapped = false;
+        private volatile int closes = 0;
+
+        private RecordingWriter(final boolean fail) {
+            this.fail = fail;
+        }
+
+        @Override
+        public void write(final String rec) {
+            if (fail) throw new IllegalStateException("write failed");
+            if (!inUse.compareAndSet(false, true)) overlapped = true;
+            records.add(rec);
+            inUse.set(false);
+        }
+
+        @Override
+        public void close() {
+            closes++;
+        }
+    }
+
+    private static final class StringCodec implements SortingCollection.Codec<String> {
+        private DataOutputStream out;
+        private DataInputStream in;
+
+        @Override
+        public void setOutputStream(final OutputStream os) {
+            out = new DataOutputStream(os);
+        }
+
+        @Override
+        public void setInputStream(final InputStream is) {
+            in = new DataInputStream(is);
+        }
+
+        @Override
+        public void encode(final String val) {
+            try {
+                out.writeUTF(val);
+            } catch (final IOException e) {
+                throw new PicardException("Could not spill record", e);
+            }
+        }
+
+        @Override
+        public String decode() {
+            try {
+                return in.readUTF();
+            } catch (final EOFException e) {
+                return null;
+            } catch (final IOException e) {
+                throw new PicardException("Could not read spilled record", e);
+            }
+        }
+
+        @Override
+        public StringCodec clone() {
+            return new StringCodec();
+        }
+    }
+}
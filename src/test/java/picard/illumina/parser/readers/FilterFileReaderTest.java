@@ -8,6 +8,7 @@ import picard.PicardException;
 import picard.illumina.parser.fakers.FilterFileFaker;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 
 public class FilterFileReaderTest {
@@ -33,6 +34,17 @@ public class FilterFileReaderTest {
         Assert.assertEquals(false, reader.hasNext());
     }
 
+    @Test
+    public void readRemainingAfterNextAndSkip() {
+        final FilterFileReader reader = new FilterFileReader(PASSING_FILTER_FILE);
+        Assert.assertEquals(reader.next().booleanValue(), expectedPfs[0]);
+        reader.skipRecords(3);
+        Assert.assertEquals(reader.next().booleanValue(), expectedPfs[4]);
+        final boolean[] remaining = reader.readRemaining();
+        Assert.assertEquals(remaining, Arrays.copyOfRange(expectedPfs, 5, expectedPfs.length));
+        Assert.assertFalse(reader.hasNext());
+    }
+
     @Test void readFakedFile() throws Exception {
         final File fakeFile = File.createTempFile("FilterFileFakerTest", ".filter");
         fakeFile.deleteOnExit();
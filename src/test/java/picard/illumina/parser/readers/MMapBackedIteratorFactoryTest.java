@@ -11,6 +11,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 public class MMapBackedIteratorFactoryTest {
     public static File TestDataDir = new File("testdata/picard/illumina/readerTests");
@@ -169,6 +170,40 @@ public class MMapBackedIteratorFactoryTest {
         ftd.test();
     }
 
+    @Test
+    public void testBulkReads() {
+        final BinaryFileIterator<Integer> intIter = MMapBackedIteratorFactory.getIntegerIterator(15, BinFile);
+        final IntBuffer expectedInts = fileAsByteBuffer(15).asIntBuffer();
+        final int[] ints = new int[expectedInts.remaining() + 1];
+        intIter.readInts(ints, 1, ints.length - 1);
+        for (int i = 1; i < ints.length; i++) {
+            Assert.assertEquals(ints[i], expectedInts.get());
+        }
+        Assert.assertFalse(intIter.hasNext());
+
+        final BinaryFileIterator<Byte> byteIter = MMapBackedIteratorFactory.getByteIterator(2, BinFile);
+        final byte[] bytes = new byte[10];
+        Assert.assertEquals(byteIter.next().byteValue(), fileAsBytes(2, 2)[0]);
+        byteIter.readBytes(bytes);
+        Assert.assertEquals(bytes, fileAsBytes(3, 12));
+        Assert.assertEquals(byteIter.next().byteValue(), fileAsBytes(13, 13)[0]);
+
+        final BinaryFileIterator<Float> floatIter = MMapBackedIteratorFactory.getFloatIterator(19, BinFile);
+        final ByteBuffer expectedFloats = fileAsByteBuffer(19);
+        final float[] floats = new float[8];
+        floatIter.readFloats(floats);
+        for (final float f : floats) {
+            Assert.assertEquals(f, expectedFloats.getFloat());
+        }
+        Assert.assertFalse(floatIter.hasNext());
+    }
+
+    @Test(expectedExceptions = NoSuchElementException.class)
+    public void bulkReadPastEndTest() {
+        final BinaryFileIterator<Integer> bbIter = MMapBackedIteratorFactory.getIntegerIterator(15, BinFile);
+        bbIter.readInts(new int[10]);
+    }
+
     @Test
     public void onlyHeaderTest() {
         final BinaryFileIterator<Integer> bbIter = MMapBackedIteratorFactory.getIntegerIterator((int)BinFile.length(), BinFile);
@@ -25,6 +25,8 @@ package picard.sam;
 
 import htsjdk.samtools.*;
 import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.IntervalList;
 import org.testng.Assert;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.DataProvider;
@@ -38,6 +40,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
 
@@ -250,6 +253,57 @@ public class FilterSamReadsTest extends CommandLineProgramTest {
         Assert.assertEquals(count, expectNumber);
     }
 
+    /**
+     * The index-driven interval query must keep exactly the reads that streaming the whole input keeps, including
+     * mates on other contigs and unmapped mates placed before the start of an interval.
+     */
+    @Test
+    public void testPairedIntervalFilterIndexedMatchesStreaming() throws Exception {
+        final SAMRecordSetBuilder pairs = new SAMRecordSetBuilder();
+        pairs.setReadLength(READ_LENGTH);
+        pairs.addPair("inside", 0, 0, 1200, 1300, false, false, "151M", "151M", false, true, false, false, 30);
+        pairs.addPair("mate_other_contig", 0, 1, 1400, 5000, false, false, "151M", "151M", false, true, false, false, 30);
+        pairs.addPair("mate_far_away", 0, 0, 950, 8000, false, false, "151M", "151M", false, true, false, false, 30);
+        pairs.addPair("placed_unmapped_mate", 0, 0, 950, 950, false, true, "151M", null, false, true, false, false, 30);
+        pairs.addPair("outside", 0, 0, 3000, 3200, false, false, "151M", "151M", false, true, false, false, 30);
+        pairs.addPair("secondary", 0, 0, 1200, 1300, false, false, "151M", "151M", false, true, true, true, 30);
+        pairs.addFrag("unpaired", 0, 1200, false);
+        pairs.addUnmappedPair("unmapped_pair");
+
+        final File indexedBam = VcfTestUtils.createTemporaryIndexedFile("testSam", ".bam");
+        final File unindexedSam = File.createTempFile("testSam", ".sam");
+        unindexedSam.deleteOnExit();
+        try (final SAMFileWriter bamWriter = new SAMFileWriterFactory().setCreateIndex(true).makeSAMOrBAMWriter(pairs.getHeader(), false, indexedBam);
+             final SAMFileWriter samWriter = new SAMFileWriterFactory().makeSAMOrBAMWriter(pairs.getHeader(), false, unindexedSam)) {
+            for (final SAMRecord record : pairs) {
+                bamWriter.addAlignment(record);
+                samWriter.addAlignment(record);
+            }
+        }
+
+        final IntervalList intervals = new IntervalList(pairs.getHeader());
+        intervals.add(new Interval("chr1", 1000, 1250));
+        intervals.add(new Interval("chr1", 1240, 1500));
+        final File intervalFile = File.createTempFile("FilterSamReads", ".interval_list");
+        intervalFile.deleteOnExit();
+        intervals.write(intervalFile);
+
+        final List<String> fromIndex = filteredReads(setupProgram(intervalFile, indexedBam, FilterSamReads.Filter.includePairedIntervals));
+        final List<String> fromStream = filteredReads(setupProgram(intervalFile, unindexedSam, FilterSamReads.Filter.includePairedIntervals));
+
+        Assert.assertEquals(fromIndex, fromStream);
+        Assert.assertEquals(fromIndex.size(), 8);
+    }
+
+    private List<String> filteredReads(final FilterSamReads filterTest) throws Exception {
+        Assert.assertEquals(filterTest.doWork(), 0);
+        try (final SamReader samReader = SamReaderFactory.makeDefault().open(filterTest.OUTPUT)) {
+            return StreamSupport.stream(samReader.spliterator(), false)
+                    .map(SAMRecord::getSAMString)
+                    .collect(Collectors.toList());
+        }
+    }
+
     @DataProvider(name = "dataTestDebugOption")
     public Object[][] dataTestDebugOption() {
         return new Object[][]{
@@ -24,6 +24,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -203,6 +204,54 @@ public class PositionBasedDownsampleSamTest extends CommandLineProgramTest {
             }
     }
 
+    // test that examining the tiles on several threads gives the same result as on one
+    @Test
+    public void testMultipleThreads() throws IOException {
+        final double fraction = .3;
+        final long[] counts = new long[2];
+        final int[] threads = {1, 4};
+        for (int i = 0; i < threads.length; i++) {
+            final File downsampled = File.createTempFile("PositionalDownsampleSam", ".bam", tempDir);
+            downsampled.deleteOnExit();
+            final String[] args = new String[]{
+                    "INPUT=" + tempSamFile.getAbsolutePath(),
+                    "OUTPUT=" + downsampled.getAbsolutePath(),
+                    "FRACTION=" + fraction,
+                    "NUM_THREADS=" + threads[i],
+                    "CREATE_INDEX=true"
+            };
+            Assert.assertEquals(runPicardCommandLine(args), 0);
+            counts[i] = SamTestUtil.countSamTotalRecord(downsampled);
+        }
+        Assert.assertEquals(counts[1], counts[0]);
+    }
+
+    // test that the first pass can be skipped by providing the extent of the tile
+    @Test
+    public void testTileExtents() throws IOException {
+        final double fraction = .3;
+        final File tileExtents = File.createTempFile("PositionalDownsampleSam", ".tile_extents.txt", tempDir);
+        tileExtents.deleteOnExit();
+        try (final PrintWriter writer = new PrintWriter(tileExtents)) {
+            writer.println("TILE\tMIN_X\tMAX_X\tMIN_Y\tMAX_Y");
+            writer.println("2203\t1000\t11000\t2000\t22000");
+        }
+
+        final File downsampled = File.createTempFile("PositionalDownsampleSam", ".bam", tempDir);
+        downsampled.deleteOnExit();
+        final String[] args = new String[]{
+                "INPUT=" + tempSamFile.getAbsolutePath(),
+                "OUTPUT=" + downsampled.getAbsolutePath(),
+                "FRACTION=" + fraction,
+                "TILE_EXTENTS=" + tileExtents.getAbsolutePath(),
+                "CREATE_INDEX=true"
+        };
+        Assert.assertEquals(runPicardCommandLine(args), 0);
+
+        TestNGUtil.assertGreaterThan(SamTestUtil.countSamTotalRecord(downsampled), fraction * .8 * SamTestUtil.countSamTotalRecord(tempSamFile));
+        TestNGUtil.assertLessThan(SamTestUtil.countSamTotalRecord(downsampled), fraction * 1.2 * SamTestUtil.countSamTotalRecord(tempSamFile));
+    }
+
     // test that program fails on p<0  or p>1
     @DataProvider(name = "InvalidArgumentsTestProvider")
     public Object[][] InvalidArgumentsTestProvider() {
@@ -217,6 +217,46 @@ public class OpticalDuplicateFinderTest {
         Assert.assertEquals(countTrue(constrainedFinder.findOpticalDuplicates(locs, null)), 0);
     }
 
+    @Test
+    public void testNoMaxSetSize() {
+        final List<PhysicalLocation> locs = Arrays.asList(
+                loc(7, 1500, 1500),
+                loc(7, 1501, 1501),
+                loc(7, 1490, 1502));
+
+        // a non-positive maximum set size disables the limit
+        final OpticalDuplicateFinder unconstrainedFinder = new OpticalDuplicateFinder(OpticalDuplicateFinder.DEFAULT_READ_NAME_REGEX, 100, -1, null);
+        Assert.assertEquals(countTrue(unconstrainedFinder.findOpticalDuplicates(locs, null)), 2);
+    }
+
+    /** Tests that the grid-based clustering finds the same clusters as comparing every pair of reads. */
+    @Test
+    public void testLargeSetMatchesPairwiseClustering() {
+        final int distance = 100;
+        final OpticalDuplicateFinder finder = new OpticalDuplicateFinder(OpticalDuplicateFinder.DEFAULT_READ_NAME_REGEX, distance, -1, null);
+        final Random random = new Random(42);
+        final List<PhysicalLocation> locs = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            locs.add(loc(1 + random.nextInt(2), random.nextInt(20000), random.nextInt(20000)));
+        }
+
+        // count the connected components by brute force
+        final int[] clusters = new int[locs.size()];
+        for (int i = 0; i < clusters.length; i++) clusters[i] = i;
+        for (int i = 0; i < locs.size(); i++) {
+            for (int j = i + 1; j < locs.size(); j++) {
+                final PhysicalLocation lhs = locs.get(i), rhs = locs.get(j);
+                if (lhs.getTile() == rhs.getTile() && Math.abs(lhs.getX() - rhs.getX()) <= distance && Math.abs(lhs.getY() - rhs.getY()) <= distance) {
+                    final int from = clusters[j], to = clusters[i];
+                    for (int k = 0; k < clusters.length; k++) if (clusters[k] == from) clusters[k] = to;
+                }
+            }
+        }
+        final long numClusters = Arrays.stream(clusters).distinct().count();
+
+        Assert.assertEquals(countTrue(finder.findOpticalDuplicates(locs, null)), locs.size() - numClusters);
+    }
+
     /** Helper method to create a physical location. */
     private PhysicalLocation loc(final int tile, final int x, final int y) {
         final PhysicalLocation l = new PhysicalLocationInt() {
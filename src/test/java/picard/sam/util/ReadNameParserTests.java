@@ -7,6 +7,8 @@ import org.testng.annotations.Test;
 
 import java.io.*;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Tests for the ReadNameParser class.
@@ -140,6 +142,69 @@ public class ReadNameParserTests {
         }
     }
 
+    @DataProvider(name = "testFieldExtractorMatchesRegex")
+    public Object[][] testFieldExtractorMatchesRegexDataProvider() {
+        return new Object[][]{
+                {"(?:.*:)?([0-9]+)[^:]*:([0-9]+)[^:]*:([0-9]+)[^:]*$"},
+                {"[a-zA-Z0-9]+:[0-9]:([0-9]+):([0-9]+):([0-9]+).*"},
+                {"[a-zA-Z0-9\\-]+:[0-9]+:[a-zA-Z0-9\\-]+:[0-9]:([0-9]+):([0-9]+):([0-9]+)"},
+                {"^[^_]+_[^_]+_(\\d+)_(\\d+)_(\\d+)$"},
+                {"[^:]*:[^:]*:([0-9]+)[a-z]*:([0-9]+):([0-9]+)[^:]*"}
+        };
+    }
+
+    /** Tests that the compiled field extractor agrees with the regex it was compiled from. */
+    @Test(dataProvider = "testFieldExtractorMatchesRegex")
+    public void testFieldExtractorMatchesRegex(final String readNameRegex) {
+        Assert.assertNotNull(ReadNameFieldExtractor.compile(readNameRegex));
+        final Pattern pattern = Pattern.compile(readNameRegex);
+        final ReadNameParser parser = new ReadNameParser(readNameRegex);
+        final List<String> readNames = CollectionUtil.makeList(
+                "RUNID:123:000000000-ZZZZZ:1:1105:17981:23325",
+                "RUNID:7:1203:2886:82292",
+                "RUNID:7:1203:2886:82292 1:N:0:ACGT",
+                "1109:22981:17995",
+                "1109ABC:22981DEF:17995GHI",
+                "RUNID:7:1203a:2886:82292",
+                "RUNID:7::2886:82292",
+                "RUNID_7_1203_2886_82292",
+                "A_B_1203_2886_82292",
+                "A_B_1203_2886_82292_",
+                "A_B_1203_2886_99999999999",
+                ":::::",
+                "");
+        for (final String readName : readNames) {
+            final PhysicalLocationInt loc = new PhysicalLocationInt();
+            final Matcher m = pattern.matcher(readName);
+            boolean regexSucceeds = m.matches();
+            if (regexSucceeds) {
+                try {
+                    Integer.parseInt(m.group(1));
+                    Integer.parseInt(m.group(2));
+                    Integer.parseInt(m.group(3));
+                } catch (final NumberFormatException e) {
+                    regexSucceeds = false;
+                }
+            }
+            Assert.assertEquals(parser.addLocationInformation(readName, loc), regexSucceeds, readName);
+            if (regexSucceeds) {
+                Assert.assertEquals(loc.getTile(), (short) Integer.parseInt(m.group(1)), readName);
+                Assert.assertEquals(loc.getX(), Integer.parseInt(m.group(2)), readName);
+                Assert.assertEquals(loc.getY(), Integer.parseInt(m.group(3)), readName);
+            }
+        }
+    }
+
+    @Test
+    public void testFieldExtractorRejectsUnsupportedRegex() {
+        Assert.assertNull(ReadNameFieldExtractor.compile(ReadNameParser.DEFAULT_READ_NAME_REGEX));
+        Assert.assertNull(ReadNameFieldExtractor.compile("(.*):([0-9]+):([0-9]+)"));
+        Assert.assertNull(ReadNameFieldExtractor.compile("([0-9]+):([0-9]+)"));
+        Assert.assertNull(ReadNameFieldExtractor.compile("([0-9]+):([0-9]+)_([0-9]+)"));
+        Assert.assertNull(ReadNameFieldExtractor.compile("\\w+_([0-9]+)_([0-9]+)_([0-9]+)"));
+        Assert.assertNull(ReadNameFieldExtractor.compile("(?i)[a-z]+:([0-9]+):([0-9]+):([0-9]+)"));
+    }
+
     @Test
     // Testing that the parser behavior stays constant after being java serialized
     public void testSerializedReadNameParser () throws IOException, ClassNotFoundException {
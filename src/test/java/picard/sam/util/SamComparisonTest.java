@@ -23,6 +23,8 @@
  */
 package picard.sam.util;
 
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.metrics.MetricsFile;
@@ -163,4 +165,59 @@ public class SamComparisonTest {
         }
     }
 
+    @DataProvider(name="parallelSamComparisonTestData")
+    public Object[][] parallelSamComparisonTestData() {
+        return new Object[][]{
+                {"genomic_sorted.sam", "genomic_sorted.sam", false},
+                {"genomic_sorted_5.sam", "genomic_sorted_5_plus.sam", false},
+                {"group_same_coord.sam", "group_same_coord_diff_order.sam", false},
+                {"group_same_coord.sam", "diff_coords.sam", false},
+                {"genomic_sorted.sam", "unmapped_first.sam", false},
+                {"genomic_sorted.sam", "unmapped_second.sam", false},
+                {"unmapped_first.sam", "unmapped_second.sam", false},
+                {"duplicate_base.sam", "duplicate_four_mismatch_lenient_one_align_differ.sam", true},
+                {"duplicate_base.sam", "duplicate_two_mismatch_lenient.sam", true},
+                {"duplicate_base.sam", "duplicate_four_mismatch_strict.sam", false}
+        };
+    }
+
+    /** Tests that comparing indexed files one contig at a time gives the same results as comparing them sequentially. */
+    @Test(dataProvider="parallelSamComparisonTestData")
+    public void testParallelSamComparison(final String f1, final String f2, final boolean lenientDup) throws IOException {
+        final File bam1 = indexedBam(new File(TEST_FILES_DIR, f1));
+        final File bam2 = indexedBam(new File(TEST_FILES_DIR, f2));
+        final SAMComparisonArgumentCollection argumentCollection = new SAMComparisonArgumentCollection();
+        argumentCollection.LENIENT_DUP = lenientDup;
+        final SamReaderFactory samReaderFactory = SamReaderFactory.makeDefault();
+
+        try (final SamReader samReader1 = samReaderFactory.open(new File(TEST_FILES_DIR, f1));
+             final SamReader samReader2 = samReaderFactory.open(new File(TEST_FILES_DIR, f2));
+             final SamReader bamReader1 = samReaderFactory.open(bam1);
+             final SamReader bamReader2 = samReaderFactory.open(bam2)) {
+            Assert.assertTrue(bamReader1.hasIndex() && bamReader2.hasIndex());
+            final SamComparison expected = new SamComparison(samReader1, samReader2, null, null, argumentCollection);
+            final SamComparison actual = new SamComparison(bamReader1, bamReader2, bam1, bam2, samReaderFactory, argumentCollection, 4);
+
+            Assert.assertEquals(actual.areEqual(), expected.areEqual());
+            Assert.assertEquals(actual.getMappingsMatch(), expected.getMappingsMatch());
+            Assert.assertEquals(actual.getMappingsDiffer(), expected.getMappingsDiffer());
+            Assert.assertEquals(actual.getUnmappedBoth(), expected.getUnmappedBoth());
+            Assert.assertEquals(actual.getUnmappedLeft(), expected.getUnmappedLeft());
+            Assert.assertEquals(actual.getUnmappedRight(), expected.getUnmappedRight());
+            Assert.assertEquals(actual.getMissingLeft(), expected.getMissingLeft());
+            Assert.assertEquals(actual.getMissingRight(), expected.getMissingRight());
+            Assert.assertEquals(actual.getDuplicateMarkingsDiffer(), expected.getDuplicateMarkingsDiffer());
+        }
+    }
+
+    private static File indexedBam(final File sam) throws IOException {
+        final File bam = File.createTempFile("samComparison.", ".bam");
+        bam.deleteOnExit();
+        new File(bam.getPath().replaceAll("\\.bam$", ".bai")).deleteOnExit();
+        try (final SamReader reader = SamReaderFactory.makeDefault().open(sam);
+             final SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(reader.getFileHeader(), true, bam)) {
+            reader.forEach(writer::addAlignment);
+        }
+        return bam;
+    }
 }
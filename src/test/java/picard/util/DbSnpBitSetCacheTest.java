@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package picard.util;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Optional;
+
+public class DbSnpBitSetCacheTest {
+    private static final File DBSNP = new File("testdata/picard/vcf/mini.dbsnp.vcf");
+
+    private static SAMSequenceDictionary dictionary() {
+        try (final VCFFileReader reader = new VCFFileReader(DBSNP, false)) {
+            return reader.getFileHeader().getSequenceDictionary();
+        }
+    }
+
+    private static File cacheFile() throws IOException {
+        final File cacheFile = File.createTempFile("DbSnpBitSetCacheTest.", ".dbsnp_cache");
+        cacheFile.deleteOnExit();
+        Files.delete(cacheFile.toPath());
+        return cacheFile;
+    }
+
+    /** Checks that cached and uncached sites agree at, and either side of, every dbSNP record. */
+    private static void assertSameSites(final DbSnpBitSetUtil cached, final DbSnpBitSetUtil uncached) {
+        int sites = 0;
+        try (final VCFFileReader reader = new VCFFileReader(DBSNP, false)) {
+            for (final VariantContext vc : reader) {
+                for (int pos = vc.getStart() - 1; pos <= vc.getEnd() + 1; ++pos) {
+                    Assert.assertEquals(cached.isDbSnpSite(vc.getContig(), pos), uncached.isDbSnpSite(vc.getContig(), pos),
+                            vc.getContig() + ":" + pos);
+                    if (uncached.isDbSnpSite(vc.getContig(), pos)) sites++;
+                }
+            }
+        }
+        Assert.assertFalse(cached.isDbSnpSite("no_such_sequence", 1));
+        Assert.assertFalse(cached.isDbSnpSite("1", Integer.MAX_VALUE));
+        Assert.assertTrue(sites > 0);
+    }
+
+    @Test
+    public void testCachedSitesMatchVcf() throws IOException {
+        final SAMSequenceDictionary dict = dictionary();
+        final File cacheFile = cacheFile();
+        // The last combination is not cached, and so is read from the VCF
+        final Collection<EnumSet<VariantType>> typeSets = Arrays.asList(
+                EnumSet.noneOf(VariantType.class), EnumSet.of(VariantType.SNP),
+                EnumSet.of(VariantType.insertion, VariantType.deletion), EnumSet.of(VariantType.SNP, VariantType.deletion));
+
+        for (final EnumSet<VariantType> types : typeSets) {
+            final DbSnpBitSetUtil cached = new DbSnpBitSetUtil(DBSNP, dict, types, null, Optional.empty(), cacheFile);
+            final DbSnpBitSetUtil uncached = new DbSnpBitSetUtil(DBSNP, dict, types, null, Optional.empty());
+            assertSameSites(cached, uncached);
+        }
+        Assert.assertTrue(cacheFile.exists());
+
+        final DbSnpBitSetUtil.DbSnpBitSets cachedSets = DbSnpBitSetUtil.createSnpAndIndelBitSets(DBSNP, dict, null, Optional.empty(), cacheFile);
+        final DbSnpBitSetUtil.DbSnpBitSets uncachedSets = DbSnpBitSetUtil.createSnpAndIndelBitSets(DBSNP, dict);
+        assertSameSites(cachedSets.snps, uncachedSets.snps);
+        assertSameSites(cachedSets.indels, uncachedSets.indels);
+    }
+
+    @Test
+    public void testCacheIsReusedUntilDbSnpChanges() throws IOException {
+        final SAMSequenceDictionary dict = dictionary();
+        final File cacheFile = cacheFile();
+        final File dbSnp = File.createTempFile("DbSnpBitSetCacheTest.", ".vcf");
+        dbSnp.deleteOnExit();
+        Files.copy(DBSNP.toPath(), dbSnp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        DbSnpBitSetCache.loadOrBuild(cacheFile, dbSnp, dict, Optional.empty());
+        final long built = cacheFile.lastModified();
+        Assert.assertTrue(cacheFile.setLastModified(built - 10000));
+        DbSnpBitSetCache.loadOrBuild(cacheFile, dbSnp, dict, Optional.empty());
+        Assert.assertEquals(cacheFile.lastModified(), built - 10000, "cache was rebuilt although the dbSNP file is unchanged");
+
+        Assert.assertTrue(dbSnp.setLastModified(dbSnp.lastModified() - 20000));
+        final DbSnpBitSetCache rebuilt = DbSnpBitSetCache.loadOrBuild(cacheFile, dbSnp, dict, Optional.empty());
+        Assert.assertNotEquals(cacheFile.lastModified(), built - 10000, "cache was not rebuilt after the dbSNP file changed");
+        assertSameSites(rebuilt.all, new DbSnpBitSetUtil(dbSnp, dict));
+    }
+}
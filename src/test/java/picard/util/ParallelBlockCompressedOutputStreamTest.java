@@ -0,0 +1,80 @@
+package picard.util;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Tests for ParallelBlockCompressedOutputStream.  Writes (deterministically!) generated data through the stream and
+ * checks that htsjdk reads back the same bytes and a valid BGZF terminator.
+ */
+public class ParallelBlockCompressedOutputStreamTest {
+
+    @DataProvider
+    public Object[][] streamConfigurations() {
+        return new Object[][]{
+                // size in bytes, compression level, max blocks in flight, random (incompressible) data
+                {0, 5, 1, false},
+                {100, 5, 1, false},
+                {1_000_000, 5, 1, false},
+                {1_000_000, 1, 4, false},
+                {1_000_000, 9, 16, false},
+                {1_000_000, 0, 4, false},
+                {1_000_000, 5, 4, true},
+        };
+    }
+
+    @Test(dataProvider = "streamConfigurations")
+    public void testRoundTrip(final int size, final int compressionLevel, final int maxBlocksInFlight, final boolean random) throws IOException {
+        final byte[] data = new byte[size];
+        final Random rng = new Random(size);
+        if (random) {
+            rng.nextBytes(data);
+        } else {
+            for (int i = 0; i < size; i++) {
+                data[i] = (byte) "ACGT".charAt(rng.nextInt(4));
+            }
+        }
+
+        final File output = File.createTempFile("ParallelBlockCompressedOutputStreamTest.", ".gz");
+        output.deleteOnExit();
+        final ExecutorService executor = ParallelBlockCompressedOutputStream.newCompressionExecutor(3);
+        try (final ParallelBlockCompressedOutputStream out = new ParallelBlockCompressedOutputStream(
+                new FileOutputStream(output), executor, compressionLevel, maxBlocksInFlight)) {
+            // mix single byte and bulk writes so that both paths cross block boundaries
+            int offset = 0;
+            while (offset < size) {
+                if (offset % 7 == 0) {
+                    out.write(data[offset++]);
+                } else {
+                    final int length = Math.min(size - offset, 1 + rng.nextInt(10_000));
+                    out.write(data, offset, length);
+                    offset += length;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(BlockCompressedInputStream.checkTermination(output), BlockCompressedInputStream.FileTermination.HAS_TERMINATOR_BLOCK);
+        final ByteArrayOutputStream readBack = new ByteArrayOutputStream();
+        try (final InputStream in = new BlockCompressedInputStream(output)) {
+            IOUtil.copyStream(in, readBack);
+        }
+        Assert.assertEquals(readBack.toByteArray(), data);
+        if (!random && compressionLevel > 0 && size >= 1_000_000) {
+            Assert.assertTrue(Files.size(output.toPath()) < size / 2);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.util;
+
+import htsjdk.samtools.util.SequenceUtil;
+import htsjdk.samtools.util.StringUtil;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+public class ReferenceContextCodesTest {
+
+    @DataProvider(name = "contextLengths")
+    public Object[][] contextLengths() {
+        return new Object[][]{{1}, {3}, {5}};
+    }
+
+    @Test(dataProvider = "contextLengths")
+    public void testRoundTripOrderAndReverseComplement(final int length) {
+        final SortedMap<String, Integer> codes = new TreeMap<>();
+        for (final byte[] kmer : SequenceUtil.generateAllKmers(length)) {
+            final String context = StringUtil.bytesToString(kmer);
+            final int code = ReferenceContextCodes.encode(context);
+            Assert.assertEquals(ReferenceContextCodes.decode(code, length), context);
+            Assert.assertEquals(ReferenceContextCodes.encode(kmer, 0, length), code);
+            Assert.assertEquals(ReferenceContextCodes.encode(context.toLowerCase()), code);
+            Assert.assertEquals(ReferenceContextCodes.decode(ReferenceContextCodes.reverseComplement(code, length), length),
+                    SequenceUtil.reverseComplement(context));
+            codes.put(context, code);
+        }
+
+        // the codes are dense and sort like the context strings do
+        Assert.assertEquals(codes.size(), ReferenceContextCodes.numberOfContexts(length));
+        int expectedCode = 0;
+        for (final int code : codes.values()) {
+            Assert.assertEquals(code, expectedCode++);
+        }
+    }
+
+    @Test
+    public void testInvalidBases() {
+        Assert.assertEquals(ReferenceContextCodes.encode("ANA"), ReferenceContextCodes.INVALID);
+        Assert.assertEquals(ReferenceContextCodes.encode("ARA"), ReferenceContextCodes.INVALID);
+        Assert.assertEquals(ReferenceContextCodes.encode(StringUtil.stringToBytes("xxACGxx"), 2, 3), ReferenceContextCodes.encode("ACG"));
+        Assert.assertEquals(ReferenceContextCodes.encode(StringUtil.stringToBytes("xxACGxx"), 1, 3), ReferenceContextCodes.INVALID);
+        Assert.assertEquals(ReferenceContextCodes.baseCode((byte) -1), ReferenceContextCodes.INVALID);
+    }
+}
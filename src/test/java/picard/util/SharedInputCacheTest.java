@@ -0,0 +1,67 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.util;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class SharedInputCacheTest {
+
+    @AfterMethod
+    public void disableCache() {
+        SharedInputCache.disable();
+    }
+
+    @Test
+    public void testCachesByFileIdentity() throws IOException {
+        final File file = File.createTempFile("SharedInputCacheTest", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "one".getBytes());
+
+        // disabled: always loads
+        Assert.assertNotSame(SharedInputCache.getOrLoad(String.class, file, null, () -> new String("a")),
+                SharedInputCache.getOrLoad(String.class, file, null, () -> new String("a")));
+
+        SharedInputCache.enable(2);
+        final String first = SharedInputCache.getOrLoad(String.class, file, null, () -> "first");
+        Assert.assertEquals(SharedInputCache.getOrLoad(String.class, file, null, () -> "second"), first);
+        Assert.assertEquals(SharedInputCache.getOrLoad(String.class, file, "other", () -> "variant"), "variant");
+
+        // a changed file is loaded again
+        Files.write(file.toPath(), "changed".getBytes());
+        Assert.assertEquals(SharedInputCache.getOrLoad(String.class, file, null, () -> "reloaded"), "reloaded");
+
+        // only the two most recently used entries are kept
+        SharedInputCache.getOrLoad(String.class, file, "x", () -> "x");
+        SharedInputCache.getOrLoad(String.class, file, "y", () -> "y");
+        Assert.assertEquals(SharedInputCache.getOrLoad(String.class, file, "y", () -> "y again"), "y");
+        Assert.assertEquals(SharedInputCache.getOrLoad(String.class, file, null, () -> "evicted"), "evicted");
+    }
+}
@@ -25,12 +25,16 @@ package picard.vcf;
  */
 
 import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.util.FileExtensions;
 import org.testng.Assert;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
+import picard.PicardException;
 
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.List;
 
 /**
@@ -222,4 +226,73 @@ public class CollectVariantCallingMetricsTest {
         }
         Assert.assertTrue(seenSampleWithOnlyHomRefs);
     }
+
+    @DataProvider(name = "vcfsForLineReading")
+    public Object[][] vcfsForLineReading() {
+        return new Object[][]{
+                {"mini.vcf", false},
+                {"mini_gvcf.vcf", true},
+                {"vcmetrics_unusual_records.vcf", false},
+                {"allHomRef.vcf", false}
+        };
+    }
+
+    /** Single-threaded runs read the VCF lines directly; they should give exactly the metrics of the VariantContext path. */
+    @Test(dataProvider = "vcfsForLineReading")
+    public void testLineReadingMatchesVariantContexts(final String vcfName, final boolean isGvcf) throws IOException {
+        final File vcfFile = new File(TEST_DATA_DIR, vcfName);
+        final File indexedVcfFile = VcfTestUtils.createTemporaryIndexedVcfFromInput(vcfFile, "lineReading.tmp.");
+
+        final File lineReadingOutput = runMetrics(vcfFile, isGvcf, 1);
+        final File variantContextOutput = runMetrics(indexedVcfFile, isGvcf, 2);
+
+        for (final String extension : new String[]{CollectVariantCallingMetrics.VariantCallingSummaryMetrics.getFileExtension(),
+                CollectVariantCallingMetrics.VariantCallingDetailMetrics.getFileExtension()}) {
+            final MetricsFile<?, ?> expected = new MetricsFile<>();
+            try (final FileReader reader = new FileReader(variantContextOutput + "." + extension)) {
+                expected.read(reader);
+            }
+            final MetricsFile<?, ?> actual = new MetricsFile<>();
+            try (final FileReader reader = new FileReader(lineReadingOutput + "." + extension)) {
+                actual.read(reader);
+            }
+            Assert.assertFalse(expected.getMetrics().isEmpty());
+            Assert.assertEquals(actual.getMetrics(), expected.getMetrics(), extension);
+        }
+    }
+
+    @Test(expectedExceptions = PicardException.class)
+    public void testNoSequenceDictionaryInHeader() throws IOException {
+        final File vcfFile = File.createTempFile("vcmetrics_noDictionary.", FileExtensions.VCF);
+        vcfFile.deleteOnExit();
+        final List<String> lines = Files.readAllLines(new File(TEST_DATA_DIR, "mini.vcf").toPath());
+        lines.removeIf(line -> line.startsWith("##contig"));
+        Files.write(vcfFile.toPath(), lines);
+
+        final File outFile = File.createTempFile("vcmetrics_noDictionary.", "");
+        outFile.deleteOnExit();
+
+        final CollectVariantCallingMetrics program = new CollectVariantCallingMetrics();
+        program.INPUT = vcfFile;
+        program.DBSNP = new File(TEST_DATA_DIR, "mini.dbsnp.vcf");
+        program.SEQUENCE_DICTIONARY = new File(TEST_DATA_DIR, "mini.vcf");
+        program.OUTPUT = outFile;
+        program.doWork();
+    }
+
+    private static File runMetrics(final File vcf, final boolean isGvcf, final int threads) throws IOException {
+        final File outFile = File.createTempFile("vcmetrics_lineReading.", "");
+        outFile.deleteOnExit();
+        new File(outFile + "." + CollectVariantCallingMetrics.VariantCallingSummaryMetrics.getFileExtension()).deleteOnExit();
+        new File(outFile + "." + CollectVariantCallingMetrics.VariantCallingDetailMetrics.getFileExtension()).deleteOnExit();
+
+        final CollectVariantCallingMetrics program = new CollectVariantCallingMetrics();
+        program.INPUT = vcf;
+        program.DBSNP = new File(TEST_DATA_DIR, "mini.dbsnp.vcf");
+        program.OUTPUT = outFile;
+        program.GVCF_INPUT = isGvcf;
+        program.THREAD_COUNT = threads;
+        Assert.assertEquals(program.doWork(), 0);
+        return outFile;
+    }
 }
@@ -6,7 +6,12 @@ import htsjdk.samtools.util.TestUtil;
 import htsjdk.tribble.index.IndexFactory;
 import htsjdk.tribble.readers.AsciiLineReader;
 import htsjdk.tribble.readers.LineIteratorImpl;
+import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFEncoder;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLine;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 import picard.pedigree.Sex;
@@ -14,7 +19,16 @@ import picard.pedigree.Sex;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import static picard.vcf.MendelianViolations.MendelianViolationDetector.MendelianViolation.*;
 
@@ -131,6 +145,92 @@ public class FindMendelianViolationsTest {
         IOUtil.recursiveDelete(directoryForViolations.toPath());
     }
 
+    @Test
+    public void testFamilyWithSeveralOffspring() throws IOException {
+        final File vcfFile = new File(TEST_DATA_DIR, "CEUTrio_plus_FAKE.vcf");
+
+        // Both offspring of NA12891 and NA12892 in a single family
+        final File pedFile = File.createTempFile("MendelianViolations", ".ped");
+        pedFile.deleteOnExit();
+        Files.write(pedFile.toPath(), Arrays.asList(
+                "CEU\tNA12878\tNA12891\tNA12892\t2\t-9",
+                "CEU\tFAKE\tNA12891\tNA12892\t1\t-9"));
+
+        final File directoryForViolations = TestUtil.getTempDirectory("MendelianViolations", "temp");
+        final File violationsCEU = new File(directoryForViolations, "CEU.vcf");
+        final File resultantMetrics = File.createTempFile("MendelianViolations", "file");
+        resultantMetrics.deleteOnExit();
+
+        final FindMendelianViolations program = new FindMendelianViolations();
+        program.INPUT = vcfFile;
+        program.TRIOS = pedFile;
+        program.OUTPUT = resultantMetrics;
+        program.VCF_DIR = directoryForViolations;
+        program.MIN_DP = 10;
+
+        Assert.assertEquals(program.doWork(), 0);
+
+        final MetricsFile<MendelianViolationMetrics, Comparable<?>> summary = new MetricsFile<>();
+        try (final FileReader in = new FileReader(resultantMetrics)) {
+            summary.read(in);
+        }
+        Assert.assertEquals(summary.getMetrics().size(), 2);
+
+        // Each violation has the genotypes of its own trio, and no-calls for the other offspring
+        try (final VCFFileReader reader = new VCFFileReader(violationsCEU, false)) {
+            Assert.assertEquals(reader.getFileHeader().getGenotypeSamples(), Arrays.asList("NA12892", "NA12891", "FAKE", "NA12878"));
+            for (final MendelianViolationMetrics metrics : summary.getMetrics()) {
+                final String otherOffspring = metrics.OFFSPRING.equals("FAKE") ? "NA12878" : "FAKE";
+                Assert.assertTrue(metrics.TOTAL_MENDELIAN_VIOLATIONS > 0);
+                Assert.assertEquals(reader.iterator().stream()
+                        .filter(vc -> vc.getGenotype(metrics.OFFSPRING).isCalled())
+                        .peek(vc -> Assert.assertTrue(vc.getGenotype(otherOffspring).isNoCall()))
+                        .count(), metrics.TOTAL_MENDELIAN_VIOLATIONS);
+            }
+        } finally {
+            IOUtil.recursiveDelete(directoryForViolations.toPath());
+        }
+    }
+
+    @Test
+    public void testViolationsSpilledToDisk() {
+        final File vcfFile = new File(TEST_DATA_DIR, "CEUTrio_plus_FAKE.vcf");
+        final MendelianViolationMetrics trio = new MendelianViolationMetrics();
+        trio.FAMILY_ID = "NA12878";
+        trio.MOTHER = "NA12892";
+        trio.FATHER = "NA12891";
+        trio.OFFSPRING = "NA12878";
+
+        try (final VCFFileReader reader = new VCFFileReader(vcfFile, false)) {
+            final VCFHeader header = reader.getFileHeader();
+            final Set<VCFHeaderLine> headerLines = new LinkedHashSet<>(header.getMetaDataInInputOrder());
+            final VCFHeader trioHeader = new VCFHeader(headerLines, Arrays.asList(trio.MOTHER, trio.FATHER, trio.OFFSPRING));
+            final VCFEncoder encoder = new VCFEncoder(trioHeader, true, false);
+
+            // Spill after every violation in one half, and never in the other
+            final File[] tmpDirs = {IOUtil.getDefaultTmpDir()};
+            final MendelianViolationsByFamily spilled = new MendelianViolationsByFamily(headerLines, Collections.singletonList(trio), tmpDirs, 1);
+            final MendelianViolationsByFamily buffered = new MendelianViolationsByFamily(headerLines, Collections.singletonList(trio), tmpDirs, Long.MAX_VALUE);
+            final List<String> expected = new ArrayList<>();
+            int i = 0;
+            for (final VariantContext vc : reader) {
+                final VariantContext violation = vc.subContextFromSamples(new HashSet<>(trioHeader.getGenotypeSamples()), false);
+                (i++ % 2 == 0 ? spilled : buffered).add(trio.FAMILY_ID, violation);
+                expected.add(encoder.encode(violation));
+            }
+            Assert.assertTrue(expected.size() > 2);
+
+            buffered.addAll(spilled);
+            final List<String> actual = buffered.get(trio.FAMILY_ID).stream().map(encoder::encode).collect(Collectors.toList());
+            buffered.deleteSpillFiles();
+
+            Collections.sort(expected);
+            Collections.sort(actual);
+            Assert.assertEquals(actual, expected);
+            Assert.assertTrue(buffered.get("NO_SUCH_FAMILY").isEmpty());
+        }
+    }
+
     /** returns the number of lines in the file that contain a regular expression (decorated with "MV=" and
      * expected to be in an INFO field in a vcf)
      *